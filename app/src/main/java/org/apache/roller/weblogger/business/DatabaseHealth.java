@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business;
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.NoResultException;
+import javax.persistence.NonUniqueResultException;
+import javax.persistence.PersistenceException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.RollerException;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+
+
+/**
+ * Keeps track of whether the database is healthy enough to render pages.
+ *
+ * The database is considered degraded when a request fails because of it,
+ * or when lookups made while serving requests are repeatedly slow.  While
+ * degraded the health probe of the persistence strategy is run every
+ * probeInterval seconds on a single background thread, and the first quick
+ * successful probe ends it.  Nothing is probed while the database is healthy.
+ *
+ * The rendering servlets serve what they have cached, however old, while the
+ * database is degraded instead of touching it.
+ */
+public final class DatabaseHealth {
+
+    private static final Log log = LogFactory.getLog(DatabaseHealth.class);
+
+    public static final String STATS_ID = "database.health";
+
+    private final boolean enabled;
+    private final long probeInterval;
+    private final long slowThreshold;
+    private final int slowCount;
+
+    // runs a trivial query, set by the persistence strategy
+    private volatile Callable<?> probe = null;
+
+    private volatile boolean degraded = false;
+    private volatile long degradedSince = 0;
+    private final AtomicInteger consecutiveSlow = new AtomicInteger();
+
+    // runs the probe while degraded
+    private final ScheduledExecutorService prober;
+    private ScheduledFuture<?> probing = null;
+
+    private volatile long lastProbe = 0;
+    private volatile long lastProbeMillis = -1;
+    private volatile String lastProbeError = null;
+
+    // metrics
+    private final AtomicLong timesDegraded = new AtomicLong();
+    private final AtomicLong servedFromCache = new AtomicLong();
+    private final AtomicLong servedUnavailable = new AtomicLong();
+
+    // reference to our singleton instance
+    private static final DatabaseHealth instance = new DatabaseHealth();
+
+
+    // non-instantiable because we are a singleton
+    private DatabaseHealth() {
+        enabled = WebloggerConfig.getBooleanProperty(STATS_ID+".enabled", true);
+        probeInterval = (long) WebloggerConfig.getIntProperty(STATS_ID+".probeInterval", 10)
+                * RollerConstants.SEC_IN_MS;
+        slowThreshold = WebloggerConfig.getIntProperty(STATS_ID+".slowThreshold", 2000);
+        slowCount = Math.max(1, WebloggerConfig.getIntProperty(STATS_ID+".slowCount", 3));
+
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DatabaseHealthProbe");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.info("Database health checks enabled = "+enabled+", probe interval = "
+                +probeInterval+" ms, slow threshold = "+slowThreshold+" ms");
+    }
+
+
+    public static DatabaseHealth getInstance() {
+        return instance;
+    }
+
+
+    /**
+     * Set the health probe, which must run a trivial query and throw if
+     * that fails.
+     */
+    public synchronized void setProbe(Callable<?> probe) {
+        this.probe = probe;
+        if(degraded) {
+            startProbing();
+        }
+    }
+
+
+    /**
+     * True if requests should stay away from the database for now.
+     */
+    public boolean isDegraded() {
+        return enabled && probe != null && degraded;
+    }
+
+
+    /**
+     * Report an exception from serving a request.  Returns true, after going
+     * degraded, if it was caused by the database.
+     */
+    public boolean reportFailure(Throwable t) {
+
+        if(!enabled || !isDatabaseFailure(t)) {
+            return false;
+        }
+
+        setDegraded(String.valueOf(t));
+        return true;
+    }
+
+
+    /**
+     * Report how long a database lookup made while serving a request took.
+     */
+    public void reportLatency(long millis) {
+
+        if(!enabled) {
+            return;
+        }
+
+        if(millis <= slowThreshold) {
+            consecutiveSlow.set(0);
+        } else if(consecutiveSlow.incrementAndGet() >= slowCount) {
+            consecutiveSlow.set(0);
+            setDegraded(slowCount+" lookups slower than "+slowThreshold+" ms");
+        }
+    }
+
+
+    /**
+     * Count a request served while degraded, with cached content or with a
+     * service unavailable error when there was none.
+     */
+    public void recordDegradedResponse(boolean fromCache) {
+        if(fromCache) {
+            servedFromCache.incrementAndGet();
+        } else {
+            servedUnavailable.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * How long clients should wait before trying again, in seconds.
+     */
+    public int getRetryAfter() {
+        return (int) Math.max(1, probeInterval / RollerConstants.SEC_IN_MS);
+    }
+
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("degraded", degraded);
+        stats.put("degradedSince", degraded ? new Date(degradedSince) : null);
+        stats.put("timesDegraded", timesDegraded.get());
+        stats.put("servedFromCache", servedFromCache.get());
+        stats.put("servedUnavailable", servedUnavailable.get());
+        stats.put("lastProbe", lastProbe > 0 ? new Date(lastProbe) : null);
+        stats.put("lastProbeMillis", lastProbeMillis);
+        stats.put("lastProbeError", lastProbeError);
+        return stats;
+    }
+
+
+    /**
+     * True if the given exception, or any of its causes, is a failure to
+     * talk to the database rather than a lookup which found nothing.
+     */
+    public static boolean isDatabaseFailure(Throwable t) {
+        Throwable cause = t;
+        // bounded, in case of a cause cycle
+        for (int depth = 0; cause != null && depth < 20; depth++) {
+            if(cause instanceof NoResultException || cause instanceof NonUniqueResultException) {
+                return false;
+            }
+            if(cause instanceof PersistenceException || cause instanceof SQLException) {
+                return true;
+            }
+            // our own exceptions keep the wrapped exception to themselves
+            if(cause instanceof RollerException && ((RollerException) cause).getRootCause() != null) {
+                cause = ((RollerException) cause).getRootCause();
+            } else {
+                cause = cause.getCause();
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Stop probing, called when Roller shuts down.
+     */
+    public void shutdown() {
+        prober.shutdownNow();
+    }
+
+
+    private synchronized void setDegraded(String reason) {
+        if(!degraded) {
+            degradedSince = System.currentTimeMillis();
+            degraded = true;
+            timesDegraded.incrementAndGet();
+            log.warn("Database degraded, serving cached content only: "+reason);
+            startProbing();
+        }
+    }
+
+
+    // guarded by this
+    private void startProbing() {
+        if(probe != null && probing == null && !prober.isShutdown()) {
+            probing = prober.scheduleWithFixedDelay(this::runProbe,
+                    probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private synchronized void setHealthy() {
+        if(degraded) {
+            degraded = false;
+            consecutiveSlow.set(0);
+            log.warn("Database healthy again after "
+                    +(System.currentTimeMillis() - degradedSince)+" ms");
+
+            if(probing != null) {
+                probing.cancel(false);
+                probing = null;
+            }
+        }
+    }
+
+
+    // runs on the prober thread
+    private void runProbe() {
+
+        Callable<?> currentProbe = probe;
+        if(currentProbe == null) {
+            return;
+        }
+
+        long started = System.currentTimeMillis();
+        try {
+            currentProbe.call();
+            lastProbeMillis = System.currentTimeMillis() - started;
+            lastProbeError = null;
+            if(lastProbeMillis <= slowThreshold) {
+                setHealthy();
+            }
+        } catch (Exception e) {
+            lastProbeMillis = System.currentTimeMillis() - started;
+            lastProbeError = String.valueOf(e);
+            log.debug("Database health probe failed", e);
+        } finally {
+            lastProbe = System.currentTimeMillis();
+        }
+    }
+
+}
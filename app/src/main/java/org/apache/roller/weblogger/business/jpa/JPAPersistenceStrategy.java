@@ -35,6 +35,7 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.persistence.TypedQuery;
 
+import org.apache.roller.weblogger.business.DatabaseHealth;
 import org.apache.roller.weblogger.business.DatabaseProvider;
 
 
@@ -108,7 +109,28 @@ public class JPAPersistenceStrategy {
                 throw new WebloggerException(pe);
             }
         }
+
+        DatabaseHealth.getInstance().setProbe(() -> {
+            probe();
+            return null;
+        });
     }
+
+    /**
+     * Run a trivial query with an EntityManager of its own, to see if the
+     * database is answering.
+     * @throws PersistenceException if it isn't
+     */
+    public void probe() {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.createQuery("SELECT r.name FROM RuntimeConfigProperty r")
+                    .setMaxResults(1).getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
     /**
      * Refresh changes to the current object.
      * 
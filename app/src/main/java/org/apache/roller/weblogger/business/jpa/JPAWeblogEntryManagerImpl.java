@@ -238,6 +238,9 @@ public class JPAWeblogEntryManagerImpl implements WeblogEntryManager {
         // Store value object (creates new or updates existing)
         entry.setUpdateTime(new Timestamp(new Date().getTime()));
         
+        // run plugins now rather than every time the entry is rendered
+        entry.updateRenderedContent();
+        
         this.strategy.store(entry);
         
         // update weblog last modified date.  date updated by saveWebsite()
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import org.apache.roller.weblogger.business.plugins.comment.WeblogEntryCommentPlugin;
 import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPlugin;
+import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPluginChain;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment;
@@ -40,13 +41,25 @@ public interface PluginManager {
     
     /**
      * Returns a list of all registered weblog entry plugins initialized for
-     * use with the specified weblog.
+     * use with the specified weblog.  The plugins are shared by everyone
+     * using the weblog until it is invalidated, the map can't be modified.
      *
      * @param website        Website being processed
      */
     Map<String, WeblogEntryPlugin> getWeblogEntryPlugins(Weblog website);
     
     
+    /**
+     * Returns the chain of weblog entry plugins to apply to entries of the
+     * specified weblog which enable the specified plugins.  Chains are
+     * cached until the weblog is invalidated.
+     *
+     * @param weblog         Weblog being processed
+     * @param pluginNames    Comma separated plugin names, as stored with an entry
+     */
+    WeblogEntryPluginChain getWeblogEntryPluginChain(Weblog weblog, String pluginNames);
+    
+    
     /**
      * Apply a set of weblog entry plugins to the specified string and
      * return the results.  This method must *NOT* alter the contents of
@@ -19,10 +19,14 @@
 package org.apache.roller.weblogger.business.plugins;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPlugin;
+import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPluginChain;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,9 +36,16 @@ import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.plugins.comment.WeblogEntryCommentPlugin;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
 import org.apache.roller.weblogger.util.HTMLSanitizer;
 import org.apache.roller.weblogger.util.Reflection;
+import org.apache.roller.weblogger.util.cache.CacheHandler;
+import org.apache.roller.weblogger.util.cache.CacheManager;
 
 
 /**
@@ -47,10 +58,19 @@ public class PluginManagerImpl implements PluginManager {
     // Plugin classes keyed by plugin name
     private static final Map<String, Class<? extends WeblogEntryPlugin>> mPagePlugins = new LinkedHashMap<>();
     
+    // Initialized plugins and chains built from them, keyed by weblog id
+    private static final Map<String, WeblogPlugins> weblogPlugins = new ConcurrentHashMap<>();
+    
     // Comment plugins
     private final List<WeblogEntryCommentPlugin> commentPlugins = new ArrayList<>();
     
     
+    static {
+        CacheManager.registerHandler(new InvalidationHandler());
+        CacheManager.registerClearListener(weblogPlugins::clear);
+    }
+    
+    
     /**
      * Creates a new instance of PluginManagerImpl
      */
@@ -71,10 +91,51 @@ public class PluginManagerImpl implements PluginManager {
     
     
     /**
-     * Create and init plugins for processing entries in a specified website.
+     * Get plugins for processing entries in a specified website, creating
+     * and initializing them the first time.
      */
     @Override
     public Map<String, WeblogEntryPlugin> getWeblogEntryPlugins(Weblog website) {
+        return getWeblogPlugins(website).plugins;
+    }
+    
+    
+    @Override
+    public WeblogEntryPluginChain getWeblogEntryPluginChain(Weblog weblog, String pluginNames) {
+        
+        String key = (pluginNames != null) ? pluginNames : "";
+        WeblogPlugins cached = getWeblogPlugins(weblog);
+        return cached.chains.computeIfAbsent(key, k -> {
+            List<String> names = Arrays.asList(StringUtils.split(k, ","));
+            List<WeblogEntryPlugin> chain = new ArrayList<>();
+            for (WeblogEntryPlugin plugin : cached.plugins.values()) {
+                if (names.contains(plugin.getName())) {
+                    chain.add(plugin);
+                }
+            }
+            return new WeblogEntryPluginChain(chain);
+        });
+    }
+    
+    
+    private WeblogPlugins getWeblogPlugins(Weblog website) {
+        WeblogPlugins cached = weblogPlugins.get(website.getId());
+        if (cached == null) {
+            // racing threads may both init, only one set of plugins is kept
+            cached = new WeblogPlugins(createWeblogEntryPlugins(website));
+            WeblogPlugins existing = weblogPlugins.putIfAbsent(website.getId(), cached);
+            if (existing != null) {
+                cached = existing;
+            }
+        }
+        return cached;
+    }
+    
+    
+    /**
+     * Create and init plugins for processing entries in a specified website.
+     */
+    private Map<String, WeblogEntryPlugin> createWeblogEntryPlugins(Weblog website) {
         
         Map<String, WeblogEntryPlugin> ret = new LinkedHashMap<>();
         
@@ -202,4 +263,62 @@ public class PluginManagerImpl implements PluginManager {
         // no op
     }
     
+    
+    private static final class WeblogPlugins {
+        
+        private final Map<String, WeblogEntryPlugin> plugins;
+        
+        // by the plugin names stored with entries
+        private final Map<String, WeblogEntryPluginChain> chains = new ConcurrentHashMap<>();
+        
+        WeblogPlugins(Map<String, WeblogEntryPlugin> plugins) {
+            this.plugins = Collections.unmodifiableMap(plugins);
+        }
+    }
+    
+    
+    private static class InvalidationHandler implements CacheHandler {
+        
+        @Override
+        public void invalidate(Weblog website) {
+            // plugins may have been initialized from weblog settings
+            weblogPlugins.remove(website.getId());
+        }
+        
+        @Override
+        public void invalidate(WeblogEntry entry) {
+            // ignored
+        }
+        
+        @Override
+        public void invalidate(WeblogBookmark bookmark) {
+            // ignored
+        }
+        
+        @Override
+        public void invalidate(WeblogBookmarkFolder folder) {
+            // ignored
+        }
+        
+        @Override
+        public void invalidate(WeblogEntryComment comment) {
+            // ignored
+        }
+        
+        @Override
+        public void invalidate(User user) {
+            // ignored
+        }
+        
+        @Override
+        public void invalidate(WeblogCategory category) {
+            // ignored
+        }
+        
+        @Override
+        public void invalidate(WeblogTemplate template) {
+            // ignored
+        }
+    }
+    
 }
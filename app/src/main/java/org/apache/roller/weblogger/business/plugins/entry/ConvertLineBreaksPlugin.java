@@ -18,8 +18,6 @@
 
 package org.apache.roller.weblogger.business.plugins.entry;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.WebloggerException;
@@ -67,6 +65,15 @@ public class ConvertLineBreaksPlugin implements WeblogEntryPlugin {
     }
     
     
+    /**
+     * Version 2 walks the lines itself instead of using a BufferedReader.
+     */
+    @Override
+    public String getVersion() {
+        return "2";
+    }
+    
+    
     @Override
     public void init(Weblog website) throws WebloggerException {
         // we don't need to do any init.
@@ -87,47 +94,63 @@ public class ConvertLineBreaksPlugin implements WeblogEntryPlugin {
         
         mLogger.debug("Rendering string of length "+str.length());
         
-        /* setup a buffered reader and iterate through each line
-         * inserting html as needed
+        /* walk through the text a line at a time, copying each line straight
+         * from the text and inserting html as needed
          *
          * NOTE: we consider a paragraph to be 2 endlines with no text between them
          */
-        StringBuilder buf = new StringBuilder();
-        try {
-            BufferedReader br = new BufferedReader(new StringReader(str));
+        StringBuilder buf = new StringBuilder(str.length() + str.length() / 8 + 16);
+        boolean insidePara = false;
+        int start = 0;
+        int length = str.length();
+        while(start < length) {
             
-            String line;
-            boolean insidePara = false;
-            while((line = br.readLine()) != null) {
-                
-                if(!insidePara && !line.isBlank()) {
-                    // start of a new paragraph
-                    buf.append("\n<p>");
-                    buf.append(line);
-                    insidePara = true;
-                } else if(insidePara && !line.isBlank()) {
-                    // another line in an existing paragraph
-                    buf.append("<br/>\n");
-                    buf.append(line);
-                } else if(insidePara && line.isBlank()) {
-                    // end of a paragraph
-                    buf.append("</p>\n\n");
-                    insidePara = false;
-                }
+            // lines end like BufferedReader.readLine() ends them
+            int end = start;
+            while(end < length && str.charAt(end) != '\n' && str.charAt(end) != '\r') {
+                end++;
+            }
+            int next = end + 1;
+            if(end < length && str.charAt(end) == '\r' && next < length && str.charAt(next) == '\n') {
+                next++;
             }
             
-            // if the text ends without an empty line then we need to
-            // terminate the last paragraph now
-            if(insidePara) {
+            boolean blank = isBlank(str, start, end);
+            if(!insidePara && !blank) {
+                // start of a new paragraph
+                buf.append("\n<p>");
+                buf.append(str, start, end);
+                insidePara = true;
+            } else if(insidePara && !blank) {
+                // another line in an existing paragraph
+                buf.append("<br/>\n");
+                buf.append(str, start, end);
+            } else if(insidePara && blank) {
+                // end of a paragraph
                 buf.append("</p>\n\n");
+                insidePara = false;
             }
             
-        } catch(Exception e) {
-            mLogger.warn("trouble rendering text.", e);
-            return str;
+            start = next;
+        }
+        
+        // if the text ends without an empty line then we need to
+        // terminate the last paragraph now
+        if(insidePara) {
+            buf.append("</p>\n\n");
         }
         
         return buf.toString();
     }
     
+    
+    private static boolean isBlank(String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if(!Character.isWhitespace(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
 }
@@ -50,39 +50,57 @@ public class EncodePreTagsPlugin implements WeblogEntryPlugin {
         return "Encodes angle brackets inside pre tags, code tags are kept unaltered.";
     }
 
+    /**
+     * Version 2 no longer passes entry text through appendReplacement().
+     */
+    @Override
+    public String getVersion() {
+        return "2";
+    }
+
     @Override
     public void init(Weblog weblog) throws WebloggerException {}
 
     @Override
     public String render(WeblogEntry entry, String str) {
         
-        StringBuilder result = new StringBuilder(str.length()+32);
-        
         Matcher pre_matcher = PRE_PATTERN.matcher(str);
+        if (!pre_matcher.find()) {
+            return str;
+        }
         
-        while(pre_matcher.find()) {
-            
-            String pre_full = pre_matcher.group(0);
-            String pre_inner = pre_matcher.group(1);
-            
-            Matcher code_matcher = CODE_PATTERN.matcher(pre_inner);
+        // copy the text around and inside pre tags in one go, encoding
+        // only the pre content or the code inside it
+        StringBuilder result = new StringBuilder(str.length()+32);
+        int copied = 0;
+        do {
+            int inner_start = pre_matcher.start(1);
+            int inner_end = pre_matcher.end(1);
             
+            Matcher code_matcher = CODE_PATTERN.matcher(str).region(inner_start, inner_end);
             if (code_matcher.find()) {
-                String code_inner = code_matcher.group(1);
-                pre_matcher.appendReplacement(result, pre_full.replace(code_inner, encode(code_inner)));
-            } else {
-                pre_matcher.appendReplacement(result, pre_full.replace(pre_inner, encode(pre_inner)));
+                inner_start = code_matcher.start(1);
+                inner_end = code_matcher.end(1);
             }
             
-        }
-        pre_matcher.appendTail(result);
+            result.append(str, copied, inner_start);
+            encode(result, str, inner_start, inner_end);
+            copied = inner_end;
+        } while (pre_matcher.find());
         
-        return result.toString();
+        return result.append(str, copied, str.length()).toString();
     }
 
     // we only have to encode the opening angle bracket for valid html/xhtml
-    private static String encode(String code_inner) {
-        return Matcher.quoteReplacement(code_inner.replace("<", LT)); // matchers hate $ and \
+    private static void encode(StringBuilder result, String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c == '<') {
+                result.append(LT);
+            } else {
+                result.append(c);
+            }
+        }
     }
 
 }
@@ -18,10 +18,9 @@
 
 package org.apache.roller.weblogger.business.plugins.entry;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,14 +31,16 @@ import org.apache.roller.weblogger.pojos.Weblog;
 
 /**
  * Converts ascii emoticons into HTML image tags.
+ *
+ * The text is scanned once, at each position the longest emoticon starting
+ * there is looked up in a trie of all emoticons and replaced.
  */
 public class SmileysPlugin implements WeblogEntryPlugin {
     
     private static final Log log = LogFactory.getLog(SmileysPlugin.class);
 
-    // public for tests
-    public static Pattern[] smileyPatterns = new Pattern[0];
-    static String[] imageTags = new String[0];
+    // all emoticons and their image tags, built by the first init()
+    private static volatile Trie smileys = null;
     private static final Properties smileyDefs = new Properties();
     
     private final String name = "Emoticons";
@@ -73,37 +74,42 @@ public class SmileysPlugin implements WeblogEntryPlugin {
     }
     
     
+    /**
+     * Version 2 matches the longest emoticon at each position.
+     */
+    @Override
+    public String getVersion() {
+        return "2";
+    }
+    
+    
     /*
-     * Convert the SmileyDefs into RegEx patterns and img tags for
-     * later use.  Need an HttpServletRequest though so that we can
-     * get the ServletContext Path.  But only do it once.
+     * Convert the SmileyDefs into a trie of img tags for later use.  Need
+     * the absolute context URL though, so that we can point to the images.
+     * But only do it once.
      */
     @Override
     public synchronized void init(Weblog website) throws WebloggerException {
         // don't do this work if Smileys already loaded
-        if (SmileysPlugin.smileyPatterns.length < 1) {
+        if (smileys == null) {
             String baseURL = WebloggerRuntimeConfig.getAbsoluteContextURL();
             
-            Pattern[] tempP = new Pattern[SmileysPlugin.smileyDefs.size()];
-            String[] tempS = new String[SmileysPlugin.smileyDefs.size()];
+            Trie trie = new Trie();
             log.debug("# smileys: " + smileyDefs.size());
-            int count = 0;
             Enumeration<?> enum1 = SmileysPlugin.smileyDefs.propertyNames();
             while(enum1.hasMoreElements()) {
                 String smiley = (String)enum1.nextElement();
                 String smileyAlt = htmlEscape(smiley);
-                tempP[count] = Pattern.compile(regexEscape(smiley));
-                tempS[count] = "<img src=\"" +
+                String imageTag = "<img src=\"" +
                         baseURL + "/images/smileys/" +
                         smileyDefs.getProperty(smiley, "smile.gif") +
                         "\" class=\"smiley\"" +
                         " alt=\"" + smileyAlt + "\"" +
                         " title=\"" + smileyAlt +"\" />";
-                log.debug(smiley + "=" + tempS[count]);
-                count++;
+                log.debug(smiley + "=" + imageTag);
+                trie.add(smiley, imageTag);
             }
-            SmileysPlugin.smileyPatterns = tempP;
-            SmileysPlugin.imageTags = tempS;
+            smileys = trie;
         }
     }
     
@@ -113,12 +119,43 @@ public class SmileysPlugin implements WeblogEntryPlugin {
      */
     @Override
     public String render(WeblogEntry entry, String text) {
-        Matcher matcher;
-        for (int i=0; i<smileyPatterns.length; i++) {
-            matcher = smileyPatterns[i].matcher(text);
-            text = matcher.replaceAll(imageTags[i]);
+        Trie trie = smileys;
+        if (trie == null || text == null) {
+            return text;
+        }
+        
+        // only allocated once there is something to replace
+        StringBuilder buf = null;
+        int copied = 0;
+        int pos = 0;
+        while (pos < text.length()) {
+            Node node = trie.first(text.charAt(pos));
+            String imageTag = null;
+            int end = pos;
+            for (int i = pos + 1; node != null; i++) {
+                if (node.imageTag != null) {
+                    imageTag = node.imageTag;
+                    end = i;
+                }
+                node = (i < text.length()) ? node.child(text.charAt(i)) : null;
+            }
+            
+            if (imageTag != null) {
+                if (buf == null) {
+                    buf = new StringBuilder(text.length() + 256);
+                }
+                buf.append(text, copied, pos).append(imageTag);
+                copied = end;
+                pos = end;
+            } else {
+                pos++;
+            }
+        }
+        
+        if (buf == null) {
+            return text;
         }
-        return text;
+        return buf.append(text, copied, text.length()).toString();
     }
     
     
@@ -144,29 +181,62 @@ public class SmileysPlugin implements WeblogEntryPlugin {
     }
     
     /**
-     * Some characters have to escaped with a backslash before
-     * being compiled into a Regular Expression.
-     *
-     * @param smiley
-     * @return
+     * Emoticons by character, with a lookup table for the ascii characters
+     * most emoticons start with.
      */
-    private static final char[] escape_regex = new char[]
-    {'-', '(', ')', '\\', '|', ':', '^', '$', '*', '+', '?',
-     '{', '}', '!', '=', '<', '>', '&', '[', ']' };
+    private static final class Trie {
+        
+        private final Node root = new Node();
+        private final Node[] ascii = new Node[128];
+        
+        void add(String smiley, String imageTag) {
+            if (smiley.isEmpty()) {
+                return;
+            }
+            Node node = root;
+            for (int i = 0; i < smiley.length(); i++) {
+                node = node.add(smiley.charAt(i));
+            }
+            node.imageTag = imageTag;
+            
+            char c = smiley.charAt(0);
+            if (c < ascii.length) {
+                ascii[c] = root.child(c);
+            }
+        }
+        
+        Node first(char c) {
+            return (c < ascii.length) ? ascii[c] : root.child(c);
+        }
+    }
     
-    private String regexEscape(String smiley) {
-        char[] chars = smiley.toCharArray();
-        StringBuilder buf = new StringBuilder();
-        for (int i=0; i<chars.length; i++) {
-            for (int x=0; x<escape_regex.length; x++) {
-                if (escape_regex[x] == chars[i]) {
-                    buf.append("\\");
-                    break;
+    
+    private static final class Node {
+        
+        private char[] chars = new char[0];
+        private Node[] children = new Node[0];
+        private String imageTag = null;
+        
+        Node child(char c) {
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) {
+                    return children[i];
                 }
             }
-            buf.append(chars[i]);
+            return null;
+        }
+        
+        Node add(char c) {
+            Node node = child(c);
+            if (node == null) {
+                node = new Node();
+                chars = Arrays.copyOf(chars, chars.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                chars[chars.length - 1] = c;
+                children[children.length - 1] = node;
+            }
+            return node;
         }
-        return buf.toString();
     }
     
 }
@@ -46,6 +46,10 @@ public interface WeblogEntryPlugin {
     /**
      * Give plugin a chance to initialize and add objects the rendering model.
      *
+     * A plugin is initialized once per weblog and then shared by all
+     * requests rendering entries of that weblog until the weblog is
+     * invalidated, so render() must be safe to call from many threads.
+     *
      * @param weblog     Weblog being processed
      */
     void init(Weblog weblog) throws WebloggerException;
@@ -60,4 +64,15 @@ public interface WeblogEntryPlugin {
      */
     String render(WeblogEntry entry, String str);
     
+    
+    /**
+     * Version of what render() produces.  Entries keep the output of their
+     * plugins from when they were saved, so a plugin whose output changes
+     * for the same input must return a new version here, or those entries
+     * keep showing the old output.
+     */
+    default String getVersion() {
+        return "1";
+    }
+    
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business.plugins.entry;
+
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.util.HTMLSanitizer;
+
+
+/**
+ * The plugins enabled for an entry, initialized for its weblog and in the
+ * order they are configured in, ready to be applied to entry text.
+ *
+ * Chains are immutable and shared, see PluginManager.getWeblogEntryPluginChain().
+ */
+public final class WeblogEntryPluginChain {
+    
+    private static final Log log = LogFactory.getLog(WeblogEntryPluginChain.class);
+    
+    private final List<WeblogEntryPlugin> plugins;
+    
+    
+    public WeblogEntryPluginChain(List<WeblogEntryPlugin> plugins) {
+        this.plugins = Collections.unmodifiableList(plugins);
+    }
+    
+    
+    public List<WeblogEntryPlugin> getPlugins() {
+        return plugins;
+    }
+    
+    
+    /**
+     * Apply each plugin in turn to the specified text and sanitize the
+     * result if configured to.  A plugin which fails is skipped.
+     *
+     * @param entry       Entry being rendered.
+     * @param str         String to which plugins should be applied.
+     * @return            the transformed text
+     */
+    public String render(WeblogEntry entry, String str) {
+        String ret = str;
+        if (ret != null) {
+            for (WeblogEntryPlugin plugin : plugins) {
+                try {
+                    ret = plugin.render(entry, ret);
+                } catch (Exception e) {
+                    log.error("ERROR from plugin: " + plugin.getName(), e);
+                }
+            }
+        }
+        return HTMLSanitizer.conditionallySanitize(ret);
+    }
+    
+}
@@ -70,6 +70,7 @@ public abstract class RollerPermission extends java.security.Permission {
      */
     public void addActions(ObjectPermission perm) {
         List<String> newActions = perm.getActionsAsList();
+        List<String> updatedActions = getActionsAsList();
         Set<String> updatedActionSet = new HashSet<>(updatedActions);
         for (String newAction : newActions) {
             if (!updatedActionSet.contains(newAction)) {
@@ -83,6 +84,7 @@ public abstract class RollerPermission extends java.security.Permission {
      * Merge actions into this permission.
      */
     public void addActions(List<String> newActions) {
+        List<String> updatedActions = getActionsAsList();
         Set<String> updatedActionSet = new HashSet<>(updatedActions);
         for (String newAction : newActions) {
             if (!updatedActionSet.contains(newAction)) {
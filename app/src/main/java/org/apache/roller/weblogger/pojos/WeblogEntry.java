@@ -31,11 +31,12 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -49,7 +50,9 @@ import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.UserManager;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
 import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.business.plugins.PluginManager;
 import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPlugin;
+import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPluginChain;
 import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
 import org.apache.roller.weblogger.util.HTMLSanitizer;
@@ -66,6 +69,9 @@ public class WeblogEntry implements Serializable {
 
     public enum PubStatus {DRAFT, PUBLISHED, PENDING, SCHEDULED}
 
+    private static final boolean PRERENDER_ENABLED =
+        WebloggerConfig.getBooleanProperty("weblogentry.prerender.enabled", true);
+
     private static final char TITLE_SEPARATOR =
         WebloggerConfig.getBooleanProperty("weblogentry.title.useUnderscoreSeparator") ? '_' : '-';
 
@@ -90,6 +96,17 @@ public class WeblogEntry implements Serializable {
     private String    creatorUserName = null;      
     private String    searchDescription = null;
 
+    // text and summary as transformed by plugins when the entry was saved,
+    // good for as long as renderedVersion matches getRenderVersion()
+    private String    renderedText = null;
+    private String    renderedSummary = null;
+    private String    renderedVersion = null;
+
+    // transformed on demand when the rendered copies are out of date
+    private transient String transformedVersion = null;
+    private transient String transformedText = null;
+    private transient String transformedSummary = null;
+
     // set to true when switching between pending/draft/scheduled and published
     // either the aggregate table needs the entry's tags added (for published)
     // or subtracted (anything else)
@@ -166,6 +183,9 @@ public class WeblogEntry implements Serializable {
         this.setRightToLeft(other.getRightToLeft());
         this.setPinnedToMain(other.getPinnedToMain());
         this.setLocale(other.getLocale());
+        this.setRenderedText(other.getRenderedText());
+        this.setRenderedSummary(other.getRenderedSummary());
+        this.setRenderedVersion(other.getRenderedVersion());
     }
     
     //------------------------------------------------------- Good citizenship
@@ -310,6 +330,40 @@ public class WeblogEntry implements Serializable {
         this.text = text;
     }
     
+    /**
+     * Get content text as transformed by plugins when the entry was saved.
+     */
+    public String getRenderedText() {
+        return renderedText;
+    }
+
+    public void setRenderedText(String renderedText) {
+        this.renderedText = renderedText;
+    }
+
+    /**
+     * Get summary as transformed by plugins when the entry was saved.
+     */
+    public String getRenderedSummary() {
+        return renderedSummary;
+    }
+
+    public void setRenderedSummary(String renderedSummary) {
+        this.renderedSummary = renderedSummary;
+    }
+
+    /**
+     * Get the version of the plugins, text and summary that the rendered
+     * text and summary were produced from.
+     */
+    public String getRenderedVersion() {
+        return renderedVersion;
+    }
+
+    public void setRenderedVersion(String renderedVersion) {
+        this.renderedVersion = renderedVersion;
+    }
+
     /**
      * Get content type (text, html, xhtml or a MIME content type)
      */
@@ -899,14 +953,50 @@ public class WeblogEntry implements Serializable {
      * Get entry text, transformed by plugins enabled for entry.
      */
     public String getTransformedText() {
-        return render(getText());
+        WeblogEntryPluginChain chain = getPluginChain();
+        String version = getRenderVersion(chain);
+        if (version.equals(renderedVersion)) {
+            return renderedText;
+        }
+        resetTransformed(version);
+        if (transformedText == null) {
+            transformedText = chain.render(this, getText());
+        }
+        return transformedText;
     }
 
     /**
      * Get entry summary, transformed by plugins enabled for entry.
      */
     public String getTransformedSummary() {
-        return render(getSummary());
+        WeblogEntryPluginChain chain = getPluginChain();
+        String version = getRenderVersion(chain);
+        if (version.equals(renderedVersion)) {
+            return renderedSummary;
+        }
+        resetTransformed(version);
+        if (transformedSummary == null) {
+            transformedSummary = chain.render(this, getSummary());
+        }
+        return transformedSummary;
+    }
+
+    /**
+     * Run the plugins over text and summary and keep the results, so that
+     * rendering the entry doesn't have to until the plugins or the entry
+     * change.  Called when the entry is saved.
+     */
+    public void updateRenderedContent() {
+        if (PRERENDER_ENABLED) {
+            WeblogEntryPluginChain chain = getPluginChain();
+            setRenderedText(chain.render(this, getText()));
+            setRenderedSummary(chain.render(this, getSummary()));
+            setRenderedVersion(getRenderVersion(chain));
+        } else {
+            setRenderedText(null);
+            setRenderedSummary(null);
+            setRenderedVersion(null);
+        }
     }
 
     /**
@@ -942,34 +1032,38 @@ public class WeblogEntry implements Serializable {
     }
     
     /**
-     * Transform string based on plugins enabled for this weblog entry.
+     * What the plugins would produce depends on: the plugins applied, in
+     * order, and their versions, the site URL some of them were initialized with, whether
+     * output is sanitized and of course the text and summary.
      */
-    private String render(String str) {
-        String ret = str;
-        mLogger.debug("Applying page plugins to string");
-        Map<String, WeblogEntryPlugin> inPlugins = getWebsite().getInitializedPlugins();
-        if (str != null && inPlugins != null) {
-            List<String> entryPlugins = getPluginsList();
-            
-            // if no Entry plugins, don't bother looping.
-            if (entryPlugins != null && !entryPlugins.isEmpty()) {
-                
-                // now loop over mPagePlugins, matching
-                // against Entry plugins (by name):
-                // where a match is found render Plugin.
-                for (Map.Entry<String, WeblogEntryPlugin> entry : inPlugins.entrySet()) {
-                    if (entryPlugins.contains(entry.getKey())) {
-                        WeblogEntryPlugin pagePlugin = entry.getValue();
-                        try {
-                            ret = pagePlugin.render(this, ret);
-                        } catch (Exception e) {
-                            mLogger.error("ERROR from plugin: " + pagePlugin.getName(), e);
-                        }
-                    }
-                }
-            }
-        } 
-        return HTMLSanitizer.conditionallySanitize(ret);
+    private String getRenderVersion(WeblogEntryPluginChain chain) {
+        StringBuilder version = new StringBuilder();
+        for (WeblogEntryPlugin plugin : chain.getPlugins()) {
+            version.append(plugin.getName()).append('=')
+                    .append(plugin.getClass().getName()).append('/')
+                    .append(plugin.getVersion()).append(',');
+        }
+        version.append(WebloggerRuntimeConfig.getAbsoluteContextURL()).append(',')
+                .append(HTMLSanitizer.xssEnabled).append(',')
+                .append(Objects.hashCode(getText())).append(',')
+                .append(Objects.hashCode(getSummary()));
+        return DigestUtils.sha1Hex(version.toString());
+    }
+
+    private void resetTransformed(String version) {
+        if (!version.equals(transformedVersion)) {
+            transformedText = null;
+            transformedSummary = null;
+            transformedVersion = version;
+        }
+    }
+
+    /**
+     * Get the plugins enabled for this weblog entry.
+     */
+    private WeblogEntryPluginChain getPluginChain() {
+        PluginManager ppmgr = WebloggerFactory.getWeblogger().getPluginManager();
+        return ppmgr.getWeblogEntryPluginChain(getWebsite(), getPlugins());
     }
     
     
@@ -40,11 +40,15 @@ import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.BootstrapException;
 import org.apache.roller.weblogger.business.startup.StartupException;
 import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.business.DatabaseHealth;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.startup.WebloggerStartup;
 import org.apache.roller.weblogger.ui.core.plugins.UIPluginManager;
 import org.apache.roller.weblogger.ui.core.plugins.UIPluginManagerImpl;
 import org.apache.roller.weblogger.ui.core.security.AutoProvision;
+import org.apache.roller.weblogger.ui.rendering.util.AsyncRenderer;
+import org.apache.roller.weblogger.ui.rendering.util.StaticSiteExporter;
+import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogCacheWarmup;
 import org.apache.roller.weblogger.util.Reflection;
 import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.velocity.runtime.RuntimeSingleton;
@@ -175,6 +179,9 @@ public class RollerContext extends ContextLoaderListener
                 weblogger = WebloggerFactory.getWeblogger();
                 weblogger.initialize();
 
+                // caches can talk to the rest of the cluster now
+                CacheManager.startup();
+
             } catch (BootstrapException ex) {
                 log.fatal("Roller Weblogger bootstrap failed", ex);
             } catch (WebloggerException ex) {
@@ -197,6 +204,20 @@ public class RollerContext extends ContextLoaderListener
             log.fatal("Error initializing Roller Weblogger web tier", ex);
         }
 
+        // render the popular pages and feeds before visitors ask for them
+        if (WebloggerStartup.isPrepared()
+                && WebloggerConfig.getBooleanProperty("cache.warmup.onStartup", true)) {
+            WeblogCacheWarmup.getInstance().start("startup");
+        }
+
+        // export weblogs as static sites, and keep them up to date from here on
+        if (WebloggerStartup.isPrepared()) {
+            StaticSiteExporter exporter = StaticSiteExporter.getInstance();
+            if (WebloggerConfig.getBooleanProperty("export.static.onStartup", true)) {
+                exporter.start("startup");
+            }
+        }
+
     }
 
 
@@ -205,6 +226,9 @@ public class RollerContext extends ContextLoaderListener
      */
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        AsyncRenderer.getInstance().shutdown();
+        DatabaseHealth.getInstance().shutdown();
+        WeblogCacheWarmup.getInstance().shutdown();
         WebloggerFactory.getWeblogger().shutdown();
         // do we need a more generic mechanism for presentation layer shutdown?
         CacheManager.shutdown();
@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.core.filters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.ui.rendering.util.AsyncRenderer;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
+
+
+/**
+ * Gzip compresses text responses as they are written, for clients which
+ * accept that.
+ *
+ * Responses which set their own Content-Encoding, like cached pages and
+ * feeds which keep a compressed copy, are passed through untouched.
+ */
+public class CompressionFilter implements Filter {
+
+    private static Log log = LogFactory.getLog(CompressionFilter.class);
+
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+
+        if (!ContentEncodingUtil.isEnabled()) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) req;
+        CompressingResponse response = new CompressingResponse(
+                (HttpServletResponse) res, ContentEncodingUtil.acceptsGzip(request));
+
+        // rendering may go on in another thread, which then finishes the response
+        AsyncRenderer.addFinisher(request, response::finish);
+
+        chain.doFilter(request, response);
+
+        if (!request.isAsyncStarted()) {
+            response.finish();
+        }
+    }
+
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        log.info("Response compression enabled = "+ContentEncodingUtil.isEnabled());
+    }
+
+    @Override
+    public void destroy() {}
+
+
+    /**
+     * Decides whether to compress when the response body is first written,
+     * by which time its content type and headers are known.
+     */
+    private static class CompressingResponse extends HttpServletResponseWrapper {
+
+        private final boolean acceptsGzip;
+
+        private CompressingStream stream = null;
+        private PrintWriter writer = null;
+
+        // set when the response handles its own encoding, or is an error
+        private boolean passThrough = false;
+
+        // held back until we know the response isn't compressed
+        private long contentLength = -1;
+
+
+        CompressingResponse(HttpServletResponse response, boolean acceptsGzip) {
+            super(response);
+            this.acceptsGzip = acceptsGzip;
+        }
+
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            if (stream != null && stream.isDecided()) {
+                if (!stream.isCompressing()) {
+                    super.setContentLengthLong(len);
+                }
+            } else {
+                contentLength = len;
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                setContentLengthLong(parseLength(value));
+                return;
+            }
+            if ("Content-Encoding".equalsIgnoreCase(name)) {
+                passThrough = true;
+            }
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                setContentLengthLong(parseLength(value));
+                return;
+            }
+            if ("Content-Encoding".equalsIgnoreCase(name)) {
+                passThrough = true;
+            }
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            abandon();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            abandon();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            abandon();
+            super.sendRedirect(location);
+        }
+
+        // the container writes its own body, which must not be compressed
+        private void abandon() {
+            if (stream != null && stream.isCompressing() && !isCommitted()) {
+                reset();
+            }
+            passThrough = true;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            if (stream == null) {
+                stream = new CompressingStream(this);
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                stream = new CompressingStream(this);
+                writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (stream != null) {
+                stream.flush();
+            }
+            super.flushBuffer();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            stream = null;
+            writer = null;
+            passThrough = false;
+            contentLength = -1;
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (stream != null) {
+                // anything compressed so far was discarded with the buffer
+                stream.undecide();
+            }
+        }
+
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (stream != null && stream.isDecided()) {
+                // a gzip body already sent has to be ended properly, even
+                // if an error or redirect was asked for after it
+                stream.finish();
+            } else if (contentLength >= 0 && !isCommitted()) {
+                // nothing was written
+                super.setContentLengthLong(contentLength);
+            }
+        }
+
+
+        /**
+         * Start the response body, returning the stream to write it to.
+         */
+        OutputStream start() throws IOException {
+
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+
+            boolean compressible = !passThrough && !isCommitted()
+                    && response.getStatus() == HttpServletResponse.SC_OK
+                    && ContentEncodingUtil.isCompressible(getContentType())
+                    && (contentLength < 0 || contentLength >= ContentEncodingUtil.getMinSize());
+
+            if (compressible) {
+                response.addHeader("Vary", "Accept-Encoding");
+                if (acceptsGzip) {
+                    response.setHeader("Content-Encoding", ContentEncodingUtil.GZIP);
+                    return new GZIPOutputStream(response.getOutputStream(),
+                            RollerConstants.EIGHT_KB_IN_BYTES);
+                }
+            }
+
+            if (contentLength >= 0) {
+                response.setContentLengthLong(contentLength);
+            }
+            return response.getOutputStream();
+        }
+
+
+        private static long parseLength(String value) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+
+    private static class CompressingStream extends ServletOutputStream {
+
+        private final CompressingResponse response;
+        private OutputStream out = null;
+
+
+        CompressingStream(CompressingResponse response) {
+            this.response = response;
+        }
+
+
+        boolean isDecided() {
+            return out != null;
+        }
+
+        boolean isCompressing() {
+            return out instanceof GZIPOutputStream;
+        }
+
+        void undecide() {
+            out = null;
+        }
+
+        private OutputStream target() throws IOException {
+            if (out == null) {
+                out = response.start();
+            }
+            return out;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                target().write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        void finish() throws IOException {
+            if (out instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) out).finish();
+            }
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            if (out instanceof ServletOutputStream) {
+                return ((ServletOutputStream) out).isReady();
+            }
+            return true;
+        }
+
+        /**
+         * Responses written with non-blocking I/O are not compressed, the
+         * listener goes straight to the container's stream.
+         */
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            if (isCompressing()) {
+                throw new IllegalStateException(
+                        "WriteListener must be set before a compressed body is written");
+            }
+            if (out == null) {
+                response.passThrough = true;
+                try {
+                    out = response.start();
+                } catch (IOException e) {
+                    writeListener.onError(e);
+                    return;
+                }
+            }
+            ((ServletOutputStream) out).setWriteListener(writeListener);
+        }
+    }
+
+}
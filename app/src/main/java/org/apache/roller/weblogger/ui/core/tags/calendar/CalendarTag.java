@@ -70,6 +70,11 @@ public class CalendarTag extends TagSupport {
     public void setClassSuffix( String s ) { mClassSuffix= s; }
     private String mClassSuffix = "";
     
+    // not a tag attribute, used instead of the named model when rendering
+    // outside of a JSP page context
+    public void setCalendarModel(CalendarModel model) { mCalendarModel = model; }
+    private CalendarModel mCalendarModel = null;
+
     // not a tag attribute
     public void setLocale(Locale locale) {
         if (locale != null) {
@@ -130,14 +135,18 @@ public class CalendarTag extends TagSupport {
             // ---------------------------------
             
             // check for parameter map and target url
-            StringTokenizer toker = new StringTokenizer(mModelName,".");
-            String tok1 = toker.nextToken();
-            if (toker.hasMoreTokens()) {
-                String tok2 = toker.nextToken();
-                Object bean = pageContext.findAttribute(tok1);
-                model = (CalendarModel)PropertyUtils.getProperty(bean, tok2);
+            if (mCalendarModel != null) {
+                model = mCalendarModel;
             } else {
-                model = (CalendarModel)pageContext.findAttribute( mModelName );
+                StringTokenizer toker = new StringTokenizer(mModelName,".");
+                String tok1 = toker.nextToken();
+                if (toker.hasMoreTokens()) {
+                    String tok2 = toker.nextToken();
+                    Object bean = pageContext.findAttribute(tok1);
+                    model = (CalendarModel)PropertyUtils.getProperty(bean, tok2);
+                } else {
+                    model = (CalendarModel)pageContext.findAttribute( mModelName );
+                }
             }
             
             // no model specified, nothing to generate
@@ -33,6 +33,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.ui.rendering.util.cache.NegativeLookupCache;
 
 
 /**
@@ -400,14 +401,17 @@ public class WeblogRequestMapper implements RequestMapper {
     
     /**
      * convenience method which determines if the given string is a valid
-     * weblog handle.
-     *
-     * TODO 3.0: some kind of caching
+     * weblog handle.  Handles which aren't are remembered for a while.
      */
     private boolean isWeblog(String potentialHandle) {
         
         log.debug("checking weblog handle "+potentialHandle);
         
+        NegativeLookupCache missing = NegativeLookupCache.getInstance();
+        if(missing.isMissing(NegativeLookupCache.Lookup.WEBLOG, potentialHandle, null)) {
+            return false;
+        }
+        
         boolean isWeblog = false;
         
         try {
@@ -416,6 +420,8 @@ public class WeblogRequestMapper implements RequestMapper {
             
             if(weblog != null) {
                 isWeblog = true;
+            } else {
+                missing.putMissing(NegativeLookupCache.Lookup.WEBLOG, potentialHandle, null);
             }
         } catch(Exception ex) {
             // doesn't really matter to us why it's not a valid website
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.model;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.RollerException;
+import org.apache.roller.weblogger.WebloggerException;
+
+
+/**
+ * Stands in for a Model in the rendering model until it is first used, only
+ * then is the Model instantiated and initialized.
+ *
+ * Whatever reads the rendering model must pass values through resolve().
+ */
+public final class LazyModel {
+    
+    private static final Log log = LogFactory.getLog(LazyModel.class);
+    
+    private final String className;
+    private final MethodHandle constructor;
+    private final Map<String, Object> initData;
+    private final boolean fail;
+    
+    private boolean initialized = false;
+    private Model model = null;
+    
+    
+    LazyModel(String className, MethodHandle constructor,
+            Map<String, Object> initData, boolean fail) {
+        this.className = className;
+        this.constructor = constructor;
+        this.initData = initData;
+        this.fail = fail;
+    }
+    
+    
+    /**
+     * The initialized Model, or null if it failed to initialize and failures
+     * are not fatal.
+     *
+     * @throws WebloggerException if the Model failed to initialize
+     */
+    public synchronized Model getModel() throws WebloggerException {
+        
+        if (!initialized) {
+            try {
+                Model pageModel = (Model) constructor.invoke();
+                pageModel.init(initData);
+                model = pageModel;
+            } catch (WebloggerException re) {
+                if(fail) {
+                    throw re;
+                } else {
+                    log.warn("Error initializing model: " + className);
+                }
+            } catch (Throwable t) {
+                if(fail) {
+                    throw new WebloggerException("Error instantiating model: " + className, t);
+                } else {
+                    log.warn("Error instantiating model: " + className);
+                }
+            }
+            initialized = true;
+        }
+        return model;
+    }
+    
+    
+    /**
+     * A value from the rendering model, with a LazyModel replaced by its
+     * Model.
+     *
+     * @throws IllegalStateException wrapping the failure if a Model failed
+     *         to initialize, see getFailure()
+     */
+    public static Object resolve(Object value) {
+        if (value instanceof LazyModel) {
+            try {
+                return ((LazyModel) value).getModel();
+            } catch (WebloggerException ex) {
+                throw new InitializationException(ex);
+            }
+        }
+        return value;
+    }
+    
+    
+    /**
+     * The reason rendering failed if it was a Model failing to initialize,
+     * which callers treat as a server error like they did when Models were
+     * initialized before rendering, or null if it was something else.
+     */
+    public static WebloggerException getFailure(Throwable t) {
+        Throwable cause = t;
+        // bounded, in case of a cause cycle
+        for (int depth = 0; cause != null && depth < 20; depth++) {
+            if (cause instanceof InitializationException) {
+                return (WebloggerException) cause.getCause();
+            }
+            // our own exceptions keep the wrapped exception to themselves
+            if (cause instanceof RollerException && ((RollerException) cause).getRootCause() != null) {
+                cause = ((RollerException) cause).getRootCause();
+            } else {
+                cause = cause.getCause();
+            }
+        }
+        return null;
+    }
+    
+    
+    private static final class InitializationException extends IllegalStateException {
+        
+        InitializationException(WebloggerException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+    
+}
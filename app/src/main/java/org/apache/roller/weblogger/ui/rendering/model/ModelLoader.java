@@ -18,58 +18,117 @@
 
 package org.apache.roller.weblogger.ui.rendering.model;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.WebloggerException;
-import org.apache.roller.weblogger.util.Reflection;
 import org.apache.roller.weblogger.util.Utilities;
 
 
 /**
  * Helps with model loading process.
+ *
+ * Each list of models is only parsed and its classes looked up once, and the
+ * models are put into the rendering model as LazyModels, so that a Model
+ * which the template never uses is never instantiated nor initialized.
  */
 public class ModelLoader {
     
     private static final Log log = LogFactory.getLog(ModelLoader.class);
     
+    // model factories by comma-separated list of models
+    private static final Map<String, List<ModelFactory>> factories = new ConcurrentHashMap<>();
+    
     /**
      * Convenience method to load a comma-separated list of page models.
      *
      * Optionally fails if any exceptions are thrown when initializing
-     * the Model instances.
+     * the Model instances, which happens when they are first used.
      */
     public static void loadModels(String modelsString, Map<String, Object> modelMap,
             Map<String, Object> initData, boolean fail) throws WebloggerException {
         
+        if (modelsString == null) {
+            return;
+        }
+        
+        List<ModelFactory> modelFactories = factories.get(modelsString);
+        if (modelFactories == null) {
+            modelFactories = getFactories(modelsString, fail);
+        }
+        
+        for (ModelFactory factory : modelFactories) {
+            modelMap.put(factory.name, new LazyModel(factory.className,
+                    factory.constructor, initData, fail));
+        }
+    }
+    
+    
+    /**
+     * Look up the classes of a list of models, remembering the list if they
+     * were all found.
+     */
+    private static List<ModelFactory> getFactories(String modelsString, boolean fail)
+            throws WebloggerException {
+        
+        List<ModelFactory> modelFactories = new ArrayList<>();
+        boolean complete = true;
+        
         String[] models = Utilities.stringToStringArray(modelsString, ",");
         if (models != null) {
             for (String model : models) {
                 try {
-                    Model pageModel = (Model) Reflection.newInstance(model);
-                    pageModel.init(initData);
-                    modelMap.put(pageModel.getModelName(), pageModel);
-                } catch (WebloggerException re) {
-                    if(fail) {
-                        throw re;
-                    } else {
-                        log.warn("Error initializing model: " + model);
-                    }
+                    modelFactories.add(new ModelFactory(model.trim()));
                 } catch (ClassNotFoundException cnfe) {
                     if(fail) {
                         throw new WebloggerException("Error finding model: " + model, cnfe);
                     } else {
                         log.warn("Error finding model: " + model);
+                        complete = false;
                     }
-                } catch (ReflectiveOperationException ex) {
+                } catch (Throwable ex) {
                     if(fail) {
                         throw new WebloggerException("Error instantiating model: " + model, ex);
                     } else {
                         log.warn("Error instantiating model: " + model);
+                        complete = false;
                     }
                 }
             }
         }
+        
+        if (complete) {
+            factories.put(modelsString, modelFactories);
+        }
+        return modelFactories;
+    }
+    
+    
+    /**
+     * Constructor of a Model class, and the name it goes by.
+     */
+    private static final class ModelFactory {
+        
+        private final String className;
+        private final String name;
+        private final MethodHandle constructor;
+        
+        ModelFactory(String className) throws Throwable {
+            this.className = className;
+            
+            Constructor<?> noArgs = Class.forName(className).getDeclaredConstructor();
+            noArgs.setAccessible(true);
+            this.constructor = MethodHandles.lookup().unreflectConstructor(noArgs);
+            
+            // the name is a constant of the class, so one instance tells us
+            this.name = ((Model) constructor.invoke()).getModelName();
+        }
     }
     
 }
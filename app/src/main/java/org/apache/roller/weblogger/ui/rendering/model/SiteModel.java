@@ -54,6 +54,7 @@ import org.apache.roller.weblogger.ui.rendering.pagers.WeblogsPager;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogRequest;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderDependencies;
 
 
 /**
@@ -116,6 +117,7 @@ public class SiteModel implements Model {
      * @param length    Max number of results to return
      */
     public Pager<WeblogEntryWrapper> getWeblogEntriesPager(int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.ENTRIES);
         
         String pagerUrl;
         
@@ -174,6 +176,7 @@ public class SiteModel implements Model {
      * @param length      Max number of results to return
      */   
     public Pager<WeblogEntryWrapper> getWeblogEntriesPager(WeblogWrapper queryWeblog, User user, String cat, int sinceDays, int length) {
+        RenderDependencies.weblog(queryWeblog.getHandle());
         
         String pagerUrl;
         if (feedRequest != null) {
@@ -205,6 +208,7 @@ public class SiteModel implements Model {
      * @param len      Max number of results to return
      */
     public Pager<WeblogEntryCommentWrapper> getCommentsPager(int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.COMMENTS);
         
         String pagerUrl;
         if (feedRequest != null) {
@@ -230,6 +234,7 @@ public class SiteModel implements Model {
     
     /* Get pager of users whose names begin with specified letter */
     public Pager<UserWrapper> getUsersByLetterPager(String letter, int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.USERS);
         
         String pagerUrl;
         if (feedRequest != null) {
@@ -259,6 +264,7 @@ public class SiteModel implements Model {
     
     /** Get pager of weblogs whose handles begin with specified letter */
     public Pager<WeblogWrapper> getWeblogsByLetterPager(String letter, int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.WEBLOGS);
         
         String pagerUrl = urlStrategy.getWeblogPageURL(weblog, 
                 weblogRequest.getLocale(), pageLink, 
@@ -286,6 +292,7 @@ public class SiteModel implements Model {
      * names start with each letter.
      */
     public Map<String, Long> getUserNameLetterMap() {
+        RenderDependencies.site(RenderDependencies.Site.USERS);
         try {
             Weblogger roller = WebloggerFactory.getWeblogger();
             UserManager umgr = roller.getUserManager();
@@ -303,6 +310,7 @@ public class SiteModel implements Model {
      * names start with each letter.
      */
     public Map<String, Long> getWeblogHandleLetterMap() {
+        RenderDependencies.site(RenderDependencies.Site.WEBLOGS);
         try {
             return WebloggerFactory.getWeblogger().getWeblogManager().getWeblogHandleLetterMap();
         } catch (Exception e) {
@@ -316,6 +324,7 @@ public class SiteModel implements Model {
      * Return list of weblogs that user belongs to.
      */
     public List<WeblogWrapper> getUsersWeblogs(String userName) {
+        RenderDependencies.site(RenderDependencies.Site.USERS);
         List<WeblogWrapper> results = new ArrayList<>();
         try {
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -323,6 +332,7 @@ public class SiteModel implements Model {
             User user = umgr.getUserByUserName(userName);
             List<WeblogPermission> perms = umgr.getWeblogPermissions(user);
             for (WeblogPermission perm : perms) {
+                RenderDependencies.weblog(perm.getWeblog().getHandle());
                 results.add(WeblogWrapper.wrap(perm.getWeblog(), urlStrategy));
             }
         } catch (Exception e) {
@@ -336,6 +346,8 @@ public class SiteModel implements Model {
      * Return list of users that belong to website.
      */
     public List<UserWrapper> getWeblogsUsers(String handle) {
+        RenderDependencies.site(RenderDependencies.Site.USERS);
+        RenderDependencies.weblog(handle);
         List<UserWrapper> results = new ArrayList<>();
         try {
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -355,6 +367,7 @@ public class SiteModel implements Model {
     
     /** Get User object by username */
     public UserWrapper getUser(String username) {
+        RenderDependencies.site(RenderDependencies.Site.USERS);
         UserWrapper wrappedUser = null;
         try {            
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -370,6 +383,7 @@ public class SiteModel implements Model {
     
     /** Get Website object by handle */
     public WeblogWrapper getWeblog(String handle) {
+        RenderDependencies.weblog(handle);
         WeblogWrapper wrappedWebsite = null;
         try {            
             Weblog website = WebloggerFactory.getWeblogger().getWeblogManager().getWeblogByHandle(handle);
@@ -390,12 +404,14 @@ public class SiteModel implements Model {
      * @param len      Max number of results to return
      */
     public List<WeblogWrapper> getNewWeblogs(int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.WEBLOGS);
         List<WeblogWrapper> results = new ArrayList<>();
         Date startDate = JPAWeblogEntryManagerImpl.getStartDateNow(sinceDays);
         try {            
             List<Weblog> weblogs = WebloggerFactory.getWeblogger().getWeblogManager().getWeblogs(
                 Boolean.TRUE, Boolean.TRUE, startDate, null, 0, length);
             for (Weblog website : weblogs) {
+                RenderDependencies.weblog(website.getHandle());
                 results.add(WeblogWrapper.wrap(website, urlStrategy));
             }
         } catch (Exception e) {
@@ -411,6 +427,7 @@ public class SiteModel implements Model {
      * @param len      Max number of results to return
      */
     public List<UserWrapper> getNewUsers(int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.USERS);
         List<UserWrapper> results = new ArrayList<>();
         try {            
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -432,6 +449,7 @@ public class SiteModel implements Model {
      * @param length      Max number of results to return
      */
     public List<StatCount> getHotWeblogs(int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.WEBLOGS);
         
         List<StatCount> results = new ArrayList<>();
         try {
@@ -464,6 +482,8 @@ public class SiteModel implements Model {
      * @param length   Max number of results to return
      */
     public List<StatCount> getMostCommentedWeblogs(int sinceDays , int length) {
+        RenderDependencies.site(RenderDependencies.Site.COMMENTS);
+        RenderDependencies.site(RenderDependencies.Site.WEBLOGS);
         Date startDate = JPAWeblogEntryManagerImpl.getStartDateNow(sinceDays);
         try {
             return WebloggerFactory.getWeblogger().getWeblogManager().getMostCommentedWeblogs(
@@ -483,6 +503,8 @@ public class SiteModel implements Model {
      * @param length      Max number of results to return
      */
     public List<StatCount> getMostCommentedWeblogEntries(List<String> cats, int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.COMMENTS);
+        RenderDependencies.site(RenderDependencies.Site.ENTRIES);
         Date startDate = JPAWeblogEntryManagerImpl.getStartDateNow(sinceDays);
         try {
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -500,6 +522,7 @@ public class SiteModel implements Model {
      * @param length    Max number of results to return
      */
     public List<WeblogEntryWrapper> getPinnedWeblogEntries(int length) {
+        RenderDependencies.site(RenderDependencies.Site.ENTRIES);
         List<WeblogEntryWrapper> results = new ArrayList<>();
         try {            
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -521,6 +544,7 @@ public class SiteModel implements Model {
      * @return
      */
     public List<TagStat> getPopularTags(int sinceDays, int length) {
+        RenderDependencies.site(RenderDependencies.Site.ENTRIES);
         Date startDate = null;
         if(sinceDays > 0) {
             Calendar cal = Calendar.getInstance();
@@ -541,6 +565,7 @@ public class SiteModel implements Model {
     
     
     public long getCommentCount() {
+        RenderDependencies.site(RenderDependencies.Site.COMMENTS);
         long count = 0;
         try {
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -554,6 +579,7 @@ public class SiteModel implements Model {
     
     
     public long getEntryCount() {
+        RenderDependencies.site(RenderDependencies.Site.ENTRIES);
         long count = 0;
         try {
             Weblogger roller = WebloggerFactory.getWeblogger();
@@ -567,6 +593,7 @@ public class SiteModel implements Model {
     
     
     public long getWeblogCount() {
+        RenderDependencies.site(RenderDependencies.Site.WEBLOGS);
         long count = 0;
         try {
             count = WebloggerFactory.getWeblogger().getWeblogManager().getWeblogCount();            
@@ -578,6 +605,7 @@ public class SiteModel implements Model {
     
     
     public long getUserCount() {
+        RenderDependencies.site(RenderDependencies.Site.USERS);
         long count = 0;
         try {
             Weblogger roller = WebloggerFactory.getWeblogger();
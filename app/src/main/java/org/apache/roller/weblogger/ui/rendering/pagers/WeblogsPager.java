@@ -31,6 +31,7 @@ import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.WeblogManager;
 import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.pojos.wrapper.WeblogWrapper;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderDependencies;
 
 
 /**
@@ -148,6 +149,7 @@ public class WeblogsPager extends AbstractPager<WeblogWrapper> {
                 int count = 0;
                 for (Weblog website : rawWeblogs) {
                     if (count++ < length) {
+                        RenderDependencies.weblog(website.getHandle());
                         results.add(WeblogWrapper.wrap(website, urlStrategy));
                     } else {
                         more = true;
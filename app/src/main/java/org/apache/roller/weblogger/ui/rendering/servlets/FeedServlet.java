@@ -30,6 +30,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.DatabaseHealth;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
 import org.apache.roller.weblogger.config.WebloggerConfig;
@@ -38,15 +39,21 @@ import org.apache.roller.weblogger.pojos.StaticTemplate;
 import org.apache.roller.weblogger.pojos.Template;
 import org.apache.roller.weblogger.pojos.TemplateRendition.TemplateLanguage;
 import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.ui.rendering.util.AsyncRenderer;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
 import org.apache.roller.weblogger.util.cache.CachedContent;
 import org.apache.roller.weblogger.ui.rendering.Renderer;
 import org.apache.roller.weblogger.ui.rendering.RendererManager;
 import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository;
+import org.apache.roller.weblogger.ui.rendering.model.LazyModel;
 import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
 import org.apache.roller.weblogger.ui.rendering.model.SearchResultsFeedModel;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderCoalescer;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderDependencies;
 import org.apache.roller.weblogger.ui.rendering.util.cache.SiteWideCache;
 import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogFeedCache;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
+import org.apache.roller.weblogger.ui.rendering.util.DegradedResponseUtil;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
 
 
@@ -59,6 +66,7 @@ public class FeedServlet extends HttpServlet {
 
     private WeblogFeedCache weblogFeedCache = null;
     private SiteWideCache siteWideCache = null;
+    private RenderCoalescer coalescer = null;
 
 
     /**
@@ -76,6 +84,9 @@ public class FeedServlet extends HttpServlet {
 
         // get a reference to the site wide cache
         this.siteWideCache = SiteWideCache.getInstance();
+
+        // concurrent misses for the same feed share one render
+        this.coalescer = new RenderCoalescer("feed");
     }
 
 
@@ -86,6 +97,11 @@ public class FeedServlet extends HttpServlet {
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
 
+        // render on a rendering thread when async rendering is enabled
+        if (AsyncRenderer.getInstance().dispatch(request, response, this::doGet)) {
+            return;
+        }
+
         log.debug("Entering");
 
         Weblog weblog;
@@ -95,8 +111,24 @@ public class FeedServlet extends HttpServlet {
         try {
             // parse the incoming request and extract the relevant data
             feedRequest = new WeblogFeedRequest(request);
+        } catch (Exception e) {
+            // invalid feed request format
+            log.debug("error creating weblog feed request", e);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // while the database is struggling only cached content is served
+        DatabaseHealth databaseHealth = DatabaseHealth.getInstance();
+        if (databaseHealth.isDegraded()) {
+            serveDegraded(request, response, feedRequest);
+            return;
+        }
 
+        try {
+            long lookupStart = System.currentTimeMillis();
             weblog = feedRequest.getWeblog();
+            databaseHealth.reportLatency(System.currentTimeMillis() - lookupStart);
             if (weblog == null) {
                 throw new WebloggerException("unable to lookup weblog: "
                         + feedRequest.getWeblogHandle());
@@ -107,8 +139,14 @@ public class FeedServlet extends HttpServlet {
                     .getWeblogHandle());
 
         } catch (Exception e) {
-            // invalid feed request format or weblog doesn't exist
-            log.debug("error creating weblog feed request", e);
+            // the database failing is not the same as no such weblog
+            if (databaseHealth.reportFailure(e)) {
+                serveDegraded(request, response, feedRequest);
+                return;
+            }
+
+            // weblog doesn't exist
+            log.debug("error looking up weblog for feed request", e);
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
@@ -166,16 +204,42 @@ public class FeedServlet extends HttpServlet {
                     lastModified);
         }
 
-        if (cachedContent != null) {
+        RenderCoalescer.Flight flight = null;
+        if (cachedContent == null) {
+            log.debug("MISS " + cacheKey);
+
+            // wait for anyone already rendering this feed
+            flight = coalescer.join(cacheKey);
+            cachedContent = flight.await();
+        } else {
             log.debug("HIT " + cacheKey);
+        }
 
-            response.setContentLength(cachedContent.getContent().length);
-            response.getOutputStream().write(cachedContent.getContent());
+        if (cachedContent != null) {
+            // same bytes as the client already has? then 304
+            if (!ModDateHeaderUtil.respondIfNoneMatch(request, response,
+                    cachedContent.getETag())) {
+                ContentEncodingUtil.writeContent(request, response, cachedContent);
+            }
             return;
+        }
 
-        } else {
-            log.debug("MISS " + cacheKey);
+        try {
+            renderFeed(request, response, feedRequest, weblog, isSiteWide,
+                    cacheKey, flight);
+        } finally {
+            flight.done();
         }
+    }
+
+
+    /**
+     * Render a feed which could not be served from the cache, and cache it.
+     */
+    private void renderFeed(HttpServletRequest request,
+            HttpServletResponse response, WeblogFeedRequest feedRequest,
+            Weblog weblog, boolean isSiteWide, String cacheKey,
+            RenderCoalescer.Flight flight) throws IOException {
 
         // validation. make sure that request input makes sense.
         boolean invalid = false;
@@ -212,6 +276,7 @@ public class FeedServlet extends HttpServlet {
         }
 
         // do we need to force a specific locale for the request?
+        final String requestedLocale = feedRequest.getLocale();
         if (feedRequest.getLocale() == null && !weblog.isShowAllLangs()) {
             feedRequest.setLocale(weblog.getLocale());
         }
@@ -269,6 +334,12 @@ public class FeedServlet extends HttpServlet {
             }
 
         } catch (WebloggerException ex) {
+            if (DatabaseHealth.getInstance().reportFailure(ex)) {
+                feedRequest.setLocale(requestedLocale);
+                serveDegraded(request, response, feedRequest);
+                return;
+            }
+
             log.error("ERROR loading model for page", ex);
 
             if (!response.isCommitted()) {
@@ -306,40 +377,92 @@ public class FeedServlet extends HttpServlet {
 
         // render content. use default size of 24K for a standard page
         CachedContent rendererOutput = new CachedContent(RollerConstants.TWENTYFOUR_KB_IN_BYTES);
+        RenderDependencies dependencies = null;
         try {
             log.debug("Doing rendering");
+            // site-wide feeds are only invalidated when content they read changes
+            if (isSiteWide) {
+                dependencies = RenderDependencies.start(weblog.getHandle());
+                if (feedRequest.getTerm() != null) {
+                    // search results were gathered when the model was loaded
+                    RenderDependencies.site(RenderDependencies.Site.ENTRIES);
+                }
+            }
             renderer.render(model, rendererOutput.getCachedWriter());
 
             // flush rendered output and close
             rendererOutput.flush();
             rendererOutput.close();
         } catch (Exception e) {
+            if (DatabaseHealth.getInstance().reportFailure(e)) {
+                feedRequest.setLocale(requestedLocale);
+                serveDegraded(request, response, feedRequest);
+                return;
+            }
+
             // bummer, error during rendering
             log.error("Error during rendering for page " + pageId, e);
 
             if (!response.isCommitted()) {
                 response.reset();
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            // a model which failed to initialize is a server error
+            response.sendError(LazyModel.getFailure(e) != null
+                    ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                    : HttpServletResponse.SC_NOT_FOUND);
             return;
+        } finally {
+            RenderDependencies.stop();
         }
 
         // post rendering process
 
         // flush rendered content to response
         log.debug("Flushing response output");
-        response.setContentLength(rendererOutput.getContent().length);
-        response.getOutputStream().write(rendererOutput.getContent());
+        if (!ModDateHeaderUtil.respondIfNoneMatch(request, response,
+                rendererOutput.getETag())) {
+            ContentEncodingUtil.writeContent(request, response, rendererOutput);
+        }
 
         // cache rendered content. only cache if user is not logged in?
         log.debug("PUT " + cacheKey);
         if (isSiteWide) {
-            siteWideCache.put(cacheKey, rendererOutput);
+            siteWideCache.put(cacheKey, rendererOutput, dependencies);
         } else {
             weblogFeedCache.put(cacheKey, rendererOutput);
         }
 
+        // and share it with anyone waiting for it
+        flight.complete(rendererOutput);
+
         log.debug("Exiting");
     }
 
+
+    /**
+     * Serve the last known cached copy of a feed without touching the
+     * database, which is degraded.  It may be in either cache since whether
+     * the weblog is the site-wide one can't be looked up.
+     */
+    private void serveDegraded(HttpServletRequest request,
+            HttpServletResponse response, WeblogFeedRequest feedRequest)
+            throws IOException {
+
+        CachedContent content = (CachedContent) weblogFeedCache.getLastKnown(
+                weblogFeedCache.generateKey(feedRequest));
+        if (content == null) {
+            content = (CachedContent) siteWideCache.getLastKnown(
+                    siteWideCache.generateKey(feedRequest));
+        }
+
+        String contentType = "text/xml; charset=utf-8";
+        if ("rss".equals(feedRequest.getFormat())) {
+            contentType = "application/rss+xml; charset=utf-8";
+        } else if ("atom".equals(feedRequest.getFormat())) {
+            contentType = "application/atom+xml; charset=utf-8";
+        }
+
+        DegradedResponseUtil.respond(request, response, content, contentType);
+    }
+
 }
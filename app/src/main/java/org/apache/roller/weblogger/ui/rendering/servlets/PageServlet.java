@@ -20,38 +20,42 @@ package org.apache.roller.weblogger.ui.rendering.servlets;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.validator.routines.UrlValidator;
 import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.DatabaseHealth;
 import org.apache.roller.weblogger.business.HitCountQueue;
-import org.apache.roller.weblogger.business.WeblogEntryManager;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.themes.ThemeManager;
 import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
-import org.apache.roller.weblogger.pojos.StaticThemeTemplate;
-import org.apache.roller.weblogger.pojos.TemplateRendition.TemplateLanguage;
 import org.apache.roller.weblogger.pojos.ThemeTemplate;
-import org.apache.roller.weblogger.pojos.ThemeTemplate.ComponentType;
 import org.apache.roller.weblogger.pojos.Weblog;
-import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.WeblogTheme;
-import org.apache.roller.weblogger.ui.core.RollerContext;
 import org.apache.roller.weblogger.ui.rendering.Renderer;
 import org.apache.roller.weblogger.ui.rendering.RendererManager;
+import org.apache.roller.weblogger.ui.rendering.model.LazyModel;
 import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
+import org.apache.roller.weblogger.ui.rendering.util.AsyncRenderer;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
+import org.apache.roller.weblogger.ui.rendering.util.DegradedResponseUtil;
 import org.apache.roller.weblogger.ui.rendering.util.InvalidRequestException;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogEntryCommentForm;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
+import org.apache.roller.weblogger.ui.rendering.util.WeblogRenderUtil;
+import org.apache.roller.weblogger.ui.rendering.util.cache.PersonalFragments;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderCoalescer;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderDependencies;
 import org.apache.roller.weblogger.ui.rendering.util.cache.SiteWideCache;
+import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogCacheWarmup;
 import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogPageCache;
 import org.apache.roller.weblogger.util.BannedwordslistChecker;
 import org.apache.roller.weblogger.util.I18nMessages;
 import org.apache.roller.weblogger.util.cache.CachedContent;
+import org.apache.roller.weblogger.util.cache.LazyExpiringCacheEntry;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -61,9 +65,9 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.jsp.JspFactory;
 import javax.servlet.jsp.PageContext;
 import java.io.IOException;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Pattern;
 
 /**
@@ -79,6 +83,10 @@ public class PageServlet extends HttpServlet {
     private boolean excludeOwnerPages = false;
     private WeblogPageCache weblogPageCache = null;
     private SiteWideCache siteWideCache = null;
+    private RenderCoalescer coalescer = null;
+    // for sending pages while they are rendered
+    private boolean streaming = true;
+    private int streamingThreshold = RollerConstants.EIGHT_KB_IN_BYTES;
 
     // Development theme reloading
     Boolean themeReload = false;
@@ -102,6 +110,14 @@ public class PageServlet extends HttpServlet {
         // get a reference to the site wide cache
         this.siteWideCache = SiteWideCache.getInstance();
 
+        // concurrent misses for the same page share one render
+        this.coalescer = new RenderCoalescer("page");
+
+        this.streaming = WebloggerConfig.getBooleanProperty(
+                "rendering.streaming.enabled", true);
+        this.streamingThreshold = WebloggerConfig.getIntProperty(
+                "rendering.streaming.threshold", RollerConstants.EIGHT_KB_IN_BYTES);
+
         // see if built-in referrer spam check is enabled
         this.processReferrers = WebloggerConfig
                 .getBooleanProperty("site.bannedwordslist.enable.referrers");
@@ -136,13 +152,22 @@ public class PageServlet extends HttpServlet {
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
 
+        // render on a rendering thread when async rendering is enabled
+        if (AsyncRenderer.getInstance().dispatch(request, response, this::doGet)) {
+            return;
+        }
+
         log.debug("Entering");
 
+        // while the database is struggling only cached content is served
+        DatabaseHealth databaseHealth = DatabaseHealth.getInstance();
+        boolean degraded = databaseHealth.isDegraded();
+
         // do referrer processing, if it's enabled
         // NOTE: this *must* be done first because it triggers a hibernate flush
         // which will close the active session and cause lazy init exceptions
         // otherwise
-        if (this.processReferrers) {
+        if (this.processReferrers && !degraded) {
             boolean spam = this.processReferrer(request);
             if (spam) {
                 log.debug("spammer, giving 'em a 403");
@@ -160,8 +185,22 @@ public class PageServlet extends HttpServlet {
         WeblogPageRequest pageRequest;
         try {
             pageRequest = new WeblogPageRequest(request);
+        } catch (Exception e) {
+            // some kind of error parsing the request
+            log.debug("error creating page request", e);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        if (degraded) {
+            serveDegraded(request, response, pageRequest);
+            return;
+        }
 
+        try {
+            long lookupStart = System.currentTimeMillis();
             weblog = pageRequest.getWeblog();
+            databaseHealth.reportLatency(System.currentTimeMillis() - lookupStart);
             if (weblog == null) {
                 throw new WebloggerException("unable to lookup weblog: "
                         + pageRequest.getWeblogHandle());
@@ -171,8 +210,14 @@ public class PageServlet extends HttpServlet {
             isSiteWide = WebloggerRuntimeConfig.isSiteWideWeblog(pageRequest
                     .getWeblogHandle());
         } catch (Exception e) {
-            // some kind of error parsing the request or looking up weblog
-            log.debug("error creating page request", e);
+            // the database failing is not the same as no such weblog
+            if (databaseHealth.reportFailure(e)) {
+                serveDegraded(request, response, pageRequest);
+                return;
+            }
+
+            // some kind of error looking up weblog
+            log.debug("error looking up weblog", e);
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
@@ -232,22 +277,67 @@ public class PageServlet extends HttpServlet {
             }
         }
 
+        // logged in users get the copy anonymous visitors get, with the
+        // parts of it which differ per user rendered again for them
+        if (pageRequest.isLoggedIn() && PersonalFragments.isEnabled()
+                && request.getParameter("popup") == null
+                && request.getAttribute("skipCache") == null
+                && request.getParameter("skipCache") == null
+                && servePersonalized(request, response, pageRequest, weblog,
+                        isSiteWide, lastModified)) {
+            return;
+        }
+
         // cached content checking
+        RenderCoalescer.Flight flight = null;
         if ((!this.excludeOwnerPages || !pageRequest.isLoggedIn())
                 && request.getAttribute("skipCache") == null
                 && request.getParameter("skipCache") == null) {
 
+            // popular pages are rendered again by the next cache warmup
+            if (!pageRequest.isLoggedIn()) {
+                WeblogCacheWarmup.getInstance().recordHit(cacheKey, request,
+                        pageRequest, isSiteWide);
+            }
+
             CachedContent cachedContent;
             if (isSiteWide) {
                 cachedContent = (CachedContent) siteWideCache.get(cacheKey);
             } else {
                 cachedContent = (CachedContent) weblogPageCache.get(cacheKey,
                         lastModified);
+
+                // recently expired pages are served as they were while
+                // they are rendered again in the background, the background
+                // render is anonymous so logged in users wait for their own
+                if (cachedContent == null && !pageRequest.isLoggedIn()) {
+                    LazyExpiringCacheEntry stale = weblogPageCache.getStale(
+                            cacheKey, lastModified);
+                    if (stale != null) {
+                        cachedContent = (CachedContent) stale.peekValue();
+                        if (weblogPageCache.startRevalidation(pageRequest, cacheKey)) {
+                            revalidate(request, pageRequest, cacheKey);
+                        }
+
+                        // so clients don't keep the stale copy as current
+                        ModDateHeaderUtil.setLastModifiedHeader(response,
+                                stale.getTimeCached(),
+                                pageRequest.getDeviceType());
+                    }
+                }
             }
 
-            if (cachedContent != null) {
+            if (cachedContent == null) {
+                log.debug("MISS " + cacheKey);
+
+                // wait for anyone already rendering this page
+                flight = coalescer.join(cacheKey);
+                cachedContent = flight.await();
+            } else {
                 log.debug("HIT " + cacheKey);
+            }
 
+            if (cachedContent != null) {
                 // allow for hit counting
                 if (!isSiteWide
                         && (pageRequest.isWebsitePageHit() || pageRequest
@@ -255,91 +345,42 @@ public class PageServlet extends HttpServlet {
                     this.processHit(weblog);
                 }
 
-                response.setContentLength(cachedContent.getContent().length);
+                // same bytes as the client already has? then 304
+                if (!pageRequest.isLoggedIn()
+                        && ModDateHeaderUtil.respondIfNoneMatch(request,
+                                response, cachedContent.getETag())) {
+                    return;
+                }
+
                 response.setContentType(cachedContent.getContentType());
-                response.getOutputStream().write(cachedContent.getContent());
+                ContentEncodingUtil.writeContent(request, response, cachedContent);
                 return;
-            } else {
-                log.debug("MISS " + cacheKey);
             }
         }
 
-        log.debug("Looking for template to use for rendering");
-
-        // figure out what template to use
-        ThemeTemplate page = null;
-
-        // If this is a popup request, then deal with it specially
-        // TODO: do we really need to keep supporting this?
-        if (request.getParameter("popup") != null) {
-            try {
-                // Does user have a popupcomments page?
-                page = weblog.getTheme().getTemplateByName("_popupcomments");
-            } catch (Exception e) {
-                // ignored ... considered page not found
-            }
-
-            // User doesn't have one so return the default
-            if (page == null) {
-                page = new StaticThemeTemplate(
-                        "templates/weblog/popupcomments.vm", TemplateLanguage.VELOCITY);
-            }
-
-            // If request specified the page, then go with that
-        } else if ("page".equals(pageRequest.getContext())) {
-            page = pageRequest.getWeblogPage();
-
-            // if we don't have this page then 404, we don't let
-            // this one fall through to the default template
-            if (page == null) {
-                if (!response.isCommitted()) {
-                    response.reset();
-                }
-                response.sendError(HttpServletResponse.SC_NOT_FOUND);
-                return;
-            }
-
-            // If request specified tags section index, then look for custom
-            // template
-        } else if ("tags".equals(pageRequest.getContext())
-                && pageRequest.getTags() != null) {
-            try {
-                page = weblog.getTheme().getTemplateByAction(
-                        ComponentType.TAGSINDEX);
-            } catch (Exception e) {
-                log.error("Error getting weblog page for action 'tagsIndex'", e);
+        try {
+            renderPage(request, response, pageRequest, weblog, isSiteWide,
+                    cacheKey, flight);
+        } finally {
+            if (flight != null) {
+                flight.done();
             }
+        }
+    }
 
-            // if we don't have a custom tags page then 404, we don't let
-            // this one fall through to the default template
-            if (page == null) {
-                if (!response.isCommitted()) {
-                    response.reset();
-                }
-                response.sendError(HttpServletResponse.SC_NOT_FOUND);
-                return;
-            }
+    /**
+     * Render a page which could not be served from the cache, and cache it.
+     */
+    private void renderPage(HttpServletRequest request,
+            HttpServletResponse response, WeblogPageRequest pageRequest,
+            Weblog weblog, boolean isSiteWide, String cacheKey,
+            RenderCoalescer.Flight flight) throws IOException {
 
-            // If this is a permalink then look for a permalink template
-        } else if (pageRequest.getWeblogAnchor() != null) {
-            try {
-                page = weblog.getTheme().getTemplateByAction(
-                        ComponentType.PERMALINK);
-            } catch (Exception e) {
-                log.error("Error getting weblog page for action 'permalink'", e);
-            }
-        }
+        log.debug("Looking for template to use for rendering");
 
-        // if we haven't found a page yet then try our default page
-        if (page == null) {
-            try {
-                page = weblog.getTheme().getDefaultTemplate();
-            } catch (Exception e) {
-                log.error(
-                        "Error getting default page for weblog = "
-                                + weblog.getHandle(), e);
-            }
-        }
+        // figure out what template to use
+        ThemeTemplate page = WeblogRenderUtil.lookupTemplate(pageRequest, weblog,
+                request.getParameter("popup") != null);
 
         // Still no page? Then that is a 404
         if (page == null) {
@@ -353,51 +394,7 @@ public class PageServlet extends HttpServlet {
         log.debug("page found, dealing with it");
 
         // validation. make sure that request input makes sense.
-        boolean invalid = false;
-        if (pageRequest.getWeblogPageName() != null && page.isHidden()) {
-            invalid = true;
-        }
-        // locale view allowed only if weblog has enabled it
-        if (pageRequest.getLocale() != null
-                && !pageRequest.getWeblog().isEnableMultiLang()) {
-            invalid = true;
-        }
-        if (pageRequest.getWeblogAnchor() != null) {
-
-            // permalink specified.
-            // entry must exist, be published before current time, and locale
-            // must match
-            WeblogEntry entry = pageRequest.getWeblogEntry();
-            if (entry == null) {
-                invalid = true;
-            } else if (pageRequest.getLocale() != null
-                    && !entry.getLocale().startsWith(pageRequest.getLocale())) {
-                invalid = true;
-            } else if (!entry.isPublished()) {
-                invalid = true;
-            } else if (new Date().before(entry.getPubTime())) {
-                invalid = true;
-            }
-        } else if (pageRequest.getWeblogCategoryName() != null) {
-
-            // category specified. category must exist.
-            if (pageRequest.getWeblogCategory() == null) {
-                invalid = true;
-            }
-        } else if (pageRequest.getTags() != null && !pageRequest.getTags().isEmpty()) {
-
-            try {
-                // tags specified. make sure they exist.
-                WeblogEntryManager wmgr = WebloggerFactory.getWeblogger()
-                        .getWeblogEntryManager();
-                invalid = !wmgr.getTagComboExists(pageRequest.getTags(),
-                        (isSiteWide) ? null : weblog);
-            } catch (WebloggerException ex) {
-                invalid = true;
-            }
-        }
-
-        if (invalid) {
+        if (!WeblogRenderUtil.isValid(pageRequest, page, weblog, isSiteWide)) {
             log.debug("page failed validation, bailing out");
             if (!response.isCommitted()) {
                 response.reset();
@@ -407,6 +404,7 @@ public class PageServlet extends HttpServlet {
         }
 
         // do we need to force a specific locale for the request?
+        final String requestedLocale = pageRequest.getLocale();
         if (pageRequest.getLocale() == null && !weblog.isShowAllLangs()) {
             pageRequest.setLocale(weblog.getLocale());
         }
@@ -419,64 +417,18 @@ public class PageServlet extends HttpServlet {
         }
 
         // looks like we need to render content
-        // set the content deviceType
-        String contentType;
-        if (StringUtils.isNotEmpty(page.getOutputContentType())) {
-            contentType = page.getOutputContentType() + "; charset=utf-8";
-        } else {
-            final String defaultContentType = "text/html; charset=utf-8";
-            if (page.getLink() == null) {
-                contentType = defaultContentType;
-            } else {
-                String mimeType = RollerContext.getServletContext().getMimeType(
-                        page.getLink());
-                if (mimeType != null) {
-                    // we found a match ... set the content deviceType
-                    contentType = mimeType + "; charset=utf-8";
-                } else {
-                    contentType = defaultContentType;
-                }
-            }
-        }
+        String contentType = WeblogRenderUtil.getContentType(page);
 
-        HashMap<String, Object> model = new HashMap<>();
+        Map<String, Object> model;
         try {
-            PageContext pageContext = JspFactory.getDefaultFactory()
-                    .getPageContext(this, request, response, "", false,
-                            RollerConstants.EIGHT_KB_IN_BYTES, true);
-
-            // special hack for menu tag
-            request.setAttribute("pageRequest", pageRequest);
-
-            // populate the rendering model
-            Map<String, Object> initData = new HashMap<>();
-            initData.put("requestParameters", request.getParameterMap());
-            initData.put("parsedRequest", pageRequest);
-            initData.put("pageContext", pageContext);
-
-            // define url strategy
-            initData.put("urlStrategy", WebloggerFactory.getWeblogger()
-                    .getUrlStrategy());
-
-            // if this was a comment posting, check for comment form
-            WeblogEntryCommentForm commentForm = (WeblogEntryCommentForm) request
-                    .getAttribute("commentForm");
-            if (commentForm != null) {
-                initData.put("commentForm", commentForm);
-            }
-
-            // Load models for pages
-            String pageModels = WebloggerConfig
-                    .getProperty("rendering.pageModels");
-            ModelLoader.loadModels(pageModels, model, initData, true);
-            // Load special models for site-wide blog
-            if (WebloggerRuntimeConfig.isSiteWideWeblog(weblog.getHandle())) {
-                String siteModels = WebloggerConfig
-                        .getProperty("rendering.siteModels");
-                ModelLoader.loadModels(siteModels, model, initData, true);
+            model = loadModels(request, response, pageRequest, weblog);
+        } catch (WebloggerException ex) {
+            if (DatabaseHealth.getInstance().reportFailure(ex)) {
+                pageRequest.setLocale(requestedLocale);
+                serveDegraded(request, response, pageRequest);
+                return;
             }
 
-        } catch (WebloggerException ex) {
             log.error("Error loading model objects for page", ex);
 
             if (!response.isCommitted()) {
@@ -506,30 +458,72 @@ public class PageServlet extends HttpServlet {
         // render content
         CachedContent rendererOutput = new CachedContent(
                 RollerConstants.TWENTYFOUR_KB_IN_BYTES, contentType);
+
+        // send the page while it is rendered, once it is past the threshold,
+        // unless the client may already have it and need only a 304
+        if (this.streaming && request.getHeader("If-None-Match") == null) {
+            rendererOutput.streamTo(() -> {
+                response.setContentType(contentType);
+                return ContentEncodingUtil.openStream(request, response);
+            }, this.streamingThreshold);
+        }
+
+        RenderDependencies dependencies = null;
         try {
             log.debug("Doing rendering");
+            // site-wide pages are only invalidated when content they read changes
+            if (isSiteWide) {
+                dependencies = RenderDependencies.start(weblog.getHandle());
+            }
+            // the copy anonymous visitors get is also served to logged in users
+            if (!pageRequest.isLoggedIn() && PersonalFragments.isEnabled()) {
+                PersonalFragments.start(rendererOutput);
+            }
             renderer.render(model, rendererOutput.getCachedWriter());
 
-            // flush rendered output and close
-            rendererOutput.flush();
+            // close rendered output, which also ends a streamed response
             rendererOutput.close();
         } catch (Exception e) {
+            if (rendererOutput.isStreamed()) {
+                // too late for an error page, so cut the response short
+                DatabaseHealth.getInstance().reportFailure(e);
+                throw new IOException("Error during rendering for page "
+                        + page.getId() + " after part of it was sent", e);
+            }
+
+            if (DatabaseHealth.getInstance().reportFailure(e)) {
+                pageRequest.setLocale(requestedLocale);
+                serveDegraded(request, response, pageRequest);
+                return;
+            }
+
             // bummer, error during rendering
             log.error("Error during rendering for page " + page.getId(), e);
 
             if (!response.isCommitted()) {
                 response.reset();
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            // a model which failed to initialize is a server error
+            response.sendError(LazyModel.getFailure(e) != null
+                    ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                    : HttpServletResponse.SC_NOT_FOUND);
             return;
+        } finally {
+            RenderDependencies.stop();
+            PersonalFragments.stop();
         }
 
         // post rendering process
         // flush rendered content to response
         log.debug("Flushing response output");
-        response.setContentType(contentType);
-        response.setContentLength(rendererOutput.getContent().length);
-        response.getOutputStream().write(rendererOutput.getContent());
+        if (rendererOutput.isStreamed()) {
+            log.debug("Response was streamed");
+        } else if (pageRequest.isLoggedIn()
+                || !ModDateHeaderUtil.respondIfNoneMatch(request, response,
+                        rendererOutput.getETag())) {
+            response.setContentType(contentType);
+            ContentEncodingUtil.writeContent(request, response, rendererOutput);
+        }
 
         // cache rendered content. only cache if user is not logged in?
         if ((!this.excludeOwnerPages || !pageRequest.isLoggedIn())
@@ -538,10 +532,15 @@ public class PageServlet extends HttpServlet {
 
             // put it in the right cache
             if (isSiteWide) {
-                siteWideCache.put(cacheKey, rendererOutput);
+                siteWideCache.put(cacheKey, rendererOutput, dependencies);
             } else {
                 weblogPageCache.put(cacheKey, rendererOutput);
             }
+
+            // and share it with anyone waiting for it
+            if (flight != null) {
+                flight.complete(rendererOutput);
+            }
         } else {
             log.debug("SKIPPED " + cacheKey);
         }
@@ -549,6 +548,223 @@ public class PageServlet extends HttpServlet {
         log.debug("Exiting");
     }
 
+    /**
+     * Load the page models for a request.
+     */
+    private Map<String, Object> loadModels(HttpServletRequest request,
+            HttpServletResponse response, WeblogPageRequest pageRequest,
+            Weblog weblog) throws WebloggerException {
+
+        HashMap<String, Object> model = new HashMap<>();
+
+        PageContext pageContext = JspFactory.getDefaultFactory()
+                .getPageContext(this, request, response, "", false,
+                        RollerConstants.EIGHT_KB_IN_BYTES, true);
+
+        // special hack for menu tag
+        request.setAttribute("pageRequest", pageRequest);
+
+        // populate the rendering model
+        Map<String, Object> initData = new HashMap<>();
+        initData.put("requestParameters", request.getParameterMap());
+        initData.put("parsedRequest", pageRequest);
+        initData.put("pageContext", pageContext);
+
+        // define url strategy
+        initData.put("urlStrategy", WebloggerFactory.getWeblogger()
+                .getUrlStrategy());
+
+        // if this was a comment posting, check for comment form
+        WeblogEntryCommentForm commentForm = (WeblogEntryCommentForm) request
+                .getAttribute("commentForm");
+        if (commentForm != null) {
+            initData.put("commentForm", commentForm);
+        }
+
+        // Load models for pages
+        String pageModels = WebloggerConfig
+                .getProperty("rendering.pageModels");
+        ModelLoader.loadModels(pageModels, model, initData, true);
+        // Load special models for site-wide blog
+        if (WebloggerRuntimeConfig.isSiteWideWeblog(weblog.getHandle())) {
+            String siteModels = WebloggerConfig
+                    .getProperty("rendering.siteModels");
+            ModelLoader.loadModels(siteModels, model, initData, true);
+        }
+
+        return model;
+    }
+
+    /**
+     * Serve a logged in user the cached copy of a page anonymous visitors
+     * get, rendering it first if need be, with its personal fragments
+     * rendered again for the user.  Returns false if the page has no
+     * personal fragments, in which case it has to be rendered for the user.
+     */
+    private boolean servePersonalized(HttpServletRequest request,
+            HttpServletResponse response, WeblogPageRequest pageRequest,
+            Weblog weblog, boolean isSiteWide, long lastModified)
+            throws IOException {
+
+        WeblogPageRequest anonymousRequest = pageRequest.detachedCopy();
+        String cacheKey = isSiteWide
+                ? siteWideCache.generateKey(anonymousRequest)
+                : weblogPageCache.generateKey(anonymousRequest);
+
+        CachedContent shared = isSiteWide
+                ? (CachedContent) siteWideCache.get(cacheKey)
+                : (CachedContent) weblogPageCache.get(cacheKey, lastModified);
+        if (shared == null) {
+            RenderCoalescer.Flight flight = coalescer.join(cacheKey);
+            try {
+                shared = flight.await();
+                if (shared == null) {
+                    shared = renderShared(request, anonymousRequest, weblog,
+                            isSiteWide, cacheKey);
+                    flight.complete(shared);
+                }
+            } finally {
+                flight.done();
+            }
+        }
+
+        if (shared == null || shared.getHoles().isEmpty()) {
+            return false;
+        }
+
+        CachedContent content;
+        try {
+            if (pageRequest.getLocale() == null && !weblog.isShowAllLangs()) {
+                pageRequest.setLocale(weblog.getLocale());
+            }
+            content = PersonalFragments.fill(shared,
+                    loadModels(request, response, pageRequest, weblog));
+        } catch (WebloggerException ex) {
+            log.debug("Error loading models for personal fragments", ex);
+            return false;
+        }
+        log.debug("PERSONALIZED " + cacheKey);
+
+        // allow for hit counting
+        if (!isSiteWide
+                && (pageRequest.isWebsitePageHit() || pageRequest
+                        .isOtherPageHit())) {
+            this.processHit(weblog);
+        }
+
+        response.setContentType(shared.getContentType());
+        ContentEncodingUtil.writeContent(request, response, content);
+        return true;
+    }
+
+    /**
+     * Render the copy of a page anonymous visitors get, and cache it.
+     * Returns null if there is no such page or rendering it failed.
+     */
+    private CachedContent renderShared(HttpServletRequest request,
+            WeblogPageRequest anonymousRequest, Weblog weblog,
+            boolean isSiteWide, String cacheKey) {
+
+        RenderDependencies dependencies = isSiteWide
+                ? RenderDependencies.start(weblog.getHandle()) : null;
+        try {
+            CachedContent content = WeblogRenderUtil.renderPage(anonymousRequest,
+                    new HashMap<>(request.getParameterMap()), false, isSiteWide);
+            if (content != null) {
+                log.debug("PUT " + cacheKey);
+                if (isSiteWide) {
+                    siteWideCache.put(cacheKey, content, dependencies);
+                } else {
+                    weblogPageCache.put(cacheKey, content);
+                }
+            }
+            return content;
+        } catch (Exception e) {
+            DatabaseHealth.getInstance().reportFailure(e);
+            log.debug("Error rendering shared copy of " + cacheKey, e);
+            return null;
+        } finally {
+            RenderDependencies.stop();
+        }
+    }
+
+    /**
+     * Serve the last known cached copy of a page without touching the
+     * database, which is degraded.  Logged in users get the copy anonymous
+     * visitors see when there is none of their own.
+     */
+    private void serveDegraded(HttpServletRequest request,
+            HttpServletResponse response, WeblogPageRequest pageRequest)
+            throws IOException {
+
+        CachedContent content = null;
+        if (request.getParameter("popup") == null) {
+            content = getLastKnown(pageRequest);
+            if (content == null && pageRequest.isLoggedIn()) {
+                content = getLastKnown(pageRequest.detachedCopy());
+            }
+        }
+
+        DegradedResponseUtil.respond(request, response, content,
+                "text/html; charset=utf-8");
+    }
+
+    /**
+     * Whatever is cached for the page, in either cache since whether the
+     * weblog is the site-wide one can't be looked up.
+     */
+    private CachedContent getLastKnown(WeblogPageRequest pageRequest) {
+        CachedContent content = (CachedContent) weblogPageCache.getLastKnown(
+                weblogPageCache.generateKey(pageRequest));
+        if (content == null) {
+            content = (CachedContent) siteWideCache.getLastKnown(
+                    siteWideCache.generateKey(pageRequest));
+        }
+        return content;
+    }
+
+    /**
+     * Render a stale page again in the background and put the fresh copy in
+     * the cache, replacing the stale one being served in the meantime.
+     */
+    private void revalidate(HttpServletRequest request,
+            WeblogPageRequest pageRequest, String cacheKey) {
+
+        // the servlet request can't be used once this request is over, so
+        // take copies of everything rendering needs from it
+        final WeblogPageRequest detachedRequest = pageRequest.detachedCopy();
+        final Map<String, String[]> requestParameters = new HashMap<>(
+                request.getParameterMap());
+        final boolean popup = request.getParameter("popup") != null;
+
+        Runnable task = () -> {
+            try {
+                CachedContent content = WeblogRenderUtil.renderPage(
+                        detachedRequest, requestParameters, popup, false);
+                if (content != null) {
+                    log.debug("REVALIDATED " + cacheKey);
+                    weblogPageCache.put(cacheKey, content);
+                }
+            } catch (Exception e) {
+                log.error("Error rendering stale page " + cacheKey, e);
+            } finally {
+                weblogPageCache.endRevalidation(cacheKey);
+                WebloggerFactory.getWeblogger().release();
+            }
+        };
+
+        try {
+            WebloggerFactory.getWeblogger().getThreadManager()
+                    .executeInBackground(task);
+        } catch (InterruptedException e) {
+            weblogPageCache.endRevalidation(cacheKey);
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to schedule rendering of stale page " + cacheKey);
+            weblogPageCache.endRevalidation(cacheKey);
+        }
+    }
+
     /**
      * Handle POST requests.
      * 
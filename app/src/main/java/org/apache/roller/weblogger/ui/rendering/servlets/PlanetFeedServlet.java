@@ -124,8 +124,8 @@ public class PlanetFeedServlet extends HttpServlet {
                 + this.generateKey(planetRequest);
         CachedContent entry = (CachedContent) planetCache.get(cacheKey);
         if (entry != null) {
-            response.setContentLength(entry.getContent().length);
-            response.getOutputStream().write(entry.getContent());
+            response.setContentLength(entry.getContentLength());
+            entry.writeTo(response.getOutputStream());
             return;
         }
 
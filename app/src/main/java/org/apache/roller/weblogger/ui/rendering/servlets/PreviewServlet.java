@@ -33,6 +33,7 @@ import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
 import org.apache.roller.weblogger.ui.core.RollerContext;
 import org.apache.roller.weblogger.ui.rendering.Renderer;
 import org.apache.roller.weblogger.ui.rendering.RendererManager;
+import org.apache.roller.weblogger.ui.rendering.model.LazyModel;
 import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPreviewRequest;
 import org.apache.roller.weblogger.util.cache.CachedContent;
@@ -277,7 +278,10 @@ public class PreviewServlet extends HttpServlet {
             if (!response.isCommitted()) {
                 response.reset();
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            // a model which failed to initialize is a server error
+            response.sendError(LazyModel.getFailure(e) != null
+                    ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                    : HttpServletResponse.SC_NOT_FOUND);
             return;
         }
         
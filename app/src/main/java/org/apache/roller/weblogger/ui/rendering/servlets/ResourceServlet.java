@@ -20,6 +20,7 @@ package org.apache.roller.weblogger.ui.rendering.servlets;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -30,6 +31,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.MediaFileManager;
 import org.apache.roller.weblogger.business.WebloggerFactory;
@@ -37,6 +39,7 @@ import org.apache.roller.weblogger.pojos.MediaFile;
 import org.apache.roller.weblogger.pojos.ThemeResource;
 import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.pojos.WeblogTheme;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogResourceRequest;
 
@@ -99,6 +102,7 @@ public class ResourceServlet extends HttpServlet {
                 + "]");
 
         long resourceLastMod = 0;
+        long resourceLength = -1;
         InputStream resourceStream = null;
 
         // first see if resource comes from weblog's shared theme
@@ -132,6 +136,7 @@ public class ResourceServlet extends HttpServlet {
                 MediaFile mf = mmgr.getMediaFileByOriginalPath(weblog,
                         resourceRequest.getResourcePath());
                 resourceLastMod = mf.getLastModified();
+                resourceLength = mf.getLength();
                 resourceStream = mf.getInputStream();
 
             } catch (Exception ex) {
@@ -159,12 +164,30 @@ public class ResourceServlet extends HttpServlet {
         }
 
         // set the content type based on whatever is in our web.xml mime defs
-        response.setContentType(this.context.getMimeType(resourceRequest
-                .getResourcePath()));
+        String contentType = this.context.getMimeType(resourceRequest
+                .getResourcePath());
+        response.setContentType(contentType);
+
+        // compress text resources, like stylesheets and scripts
+        boolean compress = false;
+        if (ContentEncodingUtil.isEnabled()
+                && ContentEncodingUtil.isCompressible(contentType)
+                && (resourceLength < 0 || resourceLength >= ContentEncodingUtil.getMinSize())) {
+            response.addHeader("Vary", "Accept-Encoding");
+            compress = ContentEncodingUtil.acceptsGzip(request);
+        }
 
         try {
             // ok, lets serve up the file
-            resourceStream.transferTo(response.getOutputStream());
+            if (compress) {
+                response.setHeader("Content-Encoding", ContentEncodingUtil.GZIP);
+                try (GZIPOutputStream out = new GZIPOutputStream(
+                        response.getOutputStream(), RollerConstants.EIGHT_KB_IN_BYTES)) {
+                    resourceStream.transferTo(out);
+                }
+            } else {
+                resourceStream.transferTo(response.getOutputStream());
+            }
 
         } catch (IOException ex) {
             if (!response.isCommitted()) {
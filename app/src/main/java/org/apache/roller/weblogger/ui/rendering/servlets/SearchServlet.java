@@ -19,6 +19,8 @@
 package org.apache.roller.weblogger.ui.rendering.servlets;
 
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,9 +46,12 @@ import org.apache.roller.weblogger.pojos.WeblogTheme;
 import org.apache.roller.weblogger.ui.rendering.Renderer;
 import org.apache.roller.weblogger.ui.rendering.RendererManager;
 import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository;
+import org.apache.roller.weblogger.ui.rendering.model.LazyModel;
 import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
+import org.apache.roller.weblogger.ui.rendering.util.AsyncRenderer;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogSearchRequest;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderCoalescer;
 import org.apache.roller.weblogger.ui.rendering.util.cache.SiteWideCache;
 import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogPageCache;
 import org.apache.roller.weblogger.util.I18nMessages;
@@ -64,6 +69,9 @@ public class SearchServlet extends HttpServlet {
     // Development theme reloading
     Boolean themeReload = false;
 
+    // concurrent identical searches share one render
+    private RenderCoalescer coalescer = null;
+
     /**
      * Init method for this servlet
      */
@@ -76,6 +84,8 @@ public class SearchServlet extends HttpServlet {
 
         // Development theme reloading
         themeReload = WebloggerConfig.getBooleanProperty("themes.reload.mode");
+
+        this.coalescer = new RenderCoalescer("search");
     }
 
     /**
@@ -85,6 +95,11 @@ public class SearchServlet extends HttpServlet {
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
 
+        // render on a rendering thread when async rendering is enabled
+        if (AsyncRenderer.getInstance().dispatch(request, response, this::doGet)) {
+            return;
+        }
+
         log.debug("Entering");
 
         Weblog weblog;
@@ -146,6 +161,38 @@ public class SearchServlet extends HttpServlet {
             searchRequest.setLocale(weblog.getLocale());
         }
 
+        // search results aren't cached, but anonymous visitors all get the
+        // same page so identical searches in progress can be shared
+        RenderCoalescer.Flight flight = null;
+        if (!searchRequest.isLoggedIn()) {
+            flight = coalescer.join(generateKey(searchRequest, deviceType));
+            CachedContent content = flight.await();
+            if (content != null) {
+                response.setContentType("text/html; charset=utf-8");
+                response.setContentLength(content.getContentLength());
+                content.writeTo(response.getOutputStream());
+                return;
+            }
+        }
+
+        try {
+            renderSearch(request, response, searchRequest, weblog,
+                    deviceType, flight);
+        } finally {
+            if (flight != null) {
+                flight.done();
+            }
+        }
+    }
+
+    /**
+     * Render the results page for a search.
+     */
+    private void renderSearch(HttpServletRequest request,
+            HttpServletResponse response, WeblogSearchRequest searchRequest,
+            Weblog weblog, MobileDeviceRepository.DeviceType deviceType,
+            RenderCoalescer.Flight flight) throws IOException {
+
         // lookup template to use for rendering
         ThemeTemplate page = null;
         try {
@@ -259,7 +306,10 @@ public class SearchServlet extends HttpServlet {
             if (!response.isCommitted()) {
                 response.reset();
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            // a model which failed to initialize is a server error
+            response.sendError(LazyModel.getFailure(e) != null
+                    ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                    : HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
@@ -270,7 +320,39 @@ public class SearchServlet extends HttpServlet {
         response.setContentLength(rendererOutput.getContent().length);
         response.getOutputStream().write(rendererOutput.getContent());
 
+        if (flight != null) {
+            flight.complete(rendererOutput);
+        }
+
         log.debug("Exiting");
     }
 
+    /**
+     * Key identifying searches which render the same results page.
+     */
+    private static String generateKey(WeblogSearchRequest searchRequest,
+            MobileDeviceRepository.DeviceType deviceType) {
+
+        StringBuilder key = new StringBuilder(128);
+        key.append(searchRequest.getWeblogHandle());
+        key.append("/search/").append(encode(searchRequest.getQuery()));
+        key.append('/').append(searchRequest.getPageNum());
+
+        if (searchRequest.getWeblogCategoryName() != null) {
+            key.append("/cat/").append(encode(searchRequest.getWeblogCategoryName()));
+        }
+
+        if (searchRequest.getLocale() != null) {
+            key.append("/lang/").append(searchRequest.getLocale());
+        }
+
+        key.append("/deviceType=").append(deviceType.toString());
+
+        return key.toString();
+    }
+
+    private static String encode(String value) {
+        return (value == null) ? "" : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
 }
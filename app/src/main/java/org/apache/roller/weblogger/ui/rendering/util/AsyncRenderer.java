@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+
+/**
+ * Renders requests on threads of its own instead of the container's, so
+ * that slow database queries and templates don't use up the connector
+ * threads, and how many requests render at once can be tuned on its own.
+ *
+ * Requests are put in async mode and handed to a virtual thread per request
+ * when the JVM has them, otherwise to a pool of rendering threads.  At most
+ * "maxConcurrent" requests render at once and "maxQueued" more wait, any
+ * further requests are rendered on the container thread as before.  So are
+ * requests which arrive through a filter or servlet not supporting async.
+ */
+public final class AsyncRenderer {
+
+    private static final Log log = LogFactory.getLog(AsyncRenderer.class);
+
+    // set on requests handed to a rendering thread
+    private static final String RENDERING = AsyncRenderer.class.getName() + ".rendering";
+
+    // what filters need done once the response is complete
+    private static final String FINISHERS = AsyncRenderer.class.getName() + ".finishers";
+
+    private final boolean enabled;
+    private final ExecutorService executor;
+
+    // limits renders in progress, with virtual threads
+    private final Semaphore rendering;
+
+    // limits renders in progress and waiting
+    private final Semaphore admitted;
+
+    // reference to our singleton instance
+    private static final AsyncRenderer instance = new AsyncRenderer();
+
+
+    /**
+     * Something to be done once a response is complete.
+     */
+    @FunctionalInterface
+    public interface Finisher {
+        void finish() throws IOException;
+    }
+
+
+    /**
+     * Renders a request, the doGet() of a servlet.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response)
+                throws ServletException, IOException;
+    }
+
+
+    // non-instantiable because we are a singleton
+    private AsyncRenderer() {
+
+        enabled = WebloggerConfig.getBooleanProperty("rendering.async.enabled", false);
+        int maxConcurrent = Math.max(1, WebloggerConfig.getIntProperty("rendering.async.maxConcurrent", 50));
+        int maxQueued = Math.max(0, WebloggerConfig.getIntProperty("rendering.async.maxQueued", 500));
+
+        ExecutorService virtual = null;
+        if (enabled && WebloggerConfig.getBooleanProperty("rendering.async.virtualThreads", true)) {
+            virtual = newVirtualThreadExecutor();
+        }
+
+        if (!enabled) {
+            executor = null;
+            rendering = null;
+        } else if (virtual != null) {
+            executor = virtual;
+            rendering = new Semaphore(maxConcurrent);
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "RenderingThread-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            rendering = null;
+        }
+        admitted = new Semaphore(maxConcurrent + maxQueued);
+
+        log.info("Async rendering enabled = " + enabled
+                + (enabled ? ", virtual threads = " + (virtual != null)
+                + ", max concurrent = " + maxConcurrent + ", max queued = " + maxQueued : ""));
+    }
+
+
+    // renders on the given executor, for tests
+    AsyncRenderer(ExecutorService executor, int maxConcurrent, int maxQueued) {
+        this.enabled = true;
+        this.executor = executor;
+        this.rendering = null;
+        this.admitted = new Semaphore(maxConcurrent + maxQueued);
+    }
+
+
+    public static AsyncRenderer getInstance() {
+        return instance;
+    }
+
+
+    /**
+     * Hand a request over to a rendering thread, which calls the handler and
+     * completes the request.  Returns false if the caller has to handle the
+     * request itself, because async rendering is disabled, not possible for
+     * this request or too many requests are already waiting.
+     */
+    public boolean dispatch(HttpServletRequest request, HttpServletResponse response,
+            Handler handler) {
+
+        if (!enabled || request.getAttribute(RENDERING) != null
+                || !request.isAsyncSupported() || request.isAsyncStarted()) {
+            return false;
+        }
+
+        if (!admitted.tryAcquire()) {
+            log.debug("Too many requests waiting to render, rendering on container thread");
+            return false;
+        }
+
+        request.setAttribute(RENDERING, Boolean.TRUE);
+        final AsyncContext context = request.startAsync(request, response);
+        // a render takes as long as it takes, like it does on the container thread
+        context.setTimeout(0);
+
+        // the rendering thread acts as the user the request belongs to
+        final SecurityContext security = SecurityContextHolder.getContext();
+
+        try {
+            executor.execute(() -> render(context, request, response, handler, security));
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            admitted.release();
+            renderInline(context, request, response, handler);
+        }
+        return true;
+    }
+
+
+    /**
+     * Register something which has to be done once the response to a request
+     * is complete, which is after rendering finished when it is rendered
+     * async.  Must be called before the request reaches the servlet.
+     */
+    public static void addFinisher(HttpServletRequest request, Finisher finisher) {
+        @SuppressWarnings("unchecked")
+        List<Finisher> finishers = (List<Finisher>) request.getAttribute(FINISHERS);
+        if (finishers == null) {
+            finishers = new ArrayList<>(2);
+            request.setAttribute(FINISHERS, finishers);
+        }
+        finishers.add(finisher);
+    }
+
+
+    /**
+     * Stop taking new renders, called when the application shuts down.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+
+    private void render(AsyncContext context, HttpServletRequest request,
+            HttpServletResponse response, Handler handler, SecurityContext security) {
+
+        boolean acquired = false;
+        try {
+            if (rendering != null) {
+                rendering.acquire();
+                acquired = true;
+            }
+            SecurityContextHolder.setContext(security);
+            handle(request, response, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(response, e);
+        } finally {
+            if (acquired) {
+                rendering.release();
+            }
+            SecurityContextHolder.clearContext();
+            admitted.release();
+            complete(context, request, response);
+        }
+    }
+
+
+    private void renderInline(AsyncContext context, HttpServletRequest request,
+            HttpServletResponse response, Handler handler) {
+        try {
+            handle(request, response, handler);
+        } finally {
+            complete(context, request, response);
+        }
+    }
+
+
+    private static void handle(HttpServletRequest request, HttpServletResponse response,
+            Handler handler) {
+        try {
+            handler.handle(request, response);
+        } catch (Exception e) {
+            sendError(response, e);
+        } finally {
+            // the persistence session filter only releases the container thread's session
+            if (WebloggerFactory.isBootstrapped()) {
+                WebloggerFactory.getWeblogger().release();
+            }
+        }
+    }
+
+
+    private static void sendError(HttpServletResponse response, Exception e) {
+        log.error("Error rendering request", e);
+        if (!response.isCommitted()) {
+            try {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } catch (Exception ex) {
+                log.debug("Unable to send error", ex);
+            }
+        }
+    }
+
+
+    private static void complete(AsyncContext context, HttpServletRequest request,
+            HttpServletResponse response) {
+        @SuppressWarnings("unchecked")
+        List<Finisher> finishers = (List<Finisher>) request.getAttribute(FINISHERS);
+        if (finishers != null) {
+            for (Finisher finisher : finishers) {
+                try {
+                    finisher.finish();
+                } catch (Exception e) {
+                    log.debug("Error finishing response", e);
+                }
+            }
+        }
+        context.complete();
+    }
+
+
+    // Executors.newVirtualThreadPerTaskExecutor(), if this JVM has it
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup().findStatic(
+                    java.util.concurrent.Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class)).invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (Throwable t) {
+            log.warn("Unable to create virtual threads, using a thread pool", t);
+            return null;
+        }
+    }
+
+}
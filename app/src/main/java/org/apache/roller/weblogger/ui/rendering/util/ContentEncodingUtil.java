@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+/**
+ * Utility class for negotiating compressed responses with clients.
+ *
+ * Only gzip is supported, there is no pure java brotli encoder to use.
+ */
+public final class ContentEncodingUtil {
+
+    public static final String GZIP = "gzip";
+
+    private static final boolean ENABLED = WebloggerConfig.getBooleanProperty(
+            "rendering.compression.enabled", true);
+
+    private static final int MIN_SIZE = WebloggerConfig.getIntProperty(
+            "rendering.compression.minSize", 1024);
+
+    private ContentEncodingUtil() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Responses smaller than this many bytes aren't worth compressing.
+     */
+    public static int getMinSize() {
+        return MIN_SIZE;
+    }
+
+    /**
+     * True if the Accept-Encoding header of the request allows gzip.
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        return acceptsGzip(request.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * True if the given Accept-Encoding header value allows gzip.
+     */
+    public static boolean acceptsGzip(String accepts) {
+
+        if (accepts == null) {
+            return false;
+        }
+
+        Boolean gzip = null;
+        Boolean any = null;
+        for (String coding : accepts.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            boolean allowed = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        allowed = Float.parseFloat(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        allowed = false;
+                    }
+                }
+            }
+            if (GZIP.equals(name) || "x-gzip".equals(name)) {
+                gzip = allowed;
+            } else if ("*".equals(name)) {
+                any = allowed;
+            }
+        }
+
+        if (gzip != null) {
+            return gzip;
+        }
+        return any != null && any;
+    }
+
+    /**
+     * True if content of the given type is text which compresses well.
+     */
+    public static boolean isCompressible(String contentType) {
+
+        if (contentType == null) {
+            return false;
+        }
+
+        String type = contentType.toLowerCase(Locale.ENGLISH);
+        int semicolon = type.indexOf(';');
+        if (semicolon >= 0) {
+            type = type.substring(0, semicolon);
+        }
+        type = type.trim();
+
+        return type.startsWith("text/")
+                || type.endsWith("/xml") || type.endsWith("+xml")
+                || type.endsWith("/json") || type.endsWith("+json")
+                || type.endsWith("/javascript");
+    }
+
+    /**
+     * The strong entity tag of the gzip compressed copy of content with the
+     * given entity tag.  The two representations need distinct tags.
+     */
+    public static String getGzipETag(String eTag) {
+        if (eTag.endsWith("\"")) {
+            return eTag.substring(0, eTag.length() - 1) + "-" + GZIP + "\"";
+        }
+        return eTag + "-" + GZIP;
+    }
+
+    /**
+     * Open the response body for content of a yet unknown length, gzip
+     * compressed if the client accepts that.  The content type of the
+     * response must already be set, and closing the stream ends the response.
+     */
+    public static OutputStream openStream(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        if (ENABLED && isCompressible(response.getContentType())) {
+
+            response.addHeader("Vary", "Accept-Encoding");
+
+            if (acceptsGzip(request)) {
+                response.setHeader("Content-Encoding", GZIP);
+                // sync flush, so a flush sends what was written so far
+                return new GZIPOutputStream(response.getOutputStream(),
+                        RollerConstants.EIGHT_KB_IN_BYTES, true);
+            }
+        }
+
+        return response.getOutputStream();
+    }
+
+    /**
+     * Compress content which is about to be cached, if it is big enough to
+     * be sent compressed, so that the gzip copy is made once at cache fill
+     * time and is part of the weight of the cache entry from the start.
+     * Rendered content without a content type of its own is text.
+     */
+    public static void compressForCache(Object value) {
+        if (ENABLED && value instanceof CachedContent) {
+            CachedContent content = (CachedContent) value;
+            if (content.getContentLength() >= MIN_SIZE && (content.getContentType() == null
+                    || isCompressible(content.getContentType()))) {
+                content.getGzipContent();
+            }
+        }
+    }
+
+    /**
+     * Write cached content to the response, sending its gzip compressed copy
+     * if the client accepts that, along with the entity tag of whichever was
+     * sent.  The content type of the response must already be set.
+     */
+    public static void writeContent(HttpServletRequest request,
+            HttpServletResponse response, CachedContent content)
+            throws IOException {
+
+        if (ENABLED && content.getContentLength() >= MIN_SIZE
+                && isCompressible(response.getContentType())) {
+
+            response.addHeader("Vary", "Accept-Encoding");
+
+            if (acceptsGzip(request)) {
+                ByteBuffer gzip = content.getGzipContent();
+                if (gzip != null) {
+                    response.setHeader("Content-Encoding", GZIP);
+                    response.setHeader("ETag", getGzipETag(content.getETag()));
+                    response.setContentLength(gzip.remaining());
+                    Channels.newChannel(response.getOutputStream()).write(gzip);
+                    return;
+                }
+            }
+        }
+
+        response.setHeader("ETag", content.getETag());
+        response.setContentLength(content.getContentLength());
+        content.writeTo(response.getOutputStream());
+    }
+
+}
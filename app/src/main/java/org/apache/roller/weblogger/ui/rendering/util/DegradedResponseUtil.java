@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.roller.weblogger.business.DatabaseHealth;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+/**
+ * Utility class for responding while the database is degraded, without
+ * touching it.
+ */
+public final class DegradedResponseUtil {
+
+    private DegradedResponseUtil() {
+    }
+
+    /**
+     * Send the last known cached content, or service unavailable when there
+     * is none so that clients come back later instead of seeing a 404.
+     *
+     * @param contentType used when the cached content has none of its own
+     */
+    public static void respond(HttpServletRequest request,
+            HttpServletResponse response, CachedContent content,
+            String contentType) throws IOException {
+
+        if (content == null) {
+            sendUnavailable(response);
+            return;
+        }
+
+        DatabaseHealth.getInstance().recordDegradedResponse(true);
+
+        if (!response.isCommitted()) {
+            response.reset();
+        }
+
+        // it may be out of date, so make clients check again next time
+        response.setHeader("Cache-Control", "no-cache");
+        if (ModDateHeaderUtil.respondIfNoneMatch(request, response, content.getETag())) {
+            return;
+        }
+
+        response.setContentType(content.getContentType() != null
+                ? content.getContentType() : contentType);
+        ContentEncodingUtil.writeContent(request, response, content);
+    }
+
+    /**
+     * Reject a request which can't be handled without the database, like a
+     * comment being posted.
+     */
+    public static void sendUnavailable(HttpServletResponse response) throws IOException {
+
+        DatabaseHealth health = DatabaseHealth.getInstance();
+        health.recordDegradedResponse(false);
+
+        if (!response.isCommitted()) {
+            response.reset();
+        }
+        response.setHeader("Retry-After", String.valueOf(health.getRetryAfter()));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+}
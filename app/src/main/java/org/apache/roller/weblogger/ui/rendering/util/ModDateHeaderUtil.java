@@ -98,6 +98,13 @@ public final class ModDateHeaderUtil {
 		}
 
 		String previousToken = request.getHeader("If-None-Match");
+
+		// entity tags of the content itself take precedence over the date,
+		// see respondIfNoneMatch()
+		if (isEntityTag(previousToken)) {
+			return false;
+		}
+
 		if (eTag != null && previousToken != null && eTag.equals(previousToken)
 				&& lastModifiedTimeMillis <= sinceDate
 				|| (eTag == null || previousToken == null)
@@ -120,6 +127,56 @@ public final class ModDateHeaderUtil {
 		}
 	}
 
+	/**
+	 * Sets the HTTP response status to 304 (NOT MODIFIED) if the request
+	 * contains an If-None-Match header listing the given strong entity tag of
+	 * the content, or the tag of its gzip compressed copy. Returns true if the
+	 * response status was set, false if not.
+	 * 
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param eTag
+	 *            the entity tag of the content about to be sent
+	 * 
+	 * @return true if a response status was sent, false otherwise.
+	 */
+	public static boolean respondIfNoneMatch(HttpServletRequest request,
+			HttpServletResponse response, String eTag) {
+
+		String previousTokens = request.getHeader("If-None-Match");
+		if (eTag == null || previousTokens == null) {
+			return false;
+		}
+
+		String gzipETag = ContentEncodingUtil.getGzipETag(eTag);
+		for (String token : previousTokens.split(",")) {
+			token = token.trim();
+			// If-None-Match uses the weak comparison
+			if (token.startsWith("W/")) {
+				token = token.substring(2);
+			}
+			if (token.equals(eTag) || token.equals(gzipETag)) {
+
+				if (log.isDebugEnabled()) {
+					log.debug("NOT MODIFIED (ETag) " + request.getRequestURL());
+				}
+
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				response.setHeader("ETag", token);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// true for a quoted entity tag, the device type tags are unquoted
+	private static boolean isEntityTag(String token) {
+		return token != null
+				&& (token.startsWith("\"") || token.startsWith("W/\""));
+	}
+
 	/**
 	 * Set the Last-Modified header using the given time in milliseconds. Note
 	 * that because the header has the granularity of one second, the value will
@@ -0,0 +1,971 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.DatabaseHealth;
+import org.apache.roller.weblogger.business.FileContentManager;
+import org.apache.roller.weblogger.business.URLStrategy;
+import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
+import org.apache.roller.weblogger.pojos.FileContent;
+import org.apache.roller.weblogger.pojos.MediaFile;
+import org.apache.roller.weblogger.pojos.MediaFileDirectory;
+import org.apache.roller.weblogger.pojos.Theme;
+import org.apache.roller.weblogger.pojos.ThemeTemplate;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntry.PubStatus;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogEntrySearchCriteria;
+import org.apache.roller.weblogger.pojos.WeblogEntryTag;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
+import org.apache.roller.weblogger.util.cache.CacheHandler;
+import org.apache.roller.weblogger.util.cache.CacheManager;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+
+/**
+ * Exports weblogs as static sites, for serving from a plain web server or a
+ * CDN without Roller behind it.
+ *
+ * A full export renders the front page, every published entry, the
+ * category, tag, month and day pages, the custom pages of the theme and the
+ * entries and comments feeds of a weblog through the usual rendering
+ * pipeline, on a small pool of threads, and copies its media files.
+ * Everything goes under "directory/handle/" using the paths of the weblog's
+ * own urls, pages as an index.html in a directory of their own and feeds and
+ * media files as plain files.  Files which are unchanged are left alone, and
+ * files of pages which no longer exist are deleted.
+ *
+ * After that the exported sites are kept up to date from the cache
+ * invalidation events.  A changed entry re-exports its permalink, the pages
+ * it is listed on before and after the change, the front page, the custom
+ * pages and the feeds.  A comment re-exports only the permalink, the front
+ * page and the feeds.  Changes to templates, categories, bookmarks or the
+ * weblog itself re-export it all.  Changes are collected for a delay
+ * (seconds) and exported in the background.
+ *
+ * Paging is done with query strings, which a static site can't have, so only
+ * the first page of each collection is exported.
+ */
+public final class StaticSiteExporter {
+
+    private static final Log log = LogFactory.getLog(StaticSiteExporter.class);
+
+    public static final String STATS_ID = "export.static";
+
+    private static final String INDEX_FILE = "index.html";
+    private static final int ENTRY_BATCH_SIZE = 100;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final Set<String> weblogHandles;
+    private final boolean allWeblogs;
+    private final int threads;
+    private final long delay;
+
+    // changes waiting to be exported, by weblog handle
+    private final Map<String, Changes> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean pendingAll = new AtomicBoolean(false);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // pages each published entry was on when last seen, by weblog handle and
+    // entry id, rebuilt by every full export of the weblog
+    private final Map<String, Map<String, Collection<ExportPage>>> entryPages =
+            new ConcurrentHashMap<>();
+
+    // progress of the current or last export
+    private volatile String lastWeblog = null;
+    private volatile Date lastStarted = null;
+    private volatile long lastElapsed = 0;
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // reference to our singleton instance
+    private static final StaticSiteExporter instance = new StaticSiteExporter();
+
+
+    // non-instantiable because we are a singleton
+    private StaticSiteExporter() {
+
+        String dir = WebloggerConfig.getProperty(STATS_ID+".dir");
+        String handles = WebloggerConfig.getProperty(STATS_ID+".weblogs", "");
+        enabled = WebloggerConfig.getBooleanProperty(STATS_ID+".enabled", false)
+                && StringUtils.isNotBlank(dir);
+        directory = enabled ? Paths.get(dir.trim()).toAbsolutePath().normalize() : null;
+        allWeblogs = "*".equals(handles.trim());
+        weblogHandles = new HashSet<>(Arrays.asList(StringUtils.split(handles, ", ")));
+        threads = Math.max(1, WebloggerConfig.getIntProperty(STATS_ID+".threads", 4));
+        delay = (long) WebloggerConfig.getIntProperty(STATS_ID+".delay", 5)
+                * RollerConstants.SEC_IN_MS;
+
+        if(enabled) {
+            CacheManager.registerHandler(new InvalidationHandler());
+            CacheManager.registerClearListener(() -> start("caches cleared"));
+        }
+
+        log.info("Static site export enabled = "+enabled+", directory = "+directory
+                +", weblogs = "+handles+", threads = "+threads);
+    }
+
+
+    // exports to the given directory, for tests
+    StaticSiteExporter(Path directory, String handles) {
+        this.enabled = true;
+        this.directory = directory;
+        this.allWeblogs = false;
+        this.weblogHandles = new HashSet<>(Arrays.asList(StringUtils.split(handles, ", ")));
+        this.threads = 2;
+        this.delay = 0;
+    }
+
+
+    public static StaticSiteExporter getInstance() {
+        return instance;
+    }
+
+
+    /**
+     * Start a full export of all the exported weblogs in the background.
+     */
+    public void start(String reason) {
+        if(enabled) {
+            log.info("Static site export of all weblogs requested ("+reason+")");
+            pendingAll.set(true);
+            schedule();
+        }
+    }
+
+
+    /**
+     * Start a full export of one weblog in the background.
+     */
+    public void exportWeblog(String handle) {
+        if(isExported(handle)) {
+            exportAllLater(handle);
+            schedule();
+        }
+    }
+
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("running", running.get());
+        stats.put("pendingWeblogs", pending.size());
+        stats.put("lastWeblog", lastWeblog);
+        stats.put("lastStarted", lastStarted);
+        stats.put("lastElapsedMillis", lastElapsed);
+        stats.put("written", written.get());
+        stats.put("unchanged", unchanged.get());
+        stats.put("deleted", deleted.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+
+
+    /**
+     * The file a url of a weblog is exported to, relative to the export
+     * directory.  Pages get a directory of their own with an index.html in
+     * it, anything else is exported as is.  The query string and fragment
+     * are dropped, percent escapes are decoded the way web servers do when
+     * mapping urls to files, so a '+' stays a '+'.
+     *
+     * @param weblogURL the relative url of the weblog itself
+     * @return null if the url is not one of the weblog's
+     */
+    static String toPath(String handle, String weblogURL, String url, boolean page) {
+
+        if(url == null || !url.startsWith(weblogURL)) {
+            return null;
+        }
+
+        String path = url.substring(weblogURL.length());
+        int end = StringUtils.indexOfAny(path, "?#");
+        if(end >= 0) {
+            path = path.substring(0, end);
+        }
+        path = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+
+        if(page) {
+            path = (path.isEmpty() || path.endsWith("/"))
+                    ? path + INDEX_FILE : path + "/" + INDEX_FILE;
+        }
+
+        for (String segment : StringUtils.split(path, '/')) {
+            if(".".equals(segment) || "..".equals(segment)) {
+                return null;
+            }
+        }
+        return handle + "/" + path;
+    }
+
+
+    private boolean isExported(String handle) {
+        return enabled && (allWeblogs || weblogHandles.contains(handle));
+    }
+
+
+    /*
+     * Changes are only ever added to inside compute(), so they either make
+     * it into the Changes the exporter takes with remove(), or into a new
+     * one for the next round, never into one that was already exported.
+     */
+    private void exportAllLater(String handle) {
+        pending.compute(handle, (h, changes) -> {
+            Changes result = (changes != null) ? changes : new Changes();
+            result.all = true;
+            return result;
+        });
+    }
+
+
+    private void exportLater(String handle, Collection<ExportPage> pages) {
+        pending.compute(handle, (h, changes) -> {
+            Changes result = (changes != null) ? changes : new Changes();
+            result.addAll(pages);
+            return result;
+        });
+    }
+
+
+    // takes the paths waiting to be exported, for tests
+    Set<String> takePendingPaths(String handle) {
+        Changes changes = pending.remove(handle);
+        Set<String> paths = new HashSet<>();
+        if(changes != null) {
+            for (ExportPage page : changes.getPages()) {
+                paths.add(page.path);
+            }
+        }
+        return paths;
+    }
+
+
+    private void schedule() {
+
+        if(!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        Runnable task = () -> {
+            try {
+                while(pendingAll.get() || !pending.isEmpty()) {
+                    if(delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    if(DatabaseHealth.getInstance().isDegraded()) {
+                        log.info("Database degraded, postponing static site export");
+                        continue;
+                    }
+                    exportPending();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.set(false);
+            }
+
+            // changes which came in as we were finishing
+            if((pendingAll.get() || !pending.isEmpty()) && !Thread.currentThread().isInterrupted()) {
+                schedule();
+            }
+        };
+
+        try {
+            WebloggerFactory.getWeblogger().getThreadManager().executeInBackground(task);
+        } catch (InterruptedException e) {
+            running.set(false);
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            log.warn("Unable to schedule static site export");
+        }
+    }
+
+
+    private void exportPending() {
+
+        if(pendingAll.getAndSet(false)) {
+            try {
+                for (String handle : getExportedHandles()) {
+                    exportAllLater(handle);
+                }
+            } catch (Exception e) {
+                log.error("Error listing weblogs to export", e);
+            } finally {
+                WebloggerFactory.getWeblogger().release();
+            }
+        }
+
+        for (String handle : new ArrayList<>(pending.keySet())) {
+            Changes changes = pending.remove(handle);
+            if(changes == null) {
+                continue;
+            }
+            if(changes.all) {
+                exportAll(handle);
+            } else {
+                export(handle, changes.getPages(), false);
+            }
+        }
+    }
+
+
+    private List<String> getExportedHandles() throws WebloggerException {
+        if(!allWeblogs) {
+            return new ArrayList<>(weblogHandles);
+        }
+        List<String> handles = new ArrayList<>();
+        for (Weblog weblog : WebloggerFactory.getWeblogger().getWeblogManager()
+                .getWeblogs(Boolean.TRUE, Boolean.TRUE, null, null, 0, -1)) {
+            handles.add(weblog.getHandle());
+        }
+        return handles;
+    }
+
+
+    /**
+     * Export everything of a weblog, and remove what the last export left
+     * which isn't there anymore.  A weblog which is gone is removed.
+     */
+    private void exportAll(String handle) {
+
+        Map<String, ExportPage> pages = new LinkedHashMap<>();
+        try {
+            Weblog weblog = WebloggerFactory.getWeblogger().getWeblogManager()
+                    .getWeblogByHandle(handle);
+            if(weblog == null || Boolean.FALSE.equals(weblog.getVisible())) {
+                removeWeblog(handle);
+                return;
+            }
+            entryPages.put(handle, addWeblogPages(pages, weblog));
+        } catch (Exception e) {
+            log.error("Error planning static site export of "+handle, e);
+            return;
+        } finally {
+            WebloggerFactory.getWeblogger().release();
+        }
+
+        export(handle, pages.values(), true);
+    }
+
+
+    void export(String handle, Collection<ExportPage> pages, boolean all) {
+
+        long start = System.currentTimeMillis();
+        lastWeblog = handle;
+        lastStarted = new Date(start);
+        written.set(0);
+        unchanged.set(0);
+        deleted.set(0);
+        failed.set(0);
+
+        final Set<Path> exported = ConcurrentHashMap.newKeySet();
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "StaticExport-"+threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (final ExportPage page : pages) {
+            pool.execute(() -> {
+                Path file = directory.resolve(page.path).normalize();
+                try {
+                    if(!file.startsWith(directory.resolve(handle))) {
+                        throw new IOException("outside of the weblog's directory");
+                    }
+                    switch (page.export(file)) {
+                        case WRITTEN:
+                            written.incrementAndGet();
+                            exported.add(file);
+                            break;
+                        case UNCHANGED:
+                            unchanged.incrementAndGet();
+                            exported.add(file);
+                            break;
+                        default:
+                            if(Files.deleteIfExists(file)) {
+                                deleted.incrementAndGet();
+                            }
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("Error exporting "+page.path+": "+e);
+                    log.debug("Error exporting "+page.path, e);
+                } finally {
+                    WebloggerFactory.getWeblogger().release();
+                }
+            });
+        }
+
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        // anything not exported this time is gone, unless it failed to render
+        if(all && failed.get() == 0 && !Thread.currentThread().isInterrupted()) {
+            deleteAllBut(directory.resolve(handle), exported);
+        }
+
+        lastElapsed = System.currentTimeMillis() - start;
+        log.info("Static site export of "+handle+(all ? "" : " changes")+" wrote "
+                +written.get()+", kept "+unchanged.get()+", deleted "+deleted.get()
+                +", failed "+failed.get()+" of "+pages.size()+" in "+lastElapsed+" ms");
+    }
+
+
+    private void removeWeblog(String handle) {
+
+        Path weblogDirectory = directory.resolve(handle).normalize();
+        if(!directory.equals(weblogDirectory.getParent()) || !Files.isDirectory(weblogDirectory)) {
+            return;
+        }
+        entryPages.remove(handle);
+        log.info("Static site export removing weblog "+handle);
+        deleteAllBut(weblogDirectory, Collections.emptySet());
+        try {
+            Files.deleteIfExists(weblogDirectory);
+        } catch (IOException e) {
+            log.warn("Error removing "+weblogDirectory+": "+e);
+        }
+    }
+
+
+    private void deleteAllBut(Path root, Set<Path> keep) {
+
+        if(!Files.isDirectory(root)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            // deepest first, so that emptied directories can go too
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Error listing "+root+": "+e);
+            return;
+        }
+
+        for (Path path : paths) {
+            if(path.equals(root) || keep.contains(path)) {
+                continue;
+            }
+            try {
+                if(Files.isDirectory(path)) {
+                    try (Stream<Path> children = Files.list(path)) {
+                        if(children.findAny().isPresent()) {
+                            continue;
+                        }
+                    }
+                } else {
+                    deleted.incrementAndGet();
+                }
+                Files.delete(path);
+            } catch (IOException e) {
+                log.warn("Error deleting "+path+": "+e);
+            }
+        }
+    }
+
+
+    /**
+     * Front page, feeds, custom pages, every published entry and the pages
+     * listing them, the categories and the media files.
+     *
+     * @return the pages of each published entry, by entry id
+     */
+    private static Map<String, Collection<ExportPage>> addWeblogPages(
+            Map<String, ExportPage> pages, Weblog weblog) throws WebloggerException {
+
+        addPages(pages, getWeblogPages(weblog));
+        addPages(pages, getCustomPages(weblog));
+
+        for (WeblogCategory category : weblog.getWeblogCategories()) {
+            addPage(pages, categoryPage(weblog, category.getName()));
+        }
+
+        Map<String, Collection<ExportPage>> listedPages = new ConcurrentHashMap<>();
+        WeblogEntryManager entryManager = WebloggerFactory.getWeblogger().getWeblogEntryManager();
+        WeblogEntrySearchCriteria criteria = new WeblogEntrySearchCriteria();
+        criteria.setWeblog(weblog);
+        criteria.setStatus(PubStatus.PUBLISHED);
+        criteria.setMaxResults(ENTRY_BATCH_SIZE);
+        for (int offset = 0; ; offset += ENTRY_BATCH_SIZE) {
+            criteria.setOffset(offset);
+            List<WeblogEntry> entries = entryManager.getWeblogEntries(criteria);
+            for (WeblogEntry entry : entries) {
+                Collection<ExportPage> listed = getEntryPages(weblog, entry);
+                listedPages.put(entry.getId(), listed);
+                addPages(pages, listed);
+            }
+            if(entries.size() < ENTRY_BATCH_SIZE) {
+                break;
+            }
+        }
+
+        FileContentManager fileContentManager = WebloggerFactory.getWeblogger()
+                .getFileContentManager();
+        for (MediaFileDirectory mediaDirectory : WebloggerFactory.getWeblogger()
+                .getMediaFileManager().getMediaFileDirectories(weblog)) {
+            for (MediaFile mediaFile : mediaDirectory.getMediaFiles()) {
+                addPage(pages, mediaPage(weblog, mediaFile, fileContentManager));
+            }
+        }
+        return listedPages;
+    }
+
+
+    private static void addPages(Map<String, ExportPage> pages, Collection<ExportPage> toAdd) {
+        for (ExportPage page : toAdd) {
+            addPage(pages, page);
+        }
+    }
+
+
+    private static void addPage(Map<String, ExportPage> pages, ExportPage page) {
+        if(page != null) {
+            pages.putIfAbsent(page.path, page);
+        }
+    }
+
+
+    /**
+     * The pages which change with any entry, the front page and the feeds.
+     */
+    private static Collection<ExportPage> getWeblogPages(Weblog weblog) {
+
+        URLStrategy urlStrategy = WebloggerFactory.getWeblogger().getUrlStrategy();
+        List<ExportPage> pages = new ArrayList<>();
+
+        pages.add(pageTask(weblog, urlStrategy.getWeblogURL(weblog, null, false),
+                newPageRequest(weblog.getHandle())));
+
+        for (String type : new String[] {"entries", "comments"}) {
+            for (String format : new String[] {"rss", "atom"}) {
+                pages.add(feedTask(weblog, type, format));
+            }
+        }
+        return pages;
+    }
+
+
+    /**
+     * The pages of the weblog's theme which are reachable by a link of their
+     * own, /page/&lt;link&gt;.  Links with an extension, like stylesheets,
+     * are exported as plain files.
+     */
+    private static Collection<ExportPage> getCustomPages(Weblog weblog)
+            throws WebloggerException {
+
+        URLStrategy urlStrategy = WebloggerFactory.getWeblogger().getUrlStrategy();
+        List<ExportPage> pages = new ArrayList<>();
+
+        Theme theme = weblog.getTheme();
+        if(theme == null) {
+            return pages;
+        }
+        for (ThemeTemplate template : theme.getTemplates()) {
+            String link = template.getLink();
+            if(StringUtils.isEmpty(link) || template.isHidden()) {
+                continue;
+            }
+            WeblogPageRequest pageRequest = newPageRequest(weblog.getHandle());
+            pageRequest.setContext("page");
+            pageRequest.setWeblogPageName(link);
+            pages.add(pageTask(weblog, urlStrategy.getWeblogPageURL(weblog, null, link,
+                    null, null, null, null, 0, false), pageRequest, !link.contains(".")));
+        }
+
+        pages.removeIf(page -> page == null);
+        return pages;
+    }
+
+
+    /**
+     * The permalink of an entry and the category, tag, month and day pages
+     * listing it.
+     */
+    private static Collection<ExportPage> getEntryPages(Weblog weblog, WeblogEntry entry) {
+
+        URLStrategy urlStrategy = WebloggerFactory.getWeblogger().getUrlStrategy();
+        String handle = weblog.getHandle();
+        List<ExportPage> pages = new ArrayList<>();
+
+        pages.add(permalinkPage(weblog, entry.getAnchor()));
+
+        if(entry.getCategory() != null) {
+            pages.add(categoryPage(weblog, entry.getCategory().getName()));
+        }
+
+        for (WeblogEntryTag tag : entry.getTags()) {
+            WeblogPageRequest pageRequest = newPageRequest(handle);
+            pageRequest.setTags(Collections.singletonList(tag.getName()));
+            pages.add(pageTask(weblog, urlStrategy.getWeblogCollectionURL(weblog, null, null,
+                    null, pageRequest.getTags(), 0, false), pageRequest));
+        }
+
+        if(entry.getPubTime() != null) {
+            for (String pattern : new String[] {"yyyyMM", "yyyyMMdd"}) {
+                SimpleDateFormat format = new SimpleDateFormat(pattern);
+                format.setTimeZone(weblog.getTimeZoneInstance());
+                String date = format.format(entry.getPubTime());
+                WeblogPageRequest pageRequest = newPageRequest(handle);
+                pageRequest.setWeblogDate(date);
+                pages.add(pageTask(weblog, urlStrategy.getWeblogCollectionURL(weblog, null,
+                        null, date, null, 0, false), pageRequest));
+            }
+        }
+
+        pages.removeIf(page -> page == null);
+        return pages;
+    }
+
+
+    private static ExportPage permalinkPage(Weblog weblog, String anchor) {
+        WeblogPageRequest pageRequest = newPageRequest(weblog.getHandle());
+        pageRequest.setContext("entry");
+        pageRequest.setWeblogAnchor(anchor);
+        return pageTask(weblog, WebloggerFactory.getWeblogger().getUrlStrategy()
+                .getWeblogEntryURL(weblog, null, anchor, false), pageRequest);
+    }
+
+
+    private static ExportPage categoryPage(Weblog weblog, String categoryName) {
+        WeblogPageRequest pageRequest = newPageRequest(weblog.getHandle());
+        pageRequest.setContext("category");
+        pageRequest.setWeblogCategoryName(categoryName);
+        return pageTask(weblog, WebloggerFactory.getWeblogger().getUrlStrategy()
+                .getWeblogCollectionURL(weblog, null, categoryName, null, null, 0, false),
+                pageRequest);
+    }
+
+
+    private static WeblogPageRequest newPageRequest(String handle) {
+        WeblogPageRequest pageRequest = new WeblogPageRequest();
+        pageRequest.setWeblogHandle(handle);
+        return pageRequest;
+    }
+
+
+    private static String toPath(Weblog weblog, String url, boolean page) {
+        return toPath(weblog.getHandle(), WebloggerFactory.getWeblogger().getUrlStrategy()
+                .getWeblogURL(weblog, null, false), url, page);
+    }
+
+
+    private static ExportPage pageTask(Weblog weblog, String url,
+            final WeblogPageRequest pageRequest) {
+        return pageTask(weblog, url, pageRequest, true);
+    }
+
+
+    private static ExportPage pageTask(Weblog weblog, String url,
+            final WeblogPageRequest pageRequest, boolean page) {
+
+        String path = toPath(weblog, url, page);
+        if(path == null) {
+            return null;
+        }
+        final boolean siteWide = WebloggerRuntimeConfig.isSiteWideWeblog(weblog.getHandle());
+        return new ExportPage(path) {
+            @Override
+            Outcome export(Path file) throws Exception {
+                // rendering fills in the request, so render from a fresh copy
+                CachedContent content = WeblogRenderUtil.renderPage(
+                        pageRequest.detachedCopy(), new HashMap<>(), false, siteWide);
+                return (content == null) ? Outcome.GONE : write(file, content.getContent());
+            }
+        };
+    }
+
+
+    private static ExportPage feedTask(Weblog weblog, final String type, final String format) {
+
+        String path = toPath(weblog, WebloggerFactory.getWeblogger().getUrlStrategy()
+                .getWeblogFeedURL(weblog, null, type, format, null, null, null, false, false),
+                false);
+        if(path == null) {
+            return null;
+        }
+        final String handle = weblog.getHandle();
+        return new ExportPage(path) {
+            @Override
+            Outcome export(Path file) throws Exception {
+                WeblogFeedRequest feedRequest = new WeblogFeedRequest();
+                feedRequest.setWeblogHandle(handle);
+                feedRequest.setType(type);
+                feedRequest.setFormat(format);
+                CachedContent content = WeblogRenderUtil.renderFeed(feedRequest);
+                return (content == null) ? Outcome.GONE : write(file, content.getContent());
+            }
+        };
+    }
+
+
+    private static ExportPage mediaPage(Weblog weblog, MediaFile mediaFile,
+            final FileContentManager fileContentManager) {
+
+        String path = toPath(weblog, WebloggerFactory.getWeblogger().getUrlStrategy()
+                .getMediaFileURL(weblog, mediaFile.getId(), false), false);
+        if(path == null) {
+            return null;
+        }
+        final String handle = weblog.getHandle();
+        final String fileId = mediaFile.getId();
+        final long length = mediaFile.getLength();
+        final long lastUpdated = (mediaFile.getLastUpdated() != null)
+                ? mediaFile.getLastUpdated().getTime() : System.currentTimeMillis();
+        return new ExportPage(path) {
+            @Override
+            Outcome export(Path file) throws Exception {
+                if(Files.isRegularFile(file) && Files.size(file) == length
+                        && Files.getLastModifiedTime(file).toMillis() >= lastUpdated) {
+                    return Outcome.UNCHANGED;
+                }
+                Weblog weblog = WebloggerFactory.getWeblogger().getWeblogManager()
+                        .getWeblogByHandle(handle);
+                FileContent fileContent = fileContentManager.getFileContent(weblog, fileId);
+                Path temp = tempFile(file);
+                try (InputStream in = fileContent.getInputStream()) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                move(temp, file);
+                return Outcome.WRITTEN;
+            }
+        };
+    }
+
+
+    /**
+     * Write the file unless it already has the content, replacing it in one
+     * go so that the web server never serves half a page.
+     */
+    static Outcome write(Path file, byte[] content) throws IOException {
+
+        if(Files.isRegularFile(file) && Files.size(file) == content.length
+                && Arrays.equals(Files.readAllBytes(file), content)) {
+            return Outcome.UNCHANGED;
+        }
+
+        Path temp = tempFile(file);
+        Files.write(temp, content);
+        move(temp, file);
+        return Outcome.WRITTEN;
+    }
+
+
+    private static Path tempFile(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return file.resolveSibling("."+file.getFileName()+"."+Thread.currentThread().getId()+".tmp");
+    }
+
+
+    private static void move(Path temp, Path file) throws IOException {
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    enum Outcome { WRITTEN, UNCHANGED, GONE }
+
+
+    /**
+     * Renders one page, feed or media file to its file.
+     */
+    abstract static class ExportPage {
+
+        // relative to the export directory
+        final String path;
+
+        ExportPage(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Returns GONE if the page doesn't exist anymore.
+         */
+        abstract Outcome export(Path file) throws Exception;
+    }
+
+
+    /**
+     * What changed in one weblog since the last export, only changed within
+     * pending.compute().
+     */
+    private static final class Changes {
+
+        boolean all = false;
+        private final Map<String, ExportPage> pages = new LinkedHashMap<>();
+
+        void addAll(Collection<ExportPage> toAdd) {
+            StaticSiteExporter.addPages(pages, toAdd);
+        }
+
+        Collection<ExportPage> getPages() {
+            return new ArrayList<>(pages.values());
+        }
+    }
+
+
+    /**
+     * Queue the pages affected by a change to an entry: where it is listed
+     * now and where it was listed before, in case it moved or was
+     * unpublished, the front page, the custom pages and the feeds.
+     */
+    void entryChanged(WeblogEntry entry) {
+        Weblog weblog = entry.getWebsite();
+        String handle = weblog.getHandle();
+        try {
+            Collection<ExportPage> listed = getEntryPages(weblog, entry);
+            Map<String, Collection<ExportPage>> known =
+                    entryPages.computeIfAbsent(handle, h -> new ConcurrentHashMap<>());
+            // only published entries are listed anywhere, so only they are kept
+            Collection<ExportPage> before = entry.isPublished()
+                    ? known.put(entry.getId(), listed) : known.remove(entry.getId());
+
+            List<ExportPage> pages = new ArrayList<>(getWeblogPages(weblog));
+            pages.addAll(getCustomPages(weblog));
+            pages.addAll(listed);
+            if(before != null) {
+                pages.addAll(before);
+            }
+            exportLater(handle, pages);
+        } catch (Exception e) {
+            log.warn("Error finding pages of entry "+entry.getId()+", exporting all of "
+                    +handle+": "+e);
+            exportAllLater(handle);
+        }
+    }
+
+
+    /**
+     * Turns cache invalidation events into pages to export.
+     */
+    private final class InvalidationHandler implements CacheHandler {
+
+        @Override
+        public void invalidate(WeblogEntry entry) {
+            Weblog weblog = entry.getWebsite();
+            if(weblog == null || !isExported(weblog.getHandle())) {
+                return;
+            }
+
+            entryChanged(entry);
+            schedule();
+        }
+
+        @Override
+        public void invalidate(WeblogEntryComment comment) {
+            WeblogEntry entry = comment.getWeblogEntry();
+            Weblog weblog = (entry != null) ? entry.getWebsite() : null;
+            if(weblog == null || !isExported(weblog.getHandle())) {
+                return;
+            }
+
+            List<ExportPage> pages = new ArrayList<>(getWeblogPages(weblog));
+            pages.add(permalinkPage(weblog, entry.getAnchor()));
+            exportLater(weblog.getHandle(), pages);
+            schedule();
+        }
+
+        @Override
+        public void invalidate(Weblog weblog) {
+            exportWeblog(weblog.getHandle());
+        }
+
+        @Override
+        public void invalidate(WeblogBookmark bookmark) {
+            exportWeblog(bookmark.getWebsite().getHandle());
+        }
+
+        @Override
+        public void invalidate(WeblogBookmarkFolder folder) {
+            exportWeblog(folder.getWeblog().getHandle());
+        }
+
+        @Override
+        public void invalidate(WeblogCategory category) {
+            exportWeblog(category.getWeblog().getHandle());
+        }
+
+        @Override
+        public void invalidate(WeblogTemplate template) {
+            exportWeblog(template.getWeblog().getHandle());
+        }
+
+        @Override
+        public void invalidate(User user) {
+            // nothing exported depends on users alone
+        }
+    }
+
+}
@@ -30,6 +30,7 @@ import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
 import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.ui.rendering.util.cache.NegativeLookupCache;
 import org.apache.roller.weblogger.util.URLUtilities;
 import org.apache.roller.weblogger.util.Utilities;
 
@@ -209,9 +210,16 @@ public class WeblogFeedRequest extends WeblogRequest {
     public WeblogCategory getWeblogCategory() {
         
         if(weblogCategory == null && weblogCategoryName != null) {
+            NegativeLookupCache missing = NegativeLookupCache.getInstance();
+            if(missing.isMissing(NegativeLookupCache.Lookup.CATEGORY, getWeblogHandle(), weblogCategoryName)) {
+                return null;
+            }
             try {
                 WeblogEntryManager wmgr = WebloggerFactory.getWeblogger().getWeblogEntryManager();
                 weblogCategory = wmgr.getWeblogCategoryByName(getWeblog(), weblogCategoryName);
+                if(weblogCategory == null) {
+                    missing.putMissing(NegativeLookupCache.Lookup.CATEGORY, getWeblogHandle(), weblogCategoryName);
+                }
             } catch (WebloggerException ex) {
                 log.error("Error getting weblog category "+weblogCategoryName, ex);
             }
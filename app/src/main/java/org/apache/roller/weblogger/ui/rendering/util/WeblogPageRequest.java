@@ -30,6 +30,8 @@ import org.apache.roller.weblogger.pojos.ThemeTemplate;
 import org.apache.roller.weblogger.pojos.WeblogCategory;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.WeblogTemplate;
+import org.apache.roller.weblogger.ui.rendering.util.cache.NegativeLookupCache;
+import org.apache.roller.weblogger.ui.rendering.util.cache.NegativeLookupCache.Lookup;
 import org.apache.roller.weblogger.util.URLUtilities;
 import org.apache.roller.weblogger.util.Utilities;
 
@@ -267,6 +269,28 @@ public class WeblogPageRequest extends WeblogRequest {
         }
     }
 
+    /**
+     * Copy the parsed url of this request for rendering the same page on
+     * another thread.  The copy is anonymous and holds no reference to the
+     * servlet request or to any persistent objects.
+     */
+    public WeblogPageRequest detachedCopy() {
+        WeblogPageRequest copy = new WeblogPageRequest();
+        copy.setWeblogHandle(getWeblogHandle());
+        copy.setLocale(getLocale());
+        copy.setPathInfo(getPathInfo());
+        copy.setDeviceType(getDeviceType());
+        copy.context = context;
+        copy.weblogAnchor = weblogAnchor;
+        copy.weblogPageName = weblogPageName;
+        copy.weblogCategoryName = weblogCategoryName;
+        copy.weblogDate = weblogDate;
+        copy.tags = tags;
+        copy.pageNum = pageNum;
+        copy.customParams = customParams;
+        return copy;
+    }
+
     boolean isValidDestination(String servlet) {
         return (servlet != null && PAGE_SERVLET.equals(servlet));
     }
@@ -344,11 +368,18 @@ public class WeblogPageRequest extends WeblogRequest {
     public WeblogEntry getWeblogEntry() {
 
         if (weblogEntry == null && weblogAnchor != null) {
+            NegativeLookupCache missing = NegativeLookupCache.getInstance();
+            if (missing.isMissing(Lookup.ENTRY, getWeblogHandle(), weblogAnchor)) {
+                return null;
+            }
             try {
                 WeblogEntryManager wmgr = WebloggerFactory.getWeblogger()
                         .getWeblogEntryManager();
                 weblogEntry = wmgr.getWeblogEntryByAnchor(getWeblog(),
                         weblogAnchor);
+                if (weblogEntry == null) {
+                    missing.putMissing(Lookup.ENTRY, getWeblogHandle(), weblogAnchor);
+                }
             } catch (WebloggerException ex) {
                 log.error("Error getting weblog entry " + weblogAnchor, ex);
             }
@@ -364,9 +395,16 @@ public class WeblogPageRequest extends WeblogRequest {
     public ThemeTemplate getWeblogPage() {
 
         if (weblogPage == null && weblogPageName != null) {
+            NegativeLookupCache missing = NegativeLookupCache.getInstance();
+            if (missing.isMissing(Lookup.PAGE, getWeblogHandle(), weblogPageName)) {
+                return null;
+            }
             try {
                 weblogPage = getWeblog().getTheme().getTemplateByLink(
                         weblogPageName);
+                if (weblogPage == null) {
+                    missing.putMissing(Lookup.PAGE, getWeblogHandle(), weblogPageName);
+                }
             } catch (WebloggerException ex) {
                 log.error("Error getting weblog page " + weblogPageName, ex);
             }
@@ -382,11 +420,18 @@ public class WeblogPageRequest extends WeblogRequest {
     public WeblogCategory getWeblogCategory() {
 
         if (weblogCategory == null && weblogCategoryName != null) {
+            NegativeLookupCache missing = NegativeLookupCache.getInstance();
+            if (missing.isMissing(Lookup.CATEGORY, getWeblogHandle(), weblogCategoryName)) {
+                return null;
+            }
             try {
                 WeblogEntryManager wmgr = WebloggerFactory.getWeblogger()
                         .getWeblogEntryManager();
                 weblogCategory = wmgr.getWeblogCategoryByName(getWeblog(),
                         weblogCategoryName);
+                if (weblogCategory == null) {
+                    missing.putMissing(Lookup.CATEGORY, getWeblogHandle(), weblogCategoryName);
+                }
             } catch (WebloggerException ex) {
                 log.error(
                         "Error getting weblog category " + weblogCategoryName,
@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
+import org.apache.roller.weblogger.pojos.StaticTemplate;
+import org.apache.roller.weblogger.pojos.StaticThemeTemplate;
+import org.apache.roller.weblogger.pojos.TemplateRendition.TemplateLanguage;
+import org.apache.roller.weblogger.pojos.ThemeTemplate;
+import org.apache.roller.weblogger.pojos.ThemeTemplate.ComponentType;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.ui.core.RollerContext;
+import org.apache.roller.weblogger.ui.rendering.Renderer;
+import org.apache.roller.weblogger.ui.rendering.RendererManager;
+import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository.DeviceType;
+import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
+import org.apache.roller.weblogger.ui.rendering.util.cache.PersonalFragments;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+
+/**
+ * Weblog page and feed rendering which doesn't need a servlet request, for
+ * rendering in the background.  The template lookup and validation are
+ * shared with the PageServlet.
+ */
+public final class WeblogRenderUtil {
+
+    private static Log log = LogFactory.getLog(WeblogRenderUtil.class);
+
+    private WeblogRenderUtil() {
+    }
+
+    /**
+     * Render a page for a detached request, outside of any servlet request.
+     * Returns null if the request no longer leads to a valid page.
+     */
+    public static CachedContent renderPage(WeblogPageRequest pageRequest,
+            Map<String, String[]> requestParameters, boolean popup,
+            boolean isSiteWide) throws Exception {
+
+        Weblog weblog = pageRequest.getWeblog();
+        if (weblog == null) {
+            return null;
+        }
+
+        ThemeTemplate page = lookupTemplate(pageRequest, weblog, popup);
+        if (page == null || !isValid(pageRequest, page, weblog, isSiteWide)) {
+            return null;
+        }
+
+        if (pageRequest.getLocale() == null && !weblog.isShowAllLangs()) {
+            pageRequest.setLocale(weblog.getLocale());
+        }
+
+        // populate the rendering model, there is no JSP page context here
+        Map<String, Object> initData = new HashMap<>();
+        initData.put("requestParameters", requestParameters);
+        initData.put("parsedRequest", pageRequest);
+        initData.put("urlStrategy", WebloggerFactory.getWeblogger()
+                .getUrlStrategy());
+
+        HashMap<String, Object> model = new HashMap<>();
+        ModelLoader.loadModels(WebloggerConfig.getProperty("rendering.pageModels"),
+                model, initData, true);
+        if (isSiteWide) {
+            ModelLoader.loadModels(WebloggerConfig.getProperty("rendering.siteModels"),
+                    model, initData, true);
+        }
+
+        Renderer renderer = RendererManager.getRenderer(page,
+                pageRequest.getDeviceType());
+
+        CachedContent rendererOutput = new CachedContent(
+                RollerConstants.TWENTYFOUR_KB_IN_BYTES, getContentType(page));
+        // detached requests are anonymous, so the copy can serve logged in
+        // users too with its personal fragments rendered again
+        if (PersonalFragments.isEnabled()) {
+            PersonalFragments.start(rendererOutput);
+        }
+        try {
+            renderer.render(model, rendererOutput.getCachedWriter());
+        } finally {
+            PersonalFragments.stop();
+        }
+        rendererOutput.flush();
+        rendererOutput.close();
+
+        return rendererOutput;
+    }
+
+    /**
+     * Render an entries or comments feed for a detached request, outside of
+     * any servlet request.  Search feeds aren't supported.  Returns null if
+     * the request no longer leads to a valid feed.
+     */
+    public static CachedContent renderFeed(WeblogFeedRequest feedRequest)
+            throws Exception {
+
+        Weblog weblog = feedRequest.getWeblog();
+        if (weblog == null || feedRequest.getTerm() != null) {
+            return null;
+        }
+        if (feedRequest.getWeblogCategoryName() != null
+                && feedRequest.getWeblogCategory() == null) {
+            return null;
+        }
+
+        if (feedRequest.getLocale() == null && !weblog.isShowAllLangs()) {
+            feedRequest.setLocale(weblog.getLocale());
+        }
+
+        boolean siteWide = WebloggerRuntimeConfig.isSiteWideWeblog(weblog.getHandle());
+
+        Map<String, Object> initData = new HashMap<>();
+        initData.put("parsedRequest", feedRequest);
+        initData.put("urlStrategy", WebloggerFactory.getWeblogger()
+                .getUrlStrategy());
+
+        HashMap<String, Object> model = new HashMap<>();
+        ModelLoader.loadModels(WebloggerConfig.getProperty("rendering.feedModels"),
+                model, initData, true);
+        if (siteWide) {
+            ModelLoader.loadModels(WebloggerConfig.getProperty("rendering.siteModels"),
+                    model, initData, true);
+        }
+
+        String pageId = (siteWide ? "site-" : "weblog-") + feedRequest.getType()
+                + "-" + feedRequest.getFormat() + ".vm";
+        Renderer renderer = RendererManager.getRenderer(
+                new StaticTemplate(pageId, TemplateLanguage.VELOCITY),
+                DeviceType.standard);
+
+        CachedContent rendererOutput = new CachedContent(RollerConstants.TWENTYFOUR_KB_IN_BYTES);
+        renderer.render(model, rendererOutput.getCachedWriter());
+        rendererOutput.flush();
+        rendererOutput.close();
+
+        return rendererOutput;
+    }
+
+    /**
+     * Figure out which template renders the requested page.  Returns null if
+     * there is none, which is a 404.
+     */
+    public static ThemeTemplate lookupTemplate(WeblogPageRequest pageRequest,
+            Weblog weblog, boolean popup) {
+
+        ThemeTemplate page = null;
+
+        // If this is a popup request, then deal with it specially
+        // TODO: do we really need to keep supporting this?
+        if (popup) {
+            try {
+                // Does user have a popupcomments page?
+                page = weblog.getTheme().getTemplateByName("_popupcomments");
+            } catch (Exception e) {
+                // ignored ... considered page not found
+            }
+
+            // User doesn't have one so return the default
+            if (page == null) {
+                page = new StaticThemeTemplate(
+                        "templates/weblog/popupcomments.vm", TemplateLanguage.VELOCITY);
+            }
+
+            // If request specified the page, then go with that
+        } else if ("page".equals(pageRequest.getContext())) {
+            page = pageRequest.getWeblogPage();
+
+            // if we don't have this page then 404, we don't let
+            // this one fall through to the default template
+            if (page == null) {
+                return null;
+            }
+
+            // If request specified tags section index, then look for custom
+            // template
+        } else if ("tags".equals(pageRequest.getContext())
+                && pageRequest.getTags() != null) {
+            try {
+                page = weblog.getTheme().getTemplateByAction(
+                        ComponentType.TAGSINDEX);
+            } catch (Exception e) {
+                log.error("Error getting weblog page for action 'tagsIndex'", e);
+            }
+
+            // if we don't have a custom tags page then 404, we don't let
+            // this one fall through to the default template
+            if (page == null) {
+                return null;
+            }
+
+            // If this is a permalink then look for a permalink template
+        } else if (pageRequest.getWeblogAnchor() != null) {
+            try {
+                page = weblog.getTheme().getTemplateByAction(
+                        ComponentType.PERMALINK);
+            } catch (Exception e) {
+                log.error("Error getting weblog page for action 'permalink'", e);
+            }
+        }
+
+        // if we haven't found a page yet then try our default page
+        if (page == null) {
+            try {
+                page = weblog.getTheme().getDefaultTemplate();
+            } catch (Exception e) {
+                log.error(
+                        "Error getting default page for weblog = "
+                                + weblog.getHandle(), e);
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Make sure that request input makes sense for the page.
+     */
+    public static boolean isValid(WeblogPageRequest pageRequest, ThemeTemplate page,
+            Weblog weblog, boolean isSiteWide) {
+
+        boolean invalid = false;
+        if (pageRequest.getWeblogPageName() != null && page.isHidden()) {
+            invalid = true;
+        }
+        // locale view allowed only if weblog has enabled it
+        if (pageRequest.getLocale() != null
+                && !pageRequest.getWeblog().isEnableMultiLang()) {
+            invalid = true;
+        }
+        if (pageRequest.getWeblogAnchor() != null) {
+
+            // permalink specified.
+            // entry must exist, be published before current time, and locale
+            // must match
+            WeblogEntry entry = pageRequest.getWeblogEntry();
+            if (entry == null) {
+                invalid = true;
+            } else if (pageRequest.getLocale() != null
+                    && !entry.getLocale().startsWith(pageRequest.getLocale())) {
+                invalid = true;
+            } else if (!entry.isPublished()) {
+                invalid = true;
+            } else if (new Date().before(entry.getPubTime())) {
+                invalid = true;
+            }
+        } else if (pageRequest.getWeblogCategoryName() != null) {
+
+            // category specified. category must exist.
+            if (pageRequest.getWeblogCategory() == null) {
+                invalid = true;
+            }
+        } else if (pageRequest.getTags() != null && !pageRequest.getTags().isEmpty()) {
+
+            try {
+                // tags specified. make sure they exist.
+                WeblogEntryManager wmgr = WebloggerFactory.getWeblogger()
+                        .getWeblogEntryManager();
+                invalid = !wmgr.getTagComboExists(pageRequest.getTags(),
+                        (isSiteWide) ? null : weblog);
+            } catch (WebloggerException ex) {
+                invalid = true;
+            }
+        }
+
+        return !invalid;
+    }
+
+    /**
+     * The content type a page is served with.
+     */
+    public static String getContentType(ThemeTemplate page) {
+        if (StringUtils.isNotEmpty(page.getOutputContentType())) {
+            return page.getOutputContentType() + "; charset=utf-8";
+        }
+        final String defaultContentType = "text/html; charset=utf-8";
+        if (page.getLink() == null) {
+            return defaultContentType;
+        }
+        String mimeType = RollerContext.getServletContext().getMimeType(
+                page.getLink());
+        if (mimeType != null) {
+            // we found a match ... set the content deviceType
+            return mimeType + "; charset=utf-8";
+        }
+        return defaultContentType;
+    }
+
+}
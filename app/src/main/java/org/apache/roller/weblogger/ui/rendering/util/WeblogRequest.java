@@ -26,6 +26,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.ui.rendering.util.cache.NegativeLookupCache;
 
 
 /**
@@ -184,9 +185,16 @@ public class WeblogRequest extends ParsedRequest {
     public Weblog getWeblog() {
         
         if(weblog == null && weblogHandle != null) {
+            NegativeLookupCache missing = NegativeLookupCache.getInstance();
+            if(missing.isMissing(NegativeLookupCache.Lookup.WEBLOG, weblogHandle, null)) {
+                return null;
+            }
             try {
                 weblog = WebloggerFactory.getWeblogger().getWeblogManager()
                         .getWeblogByHandle(weblogHandle, Boolean.TRUE);
+                if(weblog == null) {
+                    missing.putMissing(NegativeLookupCache.Lookup.WEBLOG, weblogHandle, null);
+                }
             } catch (WebloggerException ex) {
                 log.error("Error looking up weblog "+weblogHandle, ex);
             }
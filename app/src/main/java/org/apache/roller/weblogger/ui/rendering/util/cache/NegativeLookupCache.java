@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
+import org.apache.roller.weblogger.util.cache.Cache;
+import org.apache.roller.weblogger.util.cache.CacheHandler;
+import org.apache.roller.weblogger.util.cache.CacheManager;
+import org.apache.roller.weblogger.util.cache.LazyExpiringCacheEntry;
+
+
+/**
+ * Cache of lookups which found nothing, so that requests for weblogs,
+ * entries, categories and pages which don't exist don't each go to the
+ * database.
+ *
+ * Every missing thing belongs to a weblog handle, and any invalidation of
+ * that weblog or of something in it forgets what was missing from it.
+ */
+public final class NegativeLookupCache implements CacheHandler {
+
+    private static final Log log = LogFactory.getLog(NegativeLookupCache.class);
+
+    // a unique identifier for this cache, this is used as the prefix for
+    // roller config properties that apply to this cache
+    public static final String CACHE_ID = "cache.negativelookup";
+
+    /**
+     * The kinds of lookup which are remembered.
+     */
+    public enum Lookup {
+        WEBLOG,
+        ENTRY,
+        CATEGORY,
+        PAGE
+    }
+
+    private boolean cacheEnabled = true;
+    private Cache contentCache = null;
+
+    // when each weblog handle was last invalidated
+    private final Map<String, Long> invalidations = new ConcurrentHashMap<>();
+
+    // time source for lookups and invalidations, replaceable for testing
+    private volatile LongSupplier clock = System::currentTimeMillis;
+
+    // reference to our singleton instance
+    private static final NegativeLookupCache singletonInstance = new NegativeLookupCache();
+
+
+    private NegativeLookupCache() {
+
+        cacheEnabled = WebloggerConfig.getBooleanProperty(CACHE_ID+".enabled");
+
+        Map<String, String> cacheProps = new HashMap<>();
+        cacheProps.put("id", CACHE_ID);
+        Enumeration<Object> allProps = WebloggerConfig.keys();
+        String prop;
+        while(allProps.hasMoreElements()) {
+            prop = (String) allProps.nextElement();
+
+            // we are only interested in props for this cache
+            if(prop.startsWith(CACHE_ID+".")) {
+                cacheProps.put(prop.substring(CACHE_ID.length()+1),
+                        WebloggerConfig.getProperty(prop));
+            }
+        }
+
+        log.info(cacheProps);
+
+        if(cacheEnabled) {
+            contentCache = CacheManager.constructCache(this, cacheProps);
+        } else {
+            log.warn("Caching has been DISABLED");
+        }
+    }
+
+
+    public static NegativeLookupCache getInstance() {
+        return singletonInstance;
+    }
+
+
+    /**
+     * True if the given lookup recently found nothing, and nothing has
+     * changed in the weblog since.  The name is ignored for WEBLOG lookups.
+     */
+    public boolean isMissing(Lookup lookup, String handle, String name) {
+
+        if (!cacheEnabled || handle == null) {
+            return false;
+        }
+
+        String key = generateKey(lookup, handle, name);
+        LazyExpiringCacheEntry entry = (LazyExpiringCacheEntry) contentCache.get(key);
+        if(entry == null) {
+            return false;
+        }
+
+        // an invalidation in the same millisecond may not have been seen
+        Long invalidated = invalidations.get(handle);
+        if(invalidated != null && entry.getValue(invalidated + 1) == null) {
+            contentCache.remove(key);
+            log.debug("HIT-EXPIRED "+key);
+            return false;
+        }
+
+        log.debug("HIT "+key);
+        return true;
+    }
+
+
+    /**
+     * Remember that the given lookup found nothing.
+     */
+    public void putMissing(Lookup lookup, String handle, String name) {
+
+        if (!cacheEnabled || handle == null) {
+            return;
+        }
+
+        String key = generateKey(lookup, handle, name);
+        contentCache.put(key, new LazyExpiringCacheEntry(Boolean.TRUE, clock.getAsLong()));
+        log.debug("PUT "+key);
+    }
+
+
+    public void clear() {
+
+        if (!cacheEnabled) {
+            return;
+        }
+
+        contentCache.clear();
+        invalidations.clear();
+        log.debug("CLEAR");
+    }
+
+
+    /**
+     * Replace the time source, null restores the system clock.
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = (clock != null) ? clock : System::currentTimeMillis;
+    }
+
+
+    private String generateKey(Lookup lookup, String handle, String name) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(CACHE_ID).append(':').append(handle);
+        if(lookup != Lookup.WEBLOG) {
+            key.append('/').append(lookup).append('/').append(name);
+        }
+        return key.toString();
+    }
+
+
+    private void invalidate(String handle) {
+
+        if (!cacheEnabled || handle == null) {
+            return;
+        }
+
+        invalidations.put(handle, clock.getAsLong());
+        log.debug("INVALIDATE "+handle);
+    }
+
+
+    /**
+     * An entry was saved, so its anchor may exist now.
+     */
+    @Override
+    public void invalidate(WeblogEntry entry) {
+        invalidate(entry.getWebsite().getHandle());
+    }
+
+
+    /**
+     * A weblog was created or changed, which may bring anything in it into
+     * existence, like a theme switch does for pages.
+     */
+    @Override
+    public void invalidate(Weblog website) {
+        invalidate(website.getHandle());
+    }
+
+
+    @Override
+    public void invalidate(WeblogBookmark bookmark) {
+        // ignored
+    }
+
+
+    @Override
+    public void invalidate(WeblogBookmarkFolder folder) {
+        // ignored
+    }
+
+
+    @Override
+    public void invalidate(WeblogEntryComment comment) {
+        // ignored
+    }
+
+
+    @Override
+    public void invalidate(User user) {
+        // ignored
+    }
+
+
+    @Override
+    public void invalidate(WeblogCategory category) {
+        invalidate(category.getWeblog().getHandle());
+    }
+
+
+    @Override
+    public void invalidate(WeblogTemplate template) {
+        invalidate(template.getWeblog().getHandle());
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.io.StringWriter;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.ui.rendering.Renderer;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+
+/**
+ * Lets one cached copy of a page serve logged in users as well as anonymous
+ * visitors.
+ *
+ * Pages rendered for anonymous visitors record, while they are rendered,
+ * which parts of them differ per user, as marked by the #personal directive
+ * in templates.  Those parts are kept as holes in the cached content along
+ * with a Renderer for each of them.  A logged in user then gets a copy of the
+ * cached page with only the holes rendered again, for them.
+ *
+ * Rendering servlets start recording before rendering and stop afterwards,
+ * the #personal directive adds the holes.  Nothing is recorded when nothing
+ * is being recorded on the current thread.
+ *
+ * Off unless enabled, since it is only right when every template a weblog
+ * uses, custom templates included, keeps its per user output in #personal
+ * blocks.  Per user output anywhere else is served to logged in users as
+ * anonymous visitors see it.
+ */
+public final class PersonalFragments {
+
+    private static final Log log = LogFactory.getLog(PersonalFragments.class);
+
+    private static final boolean enabled =
+            WebloggerConfig.getBooleanProperty("cache.personalFragments.enabled", false);
+
+    private static final ThreadLocal<CachedContent> current = new ThreadLocal<>();
+
+
+    private PersonalFragments() {}
+
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * Start recording holes into the given content on the current thread,
+     * callers check isEnabled() first.
+     */
+    public static void start(CachedContent content) {
+        current.set(content);
+    }
+
+
+    /**
+     * Stop recording on the current thread.
+     */
+    public static void stop() {
+        current.remove();
+    }
+
+
+    /**
+     * The content holes are being recorded into on the current thread, or
+     * null if there is none.
+     */
+    public static CachedContent getRecording() {
+        return current.get();
+    }
+
+
+    /**
+     * A copy of the content with its holes rendered again with the given
+     * model, which is that of the user to serve, or null if the content has
+     * no holes.  A hole which fails to render is left as anonymous visitors
+     * see it.
+     */
+    public static CachedContent fill(CachedContent content, final Map<String, Object> model) {
+
+        if(content.getHoles().isEmpty()) {
+            return null;
+        }
+
+        return content.fillHoles(hole -> {
+            if(!(hole.getFragment() instanceof Renderer)) {
+                return null;
+            }
+            StringWriter out = new StringWriter();
+            try {
+                ((Renderer) hole.getFragment()).render(model, out);
+                return out.toString();
+            } catch (Exception e) {
+                log.warn("Error rendering personal fragment, serving it as is: "+e);
+                return null;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+
+/**
+ * Lets concurrent requests for the same uncached content share a single
+ * render, so that an expired popular page is only rendered once instead of
+ * once per waiting request.
+ *
+ * The first request to join a key becomes the leader and renders as usual.
+ * Requests joining while it is rendering wait for its content, and render
+ * themselves if the leader fails or takes longer than the timeout.
+ *
+ * Settings:
+ *   cache.coalesce.enabled   turn coalescing on or off
+ *   cache.coalesce.timeout   milliseconds a request waits for the leader
+ */
+public class RenderCoalescer {
+
+    private static final Log log = LogFactory.getLog(RenderCoalescer.class);
+
+    // all coalescers, for reporting stats
+    private static final Map<String, RenderCoalescer> coalescers = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final boolean enabled;
+    private final long timeout;
+
+    // renders in progress, by cache key
+    private final Map<String, CompletableFuture<CachedContent>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+
+    public RenderCoalescer(String id) {
+        this(id, WebloggerConfig.getBooleanProperty("cache.coalesce.enabled", true),
+                WebloggerConfig.getIntProperty("cache.coalesce.timeout", 5000));
+    }
+
+
+    RenderCoalescer(String id, boolean enabled, long timeout) {
+        this.id = id;
+        this.enabled = enabled;
+        this.timeout = timeout;
+
+        coalescers.put(id, this);
+
+        log.info("Render coalescing for "+id+" enabled = "+enabled+", timeout = "+timeout+"ms");
+    }
+
+
+    /**
+     * Join the render for the given key.  The returned flight must always be
+     * finished with done(), normally in a finally block.
+     */
+    public Flight join(String key) {
+
+        if(!enabled || key == null) {
+            return new Flight(null, null, true);
+        }
+
+        CompletableFuture<CachedContent> render = new CompletableFuture<>();
+        CompletableFuture<CachedContent> existing = inFlight.putIfAbsent(key, render);
+        if(existing == null) {
+            leaders.increment();
+            return new Flight(key, render, true);
+        }
+        return new Flight(key, existing, false);
+    }
+
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("inFlight", inFlight.size());
+        stats.put("leaders", leaders.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("failures", failures.sum());
+        return stats;
+    }
+
+
+    /**
+     * Stats for all coalescers, keyed the same way as CacheManager.getStats().
+     */
+    public static Map<String, Map<String, Object>> getAllStats() {
+        Map<String, Map<String, Object>> allStats = new HashMap<>();
+        for (RenderCoalescer coalescer : coalescers.values()) {
+            allStats.put(coalescer.id+"-coalescing", coalescer.getStats());
+        }
+        return allStats;
+    }
+
+
+    /**
+     * One request's part in a render.
+     */
+    public final class Flight {
+
+        private final String key;
+        private final CompletableFuture<CachedContent> render;
+        private final boolean leader;
+
+        private CachedContent result = null;
+
+
+        private Flight(String key, CompletableFuture<CachedContent> render, boolean leader) {
+            this.key = key;
+            this.render = render;
+            this.leader = leader;
+        }
+
+
+        /**
+         * True if this request should render the content itself.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+
+        /**
+         * Wait for the leader's content.  Returns null if the leader failed
+         * or took too long, in which case the caller should render itself.
+         */
+        public CachedContent await() {
+
+            if(leader) {
+                return null;
+            }
+
+            try {
+                CachedContent content = render.get(timeout, TimeUnit.MILLISECONDS);
+                if(content != null) {
+                    coalesced.increment();
+                    log.debug("COALESCED "+key);
+                } else {
+                    failures.increment();
+                }
+                return content;
+
+            } catch (TimeoutException e) {
+                timeouts.increment();
+                log.debug("TIMEOUT waiting for "+key);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                failures.increment();
+            }
+            return null;
+        }
+
+
+        /**
+         * Set the content rendered by the leader.  Content must be closed.
+         */
+        public void complete(CachedContent content) {
+            this.result = content;
+        }
+
+
+        /**
+         * Finish this request's part, handing the leader's content, or null
+         * if there is none, to any waiting requests.
+         */
+        public void done() {
+            if(leader && render != null) {
+                inFlight.remove(key, render);
+                render.complete(result);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Records what content a page reads while it is rendered, so that a cached
+ * copy of the page only needs to be invalidated when that content changes.
+ *
+ * Rendering servlets start recording before rendering and stop afterwards,
+ * and the rendering models report what they hand out to templates through
+ * the static methods.  Those do nothing when nothing is being recorded on
+ * the current thread.
+ */
+public final class RenderDependencies {
+
+    /**
+     * Kinds of content which are listed across all weblogs.
+     */
+    public enum Site {
+        ENTRIES, COMMENTS, WEBLOGS, USERS
+    }
+
+    private static final ThreadLocal<RenderDependencies> current = new ThreadLocal<>();
+
+    private final Set<String> keys = new HashSet<>();
+    private final long startTime = System.currentTimeMillis();
+
+
+    private RenderDependencies() {}
+
+
+    /**
+     * Start recording for a page of the given weblog on the current thread.
+     */
+    public static RenderDependencies start(String weblogHandle) {
+        RenderDependencies dependencies = new RenderDependencies();
+        dependencies.keys.add(weblogKey(weblogHandle));
+        current.set(dependencies);
+        return dependencies;
+    }
+
+
+    /**
+     * Stop recording on the current thread.
+     */
+    public static void stop() {
+        current.remove();
+    }
+
+
+    /**
+     * The page read content belonging to a single weblog.
+     */
+    public static void weblog(String handle) {
+        RenderDependencies dependencies = current.get();
+        if(dependencies != null && handle != null) {
+            dependencies.keys.add(weblogKey(handle));
+        }
+    }
+
+
+    /**
+     * The page read a list, or count, of content across all weblogs.
+     */
+    public static void site(Site kind) {
+        RenderDependencies dependencies = current.get();
+        if(dependencies != null) {
+            dependencies.keys.add(siteKey(kind));
+        }
+    }
+
+
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(keys);
+    }
+
+
+    /**
+     * When rendering started, content changed after this may not be reflected.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+
+    static String weblogKey(String handle) {
+        return "weblog:" + handle;
+    }
+
+
+    static String siteKey(Site kind) {
+        return "site:" + kind.name();
+    }
+
+}
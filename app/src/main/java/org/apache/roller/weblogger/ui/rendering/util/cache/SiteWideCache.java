@@ -20,16 +20,20 @@ package org.apache.roller.weblogger.ui.rendering.util.cache;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.config.WebloggerConfig;
-import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
 import org.apache.roller.weblogger.pojos.WeblogBookmark;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment;
 import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
@@ -38,6 +42,7 @@ import org.apache.roller.weblogger.pojos.WeblogCategory;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.WeblogTemplate;
 import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.util.Utilities;
@@ -45,10 +50,15 @@ import org.apache.roller.weblogger.util.cache.Cache;
 import org.apache.roller.weblogger.util.cache.CacheHandler;
 import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.roller.weblogger.util.cache.ExpiringCacheEntry;
+import org.apache.roller.weblogger.util.cache.LazyExpiringCacheEntry;
 
 
 /**
  * Cache for site-wide weblog content.
+ *
+ * Each page is cached with the RenderDependencies recorded while it was
+ * rendered, and an invalidation only expires the pages which read the
+ * content that changed.
  */
 public final class SiteWideCache implements CacheHandler {
     
@@ -64,6 +74,12 @@ public final class SiteWideCache implements CacheHandler {
     
     // keep a cached version of last expired time
     private ExpiringCacheEntry lastUpdateTime = null;
+    
+    // when each dependency was last invalidated
+    private final Map<String, Long> invalidations = new ConcurrentHashMap<>();
+    
+    // when anything was last invalidated
+    private volatile long lastInvalidated = 0;
 
     // reference to our singleton instance
     private static final SiteWideCache singletonInstance = new SiteWideCache();
@@ -108,26 +124,66 @@ public final class SiteWideCache implements CacheHandler {
             return null;
         }
         
+        Object value = null;
+        
         Object entry = contentCache.get(key);
+        if(entry instanceof DependentCacheEntry) {
+            DependentCacheEntry dependent = (DependentCacheEntry) entry;
+            
+            // an invalidation in the same millisecond rendering started may
+            // not have been seen by the renderer
+            value = dependent.getValue(getLastInvalidated(dependent.getDependencies()) + 1);
+            if(value == null) {
+                contentCache.remove(key);
+            }
+        } else if(entry instanceof LazyExpiringCacheEntry) {
+            // restored without its dependencies, so any change expires it
+            value = ((LazyExpiringCacheEntry) entry).getValue(lastInvalidated + 1);
+        }
         
-        if(entry == null) {
+        if(value == null) {
             log.debug("MISS "+key);
         } else {
             log.debug("HIT "+key);
         }
         
-        return entry;
+        return value;
     }
     
     
-    public void put(String key, Object value) {
+    /**
+     * Get whatever is cached for the key, however out of date, for serving
+     * while the database is degraded.  Returns null if nothing is cached.
+     */
+    public Object getLastKnown(String key) {
+        
+        if (!cacheEnabled) {
+            return null;
+        }
+        
+        Object entry = this.contentCache.get(key);
+        if(entry instanceof LazyExpiringCacheEntry) {
+            log.debug("HIT-LASTKNOWN "+key);
+            return ((LazyExpiringCacheEntry) entry).peekValue();
+        }
+        
+        return null;
+    }
+    
+    
+    /**
+     * Cache rendered content along with the content it was rendered from.
+     */
+    public void put(String key, Object value, RenderDependencies dependencies) {
         
         if (!cacheEnabled) {
             return;
         }
         
-        contentCache.put(key, value);
-        log.debug("PUT "+key);
+        ContentEncodingUtil.compressForCache(value);
+        contentCache.put(key, new DependentCacheEntry(value,
+                dependencies.getKeys(), dependencies.getStartTime()));
+        log.debug("PUT "+key+" depends on "+dependencies.getKeys());
     }
 
     
@@ -149,6 +205,7 @@ public final class SiteWideCache implements CacheHandler {
         }
         
         contentCache.clear();
+        this.lastInvalidated = System.currentTimeMillis();
         this.lastUpdateTime = null;
         log.debug("CLEAR");
     }
@@ -329,28 +386,26 @@ public final class SiteWideCache implements CacheHandler {
      */
     @Override
     public void invalidate(WeblogEntry entry) {
-        
-        if (!cacheEnabled) {
-            return;
-        }
-        
-        this.contentCache.clear();
-        this.lastUpdateTime = null;
+        invalidateDependents(RenderDependencies.weblogKey(entry.getWebsite().getHandle()),
+                RenderDependencies.siteKey(RenderDependencies.Site.ENTRIES),
+                RenderDependencies.siteKey(RenderDependencies.Site.COMMENTS));
     }
     
     
     /**
      * A weblog has changed.
+     *
+     * This is also used when something unspecified in the weblog has changed,
+     * so anything listed across all weblogs may be affected.
      */
     @Override
     public void invalidate(Weblog website) {
-        
-        if (!cacheEnabled) {
-            return;
+        List<String> keys = new ArrayList<>();
+        keys.add(RenderDependencies.weblogKey(website.getHandle()));
+        for (RenderDependencies.Site kind : RenderDependencies.Site.values()) {
+            keys.add(RenderDependencies.siteKey(kind));
         }
-        
-        this.contentCache.clear();
-        this.lastUpdateTime = null;
+        invalidateDependents(keys.toArray(new String[0]));
     }
     
     
@@ -359,9 +414,7 @@ public final class SiteWideCache implements CacheHandler {
      */
     @Override
     public void invalidate(WeblogBookmark bookmark) {
-        if(WebloggerRuntimeConfig.isSiteWideWeblog(bookmark.getWebsite().getHandle())) {
-            invalidate(bookmark.getWebsite());
-        }
+        invalidateDependents(RenderDependencies.weblogKey(bookmark.getWebsite().getHandle()));
     }
     
     
@@ -370,9 +423,7 @@ public final class SiteWideCache implements CacheHandler {
      */
     @Override
     public void invalidate(WeblogBookmarkFolder folder) {
-        if(WebloggerRuntimeConfig.isSiteWideWeblog(folder.getWeblog().getHandle())) {
-            invalidate(folder.getWeblog());
-        }
+        invalidateDependents(RenderDependencies.weblogKey(folder.getWeblog().getHandle()));
     }
     
     
@@ -381,9 +432,11 @@ public final class SiteWideCache implements CacheHandler {
      */
     @Override
     public void invalidate(WeblogEntryComment comment) {
-        if(WebloggerRuntimeConfig.isSiteWideWeblog(comment.getWeblogEntry().getWebsite().getHandle())) {
-            invalidate(comment.getWeblogEntry().getWebsite());
-        }
+        // entry lists show comment counts
+        invalidateDependents(
+                RenderDependencies.weblogKey(comment.getWeblogEntry().getWebsite().getHandle()),
+                RenderDependencies.siteKey(RenderDependencies.Site.COMMENTS),
+                RenderDependencies.siteKey(RenderDependencies.Site.ENTRIES));
     }
     
     
@@ -392,7 +445,7 @@ public final class SiteWideCache implements CacheHandler {
      */
     @Override
     public void invalidate(User user) {
-        // ignored
+        invalidateDependents(RenderDependencies.siteKey(RenderDependencies.Site.USERS));
     }
     
     
@@ -401,9 +454,9 @@ public final class SiteWideCache implements CacheHandler {
      */
     @Override
     public void invalidate(WeblogCategory category) {
-        if(WebloggerRuntimeConfig.isSiteWideWeblog(category.getWeblog().getHandle())) {
-            invalidate(category.getWeblog());
-        }
+        // entry lists show category names
+        invalidateDependents(RenderDependencies.weblogKey(category.getWeblog().getHandle()),
+                RenderDependencies.siteKey(RenderDependencies.Site.ENTRIES));
     }
     
     
@@ -412,9 +465,40 @@ public final class SiteWideCache implements CacheHandler {
      */
     @Override
     public void invalidate(WeblogTemplate template) {
-        if(WebloggerRuntimeConfig.isSiteWideWeblog(template.getWeblog().getHandle())) {
-            invalidate(template.getWeblog());
+        invalidateDependents(RenderDependencies.weblogKey(template.getWeblog().getHandle()));
+    }
+    
+    
+    /**
+     * Expire every cached page which depends on any of the given keys, this
+     * happens lazily as the pages are requested.
+     */
+    private void invalidateDependents(String... keys) {
+        
+        if (!cacheEnabled) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            invalidations.put(key, now);
+        }
+        this.lastInvalidated = now;
+        this.lastUpdateTime = null;
+        
+        log.debug("INVALIDATE "+Arrays.toString(keys));
+    }
+    
+    
+    private long getLastInvalidated(Set<String> dependencies) {
+        long last = 0;
+        for (String key : dependencies) {
+            Long time = invalidations.get(key);
+            if(time != null && time > last) {
+                last = time;
+            }
         }
+        return last;
     }
     
     
@@ -435,4 +519,24 @@ public final class SiteWideCache implements CacheHandler {
         return Utilities.toBase64(string.toString().substring(1).getBytes());
     }
     
+    
+    /**
+     * A cached page along with the keys of the content it was rendered from.
+     */
+    private static final class DependentCacheEntry extends LazyExpiringCacheEntry {
+        
+        private static final long serialVersionUID = -3619285520462811037L;
+        
+        private final Set<String> dependencies;
+        
+        DependentCacheEntry(Object value, Set<String> dependencies, long timeCached) {
+            super(value, timeCached);
+            this.dependencies = new HashSet<>(dependencies);
+        }
+        
+        Set<String> getDependencies() {
+            return dependencies;
+        }
+    }
+    
 }
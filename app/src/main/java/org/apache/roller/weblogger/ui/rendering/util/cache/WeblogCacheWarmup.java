@@ -0,0 +1,563 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.DatabaseHealth;
+import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntry.PubStatus;
+import org.apache.roller.weblogger.pojos.WeblogEntrySearchCriteria;
+import org.apache.roller.weblogger.pojos.WeblogHitCount;
+import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
+import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
+import org.apache.roller.weblogger.ui.rendering.util.WeblogRenderUtil;
+import org.apache.roller.weblogger.util.cache.CacheManager;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+
+/**
+ * Warms up the page, site-wide and feed caches by rendering the content
+ * visitors are most likely to ask for next.
+ *
+ * That is the pages most requested since the last warmup, as counted by
+ * recordHit(), plus for each of the weblogs with the most hits according to
+ * WeblogHitCount its front page, recent permalinks, category pages and
+ * entries feeds.  Pages are rendered in parallel on a small pool of threads,
+ * and pages which are already cached are skipped.
+ *
+ * A warmup runs in the background after startup, and after the caches are
+ * cleared, when configured to.
+ */
+public final class WeblogCacheWarmup {
+
+    private static final Log log = LogFactory.getLog(WeblogCacheWarmup.class);
+
+    public static final String STATS_ID = "cache.warmup";
+
+    private final boolean enabled;
+    private final int weblogCount;
+    private final int sinceDays;
+    private final int permalinkCount;
+    private final int hotPageCount;
+    private final int threads;
+    private final long delay;
+
+    // runs warmups started in the background, once their delay is up
+    private final ScheduledExecutorService scheduler;
+
+    // page requests seen since the last warmup, by page cache key
+    private final Map<String, HotPage> hotPages = new ConcurrentHashMap<>();
+
+    // progress of the current or last warmup
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile String lastReason = null;
+    private volatile Date lastStarted = null;
+    private volatile long lastElapsed = 0;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // reference to our singleton instance
+    private static final WeblogCacheWarmup singletonInstance = new WeblogCacheWarmup();
+
+
+    private WeblogCacheWarmup() {
+
+        this(WebloggerConfig.getBooleanProperty(STATS_ID+".enabled", true),
+                WebloggerConfig.getIntProperty(STATS_ID+".weblogs", 20),
+                WebloggerConfig.getIntProperty(STATS_ID+".sinceDays", 7),
+                WebloggerConfig.getIntProperty(STATS_ID+".permalinks", 5),
+                WebloggerConfig.getIntProperty(STATS_ID+".hotPages", 200),
+                WebloggerConfig.getIntProperty(STATS_ID+".threads", 4),
+                (long) WebloggerConfig.getIntProperty(STATS_ID+".delay", 30)
+                        * RollerConstants.SEC_IN_MS);
+
+        if(enabled && WebloggerConfig.getBooleanProperty(STATS_ID+".onClear", true)) {
+            CacheManager.registerClearListener(() -> start("caches cleared"));
+        }
+
+        log.info("Cache warmup enabled = "+enabled+", weblogs = "+weblogCount
+                +", hot pages = "+hotPageCount+", threads = "+threads);
+    }
+
+
+    // configured by the caller, for tests
+    WeblogCacheWarmup(boolean enabled, int weblogCount, int sinceDays, int permalinkCount,
+            int hotPageCount, int threads, long delay) {
+
+        this.enabled = enabled;
+        this.weblogCount = weblogCount;
+        this.sinceDays = sinceDays;
+        this.permalinkCount = permalinkCount;
+        this.hotPageCount = hotPageCount;
+        this.threads = Math.max(1, threads);
+        this.delay = Math.max(0, delay);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CacheWarmupScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    public static WeblogCacheWarmup getInstance() {
+        return singletonInstance;
+    }
+
+
+    /**
+     * Start a warmup in the background, after the configured delay, unless
+     * one is already running.
+     */
+    public void start(final String reason) {
+
+        if(!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+
+        Runnable task = () -> {
+            try {
+                doWarmup(reason, null);
+            } finally {
+                running.set(false);
+            }
+        };
+
+        // waits without holding on to a thread anybody else needs
+        try {
+            scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            log.warn("Unable to schedule cache warmup");
+        }
+    }
+
+
+    /**
+     * Drop a warmup waiting to start and stop one in progress, called when
+     * the application shuts down.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+
+    /**
+     * Warm up the caches now, in the calling thread, unless a warmup is
+     * already running.  If weblog handles are given only those weblogs are
+     * warmed, otherwise the most popular weblogs and pages are.
+     */
+    public void warmup(String reason, List<String> weblogHandles) {
+
+        if(!running.compareAndSet(false, true)) {
+            log.info("Cache warmup already running, skipping "+reason);
+            return;
+        }
+
+        try {
+            doWarmup(reason, weblogHandles);
+        } finally {
+            running.set(false);
+        }
+    }
+
+
+    /**
+     * Count a request for a page which is served from the cache, so that the
+     * most requested pages are rendered by the next warmup.
+     */
+    public void recordHit(String cacheKey, HttpServletRequest request,
+            WeblogPageRequest pageRequest, boolean isSiteWide) {
+
+        if(!enabled || hotPageCount <= 0) {
+            return;
+        }
+
+        HotPage page = hotPages.get(cacheKey);
+        if(page == null) {
+            // full until the next warmup makes room
+            if(hotPages.size() >= hotPageCount * 2 || request.getParameter("popup") != null) {
+                return;
+            }
+            page = hotPages.computeIfAbsent(cacheKey, key -> new HotPage(
+                    pageRequest.detachedCopy(), new HashMap<>(request.getParameterMap()),
+                    isSiteWide));
+        }
+        page.hits.incrementAndGet();
+    }
+
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", running.get());
+        stats.put("lastReason", lastReason);
+        stats.put("lastStarted", lastStarted);
+        stats.put("lastElapsedMillis", lastElapsed);
+        stats.put("total", total.get());
+        stats.put("rendered", rendered.get());
+        stats.put("skipped", skipped.get());
+        stats.put("failed", failed.get());
+        stats.put("trackedPages", hotPages.size());
+        return stats;
+    }
+
+
+    private void doWarmup(String reason, List<String> weblogHandles) {
+
+        if(DatabaseHealth.getInstance().isDegraded()) {
+            log.info("Database degraded, skipping cache warmup ("+reason+")");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        lastReason = reason;
+        lastStarted = new Date(start);
+        total.set(0);
+        rendered.set(0);
+        skipped.set(0);
+        failed.set(0);
+
+        Map<String, WarmupTask> tasks = plan(weblogHandles);
+        total.set(tasks.size());
+        log.info("Cache warmup ("+reason+") starting, "+tasks.size()+" pages and feeds");
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "CacheWarmup-"+threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final int reportEvery = Math.max(10, tasks.size() / 10);
+        for (final WarmupTask task : tasks.values()) {
+            pool.execute(() -> {
+                try {
+                    if(task.run()) {
+                        rendered.incrementAndGet();
+                    } else {
+                        skipped.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.debug("Error warming "+task.key, e);
+                } finally {
+                    WebloggerFactory.getWeblogger().release();
+                }
+
+                int done = rendered.get() + skipped.get() + failed.get();
+                if(done % reportEvery == 0) {
+                    log.info("Cache warmup ("+reason+") "+done+" of "+total.get()+" done");
+                }
+            });
+        }
+
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        lastElapsed = System.currentTimeMillis() - start;
+        log.info("Cache warmup ("+reason+") rendered "+rendered.get()+", skipped "
+                +skipped.get()+", failed "+failed.get()+" of "+total.get()
+                +" in "+lastElapsed+" ms");
+    }
+
+
+    /**
+     * The pages and feeds to render, by cache key.  If weblog handles are
+     * given only those weblogs are warmed, otherwise the most requested
+     * pages and the most popular weblogs are.
+     */
+    Map<String, WarmupTask> plan(List<String> weblogHandles) {
+
+        Map<String, WarmupTask> tasks = new LinkedHashMap<>();
+        try {
+            if(weblogHandles == null) {
+                addHotPageTasks(tasks);
+                weblogHandles = getHotWeblogHandles();
+            }
+            for (String handle : weblogHandles) {
+                addWeblogTasks(tasks, handle);
+            }
+        } catch (Exception e) {
+            log.error("Error planning cache warmup", e);
+        } finally {
+            WebloggerFactory.getWeblogger().release();
+        }
+        return tasks;
+    }
+
+
+    /**
+     * Take the most requested pages and make room for new ones, halving the
+     * counts of the pages kept so that old favourites fade out.
+     */
+    private void addHotPageTasks(Map<String, WarmupTask> tasks) {
+
+        List<Map.Entry<String, HotPage>> pages = new ArrayList<>(hotPages.entrySet());
+        pages.sort(Comparator.comparingLong(
+                (Map.Entry<String, HotPage> entry) -> entry.getValue().hits.get()).reversed());
+
+        for (int i = 0; i < pages.size(); i++) {
+            Map.Entry<String, HotPage> entry = pages.get(i);
+            HotPage page = entry.getValue();
+            if(i < hotPageCount) {
+                page.hits.set(page.hits.get() / 2);
+                tasks.put(entry.getKey(), pageTask(entry.getKey(),
+                        page.request.detachedCopy(), page.parameters, page.siteWide));
+            } else {
+                hotPages.remove(entry.getKey());
+            }
+        }
+    }
+
+
+    private List<String> getHotWeblogHandles() throws WebloggerException {
+        List<String> handles = new ArrayList<>();
+        if(weblogCount > 0) {
+            List<WeblogHitCount> hotWeblogs = WebloggerFactory.getWeblogger()
+                    .getWeblogEntryManager().getHotWeblogs(sinceDays, 0, weblogCount);
+            for (WeblogHitCount hitCount : hotWeblogs) {
+                handles.add(hitCount.getWeblog().getHandle());
+            }
+        }
+        return handles;
+    }
+
+
+    /**
+     * Front page, recent permalinks, category pages and entries feeds.
+     */
+    private void addWeblogTasks(Map<String, WarmupTask> tasks, String handle)
+            throws WebloggerException {
+
+        Weblog weblog = WebloggerFactory.getWeblogger().getWeblogManager()
+                .getWeblogByHandle(handle);
+        if(weblog == null) {
+            return;
+        }
+        boolean siteWide = WebloggerRuntimeConfig.isSiteWideWeblog(handle);
+        Map<String, String[]> noParameters = new HashMap<>();
+
+        addPageTask(tasks, newPageRequest(handle), noParameters, siteWide);
+
+        if(permalinkCount > 0) {
+            WeblogEntrySearchCriteria criteria = new WeblogEntrySearchCriteria();
+            criteria.setWeblog(weblog);
+            criteria.setStatus(PubStatus.PUBLISHED);
+            criteria.setMaxResults(permalinkCount);
+            WeblogEntryManager entryManager = WebloggerFactory.getWeblogger()
+                    .getWeblogEntryManager();
+            for (WeblogEntry entry : entryManager.getWeblogEntries(criteria)) {
+                WeblogPageRequest pageRequest = newPageRequest(handle);
+                pageRequest.setContext("entry");
+                pageRequest.setWeblogAnchor(entry.getAnchor());
+                addPageTask(tasks, pageRequest, noParameters, siteWide);
+            }
+        }
+
+        for (WeblogCategory category : weblog.getWeblogCategories()) {
+            WeblogPageRequest pageRequest = newPageRequest(handle);
+            pageRequest.setContext("category");
+            pageRequest.setWeblogCategoryName(category.getName());
+            addPageTask(tasks, pageRequest, noParameters, siteWide);
+        }
+
+        for (String format : new String[] {"rss", "atom"}) {
+            WeblogFeedRequest feedRequest = new WeblogFeedRequest();
+            feedRequest.setWeblogHandle(handle);
+            feedRequest.setType("entries");
+            feedRequest.setFormat(format);
+            String key = siteWide ? SiteWideCache.getInstance().generateKey(feedRequest)
+                    : WeblogFeedCache.getInstance().generateKey(feedRequest);
+            tasks.putIfAbsent(key, feedTask(key, feedRequest, siteWide));
+        }
+    }
+
+
+    private static WeblogPageRequest newPageRequest(String handle) {
+        WeblogPageRequest pageRequest = new WeblogPageRequest();
+        pageRequest.setWeblogHandle(handle);
+        return pageRequest;
+    }
+
+
+    private void addPageTask(Map<String, WarmupTask> tasks, WeblogPageRequest pageRequest,
+            Map<String, String[]> parameters, boolean siteWide) {
+        String key = siteWide ? SiteWideCache.getInstance().generateKey(pageRequest)
+                : WeblogPageCache.getInstance().generateKey(pageRequest);
+        tasks.putIfAbsent(key, pageTask(key, pageRequest, parameters, siteWide));
+    }
+
+
+    private static WarmupTask pageTask(String key, WeblogPageRequest pageRequest,
+            Map<String, String[]> parameters, boolean siteWide) {
+
+        return new WarmupTask(key) {
+            @Override
+            boolean run() throws Exception {
+                Weblog weblog = pageRequest.getWeblog();
+                if(weblog == null) {
+                    return false;
+                }
+
+                if(siteWide) {
+                    SiteWideCache cache = SiteWideCache.getInstance();
+                    if(cache.get(key) != null) {
+                        return false;
+                    }
+                    RenderDependencies dependencies = RenderDependencies.start(weblog.getHandle());
+                    try {
+                        CachedContent content = WeblogRenderUtil.renderPage(
+                                pageRequest, parameters, false, true);
+                        if(content != null) {
+                            cache.put(key, content, dependencies);
+                        }
+                        return content != null;
+                    } finally {
+                        RenderDependencies.stop();
+                    }
+                }
+
+                WeblogPageCache cache = WeblogPageCache.getInstance();
+                if(cache.get(key, lastModified(weblog)) != null) {
+                    return false;
+                }
+                CachedContent content = WeblogRenderUtil.renderPage(
+                        pageRequest, parameters, false, false);
+                if(content != null) {
+                    cache.put(key, content);
+                }
+                return content != null;
+            }
+        };
+    }
+
+
+    private static WarmupTask feedTask(String key, WeblogFeedRequest feedRequest,
+            boolean siteWide) {
+
+        return new WarmupTask(key) {
+            @Override
+            boolean run() throws Exception {
+                Weblog weblog = feedRequest.getWeblog();
+                if(weblog == null) {
+                    return false;
+                }
+
+                if(siteWide) {
+                    SiteWideCache cache = SiteWideCache.getInstance();
+                    if(cache.get(key) != null) {
+                        return false;
+                    }
+                    RenderDependencies dependencies = RenderDependencies.start(weblog.getHandle());
+                    try {
+                        CachedContent content = WeblogRenderUtil.renderFeed(feedRequest);
+                        if(content != null) {
+                            cache.put(key, content, dependencies);
+                        }
+                        return content != null;
+                    } finally {
+                        RenderDependencies.stop();
+                    }
+                }
+
+                WeblogFeedCache cache = WeblogFeedCache.getInstance();
+                if(cache.get(key, lastModified(weblog)) != null) {
+                    return false;
+                }
+                CachedContent content = WeblogRenderUtil.renderFeed(feedRequest);
+                if(content != null) {
+                    cache.put(key, content);
+                }
+                return content != null;
+            }
+        };
+    }
+
+
+    private static long lastModified(Weblog weblog) {
+        return (weblog.getLastModified() != null)
+                ? weblog.getLastModified().getTime() : System.currentTimeMillis();
+    }
+
+
+    /**
+     * Renders one page or feed into its cache.
+     */
+    abstract static class WarmupTask {
+
+        final String key;
+
+        WarmupTask(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns false if there was nothing to render.
+         */
+        abstract boolean run() throws Exception;
+    }
+
+
+    private static final class HotPage {
+
+        final WeblogPageRequest request;
+        final Map<String, String[]> parameters;
+        final boolean siteWide;
+        final AtomicLong hits = new AtomicLong();
+
+        HotPage(WeblogPageRequest request, Map<String, String[]> parameters, boolean siteWide) {
+            this.request = request;
+            this.parameters = parameters;
+            this.siteWide = siteWide;
+        }
+    }
+
+}
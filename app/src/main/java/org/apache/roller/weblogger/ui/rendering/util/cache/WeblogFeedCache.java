@@ -27,6 +27,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
 import org.apache.roller.weblogger.util.Utilities;
 import org.apache.roller.weblogger.util.cache.Cache;
@@ -114,12 +115,33 @@ public final class WeblogFeedCache {
     }
     
     
+    /**
+     * Get whatever is cached for the key, however out of date, for serving
+     * while the database is degraded.  Returns null if nothing is cached.
+     */
+    public Object getLastKnown(String key) {
+        
+        if (!cacheEnabled) {
+            return null;
+        }
+        
+        Object entry = this.contentCache.get(key);
+        if(entry instanceof LazyExpiringCacheEntry) {
+            log.debug("HIT-LASTKNOWN "+key);
+            return ((LazyExpiringCacheEntry) entry).peekValue();
+        }
+        
+        return null;
+    }
+    
+    
     public void put(String key, Object value) {
         
         if (!cacheEnabled) {
             return;
         }
         
+        ContentEncodingUtil.compressForCache(value);
         contentCache.put(key, new LazyExpiringCacheEntry(value));
         log.debug("PUT "+key);
     }
@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
+import org.apache.roller.weblogger.util.cache.Cache;
+import org.apache.roller.weblogger.util.cache.CacheHandler;
+import org.apache.roller.weblogger.util.cache.CacheManager;
+import org.apache.roller.weblogger.util.cache.ExpiringCacheEntry;
+
+
+/**
+ * Cache for fragments of weblog pages rendered by the #cache directive, like
+ * sidebars, blogrolls and tag clouds which are the same on most pages.
+ *
+ * Every fragment belongs to a weblog, and any invalidation of that weblog or
+ * of something in it expires all of its fragments.
+ */
+public final class WeblogFragmentCache implements CacheHandler {
+
+    private static final Log log = LogFactory.getLog(WeblogFragmentCache.class);
+
+    // a unique identifier for this cache, this is used as the prefix for
+    // roller config properties that apply to this cache
+    public static final String CACHE_ID = "cache.weblogfragment";
+
+    private boolean cacheEnabled = true;
+    private Cache contentCache = null;
+
+    // when each weblog handle was last invalidated
+    private final Map<String, Long> invalidations = new ConcurrentHashMap<>();
+
+    // reference to our singleton instance
+    private static final WeblogFragmentCache singletonInstance = new WeblogFragmentCache();
+
+
+    private WeblogFragmentCache() {
+
+        cacheEnabled = WebloggerConfig.getBooleanProperty(CACHE_ID+".enabled");
+
+        Map<String, String> cacheProps = new HashMap<>();
+        cacheProps.put("id", CACHE_ID);
+        Enumeration<Object> allProps = WebloggerConfig.keys();
+        String prop;
+        while(allProps.hasMoreElements()) {
+            prop = (String) allProps.nextElement();
+
+            // we are only interested in props for this cache
+            if(prop.startsWith(CACHE_ID+".")) {
+                cacheProps.put(prop.substring(CACHE_ID.length()+1),
+                        WebloggerConfig.getProperty(prop));
+            }
+        }
+
+        log.info(cacheProps);
+
+        if(cacheEnabled) {
+            contentCache = CacheManager.constructCache(this, cacheProps);
+        } else {
+            log.warn("Caching has been DISABLED");
+        }
+    }
+
+
+    public static WeblogFragmentCache getInstance() {
+        return singletonInstance;
+    }
+
+
+    public boolean isEnabled() {
+        return cacheEnabled;
+    }
+
+
+    /**
+     * The rendered fragment, or null if it isn't cached, has outlived its
+     * time to live or its weblog was invalidated since it was rendered.
+     */
+    public String get(String key) {
+
+        if (!cacheEnabled) {
+            return null;
+        }
+
+        ExpiringCacheEntry entry = (ExpiringCacheEntry) contentCache.get(key);
+        if(entry == null) {
+            log.debug("MISS "+key);
+            return null;
+        }
+
+        // an invalidation in the same millisecond may not have been seen
+        Long invalidated = invalidations.get(handleOf(key));
+        String fragment = (String) entry.getValue();
+        if(fragment == null || (invalidated != null && entry.getTimeCached() <= invalidated)) {
+            contentCache.remove(key);
+            log.debug("HIT-EXPIRED "+key);
+            return null;
+        }
+
+        log.debug("HIT "+key);
+        return fragment;
+    }
+
+
+    /**
+     * Cache a rendered fragment for the given number of seconds.
+     */
+    public void put(String key, String fragment, int ttl) {
+
+        if (!cacheEnabled) {
+            return;
+        }
+
+        contentCache.put(key, new ExpiringCacheEntry(fragment,
+                (long) ttl * RollerConstants.SEC_IN_MS));
+        log.debug("PUT "+key);
+    }
+
+
+    public void clear() {
+
+        if (!cacheEnabled) {
+            return;
+        }
+
+        contentCache.clear();
+        invalidations.clear();
+        log.debug("CLEAR");
+    }
+
+
+    /**
+     * Generate a cache key for a fragment of a page of a weblog.
+     *
+     * @param user the logged in user, or null
+     */
+    public String generateKey(String handle, String name, String locale,
+            String deviceType, String user) {
+
+        StringBuilder key = new StringBuilder(64);
+        key.append(CACHE_ID).append(':').append(handle);
+        key.append('/').append(name);
+
+        if(locale != null) {
+            key.append("/lang=").append(locale);
+        }
+
+        // add login state
+        if(user != null) {
+            key.append("/user=").append(user);
+        }
+
+        key.append("/deviceType=").append(deviceType);
+
+        return key.toString();
+    }
+
+
+    // keys look like "cache.weblogfragment:handle/..."
+    private static String handleOf(String key) {
+        int start = key.indexOf(':') + 1;
+        int end = key.indexOf('/', start);
+        return (end < 0) ? key.substring(start) : key.substring(start, end);
+    }
+
+
+    private void invalidate(String handle) {
+
+        if (!cacheEnabled || handle == null) {
+            return;
+        }
+
+        invalidations.put(handle, System.currentTimeMillis());
+        log.debug("INVALIDATE "+handle);
+    }
+
+
+    @Override
+    public void invalidate(WeblogEntry entry) {
+        invalidate(entry.getWebsite().getHandle());
+    }
+
+
+    @Override
+    public void invalidate(Weblog website) {
+        invalidate(website.getHandle());
+    }
+
+
+    @Override
+    public void invalidate(WeblogBookmark bookmark) {
+        invalidate(bookmark.getWebsite().getHandle());
+    }
+
+
+    @Override
+    public void invalidate(WeblogBookmarkFolder folder) {
+        invalidate(folder.getWeblog().getHandle());
+    }
+
+
+    @Override
+    public void invalidate(WeblogEntryComment comment) {
+        invalidate(comment.getWeblogEntry().getWebsite().getHandle());
+    }
+
+
+    @Override
+    public void invalidate(User user) {
+        // ignored
+    }
+
+
+    @Override
+    public void invalidate(WeblogCategory category) {
+        invalidate(category.getWeblog().getHandle());
+    }
+
+
+    @Override
+    public void invalidate(WeblogTemplate template) {
+        invalidate(template.getWeblog().getHandle());
+    }
+
+}
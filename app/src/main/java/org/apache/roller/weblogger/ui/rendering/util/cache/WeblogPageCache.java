@@ -24,9 +24,13 @@ import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.util.Utilities;
 import org.apache.roller.weblogger.util.cache.Cache;
@@ -49,6 +53,12 @@ public final class WeblogPageCache {
     private boolean cacheEnabled = true;
     private Cache contentCache = null;
     
+    // how long expired content may still be served while it is re-rendered
+    private long staleWhileRevalidate = 0;
+    
+    // keys of pages being re-rendered in the background
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    
     // reference to our singleton instance
     private static final WeblogPageCache singletonInstance = new WeblogPageCache();
     
@@ -56,6 +66,8 @@ public final class WeblogPageCache {
     private WeblogPageCache() {
         
         cacheEnabled = WebloggerConfig.getBooleanProperty(CACHE_ID+".enabled");
+        staleWhileRevalidate = (long) WebloggerConfig.getIntProperty(
+                CACHE_ID+".staleWhileRevalidate", 0) * RollerConstants.SEC_IN_MS;
         
         Map<String, String> cacheProps = new HashMap<>();
         cacheProps.put("id", CACHE_ID);
@@ -112,12 +124,77 @@ public final class WeblogPageCache {
     }
     
     
+    /**
+     * Get whatever is cached for the key, however out of date, for serving
+     * while the database is degraded.  Returns null if nothing is cached.
+     */
+    public Object getLastKnown(String key) {
+        
+        if (!cacheEnabled) {
+            return null;
+        }
+        
+        Object entry = this.contentCache.get(key);
+        if(entry instanceof LazyExpiringCacheEntry) {
+            log.debug("HIT-LASTKNOWN "+key);
+            return ((LazyExpiringCacheEntry) entry).peekValue();
+        }
+        
+        return null;
+    }
+    
+    
+    /**
+     * Get the entry for an expired page which may still be served while it is
+     * rendered again, because it expired no more than staleWhileRevalidate
+     * seconds ago.  Returns null if there is no such entry.
+     */
+    public LazyExpiringCacheEntry getStale(String key, long lastModified) {
+        
+        if (!cacheEnabled || staleWhileRevalidate <= 0) {
+            return null;
+        }
+        
+        LazyExpiringCacheEntry lazyEntry = (LazyExpiringCacheEntry) this.contentCache.get(key);
+        if(lazyEntry != null && lazyEntry.isInvalid(lastModified)
+                && lazyEntry.getValue(lastModified, staleWhileRevalidate) != null) {
+            log.debug("HIT-STALE "+key);
+            return lazyEntry;
+        }
+        
+        return null;
+    }
+    
+    
+    /**
+     * Claim the background re-render of a stale page.  Returns false if it is
+     * already being rendered, otherwise endRevalidation() must be called once
+     * the fresh content has been put in the cache or rendering has failed.
+     *
+     * Pages of logged in users are never claimed, background renders have no
+     * user so they would replace the user's copy with what anonymous visitors
+     * get.
+     */
+    public boolean startRevalidation(WeblogPageRequest pageRequest, String key) {
+        if(pageRequest.isLoggedIn()) {
+            return false;
+        }
+        return revalidating.add(key);
+    }
+    
+    
+    public void endRevalidation(String key) {
+        revalidating.remove(key);
+    }
+    
+    
     public void put(String key, Object value) {
         
         if (!cacheEnabled) {
             return;
         }
         
+        ContentEncodingUtil.compressForCache(value);
         contentCache.put(key, new LazyExpiringCacheEntry(value));
         log.debug("PUT "+key);
     }
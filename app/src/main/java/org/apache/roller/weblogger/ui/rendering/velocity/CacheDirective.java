@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.velocity;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.roller.weblogger.pojos.wrapper.UserWrapper;
+import org.apache.roller.weblogger.ui.rendering.model.FeedModel;
+import org.apache.roller.weblogger.ui.rendering.model.PageModel;
+import org.apache.roller.weblogger.ui.rendering.model.PreviewPageModel;
+import org.apache.roller.weblogger.ui.rendering.model.UtilitiesModel;
+import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogFragmentCache;
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.Token;
+import org.apache.velocity.runtime.parser.node.Node;
+
+
+/**
+ * The #cache(key, ttl) block directive, which keeps what its block renders
+ * in the WeblogFragmentCache for ttl seconds, one hour by default.
+ *
+ * <pre>
+ * #cache("sidebar", 600)
+ *     #showBookmarkLinksList($model.weblog.getBookmarkFolder("/") false false)
+ * #end
+ * </pre>
+ *
+ * Fragments are cached per weblog, language, device type and logged in
+ * user, and expire when anything in their weblog changes.  Outside of
+ * weblog pages and feeds, and in previews, the block is simply rendered.
+ */
+public class CacheDirective extends Directive {
+    
+    private static final int DEFAULT_TTL = 3600;
+    
+    @Override
+    public String getName() {
+        return "cache";
+    }
+    
+    @Override
+    public int getType() {
+        return BLOCK;
+    }
+    
+    @Override
+    public void checkArgs(ArrayList<Integer> argtypes, Token t, String templateName)
+            throws ParseException {
+        if (argtypes.isEmpty() || argtypes.size() > 2) {
+            throw new ParseException("#cache() in " + templateName + " at line "
+                    + t.beginLine + " takes a key and optionally a time to live in seconds");
+        }
+    }
+    
+    @Override
+    public boolean render(InternalContextAdapter context, Writer writer, Node node)
+            throws IOException {
+        
+        int args = node.jjtGetNumChildren() - 1;
+        Node block = node.jjtGetChild(args);
+        
+        WeblogFragmentCache cache = WeblogFragmentCache.getInstance();
+        Object name = node.jjtGetChild(0).value(context);
+        String key = (name != null && cache.isEnabled()) ? getKey(context, name.toString()) : null;
+        if (key == null) {
+            return block.render(context, writer);
+        }
+        
+        String fragment = cache.get(key);
+        if (fragment == null) {
+            StringWriter out = new StringWriter();
+            block.render(context, out);
+            fragment = out.toString();
+            
+            int ttl = DEFAULT_TTL;
+            if (args > 1) {
+                Object value = node.jjtGetChild(1).value(context);
+                if (value instanceof Number) {
+                    ttl = ((Number) value).intValue();
+                } else if (value != null) {
+                    ttl = NumberUtils.toInt(value.toString().trim(), DEFAULT_TTL);
+                }
+            }
+            if (ttl > 0) {
+                cache.put(key, fragment, ttl);
+            }
+        }
+        
+        writer.write(fragment);
+        return true;
+    }
+    
+    
+    /**
+     * Key of the fragment, or null if it shouldn't be cached.
+     */
+    private static String getKey(InternalContextAdapter context, String name) {
+        
+        String handle;
+        String locale;
+        String deviceType = "standard";
+        
+        Object model = context.get("model");
+        if (model instanceof PreviewPageModel) {
+            return null;
+        } else if (model instanceof PageModel) {
+            PageModel pageModel = (PageModel) model;
+            handle = pageModel.getWeblog().getHandle();
+            locale = pageModel.getLocale();
+            deviceType = pageModel.getDeviceType();
+        } else if (model instanceof FeedModel) {
+            FeedModel feedModel = (FeedModel) model;
+            handle = feedModel.getWeblog().getHandle();
+            locale = feedModel.getLocale();
+        } else {
+            return null;
+        }
+        
+        String user = null;
+        Object utils = context.get("utils");
+        if (utils instanceof UtilitiesModel && ((UtilitiesModel) utils).isUserAuthenticated()) {
+            UserWrapper authenticated = ((UtilitiesModel) utils).getAuthenticatedUser();
+            user = (authenticated != null) ? authenticated.getUserName() : null;
+        }
+        
+        return WeblogFragmentCache.getInstance().generateKey(handle, name,
+                locale, deviceType, user);
+    }
+    
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.velocity;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.roller.weblogger.ui.rendering.model.LazyModel;
+import org.apache.velocity.VelocityContext;
+
+
+/**
+ * Velocity Context over a rendering model, which initializes the models
+ * the first time a template refers to them.
+ */
+class ModelContext extends VelocityContext {
+    
+    // keys of the models, as opposed to variables set by templates
+    private final Set<String> modelKeys;
+    
+    ModelContext(Map<String, Object> model) {
+        super(model);
+        this.modelKeys = new HashSet<>(model.keySet());
+    }
+    
+    @Override
+    public Object internalGet(String key) {
+        return LazyModel.resolve(super.internalGet(key));
+    }
+    
+    /**
+     * The value as it is, without initializing it if it is a lazy model.
+     */
+    Object getRaw(String key) {
+        return super.internalGet(key);
+    }
+    
+    /**
+     * Whether the key is one of the models the context was created with,
+     * rather than a variable set by a template, a loop or a macro call.
+     */
+    boolean isModel(String key) {
+        return modelKeys.contains(key);
+    }
+    
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.velocity;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.URLStrategy;
+import org.apache.roller.weblogger.business.Weblogger;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.pojos.wrapper.WeblogEntryWrapper;
+import org.apache.roller.weblogger.pojos.wrapper.WeblogWrapper;
+import org.apache.roller.weblogger.ui.rendering.Renderer;
+import org.apache.roller.weblogger.ui.rendering.RenderingException;
+import org.apache.roller.weblogger.ui.rendering.util.cache.PersonalFragments;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.Token;
+import org.apache.velocity.runtime.parser.node.Node;
+
+
+/**
+ * The #personal() block directive, which marks a part of a page that differs
+ * per user, like login links or edit links, so that the rest of the page can
+ * be cached once for logged in users and anonymous visitors alike.
+ *
+ * <pre>
+ * #personal()
+ *     #if ($utils.isUserAuthorizedToAuthor($entry.website))
+ *         &lt;a href="$url.editEntry($entry.anchor)"&gt;$text.get("generic.edit")&lt;/a&gt;
+ *     #end
+ * #end
+ * </pre>
+ *
+ * The block is rendered as usual, and while a page is rendered for the cache
+ * it is also recorded as a hole in the cached content, see
+ * PersonalFragments, along with the variables set by the template when it
+ * was reached, like loop variables and macro arguments.  Logged in users get
+ * it rendered again with those variables and the models of their own
+ * request.  The models themselves are never kept with the hole, and of the
+ * variables only plain values are, weblogs and entries are kept by id and
+ * looked up again by the request filling the hole.  Other variables aren't
+ * available to the block when it is rendered again.
+ *
+ * Blocks inside another #personal() block are part of the outer block's
+ * hole, blocks inside a #cache() block, or in a template decorated by
+ * another, aren't recorded.
+ */
+public class PersonalDirective extends Directive {
+    
+    // set while a block is being recorded on this thread, so that the blocks
+    // nested in it are rendered as part of its hole
+    private static final ThreadLocal<Boolean> recordingBlock = new ThreadLocal<>();
+    
+    @Override
+    public String getName() {
+        return "personal";
+    }
+    
+    @Override
+    public int getType() {
+        return BLOCK;
+    }
+    
+    @Override
+    public void checkArgs(ArrayList<Integer> argtypes, Token t, String templateName)
+            throws ParseException {
+        if (!argtypes.isEmpty()) {
+            throw new ParseException("#personal() in " + templateName + " at line "
+                    + t.beginLine + " takes no arguments");
+        }
+    }
+    
+    @Override
+    public boolean render(InternalContextAdapter context, Writer writer, Node node)
+            throws IOException {
+        
+        Node block = node.jjtGetChild(node.jjtGetNumChildren() - 1);
+        
+        // offsets are only known when writing straight to the page
+        CachedContent page = PersonalFragments.getRecording();
+        if (page == null || writer != page.getCachedWriter()
+                || recordingBlock.get() != null) {
+            return block.render(context, writer);
+        }
+        
+        Map<String, Object> captured = capture(context);
+        int start = page.mark();
+        boolean rendered;
+        recordingBlock.set(Boolean.TRUE);
+        try {
+            rendered = block.render(context, writer);
+        } finally {
+            recordingBlock.remove();
+        }
+        page.addHole(start, page.mark(), new Fragment(block, captured));
+        return rendered;
+    }
+    
+    
+    /**
+     * The variables set by the template so far.  The models are left out,
+     * they belong to the request being rendered and the user rendering the
+     * block again brings their own.
+     */
+    private static Map<String, Object> capture(InternalContextAdapter context) {
+        Map<String, Object> captured = new HashMap<>();
+        Context values = context.getInternalUserContext();
+        if (!(values instanceof ModelContext)) {
+            return captured;
+        }
+        ModelContext models = (ModelContext) values;
+        for (String key : context.getKeys()) {
+            Object value = models.getRaw(key);
+            if (value != null && !models.isModel(key)) {
+                Object kept = keep(value);
+                if (kept != null) {
+                    captured.put(key, kept);
+                }
+            }
+        }
+        return captured;
+    }
+    
+    
+    /**
+     * What of a variable may outlive the request and be shared with other
+     * users: plain values as they are, weblogs and entries by id.  Entities
+     * belong to the persistence session of the request that loaded them.
+     */
+    private static Object keep(Object value) {
+        if (value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum) {
+            return value;
+        } else if (value instanceof WeblogEntryWrapper) {
+            return new Lookup(true, ((WeblogEntryWrapper) value).getId());
+        } else if (value instanceof WeblogWrapper) {
+            return new Lookup(false, ((WeblogWrapper) value).getId());
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Renders the block again, with the variables it saw the first time and
+     * the models of another user's request.
+     */
+    private static final class Fragment implements Renderer {
+        
+        private final Node block;
+        private final Map<String, Object> captured;
+        
+        Fragment(Node block, Map<String, Object> captured) {
+            this.block = block;
+            this.captured = captured;
+        }
+        
+        @Override
+        public void render(Map<String, Object> model, Writer writer) throws RenderingException {
+            
+            Map<String, Object> values = new HashMap<>();
+            for (Map.Entry<String, Object> variable : captured.entrySet()) {
+                Object value = variable.getValue();
+                if (value instanceof Lookup) {
+                    value = ((Lookup) value).resolve();
+                }
+                if (value != null) {
+                    values.put(variable.getKey(), value);
+                }
+            }
+            values.putAll(model);
+            
+            InternalContextAdapterImpl context = new InternalContextAdapterImpl(new ModelContext(values));
+            context.pushCurrentTemplateName(block.getTemplateName());
+            context.setCurrentResource(block.getTemplate());
+            try {
+                block.render(context, writer);
+            } catch (IOException | VelocityException e) {
+                throw new RenderingException("Error rendering personal fragment of "
+                        + block.getTemplateName(), e);
+            } finally {
+                context.popCurrentTemplateName();
+                context.setCurrentResource(null);
+            }
+        }
+    }
+    
+    
+    /**
+     * A weblog or weblog entry variable, looked up again in the session of
+     * the request rendering the block.
+     */
+    private static final class Lookup {
+        
+        private final boolean entry;
+        private final String id;
+        
+        Lookup(boolean entry, String id) {
+            this.entry = entry;
+            this.id = id;
+        }
+        
+        /**
+         * The wrapped weblog or entry, or null if it is gone.
+         */
+        Object resolve() throws RenderingException {
+            Weblogger roller = WebloggerFactory.getWeblogger();
+            URLStrategy urlStrategy = roller.getUrlStrategy();
+            try {
+                if (entry) {
+                    return WeblogEntryWrapper.wrap(
+                            roller.getWeblogEntryManager().getWeblogEntry(id), urlStrategy);
+                }
+                return WeblogWrapper.wrap(roller.getWeblogManager().getWeblog(id), urlStrategy);
+            } catch (WebloggerException e) {
+                throw new RenderingException("Error looking up " + (entry ? "entry " : "weblog ")
+                        + id + " for a personal fragment", e);
+            }
+        }
+    }
+    
+}
@@ -17,10 +17,12 @@
  */
 package org.apache.roller.weblogger.ui.rendering.velocity;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,7 +30,16 @@ import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.pojos.TemplateRendition;
 import org.apache.roller.weblogger.pojos.TemplateRendition.RenditionType;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
 import org.apache.roller.weblogger.pojos.WeblogTemplate;
+import org.apache.roller.weblogger.util.cache.CacheHandler;
+import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.runtime.resource.Resource;
 import org.apache.velocity.runtime.resource.loader.ResourceLoader;
@@ -40,6 +51,12 @@ import org.apache.velocity.util.ExtProperties;
  * 
  * RollerResourceLoader makes use of WebloggerFactory.
  * 
+ * Templates are only read from the database when Velocity doesn't have them
+ * cached yet, or after they were invalidated through the CacheManager.  Each
+ * template has a version which is bumped when the template, its weblog or
+ * all caches are invalidated, and Velocity sees a cached template as
+ * modified once its version has moved on.
+ * 
  * @author <a href="mailto:lance@brainopolis.com">Lance Lavandowska</a>
  * @version $Id: RollerResourceLoader.java,v 1.9 2005/01/15 03:32:49 snoopdave
  *          Exp $
@@ -48,6 +65,25 @@ public class RollerResourceLoader extends ResourceLoader {
 
 	private static final Log logger = LogFactory.getLog(RollerResourceLoader.class);
 
+	private static final AtomicLong versionCounter = new AtomicLong();
+
+	// version of every template which was invalidated, by template id
+	private static final Map<String, Long> versions = new ConcurrentHashMap<>();
+
+	// version when all templates were last invalidated
+	private static volatile long clearedVersion = 0;
+
+	// ids of the templates we loaded, by weblog id
+	private static final Map<String, Set<String>> weblogTemplates = new ConcurrentHashMap<>();
+
+	// version of the template as it was loaded, by resource name
+	private static final Map<String, Long> loadedVersions = new ConcurrentHashMap<>();
+
+	static {
+		CacheManager.registerHandler(new InvalidationHandler());
+		CacheManager.registerClearListener(RollerResourceLoader::invalidateAll);
+	}
+
     @Override
 	public void init(ExtProperties configuration) {
 		if (logger.isDebugEnabled()) {
@@ -73,6 +109,8 @@ public class RollerResourceLoader extends ResourceLoader {
 					"Need to specify a template name!");
 		}
 
+		String resourceName = name;
+
 		// theme templates name are <template>|<deviceType>
 		RenditionType renditionType = RenditionType.STANDARD;
 		if (name.contains("|")) {
@@ -83,6 +121,9 @@ public class RollerResourceLoader extends ResourceLoader {
 
 		logger.debug("   Actually, it's " + name);
 
+		// before reading, so that an invalidation while we read isn't missed
+		long version = getVersion(name);
+
 		try {
 			WeblogTemplate page = WebloggerFactory.getWeblogger()
 					.getWeblogManager().getTemplate(name);
@@ -100,13 +141,14 @@ public class RollerResourceLoader extends ResourceLoader {
 			if (templateCode != null) {
 				contents = templateCode.getTemplate();
 			}
-			return new InputStreamReader(new ByteArrayInputStream(contents.getBytes(encoding)));
 
-		} catch (UnsupportedEncodingException uex) {
-			// This should never actually happen. We expect UTF-8 in all JRE
-			// installation.
-//			logger.error(uex);
-			throw new RuntimeException(uex);
+			if (page.getWeblog() != null) {
+				weblogTemplates.computeIfAbsent(page.getWeblog().getId(),
+						k -> ConcurrentHashMap.newKeySet()).add(name);
+			}
+			loadedVersions.put(resourceName, version);
+
+			return new StringReader(contents);
 
 		} catch (WebloggerException | ResourceNotFoundException re) {
 			String msg = "RollerResourceLoader Error: "
@@ -117,25 +159,111 @@ public class RollerResourceLoader extends ResourceLoader {
 	}
 
 	/**
-	 * Files loaded by this resource loader are not reloadable here, as they are
-	 * stored in custom themes and there is no way velocity can trigger a
-	 * reload.
+	 * Templates loaded by this resource loader have been modified once they
+	 * were invalidated after being loaded, which costs no database access.
 	 * 
 	 * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#isSourceModified(org.apache.velocity.runtime.resource.Resource)
 	 */
     @Override
 	public boolean isSourceModified(Resource resource) {
-		return false;
+		return getVersion(templateId(resource.getName())) != resource.getLastModified();
 	}
 
 	/**
-	 * Defaults to return 0.
+	 * The version of the template at the time it was last loaded.  Velocity
+	 * asks for this before reloading a modified template, so a reloaded
+	 * template is read one more time on the next check to catch up.
 	 * 
 	 * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#getLastModified(org.apache.velocity.runtime.resource.Resource)
 	 */
     @Override
 	public long getLastModified(Resource resource) {
-		return 0;
+		Long version = loadedVersions.get(resource.getName());
+		return (version != null) ? version : 0;
+	}
+
+	/**
+	 * Mark a template as modified.
+	 */
+	static void invalidate(String templateId) {
+		versions.put(templateId, versionCounter.incrementAndGet());
+	}
+
+	/**
+	 * Mark all the templates we loaded for a weblog as modified.
+	 */
+	static void invalidateWeblog(String weblogId) {
+		Set<String> templateIds = weblogTemplates.remove(weblogId);
+		if (templateIds != null) {
+			for (String templateId : templateIds) {
+				invalidate(templateId);
+			}
+		}
+	}
+
+	/**
+	 * Mark all templates as modified.
+	 */
+	static void invalidateAll() {
+		clearedVersion = versionCounter.incrementAndGet();
+	}
+
+	static long getVersion(String templateId) {
+		Long version = versions.get(templateId);
+		return Math.max(version != null ? version : 0, clearedVersion);
+	}
+
+	private static String templateId(String resourceName) {
+		int bar = resourceName.indexOf('|');
+		return (bar < 0) ? resourceName : resourceName.substring(0, bar);
+	}
+
+
+	/**
+	 * Bumps template versions when templates or weblogs are invalidated.
+	 */
+	private static class InvalidationHandler implements CacheHandler {
+
+		@Override
+		public void invalidate(WeblogTemplate template) {
+			RollerResourceLoader.invalidate(template.getId());
+		}
+
+		@Override
+		public void invalidate(Weblog website) {
+			// themes are switched and imported without invalidating templates
+			invalidateWeblog(website.getId());
+		}
+
+		@Override
+		public void invalidate(WeblogEntry entry) {
+			// ignored
+		}
+
+		@Override
+		public void invalidate(WeblogBookmark bookmark) {
+			// ignored
+		}
+
+		@Override
+		public void invalidate(WeblogBookmarkFolder folder) {
+			// ignored
+		}
+
+		@Override
+		public void invalidate(WeblogEntryComment comment) {
+			// ignored
+		}
+
+		@Override
+		public void invalidate(User user) {
+			// ignored
+		}
+
+		@Override
+		public void invalidate(WeblogCategory category) {
+			// ignored
+		}
 	}
 
 }
@@ -25,6 +25,7 @@ import java.util.Properties;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.pojos.TemplateRendition.RenditionType;
 import org.apache.roller.weblogger.ui.core.RollerContext;
 import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository;
 import org.apache.velocity.Template;
@@ -110,7 +111,7 @@ public class RollerVelocity {
      */
     public static Template getTemplate(String name, 
 			MobileDeviceRepository.DeviceType deviceType) {
-        return velocityEngine.getTemplate(name + "|" + deviceType);
+        return velocityEngine.getTemplate(resolve(name, deviceType) + "|" + deviceType);
     }
     
     /**
@@ -129,6 +130,21 @@ public class RollerVelocity {
      */
     public static Template getTemplate(String name, 
 			MobileDeviceRepository.DeviceType deviceType, String encoding) {
-        return velocityEngine.getTemplate(name + "|" + deviceType, encoding);
+        return velocityEngine.getTemplate(resolve(name, deviceType) + "|" + deviceType, encoding);
+    }
+
+    /**
+     * Shared theme templates, named &lt;theme&gt;:&lt;template&gt;, are
+     * looked up by the hash of their source instead, so that each distinct
+     * source is parsed once and the compiled template is shared.
+     */
+    private static String resolve(String name,
+            MobileDeviceRepository.DeviceType deviceType) {
+        if (name == null || deviceType == null || name.indexOf(':') < 0) {
+            return name;
+        }
+        String key = ThemeResourceLoader.getSharedKey(name,
+                RenditionType.valueOf(deviceType.name().toUpperCase()));
+        return (key != null) ? key : name;
     }
 }
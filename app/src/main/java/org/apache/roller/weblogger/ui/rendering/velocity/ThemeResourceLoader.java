@@ -27,6 +27,9 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.pojos.TemplateRendition.RenditionType;
@@ -52,6 +55,17 @@ public class ThemeResourceLoader extends ResourceLoader {
     private static Log logger = LogFactory.getFactory().getInstance(
             ThemeResourceLoader.class);
 
+    /**
+     * Prefix of content addressed shared template names.
+     */
+    public static final String SHARED_PREFIX = "shared:";
+
+    // template source by content addressed name, one per distinct source
+    private static final Map<String, String> SHARED_SOURCES = new ConcurrentHashMap<>();
+
+    // content addressed name by theme template name and rendition
+    private static final Map<String, SharedKey> SHARED_KEYS = new ConcurrentHashMap<>();
+
     @Override
     public void init(ExtProperties configuration) {
         logger.debug(configuration);
@@ -63,7 +77,7 @@ public class ThemeResourceLoader extends ResourceLoader {
     @Override
     public Reader getResourceReader(String name, String encoding) {
 
-        if (log.isDebugEnabled()) {
+        if (logger.isDebugEnabled()) {
             logger.debug("Looking for: " + name);
         }
 
@@ -80,40 +94,19 @@ public class ThemeResourceLoader extends ResourceLoader {
         }
 
         try {
-            // parse the name ... theme templates name are
-            // <theme>:<template>|<deviceType>
-            String[] split = name.split(":", 2);
-            if (split.length < 2) {
-                throw new ResourceNotFoundException("Invalid ThemeRL key "
-                        + name);
-            }
-
-            // lookup the template from the proper theme
-            ThemeManager themeMgr = WebloggerFactory.getWeblogger()
-                    .getThemeManager();
-            Theme theme = themeMgr.getTheme(split[0]);
-            ThemeTemplate template = theme.getTemplateByName(split[1]);
-
-            if (template == null) {
-                throw new ResourceNotFoundException("Template [" + split[1]
-                        + "] doesn't seem to be part of theme [" + split[0]
-                        + "]");
-            }
-
-            final String contents;
-
-            if (template.getTemplateRendition(renditionType) != null) {
-                contents = template.getTemplateRendition(renditionType).getTemplate();
-            } else if (renditionType != RenditionType.STANDARD
-                    && template.getTemplateRendition(RenditionType.STANDARD) != null) {
-                // fall back to standard rendition type if others not defined
-                contents = template.getTemplateRendition(RenditionType.STANDARD).getTemplate();
+            String contents;
+            if (name.startsWith(SHARED_PREFIX)) {
+                // content addressed names are registered by getSharedKey()
+                contents = SHARED_SOURCES.get(name);
+                if (contents == null) {
+                    throw new ResourceNotFoundException("Shared template "
+                            + name + " is no longer used by any theme");
+                }
             } else {
-                throw new ResourceNotFoundException("Rendering [" + renditionType.name()
-                        + "] of Template [" + split[1] + "] not found.");
+                contents = getTemplateSource(name, renditionType);
             }
 
-            if (log.isDebugEnabled()) {
+            if (logger.isDebugEnabled()) {
                 logger.debug("Resource found!");
             }
 
@@ -138,6 +131,101 @@ public class ThemeResourceLoader extends ResourceLoader {
         }
     }
 
+    /**
+     * The content addressed name of a shared theme template, so that Velocity
+     * parses and caches each distinct template source only once no matter
+     * how many themes, renditions and weblogs use it.
+     *
+     * @param name theme template name, &lt;theme&gt;:&lt;template&gt;
+     * @return the name to ask Velocity for, or null if the template can't be
+     *         found, so the caller can fall back to the plain name
+     */
+    public static String getSharedKey(String name, RenditionType renditionType) {
+
+        String source;
+        try {
+            source = getTemplateSource(name, renditionType);
+        } catch (ResourceNotFoundException | WebloggerException e) {
+            return null;
+        }
+
+        // only hash again when the theme has been reloaded
+        String lookup = name + "|" + renditionType;
+        SharedKey known = SHARED_KEYS.get(lookup);
+        if (known != null && known.source == source) {
+            return known.key;
+        }
+
+        return share(lookup, source);
+    }
+
+    /**
+     * Register the source of a theme template under its content addressed
+     * name. When a theme reload changed the source, the old name is dropped
+     * once no other theme template still uses it.
+     */
+    static synchronized String share(String lookup, String source) {
+
+        String key = SHARED_PREFIX + DigestUtils.sha256Hex(source);
+        SHARED_SOURCES.putIfAbsent(key, source);
+        SharedKey previous = SHARED_KEYS.put(lookup, new SharedKey(source, key));
+
+        if (previous != null && !previous.key.equals(key)
+                && SHARED_KEYS.values().stream().noneMatch(k -> k.key.equals(previous.key))) {
+            SHARED_SOURCES.remove(previous.key);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Dropped unused shared template " + previous.key);
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(lookup + " is shared template " + key);
+        }
+        return key;
+    }
+
+    /**
+     * The source of a rendition of a shared theme template, falling back to
+     * the standard rendition.
+     *
+     * @param name theme template name, &lt;theme&gt;:&lt;template&gt;
+     * @throws ResourceNotFoundException if there is no such template
+     */
+    private static String getTemplateSource(String name, RenditionType renditionType)
+            throws WebloggerException {
+
+        // parse the name ... theme templates name are
+        // <theme>:<template>|<deviceType>
+        String[] split = name.split(":", 2);
+        if (split.length < 2) {
+            throw new ResourceNotFoundException("Invalid ThemeRL key "
+                    + name);
+        }
+
+        // lookup the template from the proper theme
+        ThemeManager themeMgr = WebloggerFactory.getWeblogger()
+                .getThemeManager();
+        Theme theme = themeMgr.getTheme(split[0]);
+        ThemeTemplate template = theme.getTemplateByName(split[1]);
+
+        if (template == null) {
+            throw new ResourceNotFoundException("Template [" + split[1]
+                    + "] doesn't seem to be part of theme [" + split[0]
+                    + "]");
+        }
+
+        if (template.getTemplateRendition(renditionType) != null) {
+            return template.getTemplateRendition(renditionType).getTemplate();
+        } else if (renditionType != RenditionType.STANDARD
+                && template.getTemplateRendition(RenditionType.STANDARD) != null) {
+            // fall back to standard rendition type if others not defined
+            return template.getTemplateRendition(RenditionType.STANDARD).getTemplate();
+        } else {
+            throw new ResourceNotFoundException("Rendering [" + renditionType.name()
+                    + "] of Template [" + split[1] + "] not found.");
+        }
+    }
+
     /**
      * Files loaded by this resource loader are not reloadable here, as they are
      * stored in shared themes and there is no way velocity can trigger a
@@ -158,4 +246,15 @@ public class ThemeResourceLoader extends ResourceLoader {
         return 0;
     }
 
+
+    private static final class SharedKey {
+        private final String source;
+        private final String key;
+
+        SharedKey(String source, String key) {
+            this.source = source;
+            this.key = key;
+        }
+    }
+
 }
@@ -30,7 +30,6 @@ import org.apache.roller.weblogger.ui.rendering.Renderer;
 import org.apache.roller.weblogger.ui.rendering.RenderingException;
 import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository;
 import org.apache.roller.weblogger.ui.rendering.model.UtilitiesModel;
-import org.apache.velocity.VelocityContext;
 import org.apache.velocity.context.Context;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.VelocityException;
@@ -116,7 +115,7 @@ public class VelocityRenderer implements Renderer {
             long startTime = System.currentTimeMillis();
 
             // convert model to Velocity Context
-            Context ctx = new VelocityContext(model);
+            Context ctx = new ModelContext(model);
 
             if (velocityDecorator != null) {
 
@@ -188,7 +187,7 @@ public class VelocityRenderer implements Renderer {
                         deviceType);
             }
 
-            Context ctx = new VelocityContext(model);
+            Context ctx = new ModelContext(model);
             ctx.put("exception", velocityException);
             ctx.put("exceptionSource", renderTemplate.getId());
             ctx.put("exceptionDevice", deviceType);
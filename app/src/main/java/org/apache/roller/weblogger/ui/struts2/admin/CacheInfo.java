@@ -18,10 +18,18 @@
 
 package org.apache.roller.weblogger.ui.struts2.admin;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import org.apache.roller.weblogger.business.DatabaseHealth;
 import org.apache.roller.weblogger.pojos.GlobalPermission;
+import org.apache.roller.weblogger.ui.rendering.util.StaticSiteExporter;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderCoalescer;
+import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogCacheWarmup;
 import org.apache.roller.weblogger.ui.struts2.util.UIAction;
 import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.struts2.convention.annotation.AllowedMethods;
@@ -33,9 +41,15 @@ import org.apache.struts2.convention.annotation.AllowedMethods;
 // TODO: make this work @AllowedMethods({"execute"})
 public class CacheInfo extends UIAction {
     
+    // how many of the busiest weblogs to show for partitioned caches
+    private static final int WEBLOG_STATS_ROWS = 25;
+    
     // map of stats to display
     private Map<String, Map<String, Object>> stats = Collections.emptyMap();
     
+    // busiest weblogs of each cache partitioned by weblog
+    private Map<String, List<Map<String, Object>>> weblogStats = Collections.emptyMap();
+    
     // cache which we would clear when clear() is called
     private String cache = null;
     
@@ -60,7 +74,32 @@ public class CacheInfo extends UIAction {
     
     @Override
     public void myPrepare() {
-        setStats(CacheManager.getStats());
+        Map<String, Map<String, Object>> allStats = new HashMap<>(CacheManager.getStats());
+        allStats.putAll(RenderCoalescer.getAllStats());
+        allStats.put(WeblogCacheWarmup.STATS_ID, WeblogCacheWarmup.getInstance().getStats());
+        allStats.put(DatabaseHealth.STATS_ID, DatabaseHealth.getInstance().getStats());
+        allStats.put(StaticSiteExporter.STATS_ID, StaticSiteExporter.getInstance().getStats());
+        setStats(allStats);
+        
+        Map<String, List<Map<String, Object>>> allWeblogStats = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Map<String, Object>>> cacheStats
+                : CacheManager.getPartitionStats().entrySet()) {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Object>> partition : cacheStats.getValue().entrySet()) {
+                Map<String, Object> row = new HashMap<>(partition.getValue());
+                row.put("handle", partition.getKey());
+                rows.add(row);
+            }
+            rows.sort(Comparator.comparingLong(CacheInfo::getRequests).reversed());
+            allWeblogStats.put(cacheStats.getKey(),
+                    rows.subList(0, Math.min(rows.size(), WEBLOG_STATS_ROWS)));
+        }
+        setWeblogStats(allWeblogStats);
+    }
+    
+    
+    private static long getRequests(Map<String, Object> row) {
+        return ((Number) row.get("hits")).longValue() + ((Number) row.get("misses")).longValue();
     }
     
     
@@ -101,6 +140,14 @@ public class CacheInfo extends UIAction {
         this.stats = stats;
     }
 
+    public Map<String, List<Map<String, Object>>> getWeblogStats() {
+        return weblogStats;
+    }
+
+    public void setWeblogStats(Map<String, List<Map<String, Object>>> weblogStats) {
+        this.weblogStats = weblogStats;
+    }
+
     public String getCache() {
         return cache;
     }
@@ -31,6 +31,7 @@ import org.apache.roller.weblogger.business.startup.StartupException;
 import org.apache.roller.weblogger.business.startup.WebloggerStartup;
 import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.ui.struts2.util.UIAction;
+import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.springframework.beans.FatalBeanException;
 
 
@@ -158,6 +159,7 @@ public class Install extends UIAction {
 
             // trigger initialization process
             WebloggerFactory.getWeblogger().initialize();
+            CacheManager.startup();
 
             // also need to do planet if it's configured
             if (WebloggerConfig.getBooleanProperty("planet.aggregator.enabled")) {
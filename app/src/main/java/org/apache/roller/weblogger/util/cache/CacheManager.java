@@ -18,12 +18,18 @@
 
 package org.apache.roller.weblogger.util.cache;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.PropertyExpander;
+import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.pojos.WeblogBookmark;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment;
@@ -65,6 +71,18 @@ public final class CacheManager {
     // a map of all registered caches
     private static final Map<String, Cache> caches = new HashMap<>();
     
+    // caches with a disk tier which need closing at shutdown
+    private static final List<TieredCache> tieredCaches = new ArrayList<>();
+    
+    // caches partitioned by weblog, by cache id
+    private static final Map<String, PartitionedCache> partitionedCaches = new HashMap<>();
+    
+    // told when caches are flushed wholesale, like the warmup
+    private static final List<Runnable> clearListeners = new CopyOnWriteArrayList<>();
+    
+    // shares invalidations with other nodes, null unless clustering is on
+    private static final ClusterCacheHandler clusterHandler;
+    
     
     static {
         // lookup what cache factory we want to use
@@ -106,6 +124,11 @@ public final class CacheManager {
         } catch(ReflectiveOperationException e) {
             log.error("Unable to instantiate custom cache handlers", e);
         }
+        
+        clusterHandler = constructClusterHandler();
+        if(clusterHandler != null) {
+            cacheHandlers.add(clusterHandler);
+        }
     }
     
     
@@ -161,6 +184,18 @@ public final class CacheManager {
             cache = cacheFactory.constructCache(properties);
         }
         
+        if(cache != null && properties != null) {
+            if(parseLong(properties.get("partition.size"), 0) > 0
+                    || parseLong(properties.get("partition.maxBytes"), 0) > 0) {
+                cache = constructPartitions(cache, properties);
+            }
+            
+            String diskDir = properties.get("diskTier.dir");
+            if(diskDir != null && !diskDir.isBlank()) {
+                cache = constructDiskTier(cache, diskDir, properties);
+            }
+        }
+        
         if(cache != null) {
             caches.put(cache.getId(), cache);
             
@@ -174,6 +209,123 @@ public final class CacheManager {
     }
     
     
+    /**
+     * Construct the handler which shares invalidations with other nodes, if
+     * an InvalidationTransport is set with cache.cluster.transport.
+     */
+    private static ClusterCacheHandler constructClusterHandler() {
+        
+        String classname = WebloggerConfig.getProperty("cache.cluster.transport");
+        if(classname == null || classname.isBlank()) {
+            return null;
+        }
+        
+        try {
+            InvalidationTransport transport =
+                    (InvalidationTransport) Reflection.newInstance(classname.trim());
+            log.info("Cache invalidation transport = "+classname);
+            
+            return new ClusterCacheHandler(transport,
+                    WebloggerConfig.getIntProperty("cache.cluster.batchInterval", 1000),
+                    WebloggerConfig.getIntProperty("cache.cluster.maxBatchSize", 1000));
+        } catch(ClassCastException cce) {
+            log.error("It appears that your transport ["+classname+
+                    "] does not implement the InvalidationTransport interface",cce);
+        } catch(ReflectiveOperationException e) {
+            log.error("Unable to instantiate invalidation transport ["+classname+
+                    "], invalidations will not be shared", e);
+        }
+        
+        return null;
+    }
+    
+    
+    /**
+     * Give each weblog a partition of a cache, with the cache itself as the
+     * shared overflow.
+     *
+     * "partition.size" and "partition.maxBytes" set the quota of each
+     * partition and "partition.count" how many partitions are kept.
+     */
+    private static Cache constructPartitions(Cache cache, Map<String, String> properties) {
+        
+        PartitionedCache partitioned = new PartitionedCache(cache,
+                (int) parseLong(properties.get("partition.size"), 0),
+                parseLong(properties.get("partition.maxBytes"), 0),
+                (int) parseLong(properties.get("partition.count"), 1000),
+                constructWeigher(properties),
+                parseLong(properties.get("timeout"), 0));
+        partitionedCaches.put(partitioned.getId(), partitioned);
+        
+        log.info("Cache "+cache.getId()+" partitioned by weblog, "
+                +properties.get("partition.size")+" entries / "
+                +properties.get("partition.maxBytes")+" bytes each");
+        
+        return partitioned;
+    }
+    
+    
+    /**
+     * Put a persistent disk tier behind a cache.
+     *
+     * Segment files for the cache go in a subdirectory of "diskTier.dir"
+     * named after the cache id.  "diskTier.maxBytes" bounds the space used
+     * and "diskTier.segmentBytes" sets the size of each segment file.
+     */
+    private static Cache constructDiskTier(Cache cache, String diskDir, Map<String, String> properties) {
+        
+        long maxBytes = parseLong(properties.get("diskTier.maxBytes"), 1024L * 1024 * 1024);
+        long segmentBytes = parseLong(properties.get("diskTier.segmentBytes"), 64L * 1024 * 1024);
+        long timeout = parseLong(properties.get("timeout"), 0);
+        
+        File dir = new File(PropertyExpander.expandSystemProperties(diskDir.trim()), cache.getId());
+        log.info("Disk tier for cache "+cache.getId()+" = "+dir.getAbsolutePath());
+        
+        TieredCache tiered = new TieredCache(cache,
+                new DiskCacheTier(dir, maxBytes, segmentBytes, timeout));
+        tieredCaches.add(tiered);
+        
+        return tiered;
+    }
+    
+    
+    private static long parseLong(String value, long defaultValue) {
+        if(value != null && !value.isBlank()) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch(NumberFormatException e) {
+                log.warn("invalid number ["+value+"], using "+defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+    
+    
+    /**
+     * Construct the Weigher for a cache which is bounded by "maxBytes".
+     *
+     * The "weigher" property may name a custom Weigher class, otherwise we
+     * weigh entries by the size of their CachedContent.
+     */
+    static Weigher constructWeigher(Map<String, ?> properties) {
+
+        String classname = (String) properties.get("weigher");
+        if(classname != null && !classname.isBlank()) {
+            try {
+                return (Weigher) Reflection.newInstance(classname.trim());
+            } catch(ClassCastException cce) {
+                log.error("It appears that your weigher ["+classname+
+                        "] does not implement the Weigher interface",cce);
+            } catch(ReflectiveOperationException e) {
+                log.error("Unable to instantiate weigher ["+classname+
+                        "] falling back on default", e);
+            }
+        }
+
+        return new CachedContentWeigher();
+    }
+
+
     /**
      * Register a CacheHandler to listen for object invalidations.
      *
@@ -267,12 +419,29 @@ public final class CacheManager {
 
     
     /**
-     * Flush the entire cache system.
+     * Register a listener to run after all caches, or a single one, have
+     * been flushed.
+     */
+    public static void registerClearListener(Runnable listener) {
+        if(listener != null) {
+            clearListeners.add(listener);
+        }
+    }
+    
+    
+    /**
+     * Flush the entire cache system, on every node when clustering is on.
      */
     public static void clear() {
         for (Cache cache : caches.values()) {
             cache.clear();
         }
+        
+        if(clusterHandler != null) {
+            clusterHandler.clear();
+        }
+        
+        notifyCleared();
     }
     
     
@@ -283,6 +452,18 @@ public final class CacheManager {
         Cache cache = caches.get(cacheId);
         if(cache != null) {
             cache.clear();
+            notifyCleared();
+        }
+    }
+    
+    
+    private static void notifyCleared() {
+        for (Runnable listener : clearListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                log.error("Error notifying cache clear listener", e);
+            }
         }
     }
     
@@ -304,11 +485,49 @@ public final class CacheManager {
     }
     
     
+    /**
+     * Get the stats of each weblog's partition of the partitioned caches, by
+     * cache id and then weblog handle.
+     */
+    public static Map<String, Map<String, Map<String, Object>>> getPartitionStats() {
+        Map<String, Map<String, Map<String, Object>>> allStats = new HashMap<>();
+        for (PartitionedCache cache : partitionedCaches.values()) {
+            allStats.put(cache.getId(), cache.getPartitionStats());
+        }
+        return allStats;
+    }
+    
+    
+    /**
+     * Start sharing invalidations with the other nodes of the cluster, if
+     * clustering is on.  Called once Roller has been bootstrapped, since the
+     * transports and the replaying of invalidations need the business tier.
+     */
+    public static void startup() {
+        if(clusterHandler == null) {
+            return;
+        }
+        
+        if(!WebloggerFactory.isBootstrapped()) {
+            log.warn("Not starting cache cluster, Roller has not been bootstrapped");
+            return;
+        }
+        
+        clusterHandler.start();
+    }
+    
+    
     /**
      * Place to do any cleanup tasks for cache system.
      */
     public static void shutdown() {
-        // no-op
+        if(clusterHandler != null) {
+            clusterHandler.shutdown();
+        }
+        
+        for (TieredCache cache : tieredCaches) {
+            cache.close();
+        }
     }
     
 }
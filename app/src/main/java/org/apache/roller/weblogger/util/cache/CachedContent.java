@@ -3,10 +3,23 @@ package org.apache.roller.weblogger.util.cache;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
@@ -14,19 +27,57 @@ import org.apache.roller.util.RollerConstants;
 
 /**
  * A utility class for storing cached content written to a java.io.Writer.
+ *
+ * Once closed, the content may be moved off the java heap into a direct
+ * ByteBuffer with moveOffHeap().  The native memory is released when this
+ * object is garbage collected.
+ *
+ * A gzip compressed copy of closed content is made the first time one is
+ * asked for and kept alongside it, so cached content is compressed only once.
+ *
+ * Closed content also carries a strong entity tag, a hash of its bytes, so
+ * that clients holding the same bytes can be answered with a 304.
+ *
+ * Content may also be streamed to a response while it is being written, see
+ * streamTo().
+ *
+ * Parts of the content which differ per user may be marked as holes while
+ * it is written, see addHole(), so that a copy with those parts filled in for
+ * another user can be made with fillHoles().  Holes aren't serialized.
  */
 public class CachedContent implements AutoCloseable, Serializable {
     
     private static final Log log = LogFactory.getLog(CachedContent.class);
     
+    // tracks native memory held by all off-heap content
+    private static final Cleaner cleaner = Cleaner.create();
+    private static final LongAdder offHeapBytes = new LongAdder();
+    
     // the byte array we use to maintain the cached content
-    private byte[] content = new byte[0];
+    private volatile byte[] content = new byte[0];
+    
+    // read-only off-heap copy of the content, set before content is dropped
+    // so readers should always check the byte array first
+    private transient volatile ByteBuffer offHeapContent = null;
+    
+    // gzip compressed copy of the content, once compress() has been tried
+    private transient volatile ByteBuffer gzipContent = null;
+    private transient volatile boolean compressed = false;
+    
+    // strong entity tag for the content, computed when it is closed
+    private transient volatile String eTag = null;
+    
+    // whether the content was streamed while it was written
+    private transient boolean streamed = false;
+    
+    // parts of the content which differ per user, in order
+    private transient volatile List<Hole> holes = Collections.emptyList();
     
     // content-type of data in byte array
     private final String contentType;
     
     // Use a byte array output stream to cached the output bytes
-    private transient ByteArrayOutputStream outstream = null;
+    private transient TeeOutputStream outstream = null;
     
     // The PrintWriter that users will be writing to
     private transient PrintWriter cachedWriter = null;
@@ -39,9 +90,9 @@ public class CachedContent implements AutoCloseable, Serializable {
     public CachedContent(int size, String contentType) {
         // construct output stream
         if(size > 0) {
-            this.outstream = new ByteArrayOutputStream(size);
+            this.outstream = new TeeOutputStream(size);
         } else {
-            this.outstream = new ByteArrayOutputStream(RollerConstants.EIGHT_KB_IN_BYTES);
+            this.outstream = new TeeOutputStream(RollerConstants.EIGHT_KB_IN_BYTES);
         }
         
         // construct writer from output stream
@@ -57,15 +108,234 @@ public class CachedContent implements AutoCloseable, Serializable {
     }
     
     
+    /**
+     * Construct closed content around an existing buffer, which may well be
+     * a direct or memory mapped one.
+     */
+    public CachedContent(ByteBuffer content, String contentType) {
+        this.offHeapContent = content.asReadOnlyBuffer();
+        this.content = null;
+        this.contentType = contentType;
+    }
+    
+    
+    private CachedContent(byte[] content, String contentType) {
+        this.content = content;
+        this.contentType = contentType;
+    }
+    
+    
     /**
      * Get the content cached in this object as a byte array.  If you convert
      * this back to a string yourself, be sure to re-encode in "UTF-8".
      *
      * NOTE: the content is only a representation of the data written to the
      *       enclosed Writer up until the last call to flush().
+     *
+     * NOTE: off-heap content is copied back onto the heap, use writeTo()
+     *       when the content only needs to be sent somewhere.
      */
     public byte[] getContent() {
-        return this.content;
+        byte[] bytes = this.content;
+        if(bytes != null) {
+            return bytes;
+        }
+        ByteBuffer buffer = this.offHeapContent;
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+    
+    
+    /**
+     * Get the number of bytes of content cached in this object.
+     */
+    public int getContentLength() {
+        byte[] bytes = this.content;
+        if(bytes != null) {
+            return bytes.length;
+        }
+        return this.offHeapContent.remaining();
+    }
+    
+    
+    /**
+     * Get a read-only view of the content cached in this object, without
+     * copying it.
+     */
+    ByteBuffer getContentBuffer() {
+        byte[] bytes = this.content;
+        if(bytes != null) {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+        return this.offHeapContent.duplicate();
+    }
+    
+    
+    /**
+     * Write the content cached in this object to the given stream, straight
+     * from off-heap memory if the content has been moved there.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] bytes = this.content;
+        if(bytes != null) {
+            out.write(bytes);
+        } else {
+            Channels.newChannel(out).write(this.offHeapContent.duplicate());
+        }
+    }
+    
+    
+    /**
+     * Get a strong entity tag for the content, made from its length and a
+     * CRC-32C checksum of its bytes, so it only changes when they do.
+     *
+     * @throws IllegalStateException if calling getETag() before a close()
+     */
+    public String getETag() {
+        String tag = this.eTag;
+        if(tag == null) {
+            if(this.outstream != null) {
+                throw new IllegalStateException("Cannot getETag() before a close()!");
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(getContentBuffer());
+            tag = "\""+Integer.toHexString(getContentLength())+"-"+Long.toHexString(crc.getValue())+"\"";
+            this.eTag = tag;
+        }
+        return tag;
+    }
+    
+    
+    /**
+     * Get a read-only view of a gzip compressed copy of the content,
+     * compressing it the first time it is asked for.  Returns null if
+     * compressing doesn't make the content any smaller.
+     *
+     * @throws IllegalStateException if calling getGzipContent() before a close()
+     */
+    public ByteBuffer getGzipContent() {
+        if(!this.compressed) {
+            compress();
+        }
+        ByteBuffer gzip = this.gzipContent;
+        return (gzip != null) ? gzip.duplicate() : null;
+    }
+    
+    
+    /**
+     * Get the number of bytes in the gzip compressed copy of the content, or
+     * 0 if there is none yet.
+     */
+    public int getGzipContentLength() {
+        ByteBuffer gzip = this.gzipContent;
+        return (gzip != null) ? gzip.remaining() : 0;
+    }
+    
+    
+    private synchronized void compress() {
+        
+        if(this.outstream != null) {
+            throw new IllegalStateException("Cannot compress before a close()!");
+        }
+        
+        if(this.compressed) {
+            return;
+        }
+        
+        int length = getContentLength();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes, RollerConstants.EIGHT_KB_IN_BYTES)) {
+            writeTo(gzip);
+        } catch (IOException e) {
+            // shouldn't be possible, it's all in memory
+            log.error("Error compressing content", e);
+            this.compressed = true;
+            return;
+        }
+        
+        if(bytes.size() < length) {
+            byte[] gzipped = bytes.toByteArray();
+            if(isOffHeap()) {
+                this.gzipContent = allocateOffHeap(gzipped);
+            } else {
+                this.gzipContent = ByteBuffer.wrap(gzipped).asReadOnlyBuffer();
+            }
+            log.debug("COMPRESSED "+length+" to "+gzipped.length);
+        }
+        this.compressed = true;
+    }
+    
+    
+    /**
+     * Move the content of a closed CachedContent, and its compressed copy if
+     * there is one, into native memory so that it no longer takes up space
+     * on the java heap.
+     *
+     * @throws IllegalStateException if calling moveOffHeap() before a close()
+     */
+    public synchronized void moveOffHeap() {
+        
+        if(this.outstream != null) {
+            throw new IllegalStateException("Cannot moveOffHeap() before a close()!");
+        }
+        
+        if(this.offHeapContent != null) {
+            return;
+        }
+        
+        this.offHeapContent = allocateOffHeap(this.content);
+        this.content = null;
+        
+        ByteBuffer gzip = this.gzipContent;
+        if(gzip != null) {
+            byte[] gzipped = new byte[gzip.remaining()];
+            gzip.duplicate().get(gzipped);
+            this.gzipContent = allocateOffHeap(gzipped);
+        }
+    }
+    
+    
+    // copy bytes into native memory which is released along with this object
+    private ByteBuffer allocateOffHeap(byte[] bytes) {
+        
+        final int size = bytes.length;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes).flip();
+        
+        offHeapBytes.add(size);
+        cleaner.register(this, () -> offHeapBytes.add(-size));
+        
+        return buffer.asReadOnlyBuffer();
+    }
+    
+    
+    /**
+     * Find the CachedContent in a cached value, which may be wrapped in one
+     * of our expiring cache entries.  Returns null if there is none.
+     */
+    static CachedContent fromCacheValue(Object value) {
+        Object content = value;
+        if(content instanceof LazyExpiringCacheEntry) {
+            content = ((LazyExpiringCacheEntry) content).peekValue();
+        } else if(content instanceof ExpiringCacheEntry) {
+            content = ((ExpiringCacheEntry) content).peekValue();
+        }
+        return (content instanceof CachedContent) ? (CachedContent) content : null;
+    }
+    
+    
+    public boolean isOffHeap() {
+        return (this.content == null);
+    }
+    
+    
+    /**
+     * Number of bytes of cached content currently held off-heap, across all
+     * caches.  Memory is released lazily after content is garbage collected.
+     */
+    public static long getOffHeapBytes() {
+        return offHeapBytes.sum();
     }
     
     
@@ -77,7 +347,7 @@ public class CachedContent implements AutoCloseable, Serializable {
      */
     public String getContentAsString() {
         try {
-            return new String(this.content,"UTF-8");
+            return new String(getContent(),"UTF-8");
         } catch (UnsupportedEncodingException uex) {
             // shouldn't ever happen - violates Java Spec.
             throw new RuntimeException(uex);
@@ -90,6 +360,120 @@ public class CachedContent implements AutoCloseable, Serializable {
     }
     
     
+    /**
+     * The number of bytes written so far, for marking where holes start and
+     * end.  Flushes the cached Writer.
+     *
+     * @throws IllegalStateException if calling mark() after a close()
+     */
+    public int mark() {
+        
+        if(this.outstream == null) {
+            throw new IllegalStateException("Cannot mark() after a close()!");
+        }
+        
+        this.cachedWriter.flush();
+        return this.outstream.size();
+    }
+    
+    
+    /**
+     * Mark the bytes from start to end, as returned by mark(), as a part of
+     * the content which differs per user, along with whatever can render
+     * that part again.  Holes must be added in order and must not overlap.
+     */
+    public synchronized void addHole(int start, int end, Object fragment) {
+        
+        List<Hole> current = getHoles();
+        int last = current.isEmpty() ? 0 : current.get(current.size() - 1).end;
+        if(start < last || end < start) {
+            throw new IllegalArgumentException("Hole "+start+"-"+end+" overlaps one before it");
+        }
+        
+        List<Hole> added = new ArrayList<>(current.size() + 1);
+        added.addAll(current);
+        added.add(new Hole(start, end, fragment));
+        this.holes = Collections.unmodifiableList(added);
+    }
+    
+    
+    public List<Hole> getHoles() {
+        List<Hole> current = this.holes;
+        // null once deserialized
+        return (current != null) ? current : Collections.emptyList();
+    }
+    
+    
+    /**
+     * Copy of closed content with each hole replaced by what the filler
+     * returns for it, or left as it is where that returns null.  The copy
+     * has no holes of its own.
+     *
+     * @throws IllegalStateException if calling fillHoles() before a close()
+     */
+    public CachedContent fillHoles(Function<Hole, String> filler) {
+        
+        if(this.outstream != null) {
+            throw new IllegalStateException("Cannot fillHoles() before a close()!");
+        }
+        
+        ByteBuffer source = getContentBuffer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(source.remaining() + 256);
+        int copied = 0;
+        for (Hole hole : getHoles()) {
+            String fill = filler.apply(hole);
+            if(fill != null) {
+                copy(source, copied, hole.start, out);
+                byte[] bytes = fill.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                copied = hole.end;
+            }
+        }
+        copy(source, copied, source.remaining(), out);
+        
+        return new CachedContent(out.toByteArray(), this.contentType);
+    }
+    
+    
+    private static void copy(ByteBuffer source, int from, int to, ByteArrayOutputStream out) {
+        byte[] bytes = new byte[to - from];
+        source.duplicate().position(from).get(bytes);
+        out.write(bytes, 0, bytes.length);
+    }
+    
+    
+    /**
+     * Also send the content to a stream as it is written, once more than
+     * threshold bytes have been written, so that a client can start reading
+     * it before all of it has been written.  Until then it is only buffered,
+     * so that whoever writes it can still change their mind about sending it.
+     *
+     * The stream is opened when the threshold is crossed, and closed along
+     * with this CachedContent.
+     *
+     * @throws IllegalStateException if calling streamTo() after a close()
+     */
+    public void streamTo(Callable<OutputStream> target, int threshold) {
+        
+        if(this.outstream == null) {
+            throw new IllegalStateException("Cannot streamTo() after a close()!");
+        }
+        
+        this.outstream.target = target;
+        this.outstream.threshold = Math.max(0, threshold);
+    }
+    
+    
+    /**
+     * True if some of the content has been sent to the stream given to
+     * streamTo(), which means that it is too late to send anything else.
+     */
+    public boolean isStreamed() {
+        TeeOutputStream out = this.outstream;
+        return (out != null) ? out.streaming != null : this.streamed;
+    }
+    
+    
     public String getContentType() {
         return contentType;
     }
@@ -131,11 +515,113 @@ public class CachedContent implements AutoCloseable, Serializable {
             if(this.content.length != this.outstream.size()) {
                 this.content = this.outstream.toByteArray();
             }
+            this.streamed = (this.outstream.streaming != null);
             this.outstream.close();
             this.outstream = null;
         }
         
+        // hash once here rather than on the first conditional request
+        getETag();
+        
         log.debug("CLOSED");
     }
     
+    
+    /**
+     * Buffers everything written to it, and once past the threshold also
+     * writes it to the target stream.
+     */
+    private static final class TeeOutputStream extends ByteArrayOutputStream {
+        
+        private Callable<OutputStream> target = null;
+        private int threshold = 0;
+        private OutputStream streaming = null;
+        
+        TeeOutputStream(int size) {
+            super(size);
+        }
+        
+        @Override
+        public synchronized void write(int b) {
+            super.write(b);
+            tee(count - 1, 1);
+        }
+        
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            tee(count - len, len);
+        }
+        
+        // the last len bytes were just written at off
+        private void tee(int off, int len) {
+            try {
+                if(streaming != null) {
+                    streaming.write(buf, off, len);
+                } else if(target != null && count > threshold) {
+                    streaming = target.call();
+                    streaming.write(buf, 0, count);
+                    // get the start of it out right away
+                    streaming.flush();
+                }
+            } catch (Exception e) {
+                // the client went away, but we still have the content
+                log.debug("Streaming stopped: " + e);
+                target = null;
+                streaming = OutputStream.nullOutputStream();
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            OutputStream out = streaming;
+            if(out != null && target != null) {
+                target = null;
+                out.close();
+            }
+        }
+    }
+    
+    
+    /**
+     * A part of the content which differs per user, from the start byte up
+     * to but not including the end byte.
+     */
+    public static final class Hole {
+        
+        private final int start;
+        private final int end;
+        private final Object fragment;
+        
+        private Hole(int start, int end, Object fragment) {
+            this.start = start;
+            this.end = end;
+            this.fragment = fragment;
+        }
+        
+        public int getStart() {
+            return start;
+        }
+        
+        public int getEnd() {
+            return end;
+        }
+        
+        /**
+         * Whatever can render this part again, as given to addHole().
+         */
+        public Object getFragment() {
+            return fragment;
+        }
+    }
+    
+    
+    // direct buffers can't be serialized, so we serialize a heap copy instead
+    private Object writeReplace() {
+        if(this.content == null) {
+            return new CachedContent(getContent(), this.contentType);
+        }
+        return this;
+    }
+    
 }
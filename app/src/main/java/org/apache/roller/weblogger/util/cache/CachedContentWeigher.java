@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+
+/**
+ * Weighs cache entries by the approximate number of bytes they hold.
+ *
+ * Understands CachedContent, optionally wrapped in one of our expiring
+ * cache entries.  Anything else only counts for its key and bookkeeping.
+ */
+public class CachedContentWeigher implements Weigher {
+    
+    // rough per entry cost of the map entry, wrappers and CachedContent itself
+    private static final int ENTRY_OVERHEAD = 128;
+    
+    
+    @Override
+    public int weigh(String key, Object value) {
+        
+        long weight = ENTRY_OVERHEAD + 2L * key.length();
+        
+        CachedContent content = CachedContent.fromCacheValue(value);
+        if(content != null) {
+            weight += content.getContentLength() + content.getGzipContentLength();
+        }
+        
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+    
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.BookmarkManager;
+import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.WeblogManager;
+import org.apache.roller.weblogger.business.Weblogger;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
+
+
+/**
+ * A CacheHandler which shares invalidations with the other nodes of a cluster.
+ *
+ * Local invalidations are queued and sent to the other nodes in batches
+ * through an InvalidationTransport, repeats of the same object within a batch
+ * are only sent once.  Batches from other nodes are replayed through the
+ * CacheManager so that all the handlers on this node see them, after the
+ * invalidated objects have been looked up again by id.
+ */
+class ClusterCacheHandler implements CacheHandler {
+
+    private static final Log log = LogFactory.getLog(ClusterCacheHandler.class);
+
+    // set while replaying events from another node, so they aren't sent back
+    private static final ThreadLocal<Boolean> replaying = new ThreadLocal<>();
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final InvalidationTransport transport;
+    private final int maxBatchSize;
+
+    // invalidations waiting to be sent, in the order they happened
+    private Set<InvalidationEvent> pending = new LinkedHashSet<>();
+
+    private final long batchInterval;
+    private final ScheduledExecutorService flusher;
+    private boolean started = false;
+
+
+    /**
+     * @param transport how invalidations reach the other nodes
+     * @param batchInterval milliseconds to collect invalidations for before sending
+     * @param maxBatchSize batches larger than this are sent as a single flush of all caches
+     */
+    ClusterCacheHandler(InvalidationTransport transport, long batchInterval, int maxBatchSize) {
+        this.transport = transport;
+        this.batchInterval = batchInterval;
+        this.maxBatchSize = maxBatchSize;
+
+        log.info("Cluster node id = "+nodeId);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CacheInvalidationFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Start sending and receiving invalidations.  Transports may need the
+     * database and replaying needs the business tier, so this waits until
+     * Roller has been bootstrapped.
+     */
+    synchronized void start() {
+        if(started) {
+            return;
+        }
+        started = true;
+
+        transport.init(nodeId, this::receive);
+        flusher.scheduleWithFixedDelay(this::flush, batchInterval, batchInterval, TimeUnit.MILLISECONDS);
+    }
+
+
+    @Override
+    public void invalidate(WeblogEntry entry) {
+        queue(InvalidationEvent.Type.ENTRY, entry.getId(), idOf(entry.getWebsite()));
+    }
+
+
+    @Override
+    public void invalidate(Weblog website) {
+        queue(InvalidationEvent.Type.WEBLOG, website.getId(), website.getId());
+    }
+
+
+    @Override
+    public void invalidate(WeblogBookmark bookmark) {
+        queue(InvalidationEvent.Type.BOOKMARK, bookmark.getId(), idOf(bookmark.getWebsite()));
+    }
+
+
+    @Override
+    public void invalidate(WeblogBookmarkFolder folder) {
+        queue(InvalidationEvent.Type.FOLDER, folder.getId(), idOf(folder.getWeblog()));
+    }
+
+
+    @Override
+    public void invalidate(WeblogEntryComment comment) {
+        WeblogEntry entry = comment.getWeblogEntry();
+        queue(InvalidationEvent.Type.COMMENT, comment.getId(),
+                (entry != null) ? idOf(entry.getWebsite()) : null);
+    }
+
+
+    @Override
+    public void invalidate(User user) {
+        queue(InvalidationEvent.Type.USER, user.getId(), null);
+    }
+
+
+    @Override
+    public void invalidate(WeblogCategory category) {
+        queue(InvalidationEvent.Type.CATEGORY, category.getId(), idOf(category.getWeblog()));
+    }
+
+
+    @Override
+    public void invalidate(WeblogTemplate template) {
+        queue(InvalidationEvent.Type.TEMPLATE, template.getId(), idOf(template.getWeblog()));
+    }
+
+
+    /**
+     * Ask the other nodes to flush all of their caches.
+     */
+    void clear() {
+        queue(InvalidationEvent.Type.ALL, null, null);
+    }
+
+
+    /**
+     * Send any pending invalidations and stop talking to the cluster.
+     */
+    void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized(this) {
+            if(!started) {
+                return;
+            }
+        }
+        flush();
+        transport.shutdown();
+    }
+
+
+    private void queue(InvalidationEvent.Type type, String id, String weblogId) {
+
+        if(replaying.get() != null) {
+            // this came from another node, it already knows about it
+            return;
+        }
+
+        synchronized(this) {
+            pending.add(new InvalidationEvent(type, id, weblogId));
+        }
+    }
+
+
+    private void flush() {
+
+        List<InvalidationEvent> batch;
+        synchronized(this) {
+            if(pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending = new LinkedHashSet<>();
+        }
+
+        if(batch.size() > maxBatchSize) {
+            log.debug(batch.size()+" invalidations coalesced into a flush of all caches");
+            batch = List.of(new InvalidationEvent(InvalidationEvent.Type.ALL, null, null));
+        }
+
+        try {
+            transport.publish(batch);
+        } catch (RuntimeException e) {
+            log.error("Unable to send cache invalidations to the cluster", e);
+        }
+    }
+
+
+    // a batch of events from another node
+    private void receive(List<InvalidationEvent> events) {
+
+        log.debug("Replaying "+events.size()+" invalidations from the cluster");
+
+        replaying.set(Boolean.TRUE);
+        try {
+            Weblogger roller = WebloggerFactory.getWeblogger();
+            for (InvalidationEvent event : events) {
+                try {
+                    replay(roller, event);
+                } catch (WebloggerException e) {
+                    log.warn("Unable to replay cache invalidation "+event, e);
+                }
+            }
+        } finally {
+            replaying.remove();
+            WebloggerFactory.getWeblogger().release();
+        }
+    }
+
+
+    private void replay(Weblogger roller, InvalidationEvent event) throws WebloggerException {
+
+        WeblogEntryManager entryManager = roller.getWeblogEntryManager();
+        BookmarkManager bookmarkManager = roller.getBookmarkManager();
+        WeblogManager weblogManager = roller.getWeblogManager();
+
+        // when the object is gone we fall back on invalidating its weblog
+        Object object = null;
+        switch (event.getType()) {
+            case ENTRY:
+                WeblogEntry entry = entryManager.getWeblogEntry(event.getId());
+                if(entry != null) {
+                    CacheManager.invalidate(entry);
+                }
+                object = entry;
+                break;
+            case WEBLOG:
+                break;
+            case BOOKMARK:
+                WeblogBookmark bookmark = bookmarkManager.getBookmark(event.getId());
+                if(bookmark != null) {
+                    CacheManager.invalidate(bookmark);
+                }
+                object = bookmark;
+                break;
+            case FOLDER:
+                WeblogBookmarkFolder folder = bookmarkManager.getFolder(event.getId());
+                if(folder != null) {
+                    CacheManager.invalidate(folder);
+                }
+                object = folder;
+                break;
+            case COMMENT:
+                WeblogEntryComment comment = entryManager.getComment(event.getId());
+                if(comment != null) {
+                    CacheManager.invalidate(comment);
+                }
+                object = comment;
+                break;
+            case USER:
+                User user = roller.getUserManager().getUser(event.getId());
+                if(user != null) {
+                    CacheManager.invalidate(user);
+                }
+                return;
+            case CATEGORY:
+                WeblogCategory category = entryManager.getWeblogCategory(event.getId());
+                if(category != null) {
+                    CacheManager.invalidate(category);
+                }
+                object = category;
+                break;
+            case TEMPLATE:
+                WeblogTemplate template = weblogManager.getTemplate(event.getId());
+                if(template != null) {
+                    CacheManager.invalidate(template);
+                }
+                object = template;
+                break;
+            case ALL:
+                CacheManager.clear();
+                return;
+            default:
+                return;
+        }
+
+        if(object == null && event.getWeblogId() != null) {
+            Weblog weblog = weblogManager.getWeblog(event.getWeblogId());
+            if(weblog != null) {
+                CacheManager.invalidate(weblog);
+            } else {
+                // the whole weblog is gone, we can't tell what referred to it
+                CacheManager.clear();
+            }
+        }
+    }
+
+
+    private static String idOf(Weblog weblog) {
+        return (weblog != null) ? weblog.getId() : null;
+    }
+
+}
@@ -0,0 +1,478 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * A persistent second tier for caches of rendered content.
+ *
+ * Entries are appended to segment files in a local directory and read back
+ * through memory mapped buffers.  The index of what is on disk is kept in
+ * memory and rebuilt by scanning the segments the first time the tier is used
+ * after a restart.  When the directory grows past its limit the oldest
+ * segment is deleted.
+ *
+ * Only LazyExpiringCacheEntry values holding CachedContent are stored, along
+ * with the time they were cached so that last-modified checks still apply to
+ * content which comes back from disk.
+ */
+class DiskCacheTier {
+    
+    private static final Log log = LogFactory.getLog(DiskCacheTier.class);
+    
+    private static final String SEGMENT_SUFFIX = ".seg";
+    
+    // length written for a null content type, or for content of a removed entry
+    private static final int NO_DATA = -1;
+    
+    private final File dir;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final long timeout;
+    
+    // where the current version of each entry lives on disk
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    
+    // segments from oldest to newest, the newest one is appended to
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long totalBytes = 0;
+    
+    private volatile boolean loaded = false;
+    
+    
+    /**
+     * @param dir directory holding the segment files for one cache
+     * @param maxBytes bytes of segment files to keep before deleting the oldest
+     * @param segmentBytes size at which a new segment file is started
+     * @param timeout seconds entries may be served for, 0 for no limit
+     */
+    DiskCacheTier(File dir, long maxBytes, long segmentBytes, long timeout) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.min(segmentBytes, Integer.MAX_VALUE);
+        this.timeout = timeout * 1000;
+    }
+    
+    
+    /**
+     * Retrieve an entry from disk, or null if there is no usable entry.
+     */
+    public LazyExpiringCacheEntry get(String key) {
+        
+        load();
+        
+        Location location = index.get(key);
+        if(location == null) {
+            return null;
+        }
+        
+        if(isExpired(location.timeCached)) {
+            index.remove(key, location);
+            return null;
+        }
+        
+        ByteBuffer content = location.segment.slice(location.offset, location.length);
+        if(content == null) {
+            // segment was deleted underneath us
+            index.remove(key, location);
+            return null;
+        }
+        
+        return new LazyExpiringCacheEntry(
+                new CachedContent(content, location.contentType), location.timeCached);
+    }
+    
+    
+    /**
+     * Write an entry to disk, values which aren't cached content are ignored.
+     */
+    public void put(String key, Object value) {
+        
+        if(!(value instanceof LazyExpiringCacheEntry)) {
+            return;
+        }
+        
+        CachedContent content = CachedContent.fromCacheValue(value);
+        if(content == null) {
+            return;
+        }
+        
+        load();
+        
+        long timeCached = ((LazyExpiringCacheEntry) value).getTimeCached();
+        Location current = index.get(key);
+        if(current != null && current.timeCached == timeCached) {
+            // the same copy, promoted to memory and evicted again
+            return;
+        }
+        
+        append(key, timeCached, content.getContentType(), content.getContentBuffer());
+    }
+    
+    
+    /**
+     * Stop serving an entry right away, returns true if there was one.  Its
+     * removal still has to be recorded with remove() so that it stays removed
+     * after a restart.
+     */
+    public boolean forget(String key) {
+        
+        load();
+        
+        return (index.remove(key) != null);
+    }
+    
+    
+    /**
+     * Remove an entry, this is recorded on disk so it stays removed after a
+     * restart.
+     */
+    public void remove(String key) {
+        
+        load();
+        
+        index.remove(key);
+        append(key, 0, null, null);
+    }
+    
+    
+    public synchronized void clear() {
+        
+        load();
+        
+        for(Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        index.clear();
+        totalBytes = 0;
+    }
+    
+    
+    public int getEntries() {
+        return index.size();
+    }
+    
+    
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+    
+    
+    /**
+     * Release open segment files, the tier can't be used afterwards.
+     */
+    public synchronized void close() {
+        for(Segment segment : segments) {
+            segment.close();
+        }
+    }
+    
+    
+    private boolean isExpired(long timeCached) {
+        return (timeout > 0 && timeCached + timeout < System.currentTimeMillis());
+    }
+    
+    
+    private void load() {
+        if(!loaded) {
+            synchronized(this) {
+                if(!loaded) {
+                    rebuildIndex();
+                    loaded = true;
+                }
+            }
+        }
+    }
+    
+    
+    // scan whatever segments are on disk, later records replace earlier ones
+    private void rebuildIndex() {
+        
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            log.error("Unable to create disk cache directory "+dir.getAbsolutePath());
+            return;
+        }
+        
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if(files == null) {
+            return;
+        }
+        
+        long[] numbers = new long[files.length];
+        int count = 0;
+        for(File file : files) {
+            String name = file.getName();
+            try {
+                numbers[count] = Long.parseLong(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch(NumberFormatException e) {
+                log.warn("Ignoring unknown file in disk cache "+file.getAbsolutePath());
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        
+        for(long number : numbers) {
+            try {
+                Segment segment = new Segment(dir, number);
+                scan(segment);
+                segments.addLast(segment);
+                totalBytes += segment.size;
+            } catch(IOException e) {
+                log.warn("Unable to read disk cache segment "+number+" in "+dir.getAbsolutePath(), e);
+            }
+        }
+        
+        log.info("Loaded "+index.size()+" entries from disk cache "+dir.getAbsolutePath());
+    }
+    
+    
+    private void scan(Segment segment) throws IOException {
+        
+        if(segment.size == 0) {
+            return;
+        }
+        
+        ByteBuffer buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        
+        int start = 0;
+        try {
+            while(buffer.hasRemaining()) {
+                start = buffer.position();
+                
+                String key = readString(buffer);
+                long timeCached = buffer.getLong();
+                String contentType = readString(buffer);
+                int length = buffer.getInt();
+                
+                if(key == null || length < NO_DATA || length > buffer.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                
+                if(length == NO_DATA) {
+                    index.remove(key);
+                } else if(isExpired(timeCached)) {
+                    index.remove(key);
+                    buffer.position(buffer.position() + length);
+                } else {
+                    index.put(key, new Location(segment, buffer.position(), length,
+                            timeCached, contentType));
+                    buffer.position(buffer.position() + length);
+                }
+            }
+        } catch(BufferUnderflowException | IllegalArgumentException e) {
+            // a write was cut short, drop the partial record
+            log.warn("Truncating damaged disk cache segment "+segment.file.getAbsolutePath()+
+                    " at "+start);
+            segment.truncate(start);
+        }
+    }
+    
+    
+    private synchronized void append(String key, long timeCached,
+            String contentType, ByteBuffer content) {
+        
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] typeBytes = (contentType != null) ?
+            contentType.getBytes(StandardCharsets.UTF_8) : null;
+        
+        int headerLength = 4 + keyBytes.length + 8 + 4 +
+                (typeBytes != null ? typeBytes.length : 0) + 4;
+        int contentLength = (content != null) ? content.remaining() : 0;
+        
+        if(headerLength + (long) contentLength > segmentBytes) {
+            // too big to keep, just make sure an older copy isn't used
+            log.debug("Too large for disk cache "+key);
+            if(!index.containsKey(key)) {
+                return;
+            }
+            content = null;
+            contentLength = 0;
+        }
+        
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        header.putInt(keyBytes.length).put(keyBytes);
+        header.putLong(timeCached);
+        if(typeBytes != null) {
+            header.putInt(typeBytes.length).put(typeBytes);
+        } else {
+            header.putInt(NO_DATA);
+        }
+        header.putInt(content != null ? contentLength : NO_DATA);
+        header.flip();
+        
+        try {
+            Segment segment = segments.peekLast();
+            if(segment == null || segment.size + headerLength + contentLength > segmentBytes) {
+                long number = (segment != null) ? segment.number + 1 : 0;
+                segment = new Segment(dir, number);
+                segments.addLast(segment);
+            }
+            
+            long offset = segment.append(header, content);
+            totalBytes += headerLength + contentLength;
+            
+            if(content != null) {
+                index.put(key, new Location(segment, (int) offset + headerLength,
+                        contentLength, timeCached, contentType));
+            } else {
+                index.remove(key);
+            }
+            
+            // first in first out
+            while(totalBytes > maxBytes && segments.size() > 1) {
+                Segment oldest = segments.removeFirst();
+                totalBytes -= oldest.size;
+                index.values().removeIf(location -> location.segment == oldest);
+                oldest.delete();
+            }
+            
+        } catch(IOException e) {
+            log.warn("Unable to write to disk cache "+dir.getAbsolutePath(), e);
+            index.remove(key);
+        }
+    }
+    
+    
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length == NO_DATA) {
+            return null;
+        }
+        if(length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    
+    // a record of where an entry's content is
+    private static final class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final long timeCached;
+        private final String contentType;
+        
+        Location(Segment segment, int offset, int length, long timeCached, String contentType) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timeCached = timeCached;
+            this.contentType = contentType;
+        }
+    }
+    
+    
+    // a single append-only segment file
+    private static final class Segment {
+        private final long number;
+        private final File file;
+        private final FileChannel channel;
+        private volatile long size;
+        private volatile MappedByteBuffer mapped = null;
+        
+        Segment(File dir, long number) throws IOException {
+            this.number = number;
+            this.file = new File(dir, number + SEGMENT_SUFFIX);
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+        
+        // callers hold the tier lock
+        long append(ByteBuffer header, ByteBuffer content) throws IOException {
+            long offset = size;
+            ByteBuffer[] buffers = (content != null) ?
+                new ByteBuffer[] { header, content } : new ByteBuffer[] { header };
+            
+            channel.position(offset);
+            while(header.hasRemaining() || (content != null && content.hasRemaining())) {
+                channel.write(buffers);
+            }
+            size = channel.position();
+            return offset;
+        }
+        
+        ByteBuffer slice(int offset, int length) {
+            MappedByteBuffer map = this.mapped;
+            if(map == null || map.capacity() < offset + length) {
+                map = remap();
+                if(map == null || map.capacity() < offset + length) {
+                    return null;
+                }
+            }
+            ByteBuffer buffer = map.duplicate();
+            buffer.position(offset).limit(offset + length);
+            return buffer.slice();
+        }
+        
+        // mappings stay valid after the file is closed or deleted, so readers
+        // holding an old slice are never left with freed memory
+        private synchronized MappedByteBuffer remap() {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch(IOException e) {
+                log.debug("Unable to map disk cache segment "+file.getAbsolutePath(), e);
+            }
+            return mapped;
+        }
+        
+        void truncate(long length) throws IOException {
+            channel.truncate(length);
+            size = length;
+        }
+        
+        void close() {
+            try {
+                channel.close();
+            } catch(IOException e) {
+                log.debug("Unable to close disk cache segment "+file.getAbsolutePath(), e);
+            }
+        }
+        
+        void delete() {
+            close();
+            if(!file.delete()) {
+                log.warn("Unable to delete disk cache segment "+file.getAbsolutePath());
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+
+/**
+ * Told about entries a cache pushes out to stay within its bounds, so that
+ * they can be kept somewhere else, like a disk tier.
+ *
+ * Listeners are called while the cache holds its own locks, so they should
+ * only hand the entry off and return.
+ */
+interface EvictionListener {
+    
+    void evicted(String key, Object value);
+    
+    
+    /**
+     * A cache which can tell a listener about its evictions.
+     */
+    interface Source {
+        
+        void setEvictionListener(EvictionListener listener);
+        
+    }
+    
+}
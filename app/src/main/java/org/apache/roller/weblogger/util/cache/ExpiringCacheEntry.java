@@ -65,6 +65,17 @@ public class ExpiringCacheEntry implements Serializable {
     }
     
     
+    /**
+     * Retrieve the value of this cache entry whether it has expired or not.
+     *
+     * This is meant for cache bookkeeping, like weighing entries, and not
+     * for serving content.
+     */
+    public Object peekValue() {
+        return this.value;
+    }
+    
+    
     /**
      * Determine if this cache entry has expired.
      */
@@ -43,6 +43,7 @@ public class ExpiringLRUCacheFactoryImpl implements CacheFactory {
         
         int size = 100;
         long timeout = 15 * 60;
+        long maxBytes = 0;
         String id = "unknown";
         
         try {
@@ -57,14 +58,29 @@ public class ExpiringLRUCacheFactoryImpl implements CacheFactory {
             log.warn("invalid timeout property", e);
         }
         
+        String maxBytesProp = (String) properties.get("maxBytes");
+        if (maxBytesProp != null && !maxBytesProp.isBlank()) {
+            try {
+                maxBytes = Long.parseLong(maxBytesProp.trim());
+            } catch(Exception e) {
+                log.warn("invalid maxBytes property", e);
+            }
+        }
+        
         String cacheId = (String) properties.get("id");
         if(cacheId != null) {
             id = cacheId;
         }
         
-        Cache cache = new ExpiringLRUCacheImpl(id, size, timeout);
+        Cache cache;
+        if (maxBytes > 0) {
+            cache = new ExpiringLRUCacheImpl(id, size, timeout,
+                    CacheManager.constructWeigher(properties), maxBytes);
+        } else {
+            cache = new ExpiringLRUCacheImpl(id, size, timeout);
+        }
         
-        log.debug("new cache constructed. size=" + size + ", timeout=" + timeout);
+        log.debug("new cache constructed. size=" + size + ", timeout=" + timeout + ", maxBytes=" + maxBytes);
         
         return cache;
     }
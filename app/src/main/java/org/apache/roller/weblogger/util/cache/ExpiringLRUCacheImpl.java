@@ -42,7 +42,14 @@ public class ExpiringLRUCacheImpl extends LRUCacheImpl {
     
     protected ExpiringLRUCacheImpl(String id, int maxsize, long timeout) {
         
-        super(id, maxsize);
+        this(id, maxsize, timeout, null, 0);
+    }
+    
+    
+    protected ExpiringLRUCacheImpl(String id, int maxsize, long timeout,
+            Weigher weigher, long maxWeight) {
+        
+        super(id, maxsize, weigher, maxWeight);
         
         // timeout is specified in seconds; only positive values allowed
         if (timeout > 0) {
@@ -92,4 +99,17 @@ public class ExpiringLRUCacheImpl extends LRUCacheImpl {
         return value;
     }
     
+    
+    /**
+     * Only entries which haven't expired are passed on, unwrapped.
+     */
+    @Override
+    protected void evicted(String key, Object value) {
+        
+        Object unwrapped = ((ExpiringCacheEntry) value).getValue();
+        if (unwrapped != null) {
+            super.evicted(key, unwrapped);
+        }
+    }
+    
 }
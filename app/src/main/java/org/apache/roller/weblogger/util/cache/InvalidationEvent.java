@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * An object invalidation which is passed between the nodes of a cluster.
+ *
+ * Only the type and id of the invalidated object are sent, along with the id
+ * of its weblog so that a peer can still invalidate the weblog when the
+ * object itself has been deleted.
+ */
+public final class InvalidationEvent {
+
+    /**
+     * The kinds of objects which can be invalidated, ALL asks peers to flush
+     * every cache.
+     */
+    public enum Type {
+        ENTRY, WEBLOG, BOOKMARK, FOLDER, COMMENT, USER, CATEGORY, TEMPLATE, ALL
+    }
+
+    // written in place of a missing weblog id
+    private static final String NONE = "-";
+
+    private final Type type;
+    private final String id;
+    private final String weblogId;
+
+
+    public InvalidationEvent(Type type, String id, String weblogId) {
+        this.type = type;
+        this.id = (id != null) ? id : NONE;
+        this.weblogId = weblogId;
+    }
+
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getWeblogId() {
+        return weblogId;
+    }
+
+
+    /**
+     * Encode a batch of events as text, one event per line.
+     */
+    public static String encode(Collection<InvalidationEvent> events) {
+        StringBuilder buf = new StringBuilder(events.size() * 88);
+        for (InvalidationEvent event : events) {
+            buf.append(event.type.name()).append(' ');
+            buf.append(event.id).append(' ');
+            buf.append(event.weblogId != null ? event.weblogId : NONE).append('\n');
+        }
+        return buf.toString();
+    }
+
+
+    /**
+     * Decode a batch of events written by encode(), unknown lines are skipped.
+     */
+    public static List<InvalidationEvent> decode(String text) {
+        List<InvalidationEvent> events = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                events.add(new InvalidationEvent(Type.valueOf(parts[0]), parts[1],
+                        NONE.equals(parts[2]) ? null : parts[2]));
+            } catch (IllegalArgumentException e) {
+                // an event type we don't know about, maybe from a newer node
+            }
+        }
+        return events;
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if (!(other instanceof InvalidationEvent)) {
+            return false;
+        }
+        InvalidationEvent o = (InvalidationEvent) other;
+        return type == o.type && id.equals(o.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, id);
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + id;
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * Carries cache invalidations between the nodes of a cluster.
+ *
+ * The transport to use is chosen with the cache.cluster.transport property.
+ * Implementations need a public no-arg constructor and read any settings
+ * they need from the roller config.
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Start listening for invalidations from other nodes.
+     *
+     * @param nodeId a unique id for this node, events published by this node
+     *               must not be handed back to its own receiver.
+     * @param receiver called with each batch of events from another node.
+     */
+    void init(String nodeId, Consumer<List<InvalidationEvent>> receiver);
+
+    /**
+     * Send a batch of invalidations to all other nodes.
+     */
+    void publish(List<InvalidationEvent> events);
+
+    /**
+     * Stop listening and release any resources.
+     */
+    void shutdown();
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.business.startup.WebloggerStartup;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+
+
+/**
+ * Shares cache invalidations through the roller_cacheevent table in the
+ * Roller database, so no extra infrastructure is needed.
+ *
+ * Each batch is inserted as one row and every node polls the table for rows
+ * written by the others.  Rows are read again for a while after they were
+ * first seen to allow for clock differences between nodes, and are deleted
+ * once they are older than the retention period.
+ *
+ * Settings:
+ *   cache.cluster.jdbc.pollInterval   seconds between polls
+ *   cache.cluster.jdbc.clockSkew      seconds of clock difference to allow for
+ *   cache.cluster.jdbc.retention      seconds to keep rows for
+ */
+public class JDBCInvalidationTransport implements InvalidationTransport {
+
+    private static final Log log = LogFactory.getLog(JDBCInvalidationTransport.class);
+
+    private final long pollInterval;
+    private final long clockSkew;
+    private final long retention;
+
+    private String nodeId = null;
+    private Consumer<List<InvalidationEvent>> receiver = null;
+    private Thread poller = null;
+
+    // ids of rows already replayed, and when they were written
+    private final Map<String, Long> seen = new HashMap<>();
+
+    // newest row time we have seen
+    private long lastEventTime = 0;
+
+    private long lastPurge = 0;
+
+
+    public JDBCInvalidationTransport() {
+        pollInterval = WebloggerConfig.getIntProperty("cache.cluster.jdbc.pollInterval", 2) * RollerConstants.SEC_IN_MS;
+        clockSkew = WebloggerConfig.getIntProperty("cache.cluster.jdbc.clockSkew", 30) * RollerConstants.SEC_IN_MS;
+        retention = Math.max(clockSkew * 2,
+                WebloggerConfig.getIntProperty("cache.cluster.jdbc.retention", 600) * RollerConstants.SEC_IN_MS);
+    }
+
+
+    @Override
+    public void init(String nodeId, Consumer<List<InvalidationEvent>> receiver) {
+        this.nodeId = nodeId;
+        this.receiver = receiver;
+
+        // nothing from before we started matters, our caches are empty
+        this.lastEventTime = System.currentTimeMillis();
+
+        poller = new Thread(this::pollLoop, "CacheInvalidationPoller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+
+    @Override
+    public void publish(List<InvalidationEvent> events) {
+
+        String sql = "insert into roller_cacheevent (id, nodeid, eventtime, events) values (?, ?, ?, ?)";
+        try (Connection con = WebloggerStartup.getDatabaseProvider().getConnection();
+             PreparedStatement stmt = con.prepareStatement(sql)) {
+            stmt.setString(1, UUID.randomUUID().toString());
+            stmt.setString(2, nodeId);
+            stmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            stmt.setString(4, InvalidationEvent.encode(events));
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            log.error("Unable to publish cache invalidations", e);
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        if(poller != null) {
+            poller.interrupt();
+        }
+    }
+
+
+    private void pollLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(pollInterval);
+                poll();
+                purge();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException e) {
+                log.warn("Unable to poll for cache invalidations", e);
+            } catch (RuntimeException e) {
+                log.error("Unexpected error replaying cache invalidations", e);
+            }
+        }
+    }
+
+
+    private void poll() throws SQLException {
+
+        long since = lastEventTime - clockSkew;
+
+        String sql = "select id, nodeid, eventtime, events from roller_cacheevent " +
+                "where eventtime > ? order by eventtime";
+        try (Connection con = WebloggerStartup.getDatabaseProvider().getConnection();
+             PreparedStatement stmt = con.prepareStatement(sql)) {
+            stmt.setTimestamp(1, new Timestamp(since));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String id = rs.getString(1);
+                    long eventTime = rs.getTimestamp(3).getTime();
+                    if(seen.containsKey(id)) {
+                        continue;
+                    }
+                    seen.put(id, eventTime);
+                    lastEventTime = Math.max(lastEventTime, eventTime);
+
+                    if(!nodeId.equals(rs.getString(2))) {
+                        receiver.accept(InvalidationEvent.decode(rs.getString(4)));
+                    }
+                }
+            }
+        }
+
+        // rows this old won't be selected again
+        long cutoff = lastEventTime - clockSkew;
+        seen.values().removeIf(time -> time <= cutoff);
+    }
+
+
+    private void purge() throws SQLException {
+
+        long now = System.currentTimeMillis();
+        if(now - lastPurge < RollerConstants.MIN_IN_MS) {
+            return;
+        }
+        lastPurge = now;
+
+        String sql = "delete from roller_cacheevent where eventtime < ?";
+        try (Connection con = WebloggerStartup.getDatabaseProvider().getConnection();
+             PreparedStatement stmt = con.prepareStatement(sql)) {
+            stmt.setTimestamp(1, new Timestamp(now - retention));
+            stmt.executeUpdate();
+        }
+    }
+
+}
@@ -41,6 +41,7 @@ public class LRUCacheFactoryImpl implements CacheFactory {
     @Override
     public Cache constructCache(Map<String, ?> properties) {
         int size = 100;
+        long maxBytes = 0;
         String id = "unknown";
         
         try {
@@ -49,14 +50,29 @@ public class LRUCacheFactoryImpl implements CacheFactory {
             log.warn("invalide size property", e);
         }
         
+        String maxBytesProp = (String) properties.get("maxBytes");
+        if (maxBytesProp != null && !maxBytesProp.isBlank()) {
+            try {
+                maxBytes = Long.parseLong(maxBytesProp.trim());
+            } catch(Exception e) {
+                log.warn("invalid maxBytes property", e);
+            }
+        }
+        
         String cacheId = (String) properties.get("id");
         if (cacheId != null) {
             id = cacheId;
         }
         
-        Cache cache = new LRUCacheImpl(id, size);
+        Cache cache;
+        if (maxBytes > 0) {
+            cache = new LRUCacheImpl(id, size,
+                    CacheManager.constructWeigher(properties), maxBytes);
+        } else {
+            cache = new LRUCacheImpl(id, size);
+        }
         
-        log.debug("new cache constructed. size="+size);
+        log.debug("new cache constructed. size="+size+", maxBytes="+maxBytes);
         
         return cache;
     }
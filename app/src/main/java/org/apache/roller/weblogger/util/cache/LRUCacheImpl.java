@@ -20,6 +20,7 @@ package org.apache.roller.weblogger.util.cache;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.roller.util.RollerConstants;
@@ -28,11 +29,21 @@ import org.apache.roller.util.RollerConstants;
 /**
  * A simple LRU Cache.
  */
-public class LRUCacheImpl implements Cache {
+public class LRUCacheImpl implements Cache, EvictionListener.Source {
     
     private final String id;
     private final Map<String, Object> cache;
     
+    // when set the cache is bounded by total weight instead of entry count
+    private final Weigher weigher;
+    private final long maxWeight;
+    private long weightedSize = 0;
+    
+    // the weight of each entry as it was put, which is what it gives back
+    private final Map<String, Integer> weights = new HashMap<>();
+    
+    private volatile EvictionListener evictionListener = null;
+    
     // for metrics
     protected double hits = 0;
     protected double misses = 0;
@@ -49,8 +60,27 @@ public class LRUCacheImpl implements Cache {
     
     protected LRUCacheImpl(String id, int maxsize) {
         
+        this(id, maxsize, null, 0);
+    }
+    
+    
+    protected LRUCacheImpl(String id, int maxsize, Weigher weigher, long maxWeight) {
+        
         this.id = id;
-        this.cache = new LRULinkedHashMap<>(maxsize);
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+        if (weigher != null) {
+            // maxsize is only a sizing hint, weight decides what stays
+            this.cache = new LRULinkedHashMap(maxsize, Integer.MAX_VALUE);
+        } else {
+            this.cache = new LRULinkedHashMap(maxsize, maxsize);
+        }
+    }
+    
+    
+    @Override
+    public void setEvictionListener(EvictionListener listener) {
+        this.evictionListener = listener;
     }
     
     
@@ -66,8 +96,18 @@ public class LRUCacheImpl implements Cache {
     @Override
     public synchronized void put(String key, Object value) {
         
-        this.cache.put(key, value);
+        Object old = this.cache.put(key, value);
         puts++;
+        
+        if (weigher != null) {
+            int weight = weigher.weigh(key, value);
+            Integer oldWeight = weights.put(key, weight);
+            if (oldWeight != null) {
+                weightedSize -= oldWeight;
+            }
+            weightedSize += weight;
+            trimToWeight();
+        }
     }
     
     
@@ -93,8 +133,12 @@ public class LRUCacheImpl implements Cache {
     @Override
     public synchronized void remove(String key) {
         
-        this.cache.remove(key);
+        Object old = this.cache.remove(key);
         removes++;
+        
+        if (weigher != null && old != null) {
+            weightedSize -= weights.remove(key);
+        }
     }
     
     
@@ -102,6 +146,8 @@ public class LRUCacheImpl implements Cache {
     public synchronized void clear() {
         
         this.cache.clear();
+        weights.clear();
+        weightedSize = 0;
         
         // clear metrics
         hits = 0;
@@ -122,6 +168,11 @@ public class LRUCacheImpl implements Cache {
         stats.put("puts", this.puts);
         stats.put("removes", this.removes);
         
+        if (weigher != null) {
+            stats.put("bytes", this.weightedSize);
+            stats.put("maxBytes", this.maxWeight);
+        }
+        
         // calculate efficiency
         if((misses - removes) > 0) {
             double efficiency = hits / (misses + hits);
@@ -132,18 +183,46 @@ public class LRUCacheImpl implements Cache {
     }
     
     
+    // evict least recently used entries until we are within our weight
+    private void trimToWeight() {
+        
+        Iterator<Map.Entry<String, Object>> entries = this.cache.entrySet().iterator();
+        while (weightedSize > maxWeight && entries.hasNext()) {
+            Map.Entry<String, Object> eldest = entries.next();
+            weightedSize -= weights.remove(eldest.getKey());
+            entries.remove();
+            evicted(eldest.getKey(), eldest.getValue());
+        }
+    }
+    
+    
+    /**
+     * Called with each entry pushed out of the cache to make room.
+     */
+    protected void evicted(String key, Object value) {
+        EvictionListener listener = this.evictionListener;
+        if (listener != null) {
+            listener.evicted(key, value);
+        }
+    }
+    
+    
     // David Flanaghan: http://www.davidflanagan.com/blog/000014.html
-    private static class LRULinkedHashMap<K, V> extends LinkedHashMap<K, V> {
+    private class LRULinkedHashMap extends LinkedHashMap<String, Object> {
         protected int maxsize;
         
-        public LRULinkedHashMap(int maxsize) {
-            super(maxsize * 4 / 3 + 1, 0.75f, true);
+        public LRULinkedHashMap(int initialsize, int maxsize) {
+            super(initialsize * 4 / 3 + 1, 0.75f, true);
             this.maxsize = maxsize;
         }
         
         @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-            return this.size() > this.maxsize;
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            if (this.size() > this.maxsize) {
+                evicted(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            return false;
         }
     }
     
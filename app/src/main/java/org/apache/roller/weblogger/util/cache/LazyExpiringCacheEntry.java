@@ -54,6 +54,15 @@ public class LazyExpiringCacheEntry implements Serializable {
     }
     
     
+    /**
+     * Restore an entry which was originally cached at the given time.
+     */
+    public LazyExpiringCacheEntry(Object item, long timeCached) {
+        this.value = item;
+        this.timeCached = timeCached;
+    }
+    
+    
     /**
      * Retrieve the value of this cache entry if it is still "fresh".
      *
@@ -68,6 +77,33 @@ public class LazyExpiringCacheEntry implements Serializable {
     }
     
     
+    /**
+     * Retrieve the value of this cache entry if it is still "fresh", or if it
+     * expired no more than maxStale milliseconds ago.
+     *
+     * This is meant for serving a stale value while a fresh one is prepared.
+     */
+    public Object getValue(long lastInvalidated, long maxStale) {
+        if(this.isInvalid(lastInvalidated)
+                && System.currentTimeMillis() - lastInvalidated > maxStale) {
+            return null;
+        } else {
+            return this.value;
+        }
+    }
+    
+    
+    /**
+     * Retrieve the value of this cache entry whether it is fresh or not.
+     *
+     * This is meant for cache bookkeeping, like weighing entries, and for
+     * serving content only as a last resort, when the database is degraded.
+     */
+    public Object peekValue() {
+        return this.value;
+    }
+    
+    
     /**
      * Determine if this cache entry has expired.
      */
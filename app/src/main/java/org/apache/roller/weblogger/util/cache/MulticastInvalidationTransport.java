@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+
+
+/**
+ * Shares cache invalidations over UDP multicast, for nodes on the same LAN.
+ *
+ * Batches are split into datagrams small enough to avoid IP fragmentation.
+ * Delivery is best effort, so this is only suitable where the cache timeout
+ * is an acceptable bound on how long a lost invalidation stays stale.
+ *
+ * Settings:
+ *   cache.cluster.multicast.address     multicast group to use
+ *   cache.cluster.multicast.port        port for the group
+ *   cache.cluster.multicast.ttl         hops datagrams may travel
+ *   cache.cluster.multicast.interface   optional network interface name
+ */
+public class MulticastInvalidationTransport implements InvalidationTransport {
+
+    private static final Log log = LogFactory.getLog(MulticastInvalidationTransport.class);
+
+    // marks our datagrams, in case something else shares the group
+    private static final String MAGIC = "roller-cache";
+
+    private static final int MAX_DATAGRAM = 1400;
+
+    private final String address;
+    private final int port;
+    private final int ttl;
+    private final String interfaceName;
+
+    private String nodeId = null;
+    private Consumer<List<InvalidationEvent>> receiver = null;
+    private volatile MulticastSocket socket = null;
+    private InetSocketAddress group = null;
+    private NetworkInterface netIf = null;
+
+
+    public MulticastInvalidationTransport() {
+        address = WebloggerConfig.getProperty("cache.cluster.multicast.address", "239.255.40.1");
+        port = WebloggerConfig.getIntProperty("cache.cluster.multicast.port", 45566);
+        ttl = WebloggerConfig.getIntProperty("cache.cluster.multicast.ttl", 1);
+        interfaceName = WebloggerConfig.getProperty("cache.cluster.multicast.interface");
+    }
+
+
+    @Override
+    public void init(String nodeId, Consumer<List<InvalidationEvent>> receiver) {
+        this.nodeId = nodeId;
+        this.receiver = receiver;
+
+        try {
+            group = new InetSocketAddress(InetAddress.getByName(address), port);
+
+            if(interfaceName != null && !interfaceName.isBlank()) {
+                netIf = NetworkInterface.getByName(interfaceName.trim());
+                if(netIf == null) {
+                    log.warn("Unknown network interface "+interfaceName+", using the default");
+                }
+            }
+
+            socket = new MulticastSocket(port);
+            socket.setTimeToLive(ttl);
+            if(netIf != null) {
+                socket.setNetworkInterface(netIf);
+            }
+            socket.joinGroup(group, netIf);
+
+            log.info("Joined cache invalidation group "+group);
+
+        } catch (IOException e) {
+            log.error("Unable to join cache invalidation group "+address+":"+port, e);
+            socket = null;
+            return;
+        }
+
+        Thread listener = new Thread(this::listen, "CacheInvalidationListener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+
+    @Override
+    public void publish(List<InvalidationEvent> events) {
+
+        if(socket == null) {
+            return;
+        }
+
+        String header = MAGIC + " " + nodeId + "\n";
+        StringBuilder datagram = new StringBuilder(MAX_DATAGRAM);
+        datagram.append(header);
+
+        for (InvalidationEvent event : events) {
+            String line = InvalidationEvent.encode(List.of(event));
+            if(datagram.length() + line.length() > MAX_DATAGRAM && datagram.length() > header.length()) {
+                send(datagram.toString());
+                datagram.setLength(0);
+                datagram.append(header);
+            }
+            datagram.append(line);
+        }
+
+        if(datagram.length() > header.length()) {
+            send(datagram.toString());
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        MulticastSocket s = socket;
+        socket = null;
+        if(s != null) {
+            try {
+                s.leaveGroup(group, netIf);
+            } catch (IOException e) {
+                log.debug("Unable to leave cache invalidation group", e);
+            }
+            s.close();
+        }
+    }
+
+
+    private void send(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            socket.send(new DatagramPacket(bytes, bytes.length, group));
+        } catch (IOException e) {
+            log.warn("Unable to send cache invalidations", e);
+        }
+    }
+
+
+    private void listen() {
+
+        byte[] buf = new byte[65536];
+        MulticastSocket s;
+        while ((s = socket) != null) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                s.receive(packet);
+
+                String text = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                int newline = text.indexOf('\n');
+                if(newline < 0) {
+                    continue;
+                }
+
+                String[] header = text.substring(0, newline).split(" ");
+                if(header.length != 2 || !MAGIC.equals(header[0]) || nodeId.equals(header[1])) {
+                    // not ours, or sent by this node
+                    continue;
+                }
+
+                List<InvalidationEvent> events = InvalidationEvent.decode(text.substring(newline + 1));
+                if(!events.isEmpty()) {
+                    receiver.accept(events);
+                }
+
+            } catch (IOException e) {
+                if(socket != null) {
+                    log.warn("Error receiving cache invalidations", e);
+                }
+            } catch (RuntimeException e) {
+                log.error("Unexpected error replaying cache invalidations", e);
+            }
+        }
+    }
+
+}
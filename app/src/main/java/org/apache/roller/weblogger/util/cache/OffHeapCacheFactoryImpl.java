@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+
+/**
+ * Roller off-heap cache factory.
+ *
+ * Constructs TinyLFU caches which store rendered content in native memory.
+ * Usually chosen for a single cache, for example ...
+ *
+ *   cache.weblogpage.factory=org.apache.roller.weblogger.util.cache.OffHeapCacheFactoryImpl
+ *   cache.weblogpage.maxBytes=4294967296
+ */
+public class OffHeapCacheFactoryImpl extends TinyLFUCacheFactoryImpl {
+
+    // protected so only the CacheManager can instantiate us
+    protected OffHeapCacheFactoryImpl() {}
+
+
+    @Override
+    protected Cache newCache(String id, int size, long timeout, Weigher weigher, long maxBytes) {
+        return new OffHeapCacheImpl(id, size, timeout, weigher, maxBytes);
+    }
+
+}
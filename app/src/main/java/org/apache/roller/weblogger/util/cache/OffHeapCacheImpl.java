@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * A TinyLFU cache which keeps the bytes of CachedContent off the java heap.
+ *
+ * Rendered content is moved into direct ByteBuffers as it is cached, so only
+ * small bookkeeping objects remain on the heap.  Bound this cache with the
+ * maxBytes property and make sure the JVM allows that much direct memory
+ * (-XX:MaxDirectMemorySize).
+ */
+public class OffHeapCacheImpl extends TinyLFUCacheImpl {
+
+    private static final Log log = LogFactory.getLog(OffHeapCacheImpl.class);
+
+
+    protected OffHeapCacheImpl(String id, int maxsize, long timeout,
+            Weigher weigher, long maxWeight) {
+        super(id, maxsize, timeout, weigher, maxWeight);
+    }
+
+
+    /**
+     * Store an entry in the cache, moving its content off-heap first.
+     */
+    @Override
+    public void put(String key, Object value) {
+
+        CachedContent content = CachedContent.fromCacheValue(value);
+        if (content != null) {
+            try {
+                content.moveOffHeap();
+            } catch (IllegalStateException e) {
+                // still being written to, keep it on the heap
+                log.warn("content for ["+key+"] was cached before it was closed");
+            }
+        }
+
+        super.put(key, value);
+    }
+
+
+    @Override
+    public Map<String, Object> getStats() {
+
+        Map<String, Object> stats = super.getStats();
+        stats.put("offHeapBytes", CachedContent.getOffHeapBytes());
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.roller.util.RollerConstants;
+
+
+/**
+ * A cache which gives each weblog a partition of its own, so that one busy
+ * weblog can't push the pages of all the others out of the cache.
+ *
+ * Each partition holds up to "partition.size" entries or "partition.maxBytes"
+ * bytes of the most recently used content of its weblog.  What a partition
+ * pushes out goes to the shared overflow cache, which is the cache the
+ * factory constructed, where all weblogs compete as before.  At most
+ * "partition.count" partitions are kept, the least recently used one is
+ * spilled to the overflow cache to make room for a new one.
+ *
+ * Keys must look like "prefix:handle/...", the weblog handle is what comes
+ * between the first colon and the following slash.
+ */
+class PartitionedCache implements Cache, EvictionListener.Source {
+
+    private final Cache overflow;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Weigher weigher;
+    private final long timeout;
+
+    // partitions by weblog handle, least recently used first
+    private final LinkedHashMap<String, Partition> partitions;
+
+    // for metrics, also counts lookups of weblogs without a partition
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+
+    PartitionedCache(Cache overflow, int maxEntries, long maxBytes, int maxPartitions,
+            Weigher weigher, long timeout) {
+        this.overflow = overflow;
+        this.maxEntries = maxEntries > 0 ? maxEntries : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.weigher = weigher;
+        this.timeout = timeout > 0 ? timeout * RollerConstants.SEC_IN_MS : RollerConstants.HOUR_IN_MS;
+
+        final int maxCount = Math.max(1, maxPartitions);
+        this.partitions = new LinkedHashMap<String, Partition>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Partition> eldest) {
+                if(size() > maxCount) {
+                    eldest.getValue().spillAll();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    @Override
+    public String getId() {
+        return overflow.getId();
+    }
+
+
+    /**
+     * Entries only leave for good through the overflow cache, partitions
+     * spill into it.
+     */
+    @Override
+    public void setEvictionListener(EvictionListener listener) {
+        if(overflow instanceof EvictionListener.Source) {
+            ((EvictionListener.Source) overflow).setEvictionListener(listener);
+        }
+    }
+
+
+    @Override
+    public void put(String key, Object value) {
+
+        // an older copy may have been pushed out to the overflow
+        overflow.remove(key);
+
+        List<Map.Entry<String, ExpiringCacheEntry>> evicted;
+        do {
+            // null if the partition was dropped before we got to it
+            evicted = getOrCreatePartition(key).put(key, value);
+        } while(evicted == null);
+
+        spill(evicted);
+    }
+
+
+    @Override
+    public Object get(String key) {
+
+        Partition partition = getPartition(key);
+        Object value = (partition != null) ? partition.get(key) : null;
+        if(value != null) {
+            hits.increment();
+            partition.hits.increment();
+            return value;
+        }
+
+        value = overflow.get(key);
+        if(value != null) {
+            hits.increment();
+            if(partition != null) {
+                partition.hits.increment();
+                partition.overflowHits.increment();
+            }
+        } else {
+            misses.increment();
+            if(partition != null) {
+                partition.misses.increment();
+            }
+        }
+
+        return value;
+    }
+
+
+    @Override
+    public void remove(String key) {
+        Partition partition = getPartition(key);
+        if(partition != null) {
+            partition.remove(key);
+        }
+        overflow.remove(key);
+    }
+
+
+    @Override
+    public void clear() {
+        synchronized (partitions) {
+            for (Partition partition : partitions.values()) {
+                partition.detach();
+            }
+            partitions.clear();
+        }
+        overflow.clear();
+
+        hits.reset();
+        misses.reset();
+    }
+
+
+    @Override
+    public Map<String, Object> getStats() {
+
+        long entries = 0;
+        long bytes = 0;
+        int count;
+        synchronized (partitions) {
+            count = partitions.size();
+            for (Partition partition : partitions.values()) {
+                synchronized (partition) {
+                    entries += partition.entries.size();
+                    bytes += partition.bytes;
+                }
+            }
+        }
+
+        // the overflow cache only sees what the partitions miss
+        Map<String, Object> stats = overflow.getStats();
+        stats.put("overflowHits", stats.remove("hits"));
+        stats.put("overflowMisses", stats.remove("misses"));
+        stats.remove("efficiency");
+
+        double hitCount = hits.sum();
+        double missCount = misses.sum();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        if((hitCount + missCount) > 0) {
+            stats.put("efficiency", hitCount / (hitCount + missCount) * RollerConstants.PERCENT_100);
+        }
+        stats.put("partitions", count);
+        stats.put("partitionEntries", entries);
+        stats.put("partitionBytes", bytes);
+
+        return stats;
+    }
+
+
+    /**
+     * Hit and miss counts, entries and bytes of each weblog's partition.
+     */
+    Map<String, Map<String, Object>> getPartitionStats() {
+
+        Map<String, Map<String, Object>> allStats = new HashMap<>();
+        synchronized (partitions) {
+            for (Map.Entry<String, Partition> entry : partitions.entrySet()) {
+                Partition partition = entry.getValue();
+                Map<String, Object> stats = new HashMap<>();
+                synchronized (partition) {
+                    stats.put("entries", partition.entries.size());
+                    stats.put("bytes", partition.bytes);
+                }
+                stats.put("hits", partition.hits.sum());
+                stats.put("misses", partition.misses.sum());
+                stats.put("overflowHits", partition.overflowHits.sum());
+                allStats.put(entry.getKey(), stats);
+            }
+        }
+        return allStats;
+    }
+
+
+    /**
+     * The weblog handle a key belongs to.
+     */
+    static String partitionOf(String key) {
+        int start = key.indexOf(':') + 1;
+        int end = key.indexOf('/', start);
+        return (end < 0) ? key.substring(start) : key.substring(start, end);
+    }
+
+
+    // the partition of a key's weblog, or null if it has none
+    private Partition getPartition(String key) {
+        String handle = partitionOf(key);
+        synchronized (partitions) {
+            return partitions.get(handle);
+        }
+    }
+
+
+    // only puts create partitions, so lookups of unknown weblogs can't push
+    // out the partitions of real ones
+    private Partition getOrCreatePartition(String key) {
+        String handle = partitionOf(key);
+        synchronized (partitions) {
+            return partitions.computeIfAbsent(handle, h -> new Partition());
+        }
+    }
+
+
+    // move entries pushed out of a partition to the overflow cache
+    private void spill(List<Map.Entry<String, ExpiringCacheEntry>> evicted) {
+        for (Map.Entry<String, ExpiringCacheEntry> entry : evicted) {
+            Object value = entry.getValue().getValue();
+            if(value != null) {
+                overflow.put(entry.getKey(), value);
+            }
+        }
+    }
+
+
+    private final class Partition {
+
+        // least recently used first
+        private final LinkedHashMap<String, ExpiringCacheEntry> entries =
+                new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes = 0;
+
+        // the weight of each entry as it was put, which is what it gives back
+        private final Map<String, Integer> weights = new HashMap<>();
+
+        // set once the partition is dropped, it takes no more entries
+        private boolean detached = false;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder overflowHits = new LongAdder();
+
+
+        synchronized Object get(String key) {
+            ExpiringCacheEntry entry = entries.get(key);
+            if(entry == null) {
+                return null;
+            }
+            Object value = entry.getValue();
+            if(value == null) {
+                remove(key);
+            }
+            return value;
+        }
+
+
+        /**
+         * Returns what had to be pushed out to stay within the quota, or null
+         * if the partition has been dropped and the entry wasn't stored.
+         */
+        synchronized List<Map.Entry<String, ExpiringCacheEntry>> put(String key, Object value) {
+
+            if(detached) {
+                return null;
+            }
+
+            ExpiringCacheEntry entry = new ExpiringCacheEntry(value, timeout);
+            entries.put(key, entry);
+            int weight = weigher.weigh(key, entry);
+            Integer oldWeight = weights.put(key, weight);
+            if(oldWeight != null) {
+                bytes -= oldWeight;
+            }
+            bytes += weight;
+
+            List<Map.Entry<String, ExpiringCacheEntry>> evicted = new ArrayList<>();
+            Iterator<Map.Entry<String, ExpiringCacheEntry>> eldest = entries.entrySet().iterator();
+            while((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                Map.Entry<String, ExpiringCacheEntry> next = eldest.next();
+                if(next.getKey().equals(key)) {
+                    // a single entry bigger than the quota still gets cached
+                    continue;
+                }
+                bytes -= weights.remove(next.getKey());
+                evicted.add(Map.entry(next.getKey(), next.getValue()));
+                eldest.remove();
+            }
+
+            return evicted;
+        }
+
+
+        synchronized void remove(String key) {
+            if(entries.remove(key) != null) {
+                bytes -= weights.remove(key);
+            }
+        }
+
+
+        /**
+         * Called when the partition itself is dropped.
+         */
+        void spillAll() {
+            List<Map.Entry<String, ExpiringCacheEntry>> all;
+            synchronized (this) {
+                detached = true;
+                all = new ArrayList<>(entries.size());
+                for (Map.Entry<String, ExpiringCacheEntry> entry : entries.entrySet()) {
+                    all.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+                entries.clear();
+                weights.clear();
+                bytes = 0;
+            }
+            spill(all);
+        }
+
+
+        synchronized void detach() {
+            detached = true;
+            entries.clear();
+            weights.clear();
+            bytes = 0;
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * A cache with an in-memory first tier and a persistent disk second tier.
+ *
+ * Entries the memory tier pushes out to make room are spilled to disk, so
+ * they can be read back from there instead of being rendered again, also
+ * after a restart.  Entries found on disk are promoted back into memory.
+ *
+ * Spills and removals are written behind by a single background thread,
+ * requests only ever read from the disk tier.  If the memory cache can't
+ * report its evictions every put is written behind instead.
+ */
+class TieredCache implements Cache {
+    
+    private static final Log log = LogFactory.getLog(TieredCache.class);
+    
+    // spills waiting to be written beyond this many are dropped
+    private static final int MAX_PENDING = 1000;
+    
+    // pending marker for an entry whose removal must be recorded on disk
+    private static final Object REMOVED = new Object();
+    
+    private final Cache memory;
+    private final DiskCacheTier disk;
+    
+    // true if the memory cache tells us what it evicts
+    private final boolean spillOnEviction;
+    
+    // latest value to write for each key, or REMOVED
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+    private final ExecutorService writer;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    
+    // held while writing, so a removal can't be overtaken by a spill
+    private final Object writeLock = new Object();
+    
+    // for metrics
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder diskMisses = new LongAdder();
+    private final LongAdder spills = new LongAdder();
+    private final LongAdder droppedSpills = new LongAdder();
+    
+    
+    TieredCache(Cache memory, DiskCacheTier disk) {
+        this.memory = memory;
+        this.disk = disk;
+        
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "DiskCacheWriter-"+memory.getId());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        if(memory instanceof EvictionListener.Source) {
+            ((EvictionListener.Source) memory).setEvictionListener(this::spill);
+            this.spillOnEviction = true;
+        } else {
+            log.info("Cache "+memory.getId()+" can't report evictions, writing all puts to disk");
+            this.spillOnEviction = false;
+        }
+    }
+    
+    
+    @Override
+    public String getId() {
+        return memory.getId();
+    }
+    
+    
+    @Override
+    public void put(String key, Object value) {
+        memory.put(key, value);
+        
+        if(!spillOnEviction) {
+            spill(key, value);
+        }
+    }
+    
+    
+    @Override
+    public Object get(String key) {
+        
+        Object value = memory.get(key);
+        if(value != null) {
+            return value;
+        }
+        
+        value = disk.get(key);
+        if(value != null) {
+            diskHits.increment();
+            memory.put(key, value);
+        } else {
+            diskMisses.increment();
+        }
+        
+        return value;
+    }
+    
+    
+    @Override
+    public void remove(String key) {
+        memory.remove(key);
+        
+        synchronized(writeLock) {
+            pending.remove(key);
+            if(disk.forget(key)) {
+                // stop serving it now, the removal is written behind
+                pending.put(key, REMOVED);
+            }
+        }
+        scheduleWrite();
+    }
+    
+    
+    @Override
+    public void clear() {
+        memory.clear();
+        
+        synchronized(writeLock) {
+            pending.clear();
+            disk.clear();
+        }
+        
+        diskHits.reset();
+        diskMisses.reset();
+        spills.reset();
+        droppedSpills.reset();
+    }
+    
+    
+    @Override
+    public Map<String, Object> getStats() {
+        
+        Map<String, Object> stats = memory.getStats();
+        stats.put("diskHits", diskHits.doubleValue());
+        stats.put("diskMisses", diskMisses.doubleValue());
+        stats.put("diskEntries", disk.getEntries());
+        stats.put("diskBytes", disk.getBytes());
+        stats.put("diskSpills", spills.doubleValue());
+        stats.put("diskSpillsDropped", droppedSpills.doubleValue());
+        stats.put("diskPending", pending.size());
+        
+        return stats;
+    }
+    
+    
+    /**
+     * Write whatever is still pending and release the disk tier.
+     */
+    void close() {
+        writer.shutdown();
+        flush();
+        disk.close();
+    }
+    
+    
+    /**
+     * Write everything pending on the calling thread.
+     */
+    void flush() {
+        for(String key : pending.keySet()) {
+            write(key);
+        }
+    }
+    
+    
+    // called by the memory cache, which may be holding its locks
+    private void spill(String key, Object value) {
+        
+        if(pending.size() >= MAX_PENDING && !pending.containsKey(key)) {
+            // the disk can't keep up, this one is simply lost
+            droppedSpills.increment();
+            log.debug("Too many pending disk writes, dropping "+key);
+            return;
+        }
+        
+        pending.put(key, value);
+        scheduleWrite();
+    }
+    
+    
+    private void scheduleWrite() {
+        if(!pending.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::drain);
+            } catch(RejectedExecutionException e) {
+                // shutting down, close() writes what is left
+                writing.set(false);
+            }
+        }
+    }
+    
+    
+    private void drain() {
+        do {
+            flush();
+            writing.set(false);
+        } while(!pending.isEmpty() && writing.compareAndSet(false, true));
+    }
+    
+    
+    private void write(String key) {
+        synchronized(writeLock) {
+            Object value = pending.remove(key);
+            if(value == REMOVED) {
+                disk.remove(key);
+            } else if(value != null) {
+                disk.put(key, value);
+                spills.increment();
+            }
+        }
+    }
+    
+}
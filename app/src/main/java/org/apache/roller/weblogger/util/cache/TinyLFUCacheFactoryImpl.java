@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Roller W-TinyLFU cache factory.
+ *
+ * Takes the same size and timeout properties as the expiring LRU cache, but
+ * constructs caches which don't serialize readers on a single lock.
+ */
+public class TinyLFUCacheFactoryImpl implements CacheFactory {
+
+    private static final Log log = LogFactory.getLog(TinyLFUCacheFactoryImpl.class);
+
+
+    // protected so only the CacheManager can instantiate us
+    protected TinyLFUCacheFactoryImpl() {}
+
+
+    /**
+     * Construct a new instance of a Roller TinyLFU cache.
+     */
+    @Override
+    public Cache constructCache(Map<String, ?> properties) {
+
+        int size = 100;
+        long timeout = 15 * 60;
+        long maxBytes = 0;
+        String id = "unknown";
+
+        try {
+            size = Integer.parseInt((String) properties.get("size"));
+        } catch(Exception e) {
+            log.warn("invalid size property", e);
+        }
+
+        try {
+            timeout = Long.parseLong((String) properties.get("timeout"));
+        } catch(Exception e) {
+            log.warn("invalid timeout property", e);
+        }
+
+        String maxBytesProp = (String) properties.get("maxBytes");
+        if (maxBytesProp != null && !maxBytesProp.isBlank()) {
+            try {
+                maxBytes = Long.parseLong(maxBytesProp.trim());
+            } catch(Exception e) {
+                log.warn("invalid maxBytes property", e);
+            }
+        }
+
+        String cacheId = (String) properties.get("id");
+        if(cacheId != null) {
+            id = cacheId;
+        }
+
+        Weigher weigher = null;
+        if (maxBytes > 0) {
+            weigher = CacheManager.constructWeigher(properties);
+        }
+
+        Cache cache = newCache(id, size, timeout, weigher, maxBytes);
+
+        log.debug("new cache constructed. size=" + size + ", timeout=" + timeout + ", maxBytes=" + maxBytes);
+
+        return cache;
+    }
+
+
+    /**
+     * Instantiate the cache once properties have been validated.
+     */
+    protected Cache newCache(String id, int size, long timeout, Weigher weigher, long maxBytes) {
+        return new TinyLFUCacheImpl(id, size, timeout, weigher, maxBytes);
+    }
+
+}
@@ -0,0 +1,598 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+
+
+/**
+ * A highly concurrent cache using the W-TinyLFU eviction policy.
+ *
+ * Entries live in a ConcurrentHashMap so reads never block.  The eviction
+ * policy is made of a small LRU admission window in front of a segmented LRU
+ * main space (probation and protected segments).  When the window overflows
+ * its LRU entry has to compete with the main space's victim and only the one
+ * that has been used more often recently, according to a FrequencySketch,
+ * is kept.  This keeps one-hit wonders like crawler traffic from flushing
+ * out popular pages.
+ *
+ * The policy itself is guarded by a lock, but readers never wait for it.
+ * Reads are recorded in small lossy buffers which are replayed against the
+ * policy by whichever thread manages to grab the lock next.
+ *
+ * Each entry carries its own expiration time based on the cache timeout.
+ *
+ * If constructed with a Weigher the cache is bounded by the total weight of
+ * its entries, usually bytes, rather than by the number of entries.
+ */
+public class TinyLFUCacheImpl implements Cache, EvictionListener.Source {
+
+    private static final Log log = LogFactory.getLog(TinyLFUCacheImpl.class);
+
+    // share of the capacity used for the admission window and protected segment
+    private static final double WINDOW_PERCENT = 0.01;
+    private static final double PROTECTED_PERCENT = 0.80;
+
+    // one read buffer per cpu (rounded up) to spread contention
+    private static final int READ_BUFFER_STRIPES = FrequencySketch.ceilingPowerOfTwo(
+            Runtime.getRuntime().availableProcessors());
+
+    // queue identifiers for a node
+    private static final int RETIRED = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private final String id;
+    private final long timeout;
+    private final Weigher weigher;
+    private final ConcurrentHashMap<String, Node> data;
+
+    // eviction policy, all guarded by the evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessOrderDeque window = new AccessOrderDeque();
+    private final AccessOrderDeque probation = new AccessOrderDeque();
+    private final AccessOrderDeque protectedSegment = new AccessOrderDeque();
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private long windowSize = 0;
+    private long probationSize = 0;
+    private long protectedSize = 0;
+
+    private final ReadBuffer[] readBuffers;
+
+    private volatile EvictionListener evictionListener = null;
+
+    // for metrics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile Date startTime = new Date();
+
+
+    protected TinyLFUCacheImpl(String id) {
+        this(id, 100, 0);
+    }
+
+
+    protected TinyLFUCacheImpl(String id, int maxsize, long timeout) {
+
+        this(id, maxsize, timeout, null, 0);
+    }
+
+
+    /**
+     * Construct a cache bounded by weight, in which case maxsize is only used
+     * as a hint for how many entries to expect.
+     */
+    protected TinyLFUCacheImpl(String id, int maxsize, long timeout,
+            Weigher weigher, long maxWeight) {
+
+        this.id = id;
+        this.weigher = weigher;
+        this.maximum = Math.max((weigher != null) ? maxWeight : maxsize, 1);
+        this.windowMaximum = Math.max(1, (long) (this.maximum * WINDOW_PERCENT));
+        this.protectedMaximum = (long) ((this.maximum - this.windowMaximum) * PROTECTED_PERCENT);
+
+        // timeout is specified in seconds; only positive values allowed
+        this.timeout = (timeout > 0) ? timeout * RollerConstants.SEC_IN_MS : 0;
+
+        int expectedEntries = Math.max(maxsize, 1);
+        this.data = new ConcurrentHashMap<>(Math.min(expectedEntries, 1 << 16));
+        this.sketch = new FrequencySketch(expectedEntries);
+
+        this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+
+    @Override
+    public String getId() {
+        return this.id;
+    }
+
+
+    @Override
+    public void setEvictionListener(EvictionListener listener) {
+        this.evictionListener = listener;
+    }
+
+
+    /**
+     * Store an entry in the cache.
+     */
+    @Override
+    public void put(String key, Object value) {
+
+        long expiresAt = (timeout > 0) ? currentTimeMillis() + timeout : 0;
+        int weight = (weigher != null) ? weigher.weigh(key, value) : 1;
+        Node node = new Node(key, value, weight, expiresAt);
+        Node prior = data.put(key, node);
+        puts.increment();
+
+        evictionLock.lock();
+        try {
+            if (prior != null) {
+                unlink(prior);
+            }
+
+            // a concurrent remove() or clear() may have beaten us here
+            if (data.get(key) == node) {
+                sketch.increment(key);
+                node.queue = WINDOW;
+                window.add(node);
+                windowSize += node.weight;
+            }
+
+            drainReadBuffers();
+            evictEntries();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+
+    /**
+     * Retrieve an entry from the cache.
+     *
+     * If the entry has expired then we return null, just as if the entry
+     * wasn't found.
+     */
+    @Override
+    public Object get(String key) {
+
+        Node node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (node.hasExpired(currentTimeMillis())) {
+            log.debug("EXPIRED ["+key+"]");
+            misses.increment();
+            if (data.remove(key, node)) {
+                evictionLock.lock();
+                try {
+                    unlink(node);
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+            return null;
+        }
+
+        hits.increment();
+        afterRead(node);
+
+        return node.value;
+    }
+
+
+    @Override
+    public void remove(String key) {
+
+        Node node = data.remove(key);
+        removes.increment();
+
+        if (node != null) {
+            evictionLock.lock();
+            try {
+                unlink(node);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+
+    @Override
+    public void clear() {
+
+        evictionLock.lock();
+        try {
+            data.clear();
+            window.retireAll();
+            probation.retireAll();
+            protectedSegment.retireAll();
+            windowSize = 0;
+            probationSize = 0;
+            protectedSize = 0;
+            for (ReadBuffer buffer : readBuffers) {
+                buffer.drain(null);
+            }
+            sketch.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+
+        // clear metrics
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removes.reset();
+        evictions.reset();
+        startTime = new Date();
+    }
+
+
+    @Override
+    public Map<String, Object> getStats() {
+
+        double hitCount = hits.sum();
+        double missCount = misses.sum();
+        double removeCount = removes.sum();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("startTime", this.startTime);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("puts", (double) puts.sum());
+        stats.put("removes", removeCount);
+        stats.put("evictions", (double) evictions.sum());
+        stats.put("size", data.size());
+        if (weigher != null) {
+            evictionLock.lock();
+            try {
+                stats.put("bytes", windowSize + probationSize + protectedSize);
+            } finally {
+                evictionLock.unlock();
+            }
+            stats.put("maxBytes", this.maximum);
+        } else {
+            stats.put("maxSize", this.maximum);
+        }
+
+        // calculate efficiency
+        if((missCount - removeCount) > 0) {
+            double efficiency = hitCount / (missCount + hitCount);
+            stats.put("efficiency", efficiency * RollerConstants.PERCENT_100);
+        }
+
+        return stats;
+    }
+
+
+    /**
+     * Time source for entry expiration, overridable for testing.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+
+    private void afterRead(Node node) {
+        int probe = (int) (Thread.currentThread().getId() * 0x9E3779B9L);
+        ReadBuffer buffer = readBuffers[probe & (readBuffers.length - 1)];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+
+    // guarded by evictionLock
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drain(this);
+        }
+    }
+
+
+    // guarded by evictionLock
+    private void onAccess(Node node) {
+
+        if (node.queue == RETIRED) {
+            // removed since it was read, nothing to do
+            return;
+        }
+
+        sketch.increment(node.key);
+
+        if (node.queue == WINDOW) {
+            window.moveToBack(node);
+
+        } else if (node.queue == PROBATION) {
+            // promote to the protected segment
+            probation.remove(node);
+            probationSize -= node.weight;
+            node.queue = PROTECTED;
+            protectedSegment.add(node);
+            protectedSize += node.weight;
+
+            // demote protected overflow back to probation
+            while (protectedSize > protectedMaximum) {
+                Node demoted = protectedSegment.peekFirst();
+                protectedSegment.remove(demoted);
+                protectedSize -= demoted.weight;
+                demoted.queue = PROBATION;
+                probation.add(demoted);
+                probationSize += demoted.weight;
+            }
+
+        } else {
+            protectedSegment.moveToBack(node);
+        }
+    }
+
+
+    // guarded by evictionLock
+    private void evictEntries() {
+
+        long mainMaximum = maximum - windowMaximum;
+
+        // entries leaving the admission window must earn their place in main
+        while (windowSize > windowMaximum) {
+            Node candidate = window.peekFirst();
+            window.remove(candidate);
+            windowSize -= candidate.weight;
+
+            Node victim = null;
+            if (probationSize + protectedSize + candidate.weight > mainMaximum) {
+                victim = (probation.peekFirst() != null) ?
+                        probation.peekFirst() : protectedSegment.peekFirst();
+            }
+
+            if (victim != null && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                // not popular enough, the candidate goes away
+                candidate.queue = RETIRED;
+                evict(candidate);
+                continue;
+            }
+
+            if (victim != null) {
+                unlink(victim);
+                evict(victim);
+            }
+
+            candidate.queue = PROBATION;
+            probation.add(candidate);
+            probationSize += candidate.weight;
+        }
+
+        // should only matter if main is too small to hold anything
+        while (windowSize + probationSize + protectedSize > maximum) {
+            Node victim = probation.peekFirst();
+            if (victim == null) {
+                victim = protectedSegment.peekFirst();
+            }
+            if (victim == null) {
+                victim = window.peekFirst();
+            }
+            unlink(victim);
+            evict(victim);
+        }
+    }
+
+
+    // guarded by evictionLock
+    private void evict(Node node) {
+        if (data.remove(node.key, node)) {
+            evictions.increment();
+            log.debug("EVICTED ["+node.key+"]");
+
+            EvictionListener listener = this.evictionListener;
+            if (listener != null && !node.hasExpired(currentTimeMillis())) {
+                listener.evicted(node.key, node.value);
+            }
+        }
+    }
+
+
+    // guarded by evictionLock
+    private void unlink(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                windowSize -= node.weight;
+                break;
+            case PROBATION:
+                probation.remove(node);
+                probationSize -= node.weight;
+                break;
+            case PROTECTED:
+                protectedSegment.remove(node);
+                protectedSize -= node.weight;
+                break;
+            default:
+                // not linked
+        }
+        node.queue = RETIRED;
+    }
+
+
+    /**
+     * A cache entry, linked into one of the policy queues.
+     */
+    private static final class Node {
+
+        final String key;
+        final Object value;
+        final int weight;
+        final long expiresAt;
+
+        // guarded by evictionLock
+        int queue = RETIRED;
+        Node prev = null;
+        Node next = null;
+
+        Node(String key, Object value, int weight, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean hasExpired(long now) {
+            return (expiresAt > 0 && expiresAt < now);
+        }
+    }
+
+
+    /**
+     * A minimal doubly linked list of nodes, least recently used first.
+     */
+    private static final class AccessOrderDeque {
+
+        private Node first = null;
+        private Node last = null;
+
+        Node peekFirst() {
+            return first;
+        }
+
+        void add(Node node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node node) {
+            if (node != last) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        void retireAll() {
+            Node node = first;
+            while (node != null) {
+                Node next = node.next;
+                node.queue = RETIRED;
+                node.prev = null;
+                node.next = null;
+                node = next;
+            }
+            first = null;
+            last = null;
+        }
+    }
+
+
+    /**
+     * A lossy, bounded buffer of recent reads.
+     *
+     * Readers add to the buffer without locking and simply drop the event if
+     * the buffer is full.  The buffer is only drained by the lock holder.
+     */
+    private static final class ReadBuffer {
+
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter = 0;
+
+        /**
+         * Record a read, returns true if the buffer is due to be drained.
+         */
+        boolean offer(Node node) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            long size = tail - head;
+            if (size >= SIZE) {
+                return true;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) (tail & MASK), node);
+                return (size + 1 >= SIZE);
+            }
+            return false;
+        }
+
+        // guarded by evictionLock, a null cache just discards the reads
+        void drain(TinyLFUCacheImpl cache) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                Node node = buffer.get(index);
+                if (node == null) {
+                    // a writer claimed the slot but hasn't filled it yet
+                    break;
+                }
+                buffer.lazySet(index, null);
+                if (cache != null) {
+                    cache.onAccess(node);
+                }
+            }
+            readCounter = head;
+        }
+    }
+
+}
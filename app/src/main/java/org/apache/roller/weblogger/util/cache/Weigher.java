@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+
+/**
+ * Calculates the weight of a cache entry.
+ *
+ * Caches constructed with a "maxBytes" property bound the total weight of
+ * their entries instead of the number of entries.  The weigher is chosen with
+ * the "weigher" cache property and defaults to CachedContentWeigher.
+ */
+public interface Weigher {
+    
+    /**
+     * the weight of an entry as it is put.  Caches remember it and take the
+     * same weight off again when the entry leaves, so whatever an entry
+     * gains while cached is only counted once it is put again.
+     */
+    int weigh(String key, Object value);
+    
+}
@@ -50,3 +50,35 @@
         <br>
     </s:if>
 </s:iterator>
+
+<s:iterator var="weblogs" value="weblogStats">
+    <s:if test="!#weblogs.value.isEmpty">
+
+        <table class="table table-bordered">
+            <tr>
+                <th colspan="6"><s:text name="cacheInfo.weblogs"><s:param value="#weblogs.key"/></s:text></th>
+            </tr>
+            <tr>
+                <th><s:text name="cacheInfo.weblog" /></th>
+                <th><s:text name="cacheInfo.hits" /></th>
+                <th><s:text name="cacheInfo.misses" /></th>
+                <th><s:text name="cacheInfo.overflowHits" /></th>
+                <th><s:text name="cacheInfo.entries" /></th>
+                <th><s:text name="cacheInfo.bytes" /></th>
+            </tr>
+
+            <s:iterator var="row" value="#weblogs.value">
+                <tr>
+                    <td><s:property value="#row.handle"/></td>
+                    <td><s:property value="#row.hits"/></td>
+                    <td><s:property value="#row.misses"/></td>
+                    <td><s:property value="#row.overflowHits"/></td>
+                    <td><s:property value="#row.entries"/></td>
+                    <td><s:property value="#row.bytes"/></td>
+                </tr>
+            </s:iterator>
+        </table>
+
+        <br>
+    </s:if>
+</s:iterator>
@@ -137,6 +137,42 @@ public class WeblogEntryTest  {
     }
     
     
+    /**
+     * Test that plugins run when the entry is saved, and again on render
+     * once the entry changes without being saved.
+     */
+    @Test
+    public void testRenderedContent() throws Exception {
+        
+        WeblogEntryManager mgr = WebloggerFactory.getWeblogger().getWeblogEntryManager();
+        
+        WeblogEntry testEntry = TestUtils.setupWeblogEntry("renderedEntry", testWeblog, testUser);
+        testEntry.setText("first line\nsecond line");
+        testEntry.setPlugins("Convert Line Breaks");
+        mgr.saveWeblogEntry(testEntry);
+        String id = testEntry.getId();
+        TestUtils.endSession(true);
+        
+        WeblogEntry entry = mgr.getWeblogEntry(id);
+        assertNotNull(entry.getRenderedVersion());
+        assertTrue(entry.getRenderedText().contains("first line<br/>"));
+        assertSame(entry.getRenderedText(), entry.getTransformedText());
+        
+        // changed but not saved, so rendered on the fly
+        entry.setText("third line\nfourth line");
+        assertTrue(entry.getTransformedText().contains("third line<br/>"));
+        assertTrue(entry.getRenderedText().contains("first line<br/>"));
+        
+        // and no plugins at all
+        entry.setPlugins(null);
+        assertEquals("third line\nfourth line", entry.getTransformedText());
+        
+        TestUtils.endSession(true);
+        TestUtils.teardownWeblogEntry(id);
+        TestUtils.endSession(true);
+    }
+    
+    
     /**
      * Test lookup mechanisms ... 
      */
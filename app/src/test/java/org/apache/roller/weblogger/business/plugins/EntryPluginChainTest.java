@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business.plugins;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPlugin;
+import org.apache.roller.weblogger.business.plugins.entry.WeblogEntryPluginChain;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.util.cache.CacheManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test weblog entry plugin chains.
+ */
+public class EntryPluginChainTest {
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        TestUtils.setupWeblogger();
+    }
+
+    @Test
+    public void testChainIsCachedPerWeblog() {
+
+        PluginManager pmgr = WebloggerFactory.getWeblogger().getPluginManager();
+        Weblog weblog = new Weblog();
+
+        // configured order wins over the order stored with the entry
+        WeblogEntryPluginChain chain =
+                pmgr.getWeblogEntryPluginChain(weblog, "Emoticons,Convert Line Breaks");
+        List<String> names = chain.getPlugins().stream()
+                .map(WeblogEntryPlugin::getName).collect(Collectors.toList());
+        assertEquals(List.of("Convert Line Breaks", "Emoticons"), names);
+
+        assertSame(chain, pmgr.getWeblogEntryPluginChain(weblog, "Emoticons,Convert Line Breaks"));
+        assertSame(chain.getPlugins().get(0),
+                pmgr.getWeblogEntryPluginChain(weblog, "Convert Line Breaks").getPlugins().get(0));
+
+        assertTrue(pmgr.getWeblogEntryPluginChain(weblog, null).getPlugins().isEmpty());
+        assertEquals("a\nb", pmgr.getWeblogEntryPluginChain(weblog, "").render(null, "a\nb"));
+
+        CacheManager.invalidate(weblog);
+        assertNotSame(chain, pmgr.getWeblogEntryPluginChain(weblog, "Emoticons,Convert Line Breaks"));
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business.plugins.entry;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static java.util.regex.Pattern.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compare the line break, emoticon and pre tag plugins with the regular
+ * expression based versions they replaced, on large entries.
+ *
+ * The timing comparison only runs when asked for:
+ * mvn test -Dtest=EntryPluginsBenchmarkTest -Dbenchmark=true
+ */
+public class EntryPluginsBenchmarkTest {
+
+    private static final Log log = LogFactory.getLog(EntryPluginsBenchmarkTest.class);
+
+    private final List<WeblogEntryPlugin> chain = new ArrayList<>();
+    private Legacy legacy;
+
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        TestUtils.setupWeblogger();
+
+        chain.add(new ConvertLineBreaksPlugin());
+        chain.add(new SmileysPlugin());
+        chain.add(new EncodePreTagsPlugin());
+        for (WeblogEntryPlugin plugin : chain) {
+            plugin.init(null);
+        }
+        legacy = new Legacy(WebloggerRuntimeConfig.getAbsoluteContextURL());
+    }
+
+
+    @Test
+    public void testSameOutput() {
+        String entry = largeEntry(50);
+        assertEquals(legacy.render(entry), render(entry));
+    }
+
+
+    @Test
+    public void testLongestEmoticonWins() {
+        String out = new SmileysPlugin().render(null, "O:-) :)) :-( :");
+        assertTrue(out.contains("angelic.gif"));
+        assertTrue(out.contains("laugh.gif"));
+        assertTrue(out.contains("sad.gif"));
+        assertFalse(out.contains("smile.gif"));
+        assertTrue(out.endsWith(" :"));
+
+        String plain = "no emoticons here";
+        assertSame(plain, new SmileysPlugin().render(null, plain));
+    }
+
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmark() {
+        String entry = largeEntry(2000);
+        int runs = 50;
+
+        // warm up both
+        for (int i = 0; i < runs; i++) {
+            legacy.render(entry);
+            render(entry);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            legacy.render(entry);
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            render(entry);
+        }
+        long nanos = System.nanoTime() - start;
+
+        log.info("Entry of " + entry.length() + " chars, " + runs + " runs: regex chain "
+                + legacyNanos / 1000000 + " ms, single pass " + nanos / 1000000 + " ms");
+    }
+
+
+    private String render(String text) {
+        String ret = text;
+        for (WeblogEntryPlugin plugin : chain) {
+            ret = plugin.render(null, ret);
+        }
+        return ret;
+    }
+
+
+    private static String largeEntry(int paragraphs) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            buf.append("Paragraph ").append(i).append(" starts here :-) and goes on\n");
+            buf.append("for a while without anything special in it, just words and words\n");
+            buf.append("and a wink ;-) with a grin :-D before the end 8-)\n\n");
+            if (i % 10 == 0) {
+                buf.append("<pre><code>if (a < b) { $x = \"\\\\\"; }</code></pre>\n\n");
+            }
+        }
+        return buf.toString();
+    }
+
+
+    /**
+     * The plugins as they were, one regular expression per emoticon.
+     */
+    private static final class Legacy {
+
+        private static final Pattern PRE_PATTERN = Pattern.compile(
+                "<pre\\s*[^>]*>" + "(.*?)" + "</pre\\s*>", MULTILINE | DOTALL | CASE_INSENSITIVE);
+
+        private static final Pattern CODE_PATTERN = Pattern.compile(
+                "<code\\s*.[^>]*>" + "(.*?)" + "</code\\s*>", MULTILINE | DOTALL | CASE_INSENSITIVE);
+
+        private final List<Pattern> smileyPatterns = new ArrayList<>();
+        private final List<String> imageTags = new ArrayList<>();
+
+        Legacy(String baseURL) throws Exception {
+            Properties defs = new Properties();
+            defs.load(SmileysPlugin.class.getResourceAsStream("smileys.properties"));
+            Enumeration<?> names = defs.propertyNames();
+            while (names.hasMoreElements()) {
+                String smiley = (String) names.nextElement();
+                String alt = smiley.replace("\"", "&quot;").replace(">", "&gt;").replace("<", "&lt;");
+                smileyPatterns.add(Pattern.compile(Pattern.quote(smiley)));
+                imageTags.add(Matcher.quoteReplacement("<img src=\"" + baseURL + "/images/smileys/"
+                        + defs.getProperty(smiley, "smile.gif") + "\" class=\"smiley\""
+                        + " alt=\"" + alt + "\"" + " title=\"" + alt + "\" />"));
+            }
+        }
+
+        String render(String text) {
+            return encodePreTags(smileys(convertLineBreaks(text)));
+        }
+
+        private String convertLineBreaks(String str) {
+            StringBuilder buf = new StringBuilder();
+            try {
+                BufferedReader br = new BufferedReader(new StringReader(str));
+                String line;
+                boolean insidePara = false;
+                while ((line = br.readLine()) != null) {
+                    if (!insidePara && !line.isBlank()) {
+                        buf.append("\n<p>").append(line);
+                        insidePara = true;
+                    } else if (insidePara && !line.isBlank()) {
+                        buf.append("<br/>\n").append(line);
+                    } else if (insidePara && line.isBlank()) {
+                        buf.append("</p>\n\n");
+                        insidePara = false;
+                    }
+                }
+                if (insidePara) {
+                    buf.append("</p>\n\n");
+                }
+            } catch (Exception e) {
+                return str;
+            }
+            return buf.toString();
+        }
+
+        private String smileys(String text) {
+            for (int i = 0; i < smileyPatterns.size(); i++) {
+                text = smileyPatterns.get(i).matcher(text).replaceAll(imageTags.get(i));
+            }
+            return text;
+        }
+
+        private String encodePreTags(String str) {
+            StringBuilder result = new StringBuilder(str.length() + 32);
+            Matcher pre_matcher = PRE_PATTERN.matcher(str);
+            while (pre_matcher.find()) {
+                String pre_full = pre_matcher.group(0);
+                String pre_inner = pre_matcher.group(1);
+                Matcher code_matcher = CODE_PATTERN.matcher(pre_inner);
+                String inner = code_matcher.find() ? code_matcher.group(1) : pre_inner;
+                pre_matcher.appendReplacement(result, Matcher.quoteReplacement(
+                        pre_full.replace(inner, inner.replace("<", "&lt;"))));
+            }
+            pre_matcher.appendTail(result);
+            return result.toString();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.ui.rendering.RenderingException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test ModelLoader.
+ */
+public class ModelLoaderTest {
+
+    private static final String MODELS = ConfigModel.class.getName() + ","
+            + UtilitiesModel.class.getName();
+
+    @Test
+    public void testLazyModels() throws Exception {
+
+        Map<String, Object> model = new HashMap<>();
+        Map<String, Object> initData = new HashMap<>();
+
+        // utils needs a parsed request, but isn't initialized yet
+        ModelLoader.loadModels(MODELS, model, initData, true);
+        assertTrue(model.get("config") instanceof LazyModel);
+        assertTrue(model.get("utils") instanceof LazyModel);
+
+        Object config = LazyModel.resolve(model.get("config"));
+        assertTrue(config instanceof ConfigModel);
+        assertSame(config, LazyModel.resolve(model.get("config")));
+
+        IllegalStateException failed = assertThrows(IllegalStateException.class,
+                () -> LazyModel.resolve(model.get("utils")));
+
+        // told apart from other rendering errors, however it was wrapped
+        WebloggerException failure = LazyModel.getFailure(
+                new RenderingException("Error during rendering", failed));
+        assertNotNull(failure);
+        assertSame(failed.getCause(), failure);
+        assertNull(LazyModel.getFailure(new RenderingException("Error during rendering",
+                new IllegalStateException("not a model"))));
+
+        // unless failures are tolerated
+        ModelLoader.loadModels(MODELS, model, initData, false);
+        assertNull(LazyModel.resolve(model.get("utils")));
+
+        assertEquals("value", LazyModel.resolve("value"));
+    }
+
+    @Test
+    public void testMissingModel() {
+        assertThrows(WebloggerException.class, () -> ModelLoader.loadModels(
+                "org.apache.roller.NoSuchModel", new HashMap<>(), new HashMap<>(), true));
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test handing requests over to rendering threads in AsyncRenderer.
+ */
+public class AsyncRendererTest {
+
+    // what happened to the requests, in order
+    private final List<String> events = new ArrayList<>();
+
+    // renders are only run when the test says so
+    private final QueuedExecutor executor = new QueuedExecutor();
+
+
+    @Test
+    public void testDisabledByDefault() {
+        FakeRequest request = new FakeRequest(true);
+        assertFalse(AsyncRenderer.getInstance().dispatch(request.proxy(), response(),
+                (req, res) -> events.add("handle")));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testAsyncUnsupported() {
+        AsyncRenderer renderer = new AsyncRenderer(executor, 1, 0);
+
+        FakeRequest request = new FakeRequest(false);
+        assertFalse(renderer.dispatch(request.proxy(), response(),
+                (req, res) -> events.add("handle")));
+        assertFalse(request.asyncStarted);
+        assertTrue(executor.tasks.isEmpty());
+
+        // and it didn't take up a place either
+        assertTrue(renderer.dispatch(new FakeRequest(true).proxy(), response(),
+                (req, res) -> events.add("handle")));
+    }
+
+    @Test
+    public void testAdmittedExhausted() {
+        AsyncRenderer renderer = new AsyncRenderer(executor, 1, 1);
+        AsyncRenderer.Handler handler = (req, res) -> events.add("handle");
+
+        assertTrue(renderer.dispatch(new FakeRequest(true).proxy(), response(), handler));
+        assertTrue(renderer.dispatch(new FakeRequest(true).proxy(), response(), handler));
+
+        // the caller renders this one on the container thread
+        FakeRequest third = new FakeRequest(true);
+        assertFalse(renderer.dispatch(third.proxy(), response(), handler));
+        assertFalse(third.asyncStarted);
+        assertEquals(2, executor.tasks.size());
+
+        // until the others are done
+        executor.runAll();
+        assertEquals(List.of("handle", "complete", "handle", "complete"), events);
+        assertTrue(renderer.dispatch(third.proxy(), response(), handler));
+    }
+
+    @Test
+    public void testNoRedispatch() {
+        AsyncRenderer renderer = new AsyncRenderer(executor, 2, 0);
+
+        FakeRequest request = new FakeRequest(true);
+        assertTrue(renderer.dispatch(request.proxy(), response(),
+                (req, res) -> events.add("handle")));
+        executor.runAll();
+
+        // a request which comes back through the servlet, e.g. after an
+        // async dispatch, is rendered where it is
+        assertFalse(renderer.dispatch(request.proxy(), response(),
+                (req, res) -> events.add("handle again")));
+        assertTrue(executor.tasks.isEmpty());
+        assertEquals(List.of("handle", "complete"), events);
+    }
+
+    @Test
+    public void testFinishersRunOnceBeforeComplete() {
+        AsyncRenderer renderer = new AsyncRenderer(executor, 1, 0);
+
+        FakeRequest request = new FakeRequest(true);
+        AsyncRenderer.addFinisher(request.proxy(), () -> events.add("finish 1"));
+        AsyncRenderer.addFinisher(request.proxy(), () -> {
+            events.add("finish 2");
+            throw new IOException("broken pipe");
+        });
+        AsyncRenderer.addFinisher(request.proxy(), () -> events.add("finish 3"));
+
+        assertTrue(renderer.dispatch(request.proxy(), response(),
+                (req, res) -> events.add("handle")));
+        assertEquals(List.of(), events);
+
+        executor.runAll();
+        assertEquals(List.of("handle", "finish 1", "finish 2", "finish 3", "complete"), events);
+    }
+
+    @Test
+    public void testHandlerException() {
+        AsyncRenderer renderer = new AsyncRenderer(executor, 1, 0);
+
+        Map<String, Object> sent = new HashMap<>();
+        assertTrue(renderer.dispatch(new FakeRequest(true).proxy(), response(sent), (req, res) -> {
+            events.add("handle");
+            throw new IOException("database is down");
+        }));
+        executor.runAll();
+
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, sent.get("sendError"));
+        assertEquals(List.of("handle", "complete"), events);
+
+        // the failed render gave back its place
+        assertTrue(renderer.dispatch(new FakeRequest(true).proxy(), response(), (req, res) -> {
+            throw new IllegalStateException("template is broken");
+        }));
+        executor.runAll();
+        assertTrue(renderer.dispatch(new FakeRequest(true).proxy(), response(),
+                (req, res) -> events.add("handle")));
+    }
+
+
+    private HttpServletResponse response() {
+        return response(new HashMap<>());
+    }
+
+    private HttpServletResponse response(Map<String, Object> sent) {
+        return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isCommitted":
+                            return Boolean.FALSE;
+                        case "sendError":
+                            sent.put("sendError", args[0]);
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+
+    /**
+     * A request supporting just what AsyncRenderer uses.
+     */
+    private final class FakeRequest {
+
+        private final boolean asyncSupported;
+        private final Map<String, Object> attributes = new HashMap<>();
+        private boolean asyncStarted = false;
+        private HttpServletRequest proxy;
+
+        FakeRequest(boolean asyncSupported) {
+            this.asyncSupported = asyncSupported;
+        }
+
+        HttpServletRequest proxy() {
+            if (proxy == null) {
+                proxy = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { HttpServletRequest.class }, (p, method, args) -> {
+                            switch (method.getName()) {
+                                case "getAttribute":
+                                    return attributes.get(args[0]);
+                                case "setAttribute":
+                                    attributes.put((String) args[0], args[1]);
+                                    return null;
+                                case "isAsyncSupported":
+                                    return asyncSupported;
+                                case "isAsyncStarted":
+                                    // a finished request is not async any more
+                                    return Boolean.FALSE;
+                                case "startAsync":
+                                    asyncStarted = true;
+                                    return asyncContext();
+                                default:
+                                    return null;
+                            }
+                        });
+            }
+            return proxy;
+        }
+
+        private AsyncContext asyncContext() {
+            return (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { AsyncContext.class }, (p, method, args) -> {
+                        if ("complete".equals(method.getName())) {
+                            events.add("complete");
+                        }
+                        return null;
+                    });
+        }
+    }
+
+
+    /**
+     * Keeps tasks until they are run by the test.
+     */
+    private static final class QueuedExecutor extends AbstractExecutorService {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        void runAll() {
+            List<Runnable> run = new ArrayList<>(tasks);
+            tasks.clear();
+            run.forEach(Runnable::run);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>(tasks);
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+}
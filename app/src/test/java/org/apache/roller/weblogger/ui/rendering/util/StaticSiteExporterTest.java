@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Set;
+import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntry.PubStatus;
+import org.apache.roller.weblogger.ui.rendering.util.StaticSiteExporter.ExportPage;
+import org.apache.roller.weblogger.ui.rendering.util.StaticSiteExporter.Outcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test what StaticSiteExporter exports and where it writes it.
+ */
+public class StaticSiteExporterTest {
+
+    private static final String WEBLOG_URL = "/roller/blog/";
+
+    @Test
+    public void testPagePaths() {
+        assertEquals("blog/index.html",
+                StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/blog/", true));
+        assertEquals("blog/entry/hello world/index.html",
+                StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/blog/entry/hello%20world", true));
+        assertEquals("blog/tags/c+java/index.html",
+                StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/blog/tags/c+java?page=2", true));
+        assertEquals("blog/category/a/b/index.html",
+                StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/blog/category/a/b/", true));
+    }
+
+    @Test
+    public void testOtherPaths() {
+        assertEquals("blog/feed/entries/atom",
+                StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/blog/feed/entries/atom", false));
+        assertEquals("blog/mediaresource/1234",
+                StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/blog/mediaresource/1234", false));
+    }
+
+    @Test
+    public void testForeignPaths() {
+        assertNull(StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/other/", true));
+        assertNull(StaticSiteExporter.toPath("blog", WEBLOG_URL, "/roller/blog/entry/%2E%2E", true));
+        assertNull(StaticSiteExporter.toPath("blog", WEBLOG_URL, null, false));
+    }
+
+    @Test
+    public void testWriteUnchanged(@TempDir Path directory) throws Exception {
+
+        Path file = directory.resolve("blog/index.html");
+        byte[] content = "<html>hello</html>".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Outcome.WRITTEN, StaticSiteExporter.write(file, content));
+
+        // the same content doesn't touch the file
+        FileTime old = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(file, old);
+        assertEquals(Outcome.UNCHANGED, StaticSiteExporter.write(file, content.clone()));
+        assertEquals(old, Files.getLastModifiedTime(file));
+
+        // other content of the same length does
+        byte[] changed = "<html>howdy</html>".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Outcome.WRITTEN, StaticSiteExporter.write(file, changed));
+        assertArrayEquals(changed, Files.readAllBytes(file));
+        try (var files = Files.list(file.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testFailedRenderKeepsFiles(@TempDir Path directory) throws Exception {
+
+        TestUtils.setupWeblogger();
+        StaticSiteExporter exporter = new StaticSiteExporter(directory, "blog");
+
+        Path stale = directory.resolve("blog/old/index.html");
+        Files.createDirectories(stale.getParent());
+        Files.write(stale, new byte[] { 1 });
+
+        // a page failing to render might be the one using the file
+        exporter.export("blog", Arrays.asList(page("blog/index.html"),
+                failingPage("blog/broken/index.html")), true);
+        assertTrue(Files.exists(directory.resolve("blog/index.html")));
+        assertTrue(Files.exists(stale));
+
+        exporter.export("blog", Arrays.asList(page("blog/index.html")), true);
+        assertTrue(Files.exists(directory.resolve("blog/index.html")));
+        assertFalse(Files.exists(stale));
+        assertFalse(Files.exists(stale.getParent()));
+    }
+
+    @Test
+    public void testEntryChanges(@TempDir Path directory) throws Exception {
+
+        TestUtils.setupWeblogger();
+        WebloggerFactory.getWeblogger().getThemeManager().initialize();
+        User user = TestUtils.setupUser("exportTestUser");
+        Weblog weblog = TestUtils.setupWeblog("exportTestWeblog", user);
+        try {
+            WeblogCategory first = TestUtils.setupWeblogCategory(weblog, "exportFirst");
+            WeblogCategory second = TestUtils.setupWeblogCategory(weblog, "exportSecond");
+            WeblogCategory third = TestUtils.setupWeblogCategory(weblog, "exportThird");
+            WeblogEntry entry = TestUtils.setupWeblogEntry("exportEntry", first, weblog, user);
+            TestUtils.endSession(true);
+
+            String handle = weblog.getHandle();
+            StaticSiteExporter exporter = new StaticSiteExporter(directory, handle);
+            exporter.entryChanged(entry);
+            Set<String> paths = exporter.takePendingPaths(handle);
+            assertTrue(paths.contains(handle + "/index.html"));
+            assertTrue(paths.contains(handle + "/entry/exportEntry/index.html"));
+            assertTrue(paths.contains(handle + "/category/exportFirst/index.html"));
+            assertFalse(paths.contains(handle + "/category/exportSecond/index.html"));
+
+            // moved, both where it was and where it is now
+            entry.setCategory(second);
+            exporter.entryChanged(entry);
+            paths = exporter.takePendingPaths(handle);
+            assertTrue(paths.contains(handle + "/category/exportFirst/index.html"));
+            assertTrue(paths.contains(handle + "/category/exportSecond/index.html"));
+
+            // unpublished, it goes from where it was listed
+            entry.setStatus(PubStatus.DRAFT);
+            entry.setCategory(third);
+            exporter.entryChanged(entry);
+            paths = exporter.takePendingPaths(handle);
+            assertTrue(paths.contains(handle + "/entry/exportEntry/index.html"));
+            assertTrue(paths.contains(handle + "/category/exportSecond/index.html"));
+            assertFalse(paths.contains(handle + "/category/exportFirst/index.html"));
+
+            // and isn't remembered as listed anywhere anymore
+            entry.setCategory(first);
+            exporter.entryChanged(entry);
+            paths = exporter.takePendingPaths(handle);
+            assertTrue(paths.contains(handle + "/category/exportFirst/index.html"));
+            assertFalse(paths.contains(handle + "/category/exportSecond/index.html"));
+            assertFalse(paths.contains(handle + "/category/exportThird/index.html"));
+
+        } finally {
+            TestUtils.teardownWeblog(weblog.getId());
+            TestUtils.teardownUser(user.getUserName());
+            TestUtils.endSession(true);
+        }
+    }
+
+
+    private static ExportPage page(String path) {
+        return new ExportPage(path) {
+            @Override
+            Outcome export(Path file) throws IOException {
+                return StaticSiteExporter.write(file, path.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    private static ExportPage failingPage(String path) {
+        return new ExportPage(path) {
+            @Override
+            Outcome export(Path file) throws IOException {
+                throw new IOException("template is broken");
+            }
+        };
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.ui.rendering.util.cache.NegativeLookupCache.Lookup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test NegativeLookupCache and its invalidation.
+ */
+public class NegativeLookupCacheTest {
+
+    private NegativeLookupCache cache;
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @BeforeEach
+    public void setUp() {
+        cache = NegativeLookupCache.getInstance();
+        cache.clear();
+        cache.setClock(now::get);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        cache.setClock(null);
+    }
+
+    @Test
+    public void testMissingUntilWeblogChanges() {
+        cache.putMissing(Lookup.WEBLOG, "nosuchblog", null);
+        cache.putMissing(Lookup.ENTRY, "a", "nosuchentry");
+        cache.putMissing(Lookup.PAGE, "b", "nosuchpage");
+
+        assertTrue(cache.isMissing(Lookup.WEBLOG, "nosuchblog", null));
+        assertTrue(cache.isMissing(Lookup.ENTRY, "a", "nosuchentry"));
+        assertFalse(cache.isMissing(Lookup.CATEGORY, "a", "nosuchentry"));
+        assertFalse(cache.isMissing(Lookup.ENTRY, "a", "other"));
+
+        // a new entry in weblog a forgets only what a was missing
+        cache.invalidate(newEntry("a"));
+        assertFalse(cache.isMissing(Lookup.ENTRY, "a", "nosuchentry"));
+        assertTrue(cache.isMissing(Lookup.PAGE, "b", "nosuchpage"));
+
+        // creating the weblog
+        cache.invalidate(newWeblog("nosuchblog"));
+        assertFalse(cache.isMissing(Lookup.WEBLOG, "nosuchblog", null));
+
+        // missing again in the same millisecond may predate the invalidation
+        cache.putMissing(Lookup.ENTRY, "a", "nosuchentry");
+        assertFalse(cache.isMissing(Lookup.ENTRY, "a", "nosuchentry"));
+
+        // but not once the clock has moved on
+        now.addAndGet(1);
+        cache.putMissing(Lookup.ENTRY, "a", "nosuchentry");
+        assertTrue(cache.isMissing(Lookup.ENTRY, "a", "nosuchentry"));
+    }
+
+    private static Weblog newWeblog(String handle) {
+        Weblog weblog = new Weblog();
+        weblog.setHandle(handle);
+        return weblog;
+    }
+
+    private static WeblogEntry newEntry(String handle) {
+        WeblogEntry entry = new WeblogEntry();
+        entry.setWebsite(newWeblog(handle));
+        return entry;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test RenderCoalescer sharing of in-flight renders.
+ */
+public class RenderCoalescerTest {
+
+    @Test
+    public void testFollowerGetsLeadersContent() throws Exception {
+        RenderCoalescer coalescer = new RenderCoalescer("test-share", true, 10000);
+
+        RenderCoalescer.Flight leader = coalescer.join("key");
+        assertTrue(leader.isLeader());
+
+        RenderCoalescer.Flight follower = coalescer.join("key");
+        assertFalse(follower.isLeader());
+        CompletableFuture<CachedContent> waiting = CompletableFuture.supplyAsync(follower::await);
+
+        CachedContent content = new CachedContent(0);
+        content.getCachedWriter().print("rendered");
+        content.close();
+        leader.complete(content);
+        leader.done();
+
+        assertSame(content, waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(1L, coalescer.getStats().get("coalesced"));
+
+        // once done the next request renders again
+        assertTrue(coalescer.join("key").isLeader());
+    }
+
+    @Test
+    public void testFailedLeaderAndTimeout() {
+        RenderCoalescer coalescer = new RenderCoalescer("test-fail", true, 50);
+
+        RenderCoalescer.Flight leader = coalescer.join("key");
+
+        // leader still rendering, so we give up and render ourselves
+        assertNull(coalescer.join("key").await());
+        assertEquals(1L, coalescer.getStats().get("timeouts"));
+
+        // leader finished without content
+        RenderCoalescer.Flight follower = coalescer.join("key");
+        leader.done();
+        assertNull(follower.await());
+        assertEquals(1L, coalescer.getStats().get("failures"));
+    }
+
+    @Test
+    public void testDisabled() {
+        RenderCoalescer coalescer = new RenderCoalescer("test-off", false, 10000);
+
+        RenderCoalescer.Flight first = coalescer.join("key");
+        RenderCoalescer.Flight second = coalescer.join("key");
+        assertTrue(first.isLeader());
+        assertTrue(second.isLeader());
+        first.done();
+        second.done();
+    }
+
+}
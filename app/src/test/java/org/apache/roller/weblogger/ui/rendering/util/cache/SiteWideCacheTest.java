@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test dependency tracked invalidation in SiteWideCache.
+ */
+public class SiteWideCacheTest {
+
+    private SiteWideCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        cache = SiteWideCache.getInstance();
+        cache.clear();
+    }
+
+    @Test
+    public void testOnlyDependentPagesInvalidated() throws Exception {
+        cache.put("frontpage", "front", render(() ->
+                RenderDependencies.site(RenderDependencies.Site.ENTRIES)));
+        cache.put("directory", "directory", render(() ->
+                RenderDependencies.site(RenderDependencies.Site.WEBLOGS)));
+        cache.put("blogA", "blogA", render(() ->
+                RenderDependencies.weblog("a")));
+
+        // an entry in another weblog changes the site-wide entry lists only
+        cache.invalidate(newEntry("b"));
+        assertNull(cache.get("frontpage"));
+        assertEquals("directory", cache.get("directory"));
+        assertEquals("blogA", cache.get("blogA"));
+
+        // a bookmark only affects pages showing that weblog
+        cache.invalidate(newBookmark("a"));
+        assertNull(cache.get("blogA"));
+        assertEquals("directory", cache.get("directory"));
+    }
+
+    @Test
+    public void testSiteWeblogChangeInvalidatesAll() throws Exception {
+        cache.put("page1", "page1", render(() -> { }));
+        cache.put("page2", "page2", render(() ->
+                RenderDependencies.weblog("a")));
+
+        cache.invalidate(newBookmark("site"));
+        assertNull(cache.get("page1"));
+        assertNull(cache.get("page2"));
+    }
+
+    @Test
+    public void testRecordingOnlyWhileStarted() {
+        RenderDependencies.weblog("ignored");
+        RenderDependencies dependencies = RenderDependencies.start("site");
+        RenderDependencies.weblog("a");
+        RenderDependencies.stop();
+        RenderDependencies.weblog("ignored");
+
+        assertEquals(2, dependencies.getKeys().size());
+        assertTrue(dependencies.getKeys().contains(RenderDependencies.weblogKey("a")));
+    }
+
+    // render a page of the "site" weblog, and let time pass so that later
+    // invalidations are distinguishable from the render
+    private static RenderDependencies render(Runnable reads) throws InterruptedException {
+        RenderDependencies dependencies = RenderDependencies.start("site");
+        try {
+            reads.run();
+        } finally {
+            RenderDependencies.stop();
+        }
+        Thread.sleep(5);
+        return dependencies;
+    }
+
+    private static WeblogEntry newEntry(String handle) {
+        WeblogEntry entry = new WeblogEntry();
+        entry.setWebsite(newWeblog(handle));
+        return entry;
+    }
+
+    private static WeblogBookmark newBookmark(String handle) {
+        WeblogBookmarkFolder folder = new WeblogBookmarkFolder();
+        folder.setWeblog(newWeblog(handle));
+        WeblogBookmark bookmark = new WeblogBookmark();
+        bookmark.setFolder(folder);
+        return bookmark;
+    }
+
+    private static Weblog newWeblog(String handle) {
+        Weblog weblog = new Weblog();
+        weblog.setHandle(handle);
+        return weblog;
+    }
+
+}
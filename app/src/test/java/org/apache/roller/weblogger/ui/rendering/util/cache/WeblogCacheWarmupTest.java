@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry.PubStatus;
+import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
+import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
+import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogCacheWarmup.WarmupTask;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test what WeblogCacheWarmup chooses to render.
+ */
+public class WeblogCacheWarmupTest {
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        TestUtils.setupWeblogger();
+    }
+
+    @Test
+    public void testHotPages() {
+
+        // no popular weblogs, two hot pages
+        WeblogCacheWarmup warmup = new WeblogCacheWarmup(true, 0, 7, 0, 2, 1, 0);
+        hit(warmup, "a", 4);
+        hit(warmup, "b", 2);
+        hit(warmup, "c", 1);
+        assertEquals(3, warmup.getStats().get("trackedPages"));
+
+        // the most requested are rendered, the rest make room
+        assertEquals(Arrays.asList("a", "b"), planned(warmup));
+        assertEquals(2, warmup.getStats().get("trackedPages"));
+
+        // a halved to 2, b to 1
+        hit(warmup, "b", 2);
+        assertEquals(Arrays.asList("b", "a"), planned(warmup));
+
+        // old favourites fade out, a page requested since takes over
+        planned(warmup);
+        hit(warmup, "d", 1);
+        assertEquals("d", planned(warmup).get(0));
+    }
+
+    @Test
+    public void testHotPagesBounded() {
+
+        WeblogCacheWarmup warmup = new WeblogCacheWarmup(true, 0, 7, 0, 1, 1, 0);
+        hit(warmup, "a", 1);
+        hit(warmup, "b", 1);
+        hit(warmup, "c", 1);
+        assertEquals(2, warmup.getStats().get("trackedPages"));
+
+        // nor are popups tracked, nor anything when disabled
+        warmup = new WeblogCacheWarmup(true, 0, 7, 0, 1, 1, 0);
+        warmup.recordHit("popup", request(true), pageRequest("blog"), false);
+        assertEquals(0, warmup.getStats().get("trackedPages"));
+        warmup = new WeblogCacheWarmup(false, 0, 7, 0, 1, 1, 0);
+        hit(warmup, "a", 1);
+        assertEquals(0, warmup.getStats().get("trackedPages"));
+    }
+
+    @Test
+    public void testWeblogTasks() throws Exception {
+
+        User user = TestUtils.setupUser("warmupTestUser");
+        Weblog weblog = TestUtils.setupWeblog("warmupTestWeblog", user);
+        try {
+            WeblogCategory category = TestUtils.setupWeblogCategory(weblog, "warmupCategory");
+            TestUtils.setupWeblogEntry("warmupPublished", category, weblog, user);
+            TestUtils.setupWeblogEntry("warmupDraft", category, PubStatus.DRAFT, weblog, user);
+            TestUtils.endSession(true);
+
+            String handle = weblog.getHandle();
+            WeblogCacheWarmup warmup = new WeblogCacheWarmup(true, 0, 7, 5, 0, 1, 0);
+            Map<String, WarmupTask> tasks = warmup.plan(Arrays.asList(handle, "noSuchWeblog"));
+
+            WeblogPageCache pageCache = WeblogPageCache.getInstance();
+            String frontPage = pageCache.generateKey(pageRequest(handle));
+            assertTrue(tasks.containsKey(frontPage));
+            assertTrue(tasks.containsKey(pageCache.generateKey(entryRequest(handle, "warmupPublished"))));
+            assertFalse(tasks.containsKey(pageCache.generateKey(entryRequest(handle, "warmupDraft"))));
+
+            WeblogPageRequest categoryRequest = pageRequest(handle);
+            categoryRequest.setContext("category");
+            categoryRequest.setWeblogCategoryName("warmupCategory");
+            assertTrue(tasks.containsKey(pageCache.generateKey(categoryRequest)));
+
+            for (String format : new String[] {"rss", "atom"}) {
+                WeblogFeedRequest feedRequest = new WeblogFeedRequest();
+                feedRequest.setWeblogHandle(handle);
+                feedRequest.setType("entries");
+                feedRequest.setFormat(format);
+                assertTrue(tasks.containsKey(WeblogFeedCache.getInstance().generateKey(feedRequest)));
+            }
+
+            // pages already cached are skipped
+            CachedContent cached = new CachedContent(0, "text/html");
+            cached.close();
+            pageCache.put(frontPage, cached);
+            try {
+                assertFalse(tasks.get(frontPage).run());
+            } finally {
+                pageCache.remove(frontPage);
+            }
+
+            // as are pages of weblogs which are gone
+            warmup = new WeblogCacheWarmup(true, 0, 7, 0, 1, 1, 0);
+            warmup.recordHit("gone", request(false), pageRequest("noSuchWeblog"), false);
+            assertFalse(warmup.plan(null).get("gone").run());
+
+        } finally {
+            TestUtils.teardownWeblog(weblog.getId());
+            TestUtils.teardownUser(user.getUserName());
+            TestUtils.endSession(true);
+        }
+    }
+
+
+    private List<String> planned(WeblogCacheWarmup warmup) {
+        return new ArrayList<>(warmup.plan(null).keySet());
+    }
+
+    private void hit(WeblogCacheWarmup warmup, String key, int hits) {
+        for (int i = 0; i < hits; i++) {
+            warmup.recordHit(key, request(false), pageRequest("blog"), false);
+        }
+    }
+
+    private static WeblogPageRequest pageRequest(String handle) {
+        WeblogPageRequest pageRequest = new WeblogPageRequest();
+        pageRequest.setWeblogHandle(handle);
+        return pageRequest;
+    }
+
+    private static WeblogPageRequest entryRequest(String handle, String anchor) {
+        WeblogPageRequest pageRequest = pageRequest(handle);
+        pageRequest.setContext("entry");
+        pageRequest.setWeblogAnchor(anchor);
+        return pageRequest;
+    }
+
+    private HttpServletRequest request(boolean popup) {
+        Map<String, String[]> parameters = popup
+                ? Collections.singletonMap("popup", new String[] {"true"}) : new HashMap<>();
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getParameter":
+                            String[] values = parameters.get(args[0]);
+                            return values == null ? null : values[0];
+                        case "getParameterMap":
+                            return parameters;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+}
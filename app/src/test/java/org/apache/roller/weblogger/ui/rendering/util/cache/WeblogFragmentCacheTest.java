@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test WeblogFragmentCache.
+ */
+public class WeblogFragmentCacheTest {
+
+    @Test
+    public void testInvalidateWeblog() throws Exception {
+
+        WeblogFragmentCache cache = WeblogFragmentCache.getInstance();
+
+        String key = cache.generateKey("fragments", "sidebar", "en", "standard", null);
+        String other = cache.generateKey("otherblog", "sidebar", "en", "standard", null);
+        assertNotEquals(key, cache.generateKey("fragments", "sidebar", "en", "standard", "admin"));
+
+        cache.put(key, "<ul>links</ul>", 60);
+        cache.put(other, "<ul>other links</ul>", 60);
+        assertEquals("<ul>links</ul>", cache.get(key));
+
+        // fragments from the same millisecond are not trusted
+        Thread.sleep(5);
+
+        Weblog weblog = new Weblog();
+        weblog.setHandle("fragments");
+        cache.invalidate(weblog);
+
+        assertNull(cache.get(key));
+        assertEquals("<ul>other links</ul>", cache.get(other));
+
+        Thread.sleep(5);
+        cache.put(key, "<ul>new links</ul>", 60);
+        assertEquals("<ul>new links</ul>", cache.get(key));
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+
+        WeblogFragmentCache cache = WeblogFragmentCache.getInstance();
+        String key = cache.generateKey("ttl", "tags", null, "mobile", null);
+
+        cache.put(key, "tags", 0);
+        Thread.sleep(5);
+        assertNull(cache.get(key));
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test background re-rendering of stale pages in WeblogPageCache.
+ */
+public class WeblogPageCacheTest {
+
+    @Test
+    public void testOwnerPagesNotRevalidated() {
+        WeblogPageCache cache = WeblogPageCache.getInstance();
+
+        WeblogPageRequest owner = new WeblogPageRequest();
+        owner.setWeblogHandle("blog");
+        owner.setAuthenticUser("owner");
+        String ownerKey = cache.generateKey(owner);
+
+        // a background render is anonymous, it belongs under another key
+        WeblogPageRequest anonymous = owner.detachedCopy();
+        String anonymousKey = cache.generateKey(anonymous);
+        assertNotEquals(ownerKey, anonymousKey);
+
+        // so the owner's copy is never replaced by one
+        assertFalse(cache.startRevalidation(owner, ownerKey));
+
+        assertTrue(cache.startRevalidation(anonymous, anonymousKey));
+        assertFalse(cache.startRevalidation(anonymous, anonymousKey));
+        cache.endRevalidation(anonymousKey);
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.velocity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.wrapper.WeblogEntryWrapper;
+import org.apache.roller.weblogger.pojos.wrapper.WeblogWrapper;
+import org.apache.roller.weblogger.ui.rendering.util.cache.PersonalFragments;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test recording #personal() blocks as holes and rendering them again.
+ */
+public class PersonalDirectiveTest {
+
+    private VelocityEngine engine;
+
+    @BeforeEach
+    public void setUp() {
+        engine = new VelocityEngine();
+        engine.setProperty("resource.loaders", "string");
+        engine.setProperty("resource.loader.string.class", StringResourceLoader.class.getName());
+        engine.setProperty("runtime.custom_directives", PersonalDirective.class.getName());
+        engine.init();
+    }
+
+    @Test
+    public void testNestedBlocks() throws Exception {
+
+        // like a custom template wrapping #showAuthorMenu() of weblog.vm
+        CachedContent page = render("nested",
+                "#macro(menu)#personal()[menu $user]#end#end"
+                + "<p>#personal()<b>#menu()</b>#end</p>",
+                model("user", "anonymous"));
+
+        assertEquals("<p><b>[menu anonymous]</b></p>", page.getContentAsString());
+        assertEquals(1, page.getHoles().size());
+
+        CachedContent filled = PersonalFragments.fill(page, model("user", "bob"));
+        assertEquals("<p><b>[menu bob]</b></p>", filled.getContentAsString());
+    }
+
+    @Test
+    public void testVariablesCapturedModelsNot() throws Exception {
+
+        Map<String, Object> anonymous = model("user", "anonymous");
+        anonymous.put("items", Arrays.asList("a", "b"));
+        CachedContent page = render("variables",
+                "#set($greeting = 'hi')"
+                + "#foreach($item in $items)#personal()$greeting $item $user.#end#end",
+                anonymous);
+
+        assertEquals("hi a anonymous.hi b anonymous.", page.getContentAsString());
+        assertEquals(2, page.getHoles().size());
+
+        // the loop variable and the #set variable come along, the model
+        // comes from the request filling the holes
+        CachedContent filled = PersonalFragments.fill(page, model("user", "bob"));
+        assertEquals("hi a bob.hi b bob.", filled.getContentAsString());
+
+        filled = PersonalFragments.fill(page, new HashMap<>());
+        assertEquals("hi a $user.hi b $user.", filled.getContentAsString());
+    }
+
+
+    @Test
+    public void testOnlyPlainValuesKept() throws Exception {
+
+        CachedContent page = render("plain",
+                "#set($count = 2)#set($list = [1, 2])#personal()$count $list#end",
+                new HashMap<>());
+        assertEquals("2 [1, 2]", page.getContentAsString());
+
+        CachedContent filled = PersonalFragments.fill(page, new HashMap<>());
+        assertEquals("2 $list", filled.getContentAsString());
+    }
+
+    @Test
+    public void testEntitiesLookedUpAgain() throws Exception {
+
+        TestUtils.setupWeblogger();
+        User user = TestUtils.setupUser("personalTestUser");
+        Weblog weblog = TestUtils.setupWeblog("personalTestWeblog", user);
+        try {
+            WeblogEntry entry = TestUtils.setupWeblogEntry("personalEntry", weblog, user);
+            TestUtils.endSession(true);
+
+            Map<String, Object> model = model("entries", Collections.singletonList(
+                    WeblogEntryWrapper.wrap(entry, WebloggerFactory.getWeblogger().getUrlStrategy())));
+            model.put("weblogs", Collections.singletonList(
+                    WeblogWrapper.wrap(weblog, WebloggerFactory.getWeblogger().getUrlStrategy())));
+            CachedContent page = render("entities",
+                    "#foreach($w in $weblogs)#foreach($e in $entries)"
+                    + "#personal()$w.handle/$e.anchor#end#end#end", model);
+            assertEquals(weblog.getHandle() + "/personalEntry", page.getContentAsString());
+
+            // filled by another request, in a session of its own, which
+            // doesn't see what the first one did to its objects
+            TestUtils.endSession(true);
+            entry.setAnchor("changedByFirstRequest");
+            CachedContent filled = PersonalFragments.fill(page, new HashMap<>());
+            assertEquals(weblog.getHandle() + "/personalEntry", filled.getContentAsString());
+
+        } finally {
+            TestUtils.teardownWeblog(weblog.getId());
+            TestUtils.teardownUser(user.getUserName());
+            TestUtils.endSession(true);
+        }
+    }
+
+
+    private CachedContent render(String name, String template, Map<String, Object> model)
+            throws Exception {
+
+        StringResourceLoader.getRepository().putStringResource(name, template);
+        CachedContent page = new CachedContent(0, "text/html");
+        PersonalFragments.start(page);
+        try {
+            engine.getTemplate(name).merge(new ModelContext(model), page.getCachedWriter());
+        } finally {
+            PersonalFragments.stop();
+        }
+        page.close();
+        return page;
+    }
+
+    private static Map<String, Object> model(String key, Object value) {
+        Map<String, Object> model = new HashMap<>();
+        model.put(key, value);
+        return model;
+    }
+
+}
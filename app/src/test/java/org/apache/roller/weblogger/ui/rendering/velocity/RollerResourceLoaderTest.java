@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.velocity;
+
+import org.apache.velocity.Template;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test when RollerResourceLoader sees custom templates as modified.
+ */
+public class RollerResourceLoaderTest {
+
+    @Test
+    public void testSourceModified() {
+
+        RollerResourceLoader loader = new RollerResourceLoader();
+
+        Template template = new Template();
+        template.setName("template1|standard");
+        template.setLastModified(RollerResourceLoader.getVersion("template1"));
+        assertFalse(loader.isSourceModified(template));
+
+        RollerResourceLoader.invalidate("template2");
+        assertFalse(loader.isSourceModified(template));
+
+        RollerResourceLoader.invalidate("template1");
+        assertTrue(loader.isSourceModified(template));
+
+        template.setLastModified(RollerResourceLoader.getVersion("template1"));
+        assertFalse(loader.isSourceModified(template));
+
+        RollerResourceLoader.invalidateAll();
+        assertTrue(loader.isSourceModified(template));
+    }
+
+}
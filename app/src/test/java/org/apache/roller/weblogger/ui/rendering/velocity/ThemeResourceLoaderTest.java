@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.velocity;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.util.stream.Collectors;
+import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.pojos.TemplateRendition.RenditionType;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test content addressed names of shared theme templates.
+ */
+public class ThemeResourceLoaderTest {
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        TestUtils.setupWeblogger();
+        WebloggerFactory.getWeblogger().getThemeManager().initialize();
+    }
+
+    @Test
+    public void testSharedKey() throws Exception {
+
+        String key = ThemeResourceLoader.getSharedKey("basic:_day", RenditionType.STANDARD);
+        assertNotNull(key);
+        assertTrue(key.startsWith(ThemeResourceLoader.SHARED_PREFIX));
+        assertEquals(key, ThemeResourceLoader.getSharedKey("basic:_day", RenditionType.STANDARD));
+
+        // identical sources in different themes, or a missing rendition
+        // falling back to the standard one, share the compiled template
+        assertEquals(key, ThemeResourceLoader.getSharedKey("basicmobile:_day", RenditionType.STANDARD));
+        assertEquals(key, ThemeResourceLoader.getSharedKey("basic:_day", RenditionType.MOBILE));
+        assertNotEquals(key, ThemeResourceLoader.getSharedKey("basicmobile:_day", RenditionType.MOBILE));
+
+        assertNull(ThemeResourceLoader.getSharedKey("basic:nosuchtemplate", RenditionType.STANDARD));
+
+        // and the loader serves the source under its new name
+        String plain;
+        String shared;
+        ThemeResourceLoader loader = new ThemeResourceLoader();
+        try (Reader reader = loader.getResourceReader("basic:_day|standard", "UTF-8")) {
+            plain = new BufferedReader(reader).lines().collect(Collectors.joining("\n"));
+        }
+        try (Reader reader = loader.getResourceReader(key + "|standard", "UTF-8")) {
+            shared = new BufferedReader(reader).lines().collect(Collectors.joining("\n"));
+        }
+        assertEquals(plain, shared);
+    }
+
+    @Test
+    public void testReloadedSourcesAreDropped() throws Exception {
+
+        String oldKey = ThemeResourceLoader.share("a:_day|STANDARD", "old source");
+        assertEquals(oldKey, ThemeResourceLoader.share("b:_day|STANDARD", "old source"));
+
+        // still used by b after a is reloaded
+        String newKey = ThemeResourceLoader.share("a:_day|STANDARD", "new source");
+        assertNotEquals(oldKey, newKey);
+        ThemeResourceLoader loader = new ThemeResourceLoader();
+        loader.getResourceReader(oldKey, "UTF-8").close();
+
+        // and gone once nothing uses it
+        ThemeResourceLoader.share("b:_day|STANDARD", "new source");
+        assertThrows(ResourceNotFoundException.class,
+                () -> loader.getResourceReader(oldKey, "UTF-8"));
+        loader.getResourceReader(newKey, "UTF-8").close();
+    }
+
+    @Test
+    public void testOnlySharedPrefixIsContentAddressed() throws Exception {
+
+        String key = ThemeResourceLoader.getSharedKey("basic:_day", RenditionType.STANDARD);
+        String hash = key.substring(ThemeResourceLoader.SHARED_PREFIX.length());
+
+        // any other name with a colon is a theme template name
+        ThemeResourceLoader loader = new ThemeResourceLoader();
+        assertThrows(ResourceNotFoundException.class,
+                () -> loader.getResourceReader("nosuchtheme:" + hash, "UTF-8"));
+        assertThrows(ResourceNotFoundException.class,
+                () -> loader.getResourceReader(ThemeResourceLoader.SHARED_PREFIX + "nosuchhash", "UTF-8"));
+    }
+
+}
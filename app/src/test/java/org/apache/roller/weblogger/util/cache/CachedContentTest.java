@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test CachedContent.
+ */
+public class CachedContentTest {
+
+    @Test
+    public void testMoveOffHeap() throws Exception {
+        CachedContent content = new CachedContent(0, "text/html");
+        content.getCachedWriter().print("hello off-heap world");
+
+        assertThrows(IllegalStateException.class, content::moveOffHeap);
+
+        content.close();
+        content.moveOffHeap();
+        assertTrue(content.isOffHeap());
+        assertEquals(20, content.getContentLength());
+        assertEquals("hello off-heap world", content.getContentAsString());
+
+        // content can be written more than once
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            content.writeTo(out);
+            assertEquals("hello off-heap world", out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testETag() throws Exception {
+        CachedContent first = new CachedContent(0);
+        first.getCachedWriter().print("<p>same</p>");
+        assertThrows(IllegalStateException.class, first::getETag);
+        first.close();
+
+        CachedContent same = new CachedContent(0);
+        same.getCachedWriter().print("<p>same</p>");
+        same.close();
+
+        CachedContent other = new CachedContent(0);
+        other.getCachedWriter().print("<p>other</p>");
+        other.close();
+
+        assertTrue(first.getETag().startsWith("\""));
+        assertEquals(first.getETag(), same.getETag());
+        assertNotEquals(first.getETag(), other.getETag());
+
+        // tag of content loaded from elsewhere is computed on demand
+        CachedContent loaded = new CachedContent(
+                ByteBuffer.wrap(first.getContent()), null);
+        assertEquals(first.getETag(), loaded.getETag());
+    }
+
+    @Test
+    public void testGzipContent() throws Exception {
+        CachedContent content = new CachedContent(0, "text/html");
+        String page = "<p>compress me</p>".repeat(100);
+        content.getCachedWriter().print(page);
+        content.close();
+
+        ByteBuffer gzip = content.getGzipContent();
+        assertNotNull(gzip);
+        assertTrue(gzip.remaining() < content.getContentLength());
+        assertEquals(gzip.remaining(), content.getGzipContentLength());
+
+        // the compressed copy moves off-heap along with the content
+        content.moveOffHeap();
+        assertEquals(page, gunzip(content.getGzipContent()));
+
+        // content which doesn't shrink has no compressed copy
+        CachedContent tiny = new CachedContent(0);
+        tiny.getCachedWriter().print("x");
+        tiny.close();
+        assertNull(tiny.getGzipContent());
+    }
+
+    private static String gunzip(ByteBuffer gzip) throws Exception {
+        byte[] bytes = new byte[gzip.remaining()];
+        gzip.get(bytes);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(in.readAllBytes(), "UTF-8");
+        }
+    }
+
+    @Test
+    public void testOffHeapCache() throws Exception {
+        OffHeapCacheImpl cache = new OffHeapCacheImpl("test", 100, 0,
+                new CachedContentWeigher(), 1024 * 1024);
+
+        CachedContent content = new CachedContent(0);
+        content.getCachedWriter().print("cached");
+        content.close();
+        cache.put("key1", new LazyExpiringCacheEntry(content));
+
+        assertTrue(content.isOffHeap());
+        assertNotNull(cache.getStats().get("offHeapBytes"));
+        LazyExpiringCacheEntry entry = (LazyExpiringCacheEntry) cache.get("key1");
+        assertEquals("cached", ((CachedContent) entry.getValue(0)).getContentAsString());
+    }
+
+    @Test
+    public void testStreamTo() throws Exception {
+
+        // small content is only buffered
+        ByteArrayOutputStream small = new ByteArrayOutputStream();
+        CachedContent content = new CachedContent(0, "text/html");
+        content.streamTo(() -> small, 10);
+        content.getCachedWriter().print("short");
+        content.close();
+        assertFalse(content.isStreamed());
+        assertEquals(0, small.size());
+
+        // larger content is sent as it is written, and also kept
+        ByteArrayOutputStream large = new ByteArrayOutputStream();
+        content = new CachedContent(0, "text/html");
+        content.streamTo(() -> large, 10);
+        content.getCachedWriter().print("a good deal longer than ten bytes");
+        content.getCachedWriter().flush();
+        assertTrue(content.isStreamed());
+        assertEquals("a good deal longer than ten bytes", large.toString("UTF-8"));
+
+        content.getCachedWriter().print(", and more");
+        content.close();
+        assertTrue(content.isStreamed());
+        assertEquals("a good deal longer than ten bytes, and more", large.toString("UTF-8"));
+        assertEquals(large.toString("UTF-8"), content.getContentAsString());
+    }
+
+
+    @Test
+    public void testFillHoles() throws Exception {
+        CachedContent content = new CachedContent(0, "text/html");
+        PrintWriter writer = content.getCachedWriter();
+        writer.print("<p>caf\u00e9 ");
+        int start = content.mark();
+        writer.print("<a>login</a>");
+        content.addHole(start, content.mark(), "menu");
+        writer.print(" body ");
+        start = content.mark();
+        writer.print("<a>no edit</a>");
+        content.addHole(start, content.mark(), "edit");
+        writer.print("</p>");
+        content.close();
+
+        assertEquals(2, content.getHoles().size());
+        assertEquals("menu", content.getHoles().get(0).getFragment());
+
+        // a hole filled with null stays as it was
+        CachedContent filled = content.fillHoles(
+                hole -> "menu".equals(hole.getFragment()) ? "<a>logout</a>" : null);
+        assertEquals("<p>caf\u00e9 <a>logout</a> body <a>no edit</a></p>",
+                filled.getContentAsString());
+        assertTrue(filled.getHoles().isEmpty());
+        assertEquals("text/html", filled.getContentType());
+
+        // also straight from off-heap memory
+        content.moveOffHeap();
+        filled = content.fillHoles(hole -> "[" + hole.getFragment() + "]");
+        assertEquals("<p>caf\u00e9 [menu] body [edit]</p>", filled.getContentAsString());
+
+        assertThrows(IllegalArgumentException.class, () -> content.addHole(0, 1, "overlap"));
+    }
+
+}
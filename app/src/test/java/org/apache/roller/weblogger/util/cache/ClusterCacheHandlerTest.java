@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test ClusterCacheHandler batching and the InvalidationEvent wire format.
+ */
+public class ClusterCacheHandlerTest {
+
+    @Test
+    public void testBatchesAreCoalesced() {
+        RecordingTransport transport = new RecordingTransport();
+        ClusterCacheHandler handler = new ClusterCacheHandler(transport, 60000, 100);
+
+        // nothing talks to the cluster before Roller is bootstrapped
+        assertFalse(transport.initialized);
+        handler.start();
+        assertTrue(transport.initialized);
+
+        Weblog weblog = new Weblog();
+        weblog.setId("weblog1");
+        WeblogEntry entry = new WeblogEntry();
+        entry.setId("entry1");
+        entry.setWebsite(weblog);
+
+        handler.invalidate(entry);
+        handler.invalidate(weblog);
+        handler.invalidate(entry);
+        handler.shutdown();
+
+        assertEquals(1, transport.batches.size());
+        List<InvalidationEvent> batch = transport.batches.get(0);
+        assertEquals(2, batch.size());
+        assertEquals(InvalidationEvent.Type.ENTRY, batch.get(0).getType());
+        assertEquals("weblog1", batch.get(0).getWeblogId());
+        assertEquals(InvalidationEvent.Type.WEBLOG, batch.get(1).getType());
+    }
+
+    @Test
+    public void testLargeBatchBecomesFlush() {
+        RecordingTransport transport = new RecordingTransport();
+        ClusterCacheHandler handler = new ClusterCacheHandler(transport, 60000, 10);
+        handler.start();
+
+        for (int i = 0; i < 20; i++) {
+            Weblog weblog = new Weblog();
+            weblog.setId("weblog" + i);
+            handler.invalidate(weblog);
+        }
+        handler.shutdown();
+
+        assertEquals(1, transport.batches.size());
+        assertEquals(List.of(new InvalidationEvent(InvalidationEvent.Type.ALL, null, null)),
+                transport.batches.get(0));
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        List<InvalidationEvent> events = List.of(
+                new InvalidationEvent(InvalidationEvent.Type.COMMENT, "c1", "w1"),
+                new InvalidationEvent(InvalidationEvent.Type.USER, "u1", null));
+
+        List<InvalidationEvent> decoded = InvalidationEvent.decode(
+                InvalidationEvent.encode(events) + "BOGUS x y\ngarbage\n");
+
+        assertEquals(events, decoded);
+        assertEquals("w1", decoded.get(0).getWeblogId());
+        assertNull(decoded.get(1).getWeblogId());
+    }
+
+    private static class RecordingTransport implements InvalidationTransport {
+        private final List<List<InvalidationEvent>> batches = new ArrayList<>();
+        private boolean initialized = false;
+
+        @Override
+        public void init(String nodeId, Consumer<List<InvalidationEvent>> receiver) {
+            initialized = true;
+        }
+
+        @Override
+        public void publish(List<InvalidationEvent> events) {
+            batches.add(events);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test DiskCacheTier.
+ */
+public class DiskCacheTierTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("diskcache").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (var paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        DiskCacheTier tier = new DiskCacheTier(dir, 1024 * 1024, 64 * 1024, 0);
+        LazyExpiringCacheEntry entry = newEntry("page one", 1000);
+        tier.put("key1", entry);
+        tier.put("key2", newEntry("page two", 1000));
+        tier.remove("key2");
+        tier.close();
+
+        tier = new DiskCacheTier(dir, 1024 * 1024, 64 * 1024, 0);
+        LazyExpiringCacheEntry loaded = tier.get("key1");
+        assertNotNull(loaded);
+        assertNull(tier.get("key2"));
+
+        // last-modified checks still apply
+        assertEquals(entry.getTimeCached(), loaded.getTimeCached());
+        assertNull(loaded.getValue(entry.getTimeCached() + 1));
+        CachedContent content = (CachedContent) loaded.getValue(0);
+        assertEquals("page one", content.getContentAsString());
+        assertEquals("text/html", content.getContentType());
+        tier.close();
+    }
+
+    @Test
+    public void testDamagedSegment() throws Exception {
+        DiskCacheTier tier = new DiskCacheTier(dir, 1024 * 1024, 64 * 1024, 0);
+        tier.put("key1", newEntry("page one", 100));
+        tier.put("key2", newEntry("page two", 100));
+        long bytes = tier.getBytes();
+        tier.close();
+
+        // chop the last record in half
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, "0.seg"), "rw")) {
+            file.setLength(bytes - 4);
+        }
+
+        tier = new DiskCacheTier(dir, 1024 * 1024, 64 * 1024, 0);
+        assertNotNull(tier.get("key1"));
+        assertNull(tier.get("key2"));
+
+        // appending continues after the last good record
+        tier.put("key3", newEntry("page three", 100));
+        assertEquals("page three", ((CachedContent) tier.get("key3").getValue(0)).getContentAsString());
+        tier.close();
+    }
+
+    @Test
+    public void testOldestSegmentsDropped() throws Exception {
+        DiskCacheTier tier = new DiskCacheTier(dir, 16 * 1024, 4 * 1024, 0);
+        for (int i = 0; i < 100; i++) {
+            tier.put("key" + i, newEntry("x".repeat(1000), 100));
+        }
+
+        assertTrue(tier.getBytes() <= 16 * 1024);
+        assertNull(tier.get("key0"));
+        assertNotNull(tier.get("key99"));
+        tier.close();
+    }
+
+    private static LazyExpiringCacheEntry newEntry(String text, int size) throws Exception {
+        CachedContent content = new CachedContent(size, "text/html");
+        content.getCachedWriter().print(text);
+        content.close();
+        return new LazyExpiringCacheEntry(content);
+    }
+
+}
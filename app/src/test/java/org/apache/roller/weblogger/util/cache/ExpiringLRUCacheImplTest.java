@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the byte bound of ExpiringLRUCacheImpl, which the page and feed
+ * caches use by default.
+ */
+public class ExpiringLRUCacheImplTest {
+
+    // weighs each key by whatever the test says it weighs right now
+    private final Map<String, Integer> weights = new HashMap<>();
+    private final Weigher weigher = (key, value) -> weights.get(key);
+
+    private ExpiringLRUCacheImpl newCache(long maxBytes) {
+        return new ExpiringLRUCacheImpl("test", 100, 0, weigher, maxBytes);
+    }
+
+    private void put(Cache cache, String key, int weight) {
+        weights.put(key, weight);
+        cache.put(key, "value of " + key);
+    }
+
+    private static long bytes(Cache cache) {
+        return (Long) cache.getStats().get("bytes");
+    }
+
+    @Test
+    public void testPutReplaceRemove() {
+        ExpiringLRUCacheImpl cache = newCache(1000);
+
+        put(cache, "a", 100);
+        put(cache, "b", 200);
+        assertEquals(300, bytes(cache));
+        assertEquals(1000L, cache.getStats().get("maxBytes"));
+
+        // a replaced entry gives back its own weight
+        put(cache, "a", 50);
+        assertEquals(250, bytes(cache));
+        assertEquals("value of a", cache.get("a"));
+
+        cache.remove("b");
+        assertEquals(50, bytes(cache));
+        cache.remove("b");
+        cache.remove("nosuchkey");
+        assertEquals(50, bytes(cache));
+
+        cache.clear();
+        assertEquals(0, bytes(cache));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testTrimLeastRecentlyUsed() {
+        ExpiringLRUCacheImpl cache = newCache(1000);
+        List<String> evicted = new ArrayList<>();
+        cache.setEvictionListener((key, value) -> evicted.add(key));
+
+        put(cache, "a", 400);
+        put(cache, "b", 400);
+        cache.get("a");
+
+        // b is the least recently used
+        put(cache, "c", 400);
+        assertEquals(List.of("b"), evicted);
+        assertEquals(800, bytes(cache));
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+
+        // as many as it takes to fit
+        put(cache, "d", 900);
+        assertEquals(List.of("b", "a", "c"), evicted);
+        assertEquals(900, bytes(cache));
+    }
+
+    @Test
+    public void testWeightChangedWhileCached() {
+        ExpiringLRUCacheImpl cache = newCache(1000);
+
+        put(cache, "a", 100);
+        put(cache, "b", 100);
+
+        // like cached content getting its gzip copy after it was cached
+        weights.put("a", 500);
+        weights.put("b", 500);
+        cache.remove("a");
+        assertEquals(100, bytes(cache));
+
+        put(cache, "c", 950);
+        assertEquals(950, bytes(cache));
+        assertNull(cache.get("b"));
+
+        cache.remove("c");
+        assertEquals(0, bytes(cache));
+    }
+
+    @Test
+    public void testFactoryMaxBytes() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("id", "test");
+        properties.put("size", "100");
+        properties.put("timeout", "60");
+        properties.put("maxBytes", "100000");
+        Cache cache = new ExpiringLRUCacheFactoryImpl().constructCache(properties);
+
+        CachedContent content = new CachedContent(0, "text/html");
+        content.getCachedWriter().print("<p>cached</p>");
+        content.close();
+        cache.put("page", content);
+
+        assertEquals(100000L, cache.getStats().get("maxBytes"));
+        assertTrue(bytes(cache) >= content.getContentLength());
+        cache.remove("page");
+        assertEquals(0, bytes(cache));
+    }
+
+}
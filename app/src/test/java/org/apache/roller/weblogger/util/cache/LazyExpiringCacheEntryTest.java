@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test LazyExpiringCacheEntry expiry, with and without a stale window.
+ */
+public class LazyExpiringCacheEntryTest {
+
+    @Test
+    public void testStaleWindow() {
+        long now = System.currentTimeMillis();
+        LazyExpiringCacheEntry entry = new LazyExpiringCacheEntry("page", now - 60000);
+
+        // fresh
+        assertEquals("page", entry.getValue(now - 120000));
+        assertEquals("page", entry.getValue(now - 120000, 0));
+
+        // invalidated 30 seconds ago
+        long invalidated = now - 30000;
+        assertNull(entry.getValue(invalidated));
+        assertNull(entry.getValue(invalidated, 10000));
+        assertEquals("page", entry.getValue(invalidated, 60000));
+    }
+
+}
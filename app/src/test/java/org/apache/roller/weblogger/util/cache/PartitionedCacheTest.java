@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test PartitionedCache.
+ */
+public class PartitionedCacheTest {
+
+    private static PartitionedCache newCache(int overflowSize, int partitionSize) {
+        return new PartitionedCache(new LRUCacheImpl("test", overflowSize),
+                partitionSize, 0, 100, new CachedContentWeigher(), 0);
+    }
+
+    @Test
+    public void testPartitionOf() {
+        assertEquals("blog", PartitionedCache.partitionOf("cache.weblogpage:blog/entry/x"));
+        assertEquals("blog", PartitionedCache.partitionOf("cache.weblogpage:blog"));
+    }
+
+    @Test
+    public void testBusyWeblogKeepsOthers() {
+        PartitionedCache cache = newCache(10, 5);
+
+        cache.put("page:quiet/", "front page");
+
+        // far more pages than the whole overflow holds
+        for (int i = 0; i < 100; i++) {
+            cache.put("page:viral/page=" + i, "page " + i);
+        }
+
+        assertEquals("front page", cache.get("page:quiet/"));
+        assertEquals("page 99", cache.get("page:viral/page=99"));
+
+        // pushed out of the partition into the overflow
+        assertEquals("page 90", cache.get("page:viral/page=90"));
+
+        // and then out of the overflow
+        assertNull(cache.get("page:viral/page=0"));
+    }
+
+    @Test
+    public void testPutRemoveClear() {
+        PartitionedCache cache = newCache(10, 1);
+
+        cache.put("page:blog/1", "one");
+        cache.put("page:blog/2", "two");
+        cache.put("page:blog/1", "one again");
+        assertEquals("one again", cache.get("page:blog/1"));
+        assertEquals("two", cache.get("page:blog/2"));
+
+        cache.remove("page:blog/2");
+        assertNull(cache.get("page:blog/2"));
+
+        cache.clear();
+        assertNull(cache.get("page:blog/1"));
+    }
+
+    @Test
+    public void testLookupsDontCreatePartitions() {
+        PartitionedCache cache = new PartitionedCache(new LRUCacheImpl("test", 10),
+                5, 0, 2, new CachedContentWeigher(), 0);
+
+        cache.put("page:a/1", "one");
+        cache.put("page:b/1", "two");
+
+        // unknown weblogs must not push out the partitions of real ones
+        for (int i = 0; i < 10; i++) {
+            assertNull(cache.get("page:nosuchblog" + i + "/1"));
+            cache.remove("page:gone" + i + "/1");
+        }
+
+        assertEquals(2, cache.getPartitionStats().size());
+        assertEquals("one", cache.get("page:a/1"));
+        assertEquals(0L, cache.getPartitionStats().get("a").get("overflowHits"));
+        assertEquals(10.0, cache.getStats().get("misses"));
+    }
+
+    @Test
+    public void testPartitionStats() {
+        PartitionedCache cache = newCache(10, 1);
+
+        cache.put("page:blog/1", "one");
+        cache.put("page:blog/2", "two");
+        cache.get("page:blog/1");
+        cache.get("page:blog/2");
+        cache.get("page:blog/3");
+
+        Map<String, Object> stats = cache.getPartitionStats().get("blog");
+        assertEquals(2L, stats.get("hits"));
+        assertEquals(1L, stats.get("misses"));
+        assertEquals(1L, stats.get("overflowHits"));
+        assertEquals(1, stats.get("entries"));
+
+        assertEquals(2.0, cache.getStats().get("hits"));
+    }
+
+    @Test
+    public void testWeightGainedWhileCached() throws Exception {
+        PartitionedCache cache = newCache(10, 5);
+
+        CachedContent content = new CachedContent(0, "text/html");
+        content.getCachedWriter().print("<p>" + "compressible ".repeat(500) + "</p>");
+        content.close();
+        cache.put("page:blog/", content);
+        long cached = (Long) cache.getStats().get("partitionBytes");
+
+        // the gzip copy made while cached must not be taken off on the way out
+        assertNotNull(content.getGzipContent());
+        cache.remove("page:blog/");
+        assertEquals(0L, cache.getStats().get("partitionBytes"));
+
+        cache.put("page:blog/", content);
+        assertTrue((Long) cache.getStats().get("partitionBytes") > cached);
+    }
+
+}
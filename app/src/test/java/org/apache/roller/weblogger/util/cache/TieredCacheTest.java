@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test TieredCache.
+ */
+public class TieredCacheTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tieredcache").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (var paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testSpillOnEviction() throws Exception {
+        DiskCacheTier disk = new DiskCacheTier(dir, 1024 * 1024, 64 * 1024, 0);
+        TieredCache cache = new TieredCache(new LRUCacheImpl("test", 1), disk);
+
+        cache.put("key1", newEntry("page one"));
+        cache.flush();
+        assertEquals(0, disk.getEntries());
+
+        // pushes key1 out of memory and onto disk
+        cache.put("key2", newEntry("page two"));
+        cache.flush();
+        assertNotNull(disk.get("key1"));
+        assertNull(disk.get("key2"));
+
+        LazyExpiringCacheEntry promoted = (LazyExpiringCacheEntry) cache.get("key1");
+        assertEquals("page one", ((CachedContent) promoted.getValue(0)).getContentAsString());
+        cache.close();
+    }
+
+    @Test
+    public void testRemoveStaysRemoved() throws Exception {
+        DiskCacheTier disk = new DiskCacheTier(dir, 1024 * 1024, 64 * 1024, 0);
+        TieredCache cache = new TieredCache(new LRUCacheImpl("test", 1), disk);
+        cache.put("key1", newEntry("page one"));
+        cache.put("key2", newEntry("page two"));
+        cache.flush();
+
+        // gone right away, before the removal is written
+        cache.remove("key1");
+        assertNull(cache.get("key1"));
+        cache.close();
+
+        disk = new DiskCacheTier(dir, 1024 * 1024, 64 * 1024, 0);
+        assertNull(disk.get("key1"));
+        disk.close();
+    }
+
+    private static LazyExpiringCacheEntry newEntry(String text) throws Exception {
+        CachedContent content = new CachedContent(100, "text/html");
+        content.getCachedWriter().print(text);
+        content.close();
+        return new LazyExpiringCacheEntry(content);
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test TinyLFUCacheImpl.
+ */
+public class TinyLFUCacheImplTest {
+
+    @Test
+    public void testPutGetRemove() {
+        TinyLFUCacheImpl cache = new TinyLFUCacheImpl("test", 100, 0);
+
+        cache.put("key1", "string1");
+        cache.put("key2", "string2");
+        assertEquals("string1", cache.get("key1"));
+        assertEquals("string2", cache.get("key2"));
+        assertNull(cache.get("key3"));
+
+        cache.put("key1", "string1b");
+        assertEquals("string1b", cache.get("key1"));
+
+        cache.remove("key1");
+        assertNull(cache.get("key1"));
+
+        cache.clear();
+        assertNull(cache.get("key2"));
+    }
+
+    @Test
+    public void testBoundedSize() {
+        TinyLFUCacheImpl cache = new TinyLFUCacheImpl("test", 50, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "string" + i);
+        }
+
+        assertTrue((Integer) cache.getStats().get("size") <= 50);
+    }
+
+    @Test
+    public void testFrequentKeysSurviveScan() {
+        TinyLFUCacheImpl cache = new TinyLFUCacheImpl("test", 100, 0);
+
+        // make a set of popular keys
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, "string" + i);
+        }
+        for (int n = 0; n < 20; n++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get("hot" + i);
+            }
+        }
+
+        // a scan of one-hit wonders should not push them out
+        for (int i = 0; i < 1000; i++) {
+            cache.put("cold" + i, "string" + i);
+        }
+
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != null) {
+                survivors++;
+            }
+        }
+        assertTrue(survivors >= 45, "only " + survivors + " hot keys survived");
+    }
+
+    @Test
+    public void testWeighedBounds() throws Exception {
+        // 10 KB budget
+        TinyLFUCacheImpl cache = new TinyLFUCacheImpl("test", 100, 0,
+                new CachedContentWeigher(), 10 * 1024);
+
+        for (int i = 0; i < 100; i++) {
+            CachedContent content = new CachedContent(1024);
+            content.getCachedWriter().print("x".repeat(1000));
+            content.close();
+            cache.put("key" + i, new LazyExpiringCacheEntry(content));
+        }
+
+        Map<String, Object> stats = cache.getStats();
+        long bytes = (Long) stats.get("bytes");
+        assertTrue(bytes <= 10 * 1024, "cache holds " + bytes + " bytes");
+        assertTrue((Integer) stats.get("size") < 10);
+
+        // one oversized entry can't stay
+        CachedContent huge = new CachedContent(32 * 1024);
+        huge.getCachedWriter().print("x".repeat(20 * 1024));
+        huge.close();
+        cache.put("huge", huge);
+        assertNull(cache.get("huge"));
+    }
+
+    @Test
+    public void testTimeout() {
+        TestCache cache = new TestCache(100, 15);
+
+        cache.time = 1000;
+        cache.put("key1", "string1");
+        assertNotNull(cache.get("key1"));
+
+        cache.time = 15000;
+        assertNotNull(cache.get("key1"));
+
+        cache.time = 16001;
+        assertNull(cache.get("key1"));
+    }
+
+    @Test
+    public void testStats() {
+        TinyLFUCacheImpl cache = new TinyLFUCacheImpl("test", 100, 0);
+
+        cache.put("key1", "string1");
+        cache.get("key1");
+        cache.get("key2");
+
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(1.0, stats.get("hits"));
+        assertEquals(1.0, stats.get("misses"));
+        assertEquals(1.0, stats.get("puts"));
+        assertNotNull(stats.get("startTime"));
+    }
+
+    private static class TestCache extends TinyLFUCacheImpl {
+        long time = 0;
+
+        TestCache(int maxsize, long timeout) {
+            super("test", maxsize, timeout);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+
+}